@@ -24,6 +24,13 @@ varying float v_opacity;
 varying MED vec2 v_diffuseUV;
 uniform sampler2D u_diffuseTexture;
 
+#ifdef feature_greedy
+// merged quads repeat the texture region once per block, other faces are drawn without feature_greedy
+uniform vec4 u_diffuseUVTransform;
+varying vec4 v_region;
+varying MED vec2 v_tileUV;
+#endif
+
 #ifdef feature_ao
 varying MED vec2 v_aoUV;
 uniform sampler2D u_aoTexture;
@@ -49,7 +56,12 @@ vec4 add_fog(vec4 fragColour) {
 
 void main() {
     vec3 normal = v_normal;
+    #ifdef feature_greedy
+    vec2 diffuseUV = u_diffuseUVTransform.xy + (v_region.xy + fract(v_tileUV) * v_region.zw) * u_diffuseUVTransform.zw;
+    vec4 diffuse = texture2D(u_diffuseTexture, diffuseUV);
+    #else
     vec4 diffuse = texture2D(u_diffuseTexture, v_diffuseUV);
+    #endif
 
     #ifdef feature_ao
 	vec4 ao = texture2D(u_aoTexture, v_aoUV);
@@ -37,6 +37,12 @@ uniform vec3 u_cameraposition;
 varying float v_distance;
 #endif
 
+#ifdef feature_greedy
+attribute vec4 a_region;
+varying vec4 v_region;
+varying vec2 v_tileUV;
+#endif
+
 #ifdef feature_ao
 attribute vec2 a_ao_texCoord;
 uniform vec4 u_aoUVTransform;
@@ -45,9 +51,23 @@ varying vec2 v_aoUV;
 
 void main() {
     v_diffuseUV = u_diffuseUVTransform.xy + a_texCoord0 * u_diffuseUVTransform.zw;
+    #ifdef feature_greedy
+    v_region = a_region;
+    #ifdef feature_packed
+    // normalized, the blocks across merged quads are divided by 32
+    v_tileUV = a_texCoord0 * 32.0;
+    #else
+    v_tileUV = a_texCoord0;
+    #endif
+    #endif
     #ifdef feature_ao
+    #ifdef feature_packed
+    // bytes, in 1/16ths of the ao texture
+    v_aoUV = u_aoUVTransform.xy + (a_ao_texCoord / 16.0) * u_aoUVTransform.zw;
+    #else
     v_aoUV = u_aoUVTransform.xy + a_ao_texCoord * u_aoUVTransform.zw;
     #endif
+    #endif
 
     v_opacity = u_opacity;
 
@@ -45,7 +45,7 @@ public abstract class BlockData implements DataParser {
     if (Side.isClient()) {
       NetworkingManager.sendPacketToServer(packet);
     } else {
-      NetworkingManager.sendPacketToAllClients(packet);
+      NetworkingManager.sendPacketToClientsInRange(packet, area.areaX, area.areaZ, null);
     }
   }
 
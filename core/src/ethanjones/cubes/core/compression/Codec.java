@@ -0,0 +1,110 @@
+package ethanjones.cubes.core.compression;
+
+import ethanjones.cubes.core.settings.Setting;
+import ethanjones.cubes.core.settings.Settings;
+import ethanjones.cubes.core.settings.type.DropDownSetting;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+// A compression format, identified by an id which is stored with compressed data so it can always be read back
+// Codecs are stateless and can be used from any thread
+public abstract class Codec {
+  private static final Codec[] byId = new Codec[8];
+
+  public static final Codec NONE = register(new NoneCodec(0, "none"));
+  public static final Codec DEFLATE = register(new DeflateCodec(1, "deflate", Deflater.DEFAULT_COMPRESSION));
+  public static final Codec DEFLATE_FAST = register(new DeflateCodec(2, "deflate_fast", Deflater.BEST_SPEED));
+  public static final Codec DEFLATE_BEST = register(new DeflateCodec(3, "deflate_best", Deflater.BEST_COMPRESSION));
+  public static final Codec LZ4 = register(new LZ4Codec(4, "lz4"));
+
+  public final byte id;
+  public final String name;
+
+  protected Codec(int id, String name) {
+    this.id = (byte) id;
+    this.name = name;
+  }
+
+  // appends the compressed bytes to out
+  public abstract void compress(byte[] in, int offset, int length, DirectByteArrayOutputStream out);
+
+  // appends the decompressed bytes to out
+  public void decompress(byte[] in, int offset, int length, DirectByteArrayOutputStream out) throws IOException {
+    decompress(in, offset, length, out, Integer.MAX_VALUE);
+  }
+
+  // appends the decompressed bytes to out, throws an IOException instead of decompressing more than maxLength bytes
+  public abstract void decompress(byte[] in, int offset, int length, DirectByteArrayOutputStream out, int maxLength) throws IOException;
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private static Codec register(Codec codec) {
+    if (byId[codec.id] != null) throw new IllegalStateException("Duplicate codec id " + codec.id);
+    byId[codec.id] = codec;
+    return codec;
+  }
+
+  public static Codec get(int id) throws IOException {
+    Codec codec = id >= 0 && id < byId.length ? byId[id] : null;
+    if (codec == null) throw new IOException("Unknown codec " + id);
+    return codec;
+  }
+
+  // returns null if there is no codec with the name
+  public static Codec get(String name) {
+    for (Codec codec : byId) {
+      if (codec != null && codec.name.equals(name)) return codec;
+    }
+    return null;
+  }
+
+  public static String[] names() {
+    int count = 0;
+    for (Codec codec : byId) {
+      if (codec != null) count++;
+    }
+    String[] names = new String[count];
+    int i = 0;
+    for (Codec codec : byId) {
+      if (codec != null) names[i++] = codec.name;
+    }
+    return names;
+  }
+
+  // supported is a comma separated list of codec names, as sent in PacketConnect
+  public static Codec negotiate(Codec preferred, String supported) {
+    if (supported == null) return DEFLATE;
+    for (String name : supported.split(",")) {
+      if (name.equals(preferred.name)) return preferred;
+    }
+    return DEFLATE;
+  }
+
+  public static Setting getSetting() {
+    return new DropDownSetting(names()) {
+      {
+        selected = LZ4.name;
+      }
+    };
+  }
+
+  // the codec the server would like to use for connections
+  public static Codec getNetworkingCodec() {
+    DropDownSetting dropDown = (DropDownSetting) Settings.getSetting(Settings.NETWORKING_CODEC);
+    return get(dropDown.getSelected());
+  }
+
+  public static String supported() {
+    StringBuilder stringBuilder = new StringBuilder();
+    for (String name : names()) {
+      if (stringBuilder.length() > 0) stringBuilder.append(',');
+      stringBuilder.append(name);
+    }
+    return stringBuilder.toString();
+  }
+}
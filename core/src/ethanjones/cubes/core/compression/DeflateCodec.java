@@ -0,0 +1,66 @@
+package ethanjones.cubes.core.compression;
+
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// zlib streams, any level can be read by every DeflateCodec
+class DeflateCodec extends Codec {
+  private static final ThreadLocal<Inflater> inflaterThreadLocal = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+
+  private final int level;
+  private final ThreadLocal<Deflater> deflaterThreadLocal = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(level);
+    }
+  };
+
+  DeflateCodec(int id, String name, int level) {
+    super(id, name);
+    this.level = level;
+  }
+
+  @Override
+  public void compress(byte[] in, int offset, int length, DirectByteArrayOutputStream out) {
+    Deflater deflater = deflaterThreadLocal.get();
+    deflater.reset();
+    deflater.setInput(in, offset, length);
+    deflater.finish();
+    while (!deflater.finished()) {
+      byte[] buffer = out.reserve(Math.max(length / 4, 4096));
+      out.advance(deflater.deflate(buffer, out.count(), buffer.length - out.count()));
+    }
+  }
+
+  @Override
+  public void decompress(byte[] in, int offset, int length, DirectByteArrayOutputStream out, int maxLength) throws IOException {
+    Inflater inflater = inflaterThreadLocal.get();
+    inflater.reset();
+    inflater.setInput(in, offset, length);
+    int start = out.count();
+    try {
+      while (!inflater.finished()) {
+        // room for one byte more than maxLength, so too much data is noticed without inflating all of it
+        long room = (long) maxLength - (out.count() - start) + 1;
+        byte[] buffer = out.reserve((int) Math.min(Math.max(length * 2L, 4096), room));
+        int inflated = inflater.inflate(buffer, out.count(), (int) Math.min(buffer.length - out.count(), room));
+        if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Unexpected end of deflate stream");
+        }
+        out.advance(inflated);
+        if (out.count() - start > maxLength) throw new IOException("Decompressed length is more than " + maxLength);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+  }
+}
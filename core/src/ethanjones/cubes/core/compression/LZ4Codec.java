@@ -0,0 +1,185 @@
+package ethanjones.cubes.core.compression;
+
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// LZ4 block format, preceded by the uncompressed length as a big endian int
+// Much faster than deflate at any level, at the cost of a worse ratio
+class LZ4Codec extends Codec {
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_BITS = 14;
+  private static final int SKIP_TRIGGER = 6;
+
+  private static final ThreadLocal<int[]> hashTableThreadLocal = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1 << HASH_BITS];
+    }
+  };
+
+  LZ4Codec(int id, String name) {
+    super(id, name);
+  }
+
+  @Override
+  public void compress(byte[] in, int offset, int length, DirectByteArrayOutputStream out) {
+    byte[] dst = out.reserve(4 + length + (length / 255) + 16);
+    int op = out.count();
+    dst[op++] = (byte) (length >>> 24);
+    dst[op++] = (byte) (length >>> 16);
+    dst[op++] = (byte) (length >>> 8);
+    dst[op++] = (byte) length;
+
+    int end = offset + length;
+    int anchor = offset;
+
+    if (length > MF_LIMIT) {
+      int[] table = hashTableThreadLocal.get();
+      Arrays.fill(table, -1);
+      int matchLimit = end - LAST_LITERALS;
+      int mfLimit = end - MF_LIMIT;
+      int ip = offset;
+
+      while (ip < mfLimit) {
+        int sequence = readInt(in, ip);
+        int h = hash(sequence);
+        int ref = table[h];
+        table[h] = ip;
+
+        if (ref < 0 || ip - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+          ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+          continue;
+        }
+
+        while (ip > anchor && ref > offset && in[ip - 1] == in[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && in[ref + matchLength] == in[ip + matchLength]) {
+          matchLength++;
+        }
+
+        op = writeSequence(in, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+        ip += matchLength;
+        anchor = ip;
+        if (ip - 2 >= offset && ip < mfLimit) table[hash(readInt(in, ip - 2))] = ip - 2;
+      }
+    }
+
+    op = writeLastLiterals(in, anchor, end - anchor, dst, op);
+    out.advance(op - out.count());
+  }
+
+  @Override
+  public void decompress(byte[] in, int offset, int length, DirectByteArrayOutputStream out, int maxLength) throws IOException {
+    if (length < 4) throw new IOException("LZ4 data too short");
+    int uncompressed = readInt(in, offset);
+    if (uncompressed < 0) throw new IOException("Invalid LZ4 length " + uncompressed);
+    if (uncompressed > maxLength) throw new IOException("Decompressed length " + uncompressed + " is more than " + maxLength);
+
+    byte[] dst = out.reserve(uncompressed);
+    int start = out.count();
+    int op = start;
+    int opEnd = start + uncompressed;
+    int ip = offset + 4;
+    int end = offset + length;
+
+    try {
+      while (ip < end) {
+        int token = in[ip++] & 0xFF;
+
+        int literals = token >>> 4;
+        if (literals == 15) {
+          int b;
+          do {
+            b = in[ip++] & 0xFF;
+            literals += b;
+          } while (b == 255);
+        }
+        if (op + literals > opEnd || ip + literals > end) throw new IOException("Corrupt LZ4 data");
+        System.arraycopy(in, ip, dst, op, literals);
+        ip += literals;
+        op += literals;
+        if (ip >= end) break;
+
+        int matchOffset = (in[ip] & 0xFF) | ((in[ip + 1] & 0xFF) << 8);
+        ip += 2;
+        if (matchOffset == 0 || matchOffset > op - start) throw new IOException("Corrupt LZ4 data");
+
+        int matchLength = token & 0xF;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = in[ip++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        if (op + matchLength > opEnd) throw new IOException("Corrupt LZ4 data");
+
+        // overlapping matches repeat the last matchOffset bytes, copy in chunks that double in size
+        int ref = op - matchOffset;
+        while (matchLength > 0) {
+          int n = Math.min(op - ref, matchLength);
+          System.arraycopy(dst, ref, dst, op, n);
+          op += n;
+          matchLength -= n;
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Corrupt LZ4 data", e);
+    }
+    if (op != opEnd) throw new IOException("LZ4 length should be " + uncompressed + " but is " + (op - start));
+    out.advance(uncompressed);
+  }
+
+  private static int writeSequence(byte[] in, int literalStart, int literals, byte[] dst, int op, int matchOffset, int matchLength) {
+    int tokenPos = op++;
+    int token = Math.min(literals, 15) << 4;
+    op = writeLength(dst, op, literals);
+    System.arraycopy(in, literalStart, dst, op, literals);
+    op += literals;
+
+    dst[op++] = (byte) matchOffset;
+    dst[op++] = (byte) (matchOffset >>> 8);
+
+    int m = matchLength - MIN_MATCH;
+    token |= Math.min(m, 15);
+    op = writeLength(dst, op, m);
+    dst[tokenPos] = (byte) token;
+    return op;
+  }
+
+  private static int writeLastLiterals(byte[] in, int literalStart, int literals, byte[] dst, int op) {
+    dst[op++] = (byte) (Math.min(literals, 15) << 4);
+    op = writeLength(dst, op, literals);
+    System.arraycopy(in, literalStart, dst, op, literals);
+    return op + literals;
+  }
+
+  // writes the remainder of a length which did not fit in the 4 bits of the token
+  private static int writeLength(byte[] dst, int op, int length) {
+    if (length < 15) return op;
+    length -= 15;
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_BITS);
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+  }
+}
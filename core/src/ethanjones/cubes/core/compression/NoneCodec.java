@@ -0,0 +1,23 @@
+package ethanjones.cubes.core.compression;
+
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+
+import java.io.IOException;
+
+class NoneCodec extends Codec {
+
+  NoneCodec(int id, String name) {
+    super(id, name);
+  }
+
+  @Override
+  public void compress(byte[] in, int offset, int length, DirectByteArrayOutputStream out) {
+    out.write(in, offset, length);
+  }
+
+  @Override
+  public void decompress(byte[] in, int offset, int length, DirectByteArrayOutputStream out, int maxLength) throws IOException {
+    if (length > maxLength) throw new IOException("Decompressed length " + length + " is more than " + maxLength);
+    out.write(in, offset, length);
+  }
+}
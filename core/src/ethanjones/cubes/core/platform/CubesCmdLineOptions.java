@@ -3,6 +3,7 @@ package ethanjones.cubes.core.platform;
 import ethanjones.cubes.core.mod.ModManager;
 import ethanjones.cubes.core.system.CubesException;
 import ethanjones.cubes.core.system.Debug;
+import ethanjones.cubes.networking.transport.TransportType;
 import ethanjones.cubes.world.save.Gamemode;
 
 import com.badlogic.gdx.Gdx;
@@ -73,6 +74,8 @@ public class CubesCmdLineOptions {
     public Gamemode worldGamemode;
     public Integer port;
     public String worldFolder;
+    public TransportType transport;
+    public Integer ioThreads;
 
     protected CmdLineParser build() {
       CmdLineParser clp = super.build();
@@ -82,6 +85,8 @@ public class CubesCmdLineOptions {
       clp.addStringOption("generator", "World Generator");
       clp.addStringOption("gamemode", "World Gamemode");
       clp.addStringOption("world-folder", "World Folder");
+      clp.addStringOption("transport", "Networking transport, blocking or nio");
+      clp.addIntegerOption("io-threads", "Number of threads used by the nio transport");
       return clp;
     }
 
@@ -98,6 +103,11 @@ public class CubesCmdLineOptions {
         worldGamemode = Gamemode.valueOf(gamemode);
       }
       worldFolder = clp.getOptionValue("world-folder", null);
+      String transport = clp.getOptionValue("transport", null);
+      if (transport != null) {
+        this.transport = TransportType.valueOf(transport);
+      }
+      ioThreads = clp.getOptionValue("io-threads", null);
     }
   }
 }
@@ -32,11 +32,10 @@ public class ServerAdapter implements AdapterInterface {
       Cubes.preInit(this);
       Cubes.init();
       
-      if (options.port != null) {
-        NetworkingManager.serverPreInit(new ServerNetworkingParameter(options.port));
-      } else {
-        NetworkingManager.serverPreInit(new ServerNetworkingParameter());
-      }
+      ServerNetworkingParameter parameter = options.port != null ? new ServerNetworkingParameter(options.port) : new ServerNetworkingParameter();
+      if (options.transport != null) parameter.transport = options.transport;
+      if (options.ioThreads != null) parameter.ioThreads = options.ioThreads;
+      NetworkingManager.serverPreInit(parameter);
       cubesServer = new DedicatedServer(options);
       cubesServer.create();
     } catch (Exception e) {
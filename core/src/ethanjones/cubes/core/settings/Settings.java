@@ -1,5 +1,6 @@
 package ethanjones.cubes.core.settings;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.event.settings.AddSettingsEvent;
 import ethanjones.cubes.core.localization.Localization;
 import ethanjones.cubes.core.logging.Log;
@@ -9,8 +10,10 @@ import ethanjones.cubes.core.settings.type.*;
 import ethanjones.cubes.core.system.CubesException;
 import ethanjones.cubes.graphics.CubesShaderProvider;
 import ethanjones.cubes.graphics.Graphics;
+import ethanjones.cubes.graphics.PackedVertices;
 import ethanjones.cubes.graphics.Screenshot;
 import ethanjones.cubes.graphics.world.ao.AmbientOcclusion;
+import ethanjones.cubes.graphics.world.area.GreedyMesher;
 
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Gdx;
@@ -68,12 +71,17 @@ public class Settings {
   public static final String GRAPHICS_FOG = "graphics.fog";
   public static final String GRAPHICS_SCALE = "graphics.scaleOffset";
   public static final String GRAPHICS_AO = "graphics.ambientOcclusion";
+  public static final String GRAPHICS_GREEDY_MESHING = "graphics.greedyMeshing";
+  public static final String GRAPHICS_PACKED_VERTICES = "graphics.packedVertices";
   public static final String GRAPHICS_SIMPLE_SHADER = "graphics.simpleShader";
   public static final String GRAPHICS_SCREENSHOT_SIZE = "graphics.screenshotSize";
   public static final String INPUT_MOUSE_SENSITIVITY = "input.mouseSensitivity";
   public static final String INPUT_TOUCHPAD_SIZE = "input.touchpadSize";
   public static final String INPUT_TOUCHPAD_LEFT = "input.touchpadLeft";
   public static final String NETWORKING_PORT = "networking.port";
+  public static final String NETWORKING_CODEC = "networking.codec";
+  public static final String NETWORKING_BANDWIDTH = "networking.bandwidth";
+  public static final String SERVER_PARALLEL_TICK = "server.parallelTick";
   public static final String DEBUG_FRAMETIME_GRAPH = "debug.frametimeGraph";
   public static final String DEBUG_GL_PROFILER = "debug.glProfiler";
   public static final String DEBUG_UNLIMITED_VIEW_DISTANCE = "debug.unlimitedViewDistance";
@@ -82,6 +90,7 @@ public class Settings {
   public static final String GROUP_GRAPHICS = "graphics";
   public static final String GROUP_INPUT = "input";
   public static final String GROUP_NETWORKING = "networking";
+  public static final String GROUP_SERVER = "server";
   public static final String GROUP_DEBUG = "debug";
 
   public static void init() {
@@ -111,6 +120,8 @@ public class Settings {
       }
     });
     addSettingInstance(GRAPHICS_AO, AmbientOcclusion.getSetting());
+    addSettingInstance(GRAPHICS_GREEDY_MESHING, GreedyMesher.getSetting());
+    addSettingInstance(GRAPHICS_PACKED_VERTICES, PackedVertices.getSetting());
     addSettingInstance(GRAPHICS_SIMPLE_SHADER, CubesShaderProvider.getSetting());
     addSettingInstance(GRAPHICS_SCREENSHOT_SIZE, Screenshot.screenshotResolutionSetting());
 
@@ -133,6 +144,10 @@ public class Settings {
     });
 
     addSettingInstance(NETWORKING_PORT, new IntegerSetting(24842));
+    addSettingInstance(NETWORKING_CODEC, Codec.getSetting());
+    addSettingInstance(NETWORKING_BANDWIDTH, new IntegerSetting(0, 0, 1048576)); // KB/s for each connection, 0 for no limit
+
+    addSettingInstance(SERVER_PARALLEL_TICK, new BooleanSetting(false));
 
     addSettingInstance(DEBUG_FRAMETIME_GRAPH, new BooleanSetting(false));
     addSettingInstance(DEBUG_GL_PROFILER, new BooleanSetting(false));
@@ -154,9 +169,10 @@ public class Settings {
     SettingGroup keybinds = Keybinds.init();
 
     base.add(USERNAME)
-        .add(GROUP_GRAPHICS, new SettingGroup().add(GRAPHICS_VIEW_DISTANCE).add(GRAPHICS_FOV).add(GRAPHICS_FOG).add(GRAPHICS_SCALE).add(GRAPHICS_AO).add(GRAPHICS_SIMPLE_SHADER).add(GRAPHICS_SCREENSHOT_SIZE))
+        .add(GROUP_GRAPHICS, new SettingGroup().add(GRAPHICS_VIEW_DISTANCE).add(GRAPHICS_FOV).add(GRAPHICS_FOG).add(GRAPHICS_SCALE).add(GRAPHICS_AO).add(GRAPHICS_GREEDY_MESHING).add(GRAPHICS_PACKED_VERTICES).add(GRAPHICS_SIMPLE_SHADER).add(GRAPHICS_SCREENSHOT_SIZE))
         .add(GROUP_INPUT, new SettingGroup().add(keybindsGroup, keybinds).add(INPUT_MOUSE_SENSITIVITY).add(INPUT_TOUCHPAD_SIZE).add(INPUT_TOUCHPAD_LEFT))
-        .add(GROUP_NETWORKING, new SettingGroup().add(NETWORKING_PORT))
+        .add(GROUP_NETWORKING, new SettingGroup().add(NETWORKING_PORT).add(NETWORKING_CODEC).add(NETWORKING_BANDWIDTH))
+        .add(GROUP_SERVER, new SettingGroup().add(SERVER_PARALLEL_TICK))
         .add(GROUP_DEBUG, new SettingGroup().add(DEBUG_FRAMETIME_GRAPH).add(DEBUG_GL_PROFILER).add(DEBUG_UNLIMITED_VIEW_DISTANCE).add(DEBUG_AREA_SHARING));
 
     new AddSettingsEvent().post();
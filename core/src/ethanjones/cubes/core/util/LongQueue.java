@@ -0,0 +1,58 @@
+package ethanjones.cubes.core.util;
+
+// Like IntQueue, but grows instead of throwing when full
+public class LongQueue {
+  private long[] array;
+  private int mask;
+  private int front = 0;
+  private int end = 0;
+
+  public LongQueue(int initialCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+    this.array = new long[capacity];
+    this.mask = capacity - 1;
+  }
+
+  public long peek() {
+    return array[front];
+  }
+
+  public long poll() {
+    long value = array[front];
+    front = (front + 1) & mask;
+    return value;
+  }
+
+  public void enqueue(long v) {
+    array[end] = v;
+    end = (end + 1) & mask;
+    if (end == front) grow();
+  }
+
+  private void grow() {
+    long[] grown = new long[array.length * 2];
+    int head = array.length - front;
+    System.arraycopy(array, front, grown, 0, head);
+    System.arraycopy(array, 0, grown, head, front);
+    front = 0;
+    end = array.length;
+    array = grown;
+    mask = grown.length - 1;
+  }
+
+  public int size() {
+    return (end - front) & mask;
+  }
+
+  public boolean isEmpty() {
+    return front == end;
+  }
+
+  public void clear() {
+    front = end = 0;
+  }
+
+  public int capacity() {
+    return array.length;
+  }
+}
@@ -8,6 +8,7 @@ import ethanjones.cubes.world.CoordinateConverter;
 import ethanjones.cubes.world.World;
 import ethanjones.cubes.world.gravity.WorldGravity;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.Entities;
 import ethanjones.data.DataGroup;
 import ethanjones.data.DataParser;
 
@@ -27,6 +28,10 @@ public class Entity implements DataParser, Disposable {
   public final Vector3 angle;
   public final Vector3 motion;
   public final String id;
+  // assigned by WorldServer when the entity is added, identifies it in PacketEntityDeltas, 0 if unassigned
+  public int networkID;
+  // the area the entity is bucketed under, maintained by Entities
+  public long areaKey = Entities.NOT_INDEXED;
   protected Vector3 tmpVector;
 
   public Entity(String id) {
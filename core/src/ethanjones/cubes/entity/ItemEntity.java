@@ -2,10 +2,10 @@ package ethanjones.cubes.entity;
 
 import ethanjones.cubes.block.Blocks;
 import ethanjones.cubes.core.util.VectorUtil;
+import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.graphics.entity.ItemEntityRenderer;
 import ethanjones.cubes.item.ItemStack;
 import ethanjones.cubes.item.inv.InventoryHelper;
-import ethanjones.cubes.networking.server.ClientIdentifier;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.CoordinateConverter;
@@ -17,6 +17,8 @@ import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
 
+import java.util.ArrayList;
+
 public class ItemEntity extends Entity implements RenderableProvider {
 
   public ItemStack itemStack;
@@ -73,10 +75,14 @@ public class ItemEntity extends Entity implements RenderableProvider {
         return true;
       }
       if (age >= 0) {
-        for (ClientIdentifier clientIdentifier : Cubes.getServer().getAllClients()) {
-          float distance2 = VectorUtil.distance2(this.position, clientIdentifier.getPlayer().position.cpy().sub(0, clientIdentifier.getPlayer().height, 0));
+        // called from World.tick, which holds the entities lock
+        ArrayList<Player> players = new ArrayList<Player>();
+        Cubes.getServer().world.entities.playersNear(position, 1f + Player.PLAYER_HEIGHT, players);
+        for (Player player : players) {
+          if (player.clientIdentifier == null) continue;
+          float distance2 = VectorUtil.distance2(this.position, player.position.cpy().sub(0, player.height, 0));
           if (distance2 < 1f) {
-            InventoryHelper.addItemstack(clientIdentifier.getPlayer().getInventory(), itemStack);
+            InventoryHelper.addItemstack(player.getInventory(), itemStack);
             return true;
           }
         }
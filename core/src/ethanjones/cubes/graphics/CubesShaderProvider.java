@@ -33,8 +33,10 @@ public class CubesShaderProvider implements ShaderProvider {
 
   private static final int FEATURE_FOG = 1 << 0;
   private static final int FEATURE_AO = 1 << 1;
+  private static final int FEATURE_GREEDY = 1 << 2;
+  private static final int FEATURE_PACKED = 1 << 3;
 
-  private static final int MAX_FEATURE_FLAG = 2;
+  private static final int MAX_FEATURE_FLAG = 8;
   private static final int COMBINATIONS = 2 * MAX_FEATURE_FLAG;
   private static final CubesShader[] shaders = new CubesShader[COMBINATIONS];
 
@@ -69,9 +71,15 @@ public class CubesShaderProvider implements ShaderProvider {
     if (renderable instanceof CubesRenderable) fogFlag &= ((CubesRenderable) renderable).fogEnabled;
     if (fogFlag) shader |= FEATURE_FOG;
 
-    boolean aoFlag = renderable.meshPart.mesh.getVertexAttributes() == CubesVertexAttributes.VERTEX_ATTRIBUTES_AO;
+    boolean aoFlag = CubesVertexAttributes.hasAO(renderable.meshPart.mesh.getVertexAttributes());
     if (aoFlag) shader |= FEATURE_AO;
 
+    boolean greedyFlag = CubesVertexAttributes.hasRegion(renderable.meshPart.mesh.getVertexAttributes());
+    if (greedyFlag) shader |= FEATURE_GREEDY;
+
+    boolean packedFlag = CubesVertexAttributes.isPacked(renderable.meshPart.mesh.getVertexAttributes());
+    if (packedFlag) shader |= FEATURE_PACKED;
+
     if (shaders[shader] == null) {
       if (shader == 0) {
         shaders[shader] = new CubesShader(renderable);
@@ -79,6 +87,8 @@ public class CubesShaderProvider implements ShaderProvider {
         ArrayList<Feature> f = new ArrayList<Feature>();
         if (fogFlag) f.add(new FogFeature());
         if (aoFlag) f.add(new AmbientOcclusionFeature());
+        if (greedyFlag) f.add(new GreedyFeature());
+        if (packedFlag) f.add(new PackedFeature());
         shaders[shader] = new FeatureShader(renderable, f);
       }
 
@@ -290,4 +300,40 @@ public class CubesShaderProvider implements ShaderProvider {
       program.setUniformf(u_aoStrength, AmbientOcclusion.getStrength().strength);
     }
   }
+
+  protected static class GreedyFeature implements Feature {
+
+    @Override
+    public String prefix() {
+      return "#define feature_greedy\n";
+    }
+
+    @Override
+    public void init(ShaderProgram program) {
+
+    }
+
+    @Override
+    public void begin(ShaderProgram program, Camera camera, RenderContext context) {
+
+    }
+  }
+
+  protected static class PackedFeature implements Feature {
+
+    @Override
+    public String prefix() {
+      return "#define feature_packed\n";
+    }
+
+    @Override
+    public void init(ShaderProgram program) {
+
+    }
+
+    @Override
+    public void begin(ShaderProgram program, Camera camera, RenderContext context) {
+
+    }
+  }
 }
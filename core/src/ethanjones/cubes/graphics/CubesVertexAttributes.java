@@ -2,6 +2,7 @@ package ethanjones.cubes.graphics;
 
 import ethanjones.cubes.graphics.world.ao.AmbientOcclusion;
 
+import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
@@ -10,6 +11,12 @@ public class CubesVertexAttributes {
 
   public static final VertexAttributes VERTEX_ATTRIBUTES;
   public static final VertexAttributes VERTEX_ATTRIBUTES_AO;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_GREEDY;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_GREEDY_AO;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_PACKED;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_PACKED_AO;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_PACKED_GREEDY;
+  public static final VertexAttributes VERTEX_ATTRIBUTES_PACKED_GREEDY_AO;
 
   static {
     VertexAttribute[] vertexAttributes = new VertexAttribute[3];
@@ -24,21 +31,79 @@ public class CubesVertexAttributes {
     vertexAttributesAO[2] = new VertexAttribute(VertexAttributes.Usage.Generic, 1, "a_voxellight", 0);
     vertexAttributesAO[3] = new VertexAttribute(VertexAttributes.Usage.Generic, 2, "a_ao_texCoord", 1);
     VERTEX_ATTRIBUTES_AO = new VertexAttributes(vertexAttributesAO);
+
+    VERTEX_ATTRIBUTES_GREEDY = new VertexAttributes(withRegion(vertexAttributes));
+    VERTEX_ATTRIBUTES_GREEDY_AO = new VertexAttributes(withRegion(vertexAttributesAO));
+
+    VERTEX_ATTRIBUTES_PACKED = new VertexAttributes(packed(false, false));
+    VERTEX_ATTRIBUTES_PACKED_AO = new VertexAttributes(packed(true, false));
+    VERTEX_ATTRIBUTES_PACKED_GREEDY = new VertexAttributes(packed(false, true));
+    VERTEX_ATTRIBUTES_PACKED_GREEDY_AO = new VertexAttributes(packed(true, true));
+  }
+
+  // texture region u, v, width and height, see GreedyMesher
+  private static VertexAttribute[] withRegion(VertexAttribute[] vertexAttributes) {
+    VertexAttribute[] v = new VertexAttribute[vertexAttributes.length + 1];
+    for (int i = 0; i < vertexAttributes.length; i++) {
+      v[i] = vertexAttributes[i].copy();
+    }
+    v[vertexAttributes.length] = new VertexAttribute(VertexAttributes.Usage.Generic, 4, "a_region", 2);
+    return v;
+  }
+
+  // the same attributes in 12 to 24 bytes instead of 24 to 48, see PackedVertices
+  // positions are relative to the section, the ao texture coordinates are padded to keep the stride a multiple of 4
+  private static VertexAttribute[] packed(boolean ao, boolean region) {
+    VertexAttribute[] v = new VertexAttribute[3 + (ao ? 1 : 0) + (region ? 1 : 0)];
+    int i = 0;
+    v[i++] = new VertexAttribute(VertexAttributes.Usage.Position, 3, GL20.GL_SHORT, false, ShaderProgram.POSITION_ATTRIBUTE);
+    v[i++] = new VertexAttribute(VertexAttributes.Usage.Generic, 1, GL20.GL_UNSIGNED_SHORT, false, "a_voxellight", 0);
+    v[i++] = new VertexAttribute(VertexAttributes.Usage.TextureCoordinates, 2, GL20.GL_UNSIGNED_SHORT, true, ShaderProgram.TEXCOORD_ATTRIBUTE + "0", 0);
+    if (ao) v[i++] = new VertexAttribute(VertexAttributes.Usage.Generic, 4, GL20.GL_UNSIGNED_BYTE, false, "a_ao_texCoord", 1);
+    if (region) v[i] = new VertexAttribute(VertexAttributes.Usage.Generic, 4, GL20.GL_UNSIGNED_SHORT, true, "a_region", 2);
+    return v;
   }
 
   public static final int COMPONENTS = 6;
   public static final int COMPONENTS_AO = 8; //3 for position, 2 for texture coordinates, 1 for light, 2 for ao
+  public static final int COMPONENTS_GREEDY = COMPONENTS + 4;
+  public static final int COMPONENTS_GREEDY_AO = COMPONENTS_AO + 4;
 
-  public static final int MAX_COMPONENTS = 8;
+  public static final int MAX_COMPONENTS = COMPONENTS_GREEDY_AO;
 
   public static VertexAttributes getVertexAttributes() {
-    if (AmbientOcclusion.isEnabled()) return VERTEX_ATTRIBUTES_AO;
-    return VERTEX_ATTRIBUTES;
+    boolean ao = AmbientOcclusion.isEnabled();
+    if (PackedVertices.isEnabled()) return ao ? VERTEX_ATTRIBUTES_PACKED_AO : VERTEX_ATTRIBUTES_PACKED;
+    return ao ? VERTEX_ATTRIBUTES_AO : VERTEX_ATTRIBUTES;
+  }
+
+  // the same attributes with a_region, only used by the meshes of merged greedy quads, null if there aren't any
+  public static VertexAttributes getRegionVertexAttributes(VertexAttributes v) {
+    if (v == VERTEX_ATTRIBUTES) return VERTEX_ATTRIBUTES_GREEDY;
+    if (v == VERTEX_ATTRIBUTES_AO) return VERTEX_ATTRIBUTES_GREEDY_AO;
+    if (v == VERTEX_ATTRIBUTES_PACKED) return VERTEX_ATTRIBUTES_PACKED_GREEDY;
+    if (v == VERTEX_ATTRIBUTES_PACKED_AO) return VERTEX_ATTRIBUTES_PACKED_GREEDY_AO;
+    return null;
+  }
+
+  public static boolean hasAO(VertexAttributes v) {
+    return v == VERTEX_ATTRIBUTES_AO || v == VERTEX_ATTRIBUTES_GREEDY_AO || v == VERTEX_ATTRIBUTES_PACKED_AO || v == VERTEX_ATTRIBUTES_PACKED_GREEDY_AO;
+  }
+
+  public static boolean hasRegion(VertexAttributes v) {
+    return v == VERTEX_ATTRIBUTES_GREEDY || v == VERTEX_ATTRIBUTES_GREEDY_AO || v == VERTEX_ATTRIBUTES_PACKED_GREEDY || v == VERTEX_ATTRIBUTES_PACKED_GREEDY_AO;
+  }
+
+  public static boolean isPacked(VertexAttributes v) {
+    return v == VERTEX_ATTRIBUTES_PACKED || v == VERTEX_ATTRIBUTES_PACKED_AO || v == VERTEX_ATTRIBUTES_PACKED_GREEDY || v == VERTEX_ATTRIBUTES_PACKED_GREEDY_AO;
   }
 
+  // the number of floats per vertex the meshers build, packed vertices are built as floats and packed when copied
   public static int components(VertexAttributes v) {
-    if (v == VERTEX_ATTRIBUTES) return COMPONENTS;
-    if (v == VERTEX_ATTRIBUTES_AO) return COMPONENTS_AO;
+    if (v == VERTEX_ATTRIBUTES || v == VERTEX_ATTRIBUTES_PACKED) return COMPONENTS;
+    if (v == VERTEX_ATTRIBUTES_AO || v == VERTEX_ATTRIBUTES_PACKED_AO) return COMPONENTS_AO;
+    if (v == VERTEX_ATTRIBUTES_GREEDY || v == VERTEX_ATTRIBUTES_PACKED_GREEDY) return COMPONENTS_GREEDY;
+    if (v == VERTEX_ATTRIBUTES_GREEDY_AO || v == VERTEX_ATTRIBUTES_PACKED_GREEDY_AO) return COMPONENTS_GREEDY_AO;
     int components = 0;
     for (VertexAttribute attribute : v) {
       components += attribute.numComponents;
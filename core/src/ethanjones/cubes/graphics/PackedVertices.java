@@ -0,0 +1,87 @@
+package ethanjones.cubes.graphics;
+
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.core.settings.Setting;
+import ethanjones.cubes.core.settings.Settings;
+import ethanjones.cubes.core.settings.type.BooleanSetting;
+import ethanjones.cubes.core.system.Pools;
+import ethanjones.cubes.graphics.world.WorldGraphicsPools;
+import ethanjones.cubes.graphics.world.area.AreaMesh;
+import ethanjones.cubes.world.storage.Area;
+
+import java.nio.ByteBuffer;
+
+// Packs the float vertices built by the meshers into CubesVertexAttributes.VERTEX_ATTRIBUTES_PACKED and its variants.
+// Positions are shorts in 1/256ths of a block from the minimum corner of the section, which AreaMesh scales back in
+// the world transform. Light is an unsigned short, as the side is stored above the first 8 bits.
+// Texture coordinates and regions are normalized unsigned shorts, the block counts of merged greedy quads are divided
+// by TILE_SCALE and the shader multiplies them back. Ambient occlusion texture coordinates are multiples of 1/16 as
+// AmbientOcclusion uses a 16x16 grid, so they are stored as bytes and divided by AO_SCALE in the shader.
+public class PackedVertices {
+
+  public static final float POSITION_SCALE = 256f;
+  public static final float TILE_SCALE = Area.SIZE_BLOCKS;
+  public static final float AO_SCALE = 16f;
+
+  private static final float UNSIGNED_SHORT = 65535f;
+
+  public static Setting getSetting() {
+    return new BooleanSetting(false) {
+      @Override
+      public void onChange() {
+        super.onChange();
+        if (Pools.poolExists(AreaMesh.class)) {
+          Log.debug("Clearing AreaMesh pool on packed vertices setting change");
+          WorldGraphicsPools.free();
+          Pools.clearPool(AreaMesh.class);
+        }
+      }
+    };
+  }
+
+  public static boolean isEnabled() {
+    return Settings.getBooleanSettingValue(Settings.GRAPHICS_PACKED_VERTICES);
+  }
+
+  // bytes per vertex once packed, for vertices built with componentSize floats
+  public static int vertexSize(int componentSize) {
+    return 12 + (hasAO(componentSize) ? 4 : 0) + (hasRegion(componentSize) ? 8 : 0);
+  }
+
+  // packs length floats of vertices into out, the origin is the minimum corner of the section
+  public static void pack(float[] vertices, int length, int componentSize, float originX, float originY, float originZ, ByteBuffer out) {
+    boolean ao = hasAO(componentSize);
+    boolean region = hasRegion(componentSize);
+    int regionOffset = componentSize - 4;
+    for (int o = 0; o < length; o += componentSize) {
+      out.putShort((short) Math.round((vertices[o] - originX) * POSITION_SCALE));
+      out.putShort((short) Math.round((vertices[o + 1] - originY) * POSITION_SCALE));
+      out.putShort((short) Math.round((vertices[o + 2] - originZ) * POSITION_SCALE));
+      out.putShort((short) vertices[o + 5]);
+
+      // merged greedy quads count blocks across the quad
+      float uvScale = region ? UNSIGNED_SHORT / TILE_SCALE : UNSIGNED_SHORT;
+      out.putShort((short) Math.round(vertices[o + 3] * uvScale));
+      out.putShort((short) Math.round(vertices[o + 4] * uvScale));
+
+      if (ao) {
+        out.put((byte) Math.round(vertices[o + 6] * AO_SCALE));
+        out.put((byte) Math.round(vertices[o + 7] * AO_SCALE));
+        out.putShort((short) 0);
+      }
+      if (region) {
+        for (int k = 0; k < 4; k++) {
+          out.putShort((short) Math.round(vertices[o + regionOffset + k] * UNSIGNED_SHORT));
+        }
+      }
+    }
+  }
+
+  private static boolean hasAO(int componentSize) {
+    return componentSize == CubesVertexAttributes.COMPONENTS_AO || componentSize == CubesVertexAttributes.COMPONENTS_GREEDY_AO;
+  }
+
+  private static boolean hasRegion(int componentSize) {
+    return componentSize == CubesVertexAttributes.COMPONENTS_GREEDY || componentSize == CubesVertexAttributes.COMPONENTS_GREEDY_AO;
+  }
+}
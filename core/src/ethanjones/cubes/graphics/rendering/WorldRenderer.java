@@ -10,9 +10,11 @@ import ethanjones.cubes.entity.Entity;
 import ethanjones.cubes.graphics.Graphics;
 import ethanjones.cubes.graphics.world.WorldGraphicsPools;
 import ethanjones.cubes.graphics.world.area.AreaBoundaries;
+import ethanjones.cubes.graphics.world.area.AreaMesher;
 import ethanjones.cubes.graphics.world.area.AreaRenderStatus;
 import ethanjones.cubes.graphics.world.area.AreaRenderer;
 import ethanjones.cubes.graphics.world.area.DebugLineRenderer;
+import ethanjones.cubes.graphics.world.area.SectionTraversal;
 import ethanjones.cubes.graphics.world.other.BreakingRenderer;
 import ethanjones.cubes.graphics.world.other.RainRenderer;
 import ethanjones.cubes.graphics.world.other.SelectedBlock;
@@ -33,9 +35,7 @@ import com.badlogic.gdx.graphics.g3d.RenderableProvider;
 import com.badlogic.gdx.math.Frustum;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Disposable;
-import com.badlogic.gdx.utils.IntSet;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -46,16 +46,37 @@ import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
 
 public class WorldRenderer implements Disposable {
 
-  private static ArrayDeque<AreaNode> poolNode = new ArrayDeque<AreaNode>(256);
-
   public PerspectiveCamera camera;
   private ArrayList<AreaRenderer> needToRefresh = new ArrayList<AreaRenderer>();
-  private ArrayDeque<AreaNode> queue = new ArrayDeque<AreaNode>();
-  private IntSet checkedNodes = new IntSet(1024);
+  private final SectionTraversal traversal = new SectionTraversal() {
+    @Override
+    protected Area getArea(int areaX, int areaZ) {
+      return frameAreaMap.lockedGetArea(areaX, areaZ);
+    }
+
+    @Override
+    protected boolean inRange(int areaX, int areaZ, int ySection) {
+      // the camera's section isn't checked, which fixes flashes caused by it only just being in the frustum as the
+      // player flies up or down (e.g. Y=64.001)
+      return areaInFrustum(areaX, areaZ, ySection, camera.frustum) && areaDistance(areaX, areaZ) <= frameRenderDistance;
+    }
+
+    @Override
+    protected int visit(Area area, int ySection, int from, boolean first) {
+      return visitSection(area, ySection, from, first);
+    }
+  };
+  // set at the start of each frame for the traversal
+  private AreaReference framePos;
+  private AreaMap frameAreaMap;
+  private int frameRenderDistance;
+  private boolean frameNoClip;
 
   private int effectiveViewDistance = 0;
   private int totalEntities = 0;
   private int entitiesDrawn = 0;
+  private int sectionsVisited = 0;
+  private int sectionsDrawn = 0;
 
   public WorldRenderer() {
     camera = new PerspectiveCamera(Settings.getIntegerSettingValue(Settings.GRAPHICS_FOV), Graphics.RENDER_WIDTH, Graphics.RENDER_HEIGHT) {
@@ -77,11 +98,11 @@ public class WorldRenderer implements Disposable {
 
     Performance.start(PerformanceTags.CLIENT_RENDER_WORLD);
     AreaRenderer.frameStart();
+    AreaMesher.upload(Cubes.getClient().frameStart + 3000000);
 
     needToRefresh.clear();
-    queue.clear();
-    checkedNodes.clear();
     effectiveViewDistance = 0;
+    sectionsDrawn = 0;
 
     modelBatch.begin(camera);
 
@@ -95,79 +116,14 @@ public class WorldRenderer implements Disposable {
     AreaReference pos = Pools.obtainAreaReference().setFromPositionVector3(Cubes.getClient().player.position);
     int yPos = CoordinateConverter.area(Cubes.getClient().player.position.y);
 
+    framePos = pos;
+    frameAreaMap = areaMap;
+    frameRenderDistance = renderDistance;
+    frameNoClip = Cubes.getClient().player.noClip();
     try (Locked areaMapLock = areaMap.acquireReadLock()) {
-      AreaNode startingNode = get(areaMap.getArea(pos.areaX, pos.areaZ), pos.areaX, pos.areaZ, yPos);
-      startingNode.firstNode = true; // Fix flashes caused by the starting area just being in frustum as flying up/down (e.g. Y=64.001) and areaInFrustum returning false
-      queue.add(startingNode);
-
-      boolean noClip = Cubes.getClient().player.noClip();
-
-      while (!queue.isEmpty()) {
-        AreaNode node = queue.pop();
-        Area area = node.area;
-        int ySection = node.ySection;
-        int areaX = node.areaX;
-        int areaZ = node.areaZ;
-        int packedID = (areaX & 0x3FF) | ((areaZ & 0x3FF) << 10) | ((ySection & 0x3FF) << 20);
-        int areaDistance = Math.max(Math.abs(areaX - pos.areaX), Math.abs(areaZ - pos.areaZ));
-
-        if (!checkedNodes.add(packedID) || (!node.firstNode && (!areaInFrustum(areaX, areaZ, ySection, camera.frustum) || areaDistance > renderDistance))) {
-          poolNode.add(node);
-          continue;
-        }
-
-        boolean nullArea = area == null || ySection >= area.height;
-        int traverse = 0;
-
-        if (!nullArea && ySection >= 0) {
-          try (Locked<Area> lock = area.acquireWriteLock()) {
-            int status = area.renderStatus[ySection];
-            if (status == AreaRenderStatus.UNKNOWN) status = AreaRenderStatus.update(area, ySection);
-            traverse = (noClip || status == AreaRenderStatus.EMPTY) ? 0 : status;
-            boolean render = status != AreaRenderStatus.EMPTY && !complete(area, ySection, areaMap, status);
-
-            if (render) {
-              if (area.areaRenderer[ySection] == null) Pools.obtain(AreaRenderer.class).set(area, ySection);
-
-              AreaRenderer areaRenderer = area.areaRenderer[ySection];
-              if (areaRenderer.needsRefresh()) {
-                needToRefresh.add(areaRenderer);
-              } else {
-                modelBatch.render(areaRenderer);
-                renderIfNotNull(AreaBoundaries.drawArea(areaX, ySection, areaZ));
-                if (areaDistance > effectiveViewDistance) effectiveViewDistance = areaDistance;
-              }
-            } else if (area.areaRenderer[ySection] != null) {
-              AreaRenderer.free(area.areaRenderer[ySection]);
-              area.areaRenderer[ySection] = null;
-            }
-          }
-        }
-
-        if (traverse != AreaRenderStatus.COMPLETE) {
-          Area a;
-          if ((traverse & AreaRenderStatus.COMPLETE_MAX_X) == 0 && further(pos.areaX, pos.areaZ, areaX, areaZ, areaX + 1, areaZ)) {
-            if ((a = areaMap.lockedGetArea(areaX + 1, areaZ)) != null) queue.add(get(a, areaX + 1, areaZ, ySection));
-          }
-          if ((traverse & AreaRenderStatus.COMPLETE_MIN_X) == 0 && further(pos.areaX, pos.areaZ, areaX, areaZ, areaX - 1, areaZ)) {
-            if ((a = areaMap.lockedGetArea(areaX - 1, areaZ)) != null) queue.add(get(a, areaX - 1, areaZ, ySection));
-          }
-          if ((traverse & AreaRenderStatus.COMPLETE_MAX_Z) == 0 && further(pos.areaX, pos.areaZ, areaX, areaZ, areaX, areaZ + 1)) {
-            if ((a = areaMap.lockedGetArea(areaX, areaZ + 1)) != null) queue.add(get(a, areaX, areaZ + 1, ySection));
-          }
-          if ((traverse & AreaRenderStatus.COMPLETE_MIN_Z) == 0 && further(pos.areaX, pos.areaZ, areaX, areaZ, areaX, areaZ - 1)) {
-            if ((a = areaMap.lockedGetArea(areaX, areaZ - 1)) != null) queue.add(get(a, areaX, areaZ - 1, ySection));
-          }
-          if ((traverse & AreaRenderStatus.COMPLETE_MAX_Y) == 0 && !nullArea && ySection >= yPos) {
-            queue.add(get(area, areaX, areaZ, ySection + 1));
-          }
-          if ((traverse & AreaRenderStatus.COMPLETE_MIN_Y) == 0 && ySection > 0 && ySection <= yPos) {
-            queue.add(get(area, areaX, areaZ, ySection - 1));
-          }
-        }
-        poolNode.add(node);
-      }
+      traversal.traverse(pos.areaX, pos.areaZ, yPos);
     }
+    sectionsVisited = traversal.getSectionsVisited();
     Performance.stop(PerformanceTags.CLIENT_RENDER_WORLD_AREAS);
 
     int refreshed = 0;
@@ -223,6 +179,40 @@ public class WorldRenderer implements Disposable {
     Performance.stop(PerformanceTags.CLIENT_RENDER_WORLD);
   }
 
+  // must hold the area map's read lock
+  private int visitSection(Area area, int ySection, int from, boolean first) {
+    int exits = AreaRenderStatus.COMPLETE;
+    try (Locked<Area> lock = area.acquireWriteLock()) {
+      int status = area.renderStatus[ySection];
+      if (status == AreaRenderStatus.UNKNOWN) status = AreaRenderStatus.update(area, ySection);
+      if (!frameNoClip) exits = AreaRenderStatus.exits(status, from);
+      boolean render = first && status != AreaRenderStatus.EMPTY && !complete(area, ySection, frameAreaMap, status);
+
+      if (render) {
+        if (area.areaRenderer[ySection] == null) Pools.obtain(AreaRenderer.class).set(area, ySection);
+
+        AreaRenderer areaRenderer = area.areaRenderer[ySection];
+        sectionsDrawn++;
+        if (areaRenderer.needsRefresh()) {
+          needToRefresh.add(areaRenderer);
+        } else {
+          modelBatch.render(areaRenderer);
+          renderIfNotNull(AreaBoundaries.drawArea(area.areaX, ySection, area.areaZ));
+          int areaDistance = areaDistance(area.areaX, area.areaZ);
+          if (areaDistance > effectiveViewDistance) effectiveViewDistance = areaDistance;
+        }
+      } else if (first && area.areaRenderer[ySection] != null) {
+        AreaRenderer.free(area.areaRenderer[ySection]);
+        area.areaRenderer[ySection] = null;
+      }
+    }
+    return exits;
+  }
+
+  private int areaDistance(int areaX, int areaZ) {
+    return Math.max(Math.abs(areaX - framePos.areaX), Math.abs(areaZ - framePos.areaZ));
+  }
+
   private void renderIfNotNull(Renderable r) {
     if (r != null) modelBatch.render(r);
   }
@@ -263,62 +253,9 @@ public class WorldRenderer implements Disposable {
     return false;
   }
 
-  private static boolean further(int posAreaX, int posAreaZ, int oldAreaX, int oldAreaZ, int newAreaX, int newAreaZ) {
-    int oDX = Math.abs(posAreaX - oldAreaX);
-    int oDZ = Math.abs(posAreaZ - oldAreaZ);
-
-    int nDX = Math.abs(posAreaX - newAreaX);
-    int nDZ = Math.abs(posAreaZ - newAreaZ);
-    return (oDX * oDX + oDZ * oDZ) <= (nDX * nDX + nDZ * nDZ);
-  }
-
   @Override
   public void dispose() {
-
-  }
-
-  private static AreaNode get(Area area, int areaX, int areaZ, int ySection) {
-    AreaNode node = poolNode.pollFirst();
-    if (node == null) node = new AreaNode();
-    node.set(area, areaX, areaZ, ySection);
-    return node;
-  }
-
-  private static class AreaNode {
-
-    Area area;
-    int areaX;
-    int areaZ;
-    int ySection;
-    int hashCode;
-    boolean firstNode;
-
-    public void set(Area area, int areaX, int areaZ, int ySection) {
-      this.area = area;
-      this.areaX = areaX;
-      this.areaZ = areaZ;
-      this.ySection = ySection;
-      firstNode = false;
-
-      int hashCode = 7;
-      hashCode = 31 * hashCode + ySection;
-      hashCode = 31 * hashCode + areaX;
-      this.hashCode = 31 * hashCode + areaZ;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (obj instanceof AreaNode) {
-        AreaNode a = ((AreaNode) obj);
-        return a.areaX == this.areaX && a.areaZ == this.areaZ && a.ySection == this.ySection;
-      }
-      return false;
-    }
-
-    @Override
-    public int hashCode() {
-      return hashCode;
-    }
+    AreaMesher.discard();
   }
 
   protected static class AreaRendererSorter implements Comparator<AreaRenderer> {
@@ -350,4 +287,12 @@ public class WorldRenderer implements Disposable {
   public int getTotalEntities() {
     return totalEntities;
   }
+
+  public int getSectionsVisited() {
+    return sectionsVisited;
+  }
+
+  public int getSectionsDrawn() {
+    return sectionsDrawn;
+  }
 }
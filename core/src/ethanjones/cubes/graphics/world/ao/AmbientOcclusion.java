@@ -1,6 +1,5 @@
 package ethanjones.cubes.graphics.world.ao;
 
-import ethanjones.cubes.core.id.TransparencyManager;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.settings.Setting;
 import ethanjones.cubes.core.settings.Settings;
@@ -10,14 +9,15 @@ import ethanjones.cubes.graphics.assets.Asset;
 import ethanjones.cubes.graphics.assets.Assets;
 import ethanjones.cubes.graphics.world.WorldGraphicsPools;
 import ethanjones.cubes.graphics.world.area.AreaMesh;
-import ethanjones.cubes.world.CoordinateConverter;
-import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.graphics.world.area.SectionSnapshot;
 
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.g3d.attributes.TextureAttribute;
 
+import static ethanjones.cubes.graphics.world.area.SectionSnapshot.*;
+
 public final class AmbientOcclusion {
 
   // ABC
@@ -44,89 +44,81 @@ public final class AmbientOcclusion {
   private static TextureAttribute loadedTextureAttribute = null;
   private static TextureRegion[] loadedRegions = new TextureRegion[TOTAL];
 
-  private static boolean exists(Area base, int x, int y, int z) {
-    Area a = base.neighbour(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    if (a == null || a.blocks == null) return false; //TODO fix
-    if (y > a.maxY || y < 0) return false;
-    x -= a.minBlockX;
-    z -= a.minBlockZ;
-    return !TransparencyManager.isTransparent(a.blocks[Area.getRef(x, y, z)]);
-  }
-
-  private static TextureRegion y(Area area, int x, int y, int z) {
-    int i = 0;
-    if (exists(area, x + 1, y, z - 1)) i |= A;
-    if (exists(area, x + 1, y, z)) i |= B;
-    if (exists(area, x + 1, y, z + 1)) i |= C;
+  // i is the index in the snapshot of the block in front of the face
+  private static TextureRegion y(boolean[] opaque, int i) {
+    int m = 0;
+    if (opaque[i + X_OFFSET - Z_OFFSET]) m |= A;
+    if (opaque[i + X_OFFSET]) m |= B;
+    if (opaque[i + X_OFFSET + Z_OFFSET]) m |= C;
 
-    if (exists(area, x, y, z - 1)) i |= D;
-    if (exists(area, x, y, z + 1)) i |= E;
+    if (opaque[i - Z_OFFSET]) m |= D;
+    if (opaque[i + Z_OFFSET]) m |= E;
 
-    if (exists(area, x - 1, y, z - 1)) i |= F;
-    if (exists(area, x - 1, y, z)) i |= G;
-    if (exists(area, x - 1, y, z + 1)) i |= H;
+    if (opaque[i - X_OFFSET - Z_OFFSET]) m |= F;
+    if (opaque[i - X_OFFSET]) m |= G;
+    if (opaque[i - X_OFFSET + Z_OFFSET]) m |= H;
 
-    return loadedRegions[i];
+    return loadedRegions[m];
   }
 
-  public static TextureRegion posY(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion posY(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return y(area, x + area.minBlockX, y + 1, z + area.minBlockZ);
+    return y(snapshot.opaque, i + Y_OFFSET);
   }
 
-  public static TextureRegion negY(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion negY(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return y(area, x + area.minBlockX, y - 1, z + area.minBlockZ);
+    return y(snapshot.opaque, i - Y_OFFSET);
   }
 
-  private static TextureRegion x(Area area, int x, int y, int z) {
-    int i = 0;
-    if (exists(area, x, y + 1, z + 1)) i |= A;
-    if (exists(area, x, y + 1, z)) i |= B;
-    if (exists(area, x, y + 1, z - 1)) i |= C;
+  private static TextureRegion x(boolean[] opaque, int i) {
+    int m = 0;
+    if (opaque[i + Y_OFFSET + Z_OFFSET]) m |= A;
+    if (opaque[i + Y_OFFSET]) m |= B;
+    if (opaque[i + Y_OFFSET - Z_OFFSET]) m |= C;
 
-    if (exists(area, x, y, z + 1)) i |= D;
-    if (exists(area, x, y, z - 1)) i |= E;
+    if (opaque[i + Z_OFFSET]) m |= D;
+    if (opaque[i - Z_OFFSET]) m |= E;
 
-    if (exists(area, x, y - 1, z + 1)) i |= F;
-    if (exists(area, x, y - 1, z)) i |= G;
-    if (exists(area, x, y - 1, z - 1)) i |= H;
-    return loadedRegions[i];
+    if (opaque[i - Y_OFFSET + Z_OFFSET]) m |= F;
+    if (opaque[i - Y_OFFSET]) m |= G;
+    if (opaque[i - Y_OFFSET - Z_OFFSET]) m |= H;
+    return loadedRegions[m];
   }
 
-  public static TextureRegion posX(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion posX(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return x(area, x + area.minBlockX + 1, y, z + area.minBlockZ);
+    return x(snapshot.opaque, i + X_OFFSET);
   }
 
-  public static TextureRegion negX(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion negX(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return x(area, x + area.minBlockX - 1, y, z + area.minBlockZ);
+    return x(snapshot.opaque, i - X_OFFSET);
   }
 
-  private static TextureRegion z(Area area, int x, int y, int z) {
-    int i = 0;
-    if (exists(area, x + 1, y + 1, z)) i |= A;
-    if (exists(area, x, y + 1, z)) i |= B;
-    if (exists(area, x - 1, y + 1, z)) i |= C;
+  private static TextureRegion z(boolean[] opaque, int i) {
+    int m = 0;
+    if (opaque[i + X_OFFSET + Y_OFFSET]) m |= A;
+    if (opaque[i + Y_OFFSET]) m |= B;
+    if (opaque[i - X_OFFSET + Y_OFFSET]) m |= C;
 
-    if (exists(area, x + 1, y, z)) i |= D;
-    if (exists(area, x - 1, y, z)) i |= E;
+    if (opaque[i + X_OFFSET]) m |= D;
+    if (opaque[i - X_OFFSET]) m |= E;
 
-    if (exists(area, x + 1, y - 1, z)) i |= F;
-    if (exists(area, x, y - 1, z)) i |= G;
-    if (exists(area, x - 1, y - 1, z)) i |= H;
-    return loadedRegions[i];
+    if (opaque[i + X_OFFSET - Y_OFFSET]) m |= F;
+    if (opaque[i - Y_OFFSET]) m |= G;
+    if (opaque[i - X_OFFSET - Y_OFFSET]) m |= H;
+    return loadedRegions[m];
   }
 
-  public static TextureRegion posZ(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion posZ(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return z(area, x + area.minBlockX, y, z + area.minBlockZ + 1);
+    return z(snapshot.opaque, i + Z_OFFSET);
   }
 
-  public static TextureRegion negZ(Area area, int x, int y, int z, boolean ao) {
+  public static TextureRegion negZ(SectionSnapshot snapshot, int i, boolean ao) {
     if (!ao) return null;
-    return z(area, x + area.minBlockX, y, z + area.minBlockZ - 1);
+    return z(snapshot.opaque, i - Z_OFFSET);
   }
 
   public static boolean load() {
@@ -2,26 +2,50 @@ package ethanjones.cubes.graphics.world.area;
 
 import ethanjones.cubes.graphics.CubesRenderable;
 import ethanjones.cubes.graphics.CubesVertexAttributes;
+import ethanjones.cubes.graphics.PackedVertices;
 import ethanjones.cubes.graphics.assets.Assets;
 
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.glutils.IndexBufferObject;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+import com.badlogic.gdx.utils.BufferUtils;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.Pool;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+
+// The gl meshes are sized to the vertices saved into them, in power of two size classes from 256 vertices up to
+// MAX_VERTICES. Meshes are taken from the free list of their size class when vertices are saved and returned to it
+// when the AreaMesh is reset, so most sections only hold a small mesh.
+// Packed vertices are relative to the minimum corner of the section, see PackedVertices, so the world transform of
+// the renderable moves and scales them back.
+// The merged quads of GreedyMesher are saved with regionVertexAttributes, which have their own free lists.
 public class AreaMesh implements Pool.Poolable, Disposable {
 
   public static final int MAX_INDICES = 32760;
   public static final int MAX_SIDES = MAX_INDICES / 6;
   public static final int MAX_VERTICES = MAX_SIDES * 4;
+  // sections are built into AreaMesher's arrays, vertices only holds the faces of one block, used by BlockIcons
+  public static final int VERTICES_SIDES = 6;
+
+  private static final int MIN_VERTEX_BITS = 8;
+  private static final int SIZE_CLASSES = 32 - Integer.numberOfLeadingZeros(MAX_VERTICES - 1) - MIN_VERTEX_BITS + 1;
+  private static final int MAX_FREE_MESHES = 16;
+  // render thread
+  private static final ArrayList<ArrayDeque<SizedMesh>> freeMeshes = new ArrayList<ArrayDeque<SizedMesh>>(SIZE_CLASSES * 2);
 
   public static short[] indices;
   public static float[] vertices;
 
   static {
-    vertices = new float[MAX_VERTICES * CubesVertexAttributes.MAX_COMPONENTS * 2];
+    vertices = new float[VERTICES_SIDES * 4 * CubesVertexAttributes.MAX_COMPONENTS];
     indices = new short[MAX_INDICES];
     short j = 0;
     for (int i = 0; i < indices.length; i += 6, j += 4) {
@@ -32,25 +56,52 @@ public class AreaMesh implements Pool.Poolable, Disposable {
       indices[i + 4] = (short) (j + 3);
       indices[i + 5] = (short) (j + 0);
     }
+    for (int i = 0; i < SIZE_CLASSES * 2; i++) {
+      freeMeshes.add(new ArrayDeque<SizedMesh>());
+    }
+  }
+
+  private static class SizedMesh {
+    final Mesh mesh;
+    // the vertex buffer object uploads this, from its start to the limit of its float buffer
+    final ByteBuffer bytes;
+    final int sizeClass;
+    final int freeList;
+
+    SizedMesh(VertexAttributes vertexAttributes, int sizeClass, int freeList) {
+      int maxVertices = Math.min(1 << (sizeClass + MIN_VERTEX_BITS), MAX_VERTICES);
+      int maxIndices = maxVertices / 4 * 6;
+      this.bytes = BufferUtils.newUnsafeByteBuffer(maxVertices * vertexAttributes.vertexSize);
+      this.sizeClass = sizeClass;
+      this.freeList = freeList;
+      VertexBufferObject vertexData = new VertexBufferObject(GL20.GL_STATIC_DRAW, bytes, true, vertexAttributes) {
+      };
+      IndexBufferObject indexData = new IndexBufferObject(true, maxIndices);
+      this.mesh = new Mesh(vertexData, indexData, false) {
+      };
+      mesh.setIndices(indices, 0, maxIndices);
+    }
   }
 
   public final CubesRenderable renderable = new CubesRenderable();
+  public final VertexAttributes vertexAttributes;
+  public final VertexAttributes regionVertexAttributes;
   public Mesh mesh;
   public MeshPart meshPart;
   public int vertexCount;
   public int maxVertexOffset = 0;
+  private SizedMesh sizedMesh;
 
   public AreaMesh() {
     this(CubesVertexAttributes.getVertexAttributes());
   }
 
   public AreaMesh(VertexAttributes vertexAttributes) {
-    mesh = new Mesh(true, MAX_VERTICES, MAX_INDICES, vertexAttributes);
+    this.vertexAttributes = vertexAttributes;
+    this.regionVertexAttributes = CubesVertexAttributes.getRegionVertexAttributes(vertexAttributes);
     meshPart = new MeshPart();
-    meshPart.mesh = mesh;
     meshPart.primitiveType = GL20.GL_TRIANGLES;
     meshPart.offset = 0;
-    mesh.setIndices(indices);
 
     int components = CubesVertexAttributes.components(vertexAttributes);
     maxVertexOffset = MAX_VERTICES * components;
@@ -59,25 +110,92 @@ public class AreaMesh implements Pool.Poolable, Disposable {
     renderable.name = "AreaMesh";
   }
 
+  // saves vertexCount floats from vertices
   public void saveVertices(int vertexCount) {
+    obtainMesh(vertexCount / CubesVertexAttributes.components(vertexAttributes), false);
     mesh.setVertices(vertices, 0, vertexCount);
-    int v = vertexCount / CubesVertexAttributes.components(mesh.getVertexAttributes());
-    meshPart.size = v / 4 * 6;
-    this.vertexCount = vertexCount;
-    if (vertexCount > 0) {
+    renderable.worldTransform.idt();
+    updateMeshPart();
+  }
+
+  // copies the remaining bytes of buffer, they are uploaded when the mesh is next bound
+  // region is true for merged greedy quads, the origin is the minimum corner of the section, only used by packed vertices
+  public void saveVertices(ByteBuffer buffer, boolean region, float originX, float originY, float originZ) {
+    int bytes = buffer.remaining();
+    obtainMesh(bytes / (region ? regionVertexAttributes : vertexAttributes).vertexSize, region);
+    ByteBuffer meshBytes = sizedMesh.bytes;
+    meshBytes.clear();
+    meshBytes.put(buffer);
+    meshBytes.flip();
+    mesh.getVerticesBuffer().limit(bytes / 4); // marks the vertex buffer as dirty, the upload is sized by the limit
+
+    if (CubesVertexAttributes.isPacked(vertexAttributes)) {
+      renderable.worldTransform.setToTranslation(originX, originY, originZ).scl(1f / PackedVertices.POSITION_SCALE);
+    } else {
+      renderable.worldTransform.idt();
+    }
+    updateMeshPart();
+  }
+
+  private void updateMeshPart() {
+    meshPart.mesh = mesh;
+    meshPart.size = vertexCount / 4 * 6;
+    if (vertexCount == 0) return;
+    if (CubesVertexAttributes.isPacked(vertexAttributes)) {
+      // the bounds of the section, without reading back the packed positions
+      float half = SIZE_BLOCKS * PackedVertices.POSITION_SCALE / 2f;
+      meshPart.center.set(half, half, half);
+      meshPart.halfExtents.set(half, half, half);
+      meshPart.radius = meshPart.halfExtents.len();
+    } else {
       meshPart.update();
-      renderable.meshPart.set(meshPart);
     }
+    renderable.meshPart.set(meshPart);
+  }
+
+  private void obtainMesh(int vertexCount, boolean region) {
+    this.vertexCount = vertexCount;
+    int sizeClass = Math.max(0, 32 - Integer.numberOfLeadingZeros(Math.max(vertexCount, 1) - 1) - MIN_VERTEX_BITS);
+    int freeList = (sizeClass * 2) + (region ? 1 : 0);
+    if (sizedMesh != null && sizedMesh.freeList == freeList) return;
+    freeMesh();
+
+    VertexAttributes attributes = region ? regionVertexAttributes : vertexAttributes;
+    ArrayDeque<SizedMesh> free = freeMeshes.get(freeList);
+    while ((sizedMesh = free.poll()) != null) {
+      if (sizedMesh.mesh.getVertexAttributes() == attributes) break;
+      sizedMesh.mesh.dispose(); // left over from before a setting change
+    }
+    if (sizedMesh == null) sizedMesh = new SizedMesh(attributes, sizeClass, freeList);
+    mesh = sizedMesh.mesh;
+  }
+
+  private void freeMesh() {
+    if (sizedMesh == null) return;
+    ArrayDeque<SizedMesh> free = freeMeshes.get(sizedMesh.freeList);
+    if (free.size() < MAX_FREE_MESHES) {
+      free.add(sizedMesh);
+    } else {
+      sizedMesh.mesh.dispose();
+    }
+    sizedMesh = null;
+    mesh = null;
+    meshPart.mesh = null;
   }
 
   @Override
   public void reset() {
+    freeMesh();
+    vertexCount = 0;
     renderable.name = "AreaMesh";
   }
 
   @Override
   public void dispose() {
-    mesh.dispose();
+    if (sizedMesh != null) sizedMesh.mesh.dispose();
+    sizedMesh = null;
+    mesh = null;
+    meshPart.mesh = null;
     renderable.name = "Disposed AreaMesh";
   }
 }
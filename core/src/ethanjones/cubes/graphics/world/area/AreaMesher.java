@@ -0,0 +1,227 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.core.system.ThreadPool;
+import ethanjones.cubes.graphics.CubesVertexAttributes;
+import ethanjones.cubes.graphics.PackedVertices;
+import ethanjones.cubes.graphics.world.block.BlockRenderType;
+import ethanjones.cubes.side.common.Side;
+import ethanjones.cubes.world.storage.Area;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ethanjones.cubes.world.storage.Area.BLOCK_VISIBLE;
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+
+// Builds the vertices of sections on a pool of threads, the render thread only submits jobs and uploads the results.
+// A job snapshots the section and its neighbours, builds the vertices without holding any locks and copies them into
+// pooled direct buffers which the render thread copies into the meshes. Packed vertices are packed as they are copied.
+// Jobs are run in the order they are submitted, WorldRenderer submits the closest sections first and at most MAX_JOBS
+// can be submitted but not yet uploaded, so the queue doesn't fill up with sections the camera has moved away from.
+public class AreaMesher {
+
+  public static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+  public static final int MAX_JOBS = THREADS * 8;
+
+  // direct buffers are pooled in power of two size classes, starting at 16KB
+  private static final int MIN_BUFFER_BITS = 14;
+  private static final int MAX_FLOATS = AreaMesh.MAX_VERTICES * CubesVertexAttributes.MAX_COMPONENTS;
+  private static final int MAX_BYTES = MAX_FLOATS * 4;
+  private static final int SIZE_CLASSES = 32 - Integer.numberOfLeadingZeros(MAX_BYTES - 1) - MIN_BUFFER_BITS + 1;
+  private static final int MAX_POOLED_BUFFERS = 8;
+
+  private static final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+  private static final ConcurrentLinkedQueue<Job> completed = new ConcurrentLinkedQueue<Job>();
+  private static final AtomicInteger pending = new AtomicInteger();
+  private static final ArrayList<ConcurrentLinkedQueue<ByteBuffer>> buffers = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>(SIZE_CLASSES);
+  static final ThreadLocal<float[]> vertices = new ThreadLocal<float[]>() {
+    @Override
+    protected float[] initialValue() {
+      return new float[MAX_FLOATS];
+    }
+  };
+  private static ThreadPool threadPool;
+
+  static {
+    for (int i = 0; i < SIZE_CLASSES; i++) {
+      buffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+    }
+  }
+
+  public static class Job {
+    final AreaRenderer renderer;
+    final int version;
+    final Area area;
+    final int ySection;
+    final boolean ao;
+    final boolean greedy;
+    final boolean packed;
+    final int componentSize;
+    final int maxVertexOffset;
+
+    boolean ready;
+    final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    // merged greedy quads, with a_region
+    final ArrayList<ByteBuffer> regionBuffers = new ArrayList<ByteBuffer>();
+
+    Job(AreaRenderer renderer, int version, Area area, int ySection, boolean ao, boolean greedy, boolean packed, int componentSize, int maxVertexOffset) {
+      this.renderer = renderer;
+      this.version = version;
+      this.area = area;
+      this.ySection = ySection;
+      this.ao = ao;
+      this.greedy = greedy;
+      this.packed = packed;
+      this.componentSize = componentSize;
+      this.maxVertexOffset = maxVertexOffset;
+    }
+  }
+
+  private static final Runnable runnable = new Runnable() {
+    @Override
+    public void run() {
+      while (!Thread.interrupted()) {
+        Job job;
+        try {
+          job = jobs.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        mesh(job);
+        completed.add(job);
+      }
+    }
+  };
+
+  static void mesh(Job job) {
+    try {
+      SectionSnapshot snapshot = SectionSnapshot.take(job.area, job.ySection);
+      if (snapshot == null) return;
+      if (job.greedy) {
+        GreedyMesher.build(snapshot, job.ao, job.packed, job.componentSize, job.maxVertexOffset, job.buffers, job.regionBuffers);
+      } else {
+        build(snapshot, job.ao, job.packed, job.componentSize, job.maxVertexOffset, job.buffers);
+      }
+      job.ready = true;
+    } catch (Exception e) {
+      Log.error("Failed to mesh area " + job.area + " section " + job.ySection, e);
+      free(job);
+    }
+  }
+
+  // builds the visible blocks of a section, each buffer holds at most maxVertexOffset floats so it fits in one AreaMesh
+  public static void build(SectionSnapshot snapshot, boolean ao, boolean packed, int componentSize, int maxVertexOffset, List<ByteBuffer> out) {
+    if (snapshot.isEmpty()) return;
+    float[] vertices = AreaMesher.vertices.get();
+    Vector3 offset = new Vector3(snapshot.minBlockX, 0, snapshot.minBlockZ);
+
+    int vertexOffset = 0;
+    for (int y = 0; y < SIZE_BLOCKS; y++) {
+      for (int z = 0; z < SIZE_BLOCKS; z++) {
+        int i = SectionSnapshot.index(0, y, z);
+        for (int x = 0; x < SIZE_BLOCKS; x++, i++) {
+          int blockInt = snapshot.blocks[i];
+          if ((blockInt & BLOCK_VISIBLE) != BLOCK_VISIBLE) continue;
+          Block block = IDManager.toBlock(blockInt & 0xFFFFF);
+          if (block == null) continue;
+          int meta = (blockInt >> 20) & 0xFF;
+          BlockRenderType renderType = block.renderType(meta);
+          if (vertexOffset + (renderType.maxVertices * componentSize) > maxVertexOffset) {
+            out.add(copy(vertices, vertexOffset, componentSize, snapshot, packed));
+            vertexOffset = 0;
+          }
+          vertexOffset = renderType.render(vertices, vertexOffset, offset, block, meta, block.getTextureHandler(meta), snapshot, x, snapshot.minBlockY + y, z, i, ao);
+        }
+      }
+    }
+    if (vertexOffset > 0) out.add(copy(vertices, vertexOffset, componentSize, snapshot, packed));
+  }
+
+  // the buffer holds floats in native order, or packed vertices
+  static ByteBuffer copy(float[] vertices, int length, int componentSize, SectionSnapshot snapshot, boolean packed) {
+    ByteBuffer buffer;
+    if (packed) {
+      buffer = obtainBuffer(length / componentSize * PackedVertices.vertexSize(componentSize));
+      PackedVertices.pack(vertices, length, componentSize, snapshot.minBlockX, snapshot.minBlockY, snapshot.minBlockZ, buffer);
+      buffer.flip();
+    } else {
+      buffer = obtainBuffer(length * 4);
+      buffer.asFloatBuffer().put(vertices, 0, length);
+      buffer.limit(length * 4);
+    }
+    return buffer;
+  }
+
+  static ByteBuffer obtainBuffer(int bytes) {
+    int sizeClass = Math.max(0, 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_BUFFER_BITS);
+    ByteBuffer buffer = buffers.get(sizeClass).poll();
+    if (buffer == null) buffer = BufferUtils.newByteBuffer(1 << (sizeClass + MIN_BUFFER_BITS));
+    buffer.clear();
+    return buffer;
+  }
+
+  static void freeBuffer(ByteBuffer buffer) {
+    ConcurrentLinkedQueue<ByteBuffer> pool = buffers.get(Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_BUFFER_BITS);
+    if (pool.size() < MAX_POOLED_BUFFERS) pool.add(buffer);
+  }
+
+  static void free(Job job) {
+    for (ByteBuffer buffer : job.buffers) {
+      freeBuffer(buffer);
+    }
+    for (ByteBuffer buffer : job.regionBuffers) {
+      freeBuffer(buffer);
+    }
+    job.buffers.clear();
+    job.regionBuffers.clear();
+  }
+
+  // render thread, returns false if too many jobs are waiting
+  static boolean submit(Job job) {
+    if (pending.get() >= MAX_JOBS) return false;
+    if (threadPool == null) {
+      threadPool = new ThreadPool("AreaMesher", runnable, THREADS).setSide(Side.Client).setDaemon(true).setPriority(Thread.NORM_PRIORITY - 1).start();
+    }
+    pending.incrementAndGet();
+    jobs.add(job);
+    return true;
+  }
+
+  // render thread, uploads finished jobs until deadline, at least one is uploaded each frame
+  public static void upload(long deadline) {
+    Job job;
+    while ((job = completed.poll()) != null) {
+      pending.decrementAndGet();
+      job.renderer.completed(job);
+      if (System.nanoTime() > deadline) break;
+    }
+  }
+
+  // render thread, drops the jobs which haven't started, jobs already running are discarded when they complete
+  public static void discard() {
+    ArrayList<Job> dropped = new ArrayList<Job>();
+    jobs.drainTo(dropped);
+    Job job;
+    while ((job = completed.poll()) != null) {
+      dropped.add(job);
+    }
+    for (Job j : dropped) {
+      pending.decrementAndGet();
+      free(j);
+    }
+  }
+
+  public static int pending() {
+    return pending.get();
+  }
+}
@@ -0,0 +1,119 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.graphics.CubesVertexAttributes;
+import ethanjones.cubes.graphics.world.block.BlockTextureHandler;
+import ethanjones.cubes.world.storage.Area;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+import static ethanjones.cubes.world.storage.Area.getRef;
+
+// Meshes the sections of the middle of a 3x3 of randomly filled areas without a GL context
+// Reports the vertices of the area and their size as floats and packed, then times snapshot and build on 1 and THREADS
+// threads
+// Usage: AreaMesherBenchmark [height in blocks] [seconds]
+public class AreaMesherBenchmark {
+
+  public static void main(String[] args) throws InterruptedException {
+    int height = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+    final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    final BlockTextureHandler textureHandler = BlockTextureHandler.uniform(new TextureRegion());
+    Block stone = new Block("core:benchmark_stone") {
+      @Override
+      public BlockTextureHandler getTextureHandler(int meta) {
+        return textureHandler;
+      }
+    };
+    IDManager.register(stone);
+    IDManager.generateDefaultMappings();
+    int stoneID = IDManager.toInt(stone);
+
+    final Area[] areas = new Area[9];
+    for (int x = -1; x <= 1; x++) {
+      for (int z = -1; z <= 1; z++) {
+        Area area = new Area(x, z) {
+          @Override
+          public Area neighbour(int areaX, int areaZ) {
+            int dX = areaX + 1, dZ = areaZ + 1;
+            if (dX < 0 || dX > 2 || dZ < 0 || dZ > 2) return null;
+            return areas[dX * 3 + dZ];
+          }
+        };
+        area.setupArrays(height - 1);
+        Random random = new Random(x * 31 + z);
+        for (int bx = 0; bx < SIZE_BLOCKS; bx++) {
+          for (int bz = 0; bz < SIZE_BLOCKS; bz++) {
+            for (int by = 0; by < height - 8; by++) {
+              if (random.nextInt(4) != 0) area.blocks.set(getRef(bx, by, bz), stoneID);
+            }
+          }
+        }
+        area.updateAll();
+        areas[(x + 1) * 3 + (z + 1)] = area;
+      }
+    }
+    final Area area = areas[4];
+    final int sections = area.height;
+    final int components = CubesVertexAttributes.COMPONENTS;
+    final int maxVertexOffset = AreaMesh.MAX_VERTICES * components;
+
+    long bytes = 0, packedBytes = 0;
+    for (int s = 0; s < sections; s++) {
+      bytes += build(area, s, false, components, maxVertexOffset);
+      packedBytes += build(area, s, true, components, maxVertexOffset);
+    }
+    System.out.println(sections + " sections " + (bytes / components / 4) + " vertices " + (bytes / 1024) + "KB " + (packedBytes / 1024) + "KB packed");
+
+    for (int run = 0; run < 2; run++) {
+      for (int threads : new int[]{1, AreaMesher.THREADS}) {
+        final AtomicLong count = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        Thread[] t = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+          t[i] = new Thread() {
+            @Override
+            public void run() {
+              ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+              while (System.nanoTime() < end) {
+                for (int s = 0; s < sections; s++) {
+                  AreaMesher.build(SectionSnapshot.take(area, s), false, false, components, maxVertexOffset, out);
+                  for (ByteBuffer buffer : out) {
+                    AreaMesher.freeBuffer(buffer);
+                  }
+                  out.clear();
+                }
+                count.addAndGet(sections);
+              }
+            }
+          };
+          t[i].start();
+        }
+        for (Thread thread : t) {
+          thread.join();
+        }
+        System.out.println(threads + " threads " + (count.get() / seconds) + " sections/s " + ((seconds * 1000000000L * threads) / count.get() / 1000) + "us/section");
+      }
+    }
+  }
+
+  // returns the bytes of the vertices of the section
+  private static long build(Area area, int ySection, boolean packed, int components, int maxVertexOffset) {
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+    AreaMesher.build(SectionSnapshot.take(area, ySection), false, packed, components, maxVertexOffset, out);
+    long bytes = 0;
+    for (ByteBuffer buffer : out) {
+      bytes += buffer.remaining();
+      AreaMesher.freeBuffer(buffer);
+    }
+    return bytes;
+  }
+}
@@ -1,10 +1,14 @@
 package ethanjones.cubes.graphics.world.area;
 
+import ethanjones.cubes.core.id.TransparencyManager;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.PalettedSection;
 
-import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
-import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS_CUBED;
+import static ethanjones.cubes.world.storage.Area.*;
 
+// Bits 0-5 are set if that face of the section is completely filled
+// Bits 6-20 are set if two faces of the section can see each other through transparent blocks, one for each pair
+// of faces, see exits
 public class AreaRenderStatus {
 
   public static int UNKNOWN = -2;
@@ -17,6 +21,35 @@ public class AreaRenderStatus {
   public static int COMPLETE_MIN_Z = 32;
   public static int COMPLETE = 63;
 
+  private static final int FACES = 6;
+  private static final int CONNECTIONS_SHIFT = 6;
+  // the connection bits of every pair of faces in a mask of faces, and the bit of a pair
+  private static final int[] CONNECTIONS = new int[COMPLETE + 1];
+  private static final int[] PAIR_BITS = new int[FACES * FACES];
+
+  private static final ThreadLocal<int[][]> floodFill = new ThreadLocal<int[][]>() {
+    @Override
+    protected int[][] initialValue() {
+      return new int[][]{new int[SIZE_BLOCKS_CUBED], new int[SIZE_BLOCKS_CUBED]};
+    }
+  };
+
+  static {
+    int bit = CONNECTIONS_SHIFT;
+    for (int a = 0; a < FACES; a++) {
+      for (int b = a + 1; b < FACES; b++) {
+        PAIR_BITS[a * FACES + b] = PAIR_BITS[b * FACES + a] = 1 << bit++;
+      }
+    }
+    for (int faces = 0; faces <= COMPLETE; faces++) {
+      for (int a = 0; a < FACES; a++) {
+        for (int b = 0; b < FACES; b++) {
+          if (a != b && (faces & (1 << a)) != 0 && (faces & (1 << b)) != 0) CONNECTIONS[faces] |= PAIR_BITS[a * FACES + b];
+        }
+      }
+    }
+  }
+
   // must be write locked
   public static int update(Area area, int ySection) {
     if (area.renderStatus[ySection] != UNKNOWN) return area.renderStatus[ySection];
@@ -58,6 +91,7 @@ public class AreaRenderStatus {
       //just because the outside isn't complete doesn't mean there are no blocks
       if (checkEmpty(area, ySection)) status = EMPTY;
     }
+    if (status != EMPTY && status != COMPLETE) status |= connections(area, ySection);
 
     area.renderStatus[ySection] = status;
     return status;
@@ -68,18 +102,79 @@ public class AreaRenderStatus {
     for (int x = x1; x <= x2; x++) {
       for (int y = y1 + h; y <= y2 + h; y++) {
         for (int z = z1; z <= z2; z++) {
-          if (area.blocks[Area.getRef(x, y, z)] == 0) return false;
+          if (area.blocks.get(Area.getRef(x, y, z)) == 0) return false;
         }
       }
     }
     return true;
   }
 
-  private static boolean checkEmpty(Area area, int ySection) {
-    for (int i = ySection * SIZE_BLOCKS_CUBED; i < ((ySection + 1) * SIZE_BLOCKS_CUBED); i++) {
-      if (area.blocks[i] != 0) return false;
+  // the faces which can be seen through the section when entering it through face, the COMPLETE_ bit of a face
+  // or 0 for the section the camera is in
+  public static int exits(int status, int face) {
+    if (status == EMPTY) return COMPLETE;
+    if (face == 0) return ~status & COMPLETE;
+    int f = Integer.numberOfTrailingZeros(face);
+    int exits = 0;
+    for (int e = 0; e < FACES; e++) {
+      if (e != f && (status & PAIR_BITS[f * FACES + e]) != 0) exits |= 1 << e;
     }
-    return true;
+    return exits;
+  }
+
+  // flood fills the transparent blocks of the section, and connects all the faces each fill touches
+  private static int connections(Area area, int ySection) {
+    PalettedSection section = area.blocks.section(ySection);
+    if (section.isSingle()) return TransparencyManager.isTransparent(section.singleValue()) ? CONNECTIONS[COMPLETE] : 0;
+
+    int[][] arrays = floodFill.get();
+    int[] open = arrays[0];
+    int[] queue = arrays[1];
+    section.get(0, open, 0, SIZE_BLOCKS_CUBED);
+    int last = 0;
+    boolean lastTransparent = true;
+    for (int i = 0; i < SIZE_BLOCKS_CUBED; i++) {
+      int b = open[i];
+      if (b != last) {
+        last = b;
+        lastTransparent = TransparencyManager.isTransparent(b);
+      }
+      open[i] = lastTransparent ? 1 : 0;
+    }
+
+    int connections = 0;
+    int m = SIZE_BLOCKS - 1;
+    for (int start = 0; start < SIZE_BLOCKS_CUBED && connections != CONNECTIONS[COMPLETE]; start++) {
+      if (open[start] == 0) continue;
+      open[start] = 0;
+      queue[0] = start;
+      int head = 0, tail = 1;
+      int faces = 0;
+      while (head < tail) {
+        int i = queue[head++];
+        int x = i & m;
+        int z = (i >> SIZE_BLOCKS_POW2) & m;
+        int y = i >> (SIZE_BLOCKS_POW2 * 2);
+        if (x == m) faces |= COMPLETE_MAX_X; else if (open[i + MAX_X_OFFSET] != 0) tail = add(open, queue, tail, i + MAX_X_OFFSET);
+        if (x == 0) faces |= COMPLETE_MIN_X; else if (open[i + MIN_X_OFFSET] != 0) tail = add(open, queue, tail, i + MIN_X_OFFSET);
+        if (y == m) faces |= COMPLETE_MAX_Y; else if (open[i + MAX_Y_OFFSET] != 0) tail = add(open, queue, tail, i + MAX_Y_OFFSET);
+        if (y == 0) faces |= COMPLETE_MIN_Y; else if (open[i + MIN_Y_OFFSET] != 0) tail = add(open, queue, tail, i + MIN_Y_OFFSET);
+        if (z == m) faces |= COMPLETE_MAX_Z; else if (open[i + MAX_Z_OFFSET] != 0) tail = add(open, queue, tail, i + MAX_Z_OFFSET);
+        if (z == 0) faces |= COMPLETE_MIN_Z; else if (open[i + MIN_Z_OFFSET] != 0) tail = add(open, queue, tail, i + MIN_Z_OFFSET);
+      }
+      connections |= CONNECTIONS[faces];
+    }
+    return connections;
+  }
+
+  private static int add(int[] open, int[] queue, int tail, int i) {
+    open[i] = 0;
+    queue[tail] = i;
+    return tail + 1;
+  }
+
+  private static boolean checkEmpty(Area area, int ySection) {
+    return area.blocks.section(ySection).containsOnly(0);
   }
 
   public static int[] create(int ySections) {
@@ -1,15 +1,9 @@
 package ethanjones.cubes.graphics.world.area;
 
-import ethanjones.cubes.block.Block;
-import ethanjones.cubes.core.id.IDManager;
 import ethanjones.cubes.core.system.Pools;
-import ethanjones.cubes.core.util.locks.LockManager;
-import ethanjones.cubes.core.util.locks.Locked;
 import ethanjones.cubes.graphics.CubesVertexAttributes;
 import ethanjones.cubes.graphics.world.WorldGraphicsPools;
 import ethanjones.cubes.graphics.world.ao.AmbientOcclusion;
-import ethanjones.cubes.graphics.world.block.BlockRenderType;
-import ethanjones.cubes.graphics.world.block.BlockTextureHandler;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.storage.Area;
 
@@ -20,10 +14,9 @@ import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.Pool;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
-import static ethanjones.cubes.world.storage.Area.*;
-
 public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolable {
 
   public static int renderedThisFrame = 0;
@@ -32,24 +25,41 @@ public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolab
   public static int refreshedMeshesThisFrame = 0;
   public static int refreshQueueLength = 0;
 
-  public boolean refresh = true;
+  public volatile boolean refresh = true;
   private Vector3 offset = new Vector3();
   private Area area;
   private int ySection;
   private int maxVertexOffset = 0;
   private int componentSize = 0;
+  private boolean packed = false;
   private ArrayList<AreaMesh> meshs = new ArrayList<AreaMesh>();
+  // incremented when the renderer is reset or reused, so results for the previous section are discarded
+  private int version = 0;
+  private boolean meshing = false;
 
   public boolean needsRefresh() {
     return refresh;
   }
 
+  // submits a job to AreaMesher, the old meshes are rendered until the new vertices have been uploaded
   public boolean update() {
-    if (refresh && calculateVertices()) {
-      refresh = false;
-      return true;
+    if (!refresh || meshing || area == null) return false;
+
+    Area maxX = area.neighbour(area.areaX + 1, area.areaZ);
+    Area minX = area.neighbour(area.areaX - 1, area.areaZ);
+    Area maxZ = area.neighbour(area.areaX, area.areaZ + 1);
+    Area minZ = area.neighbour(area.areaX, area.areaZ - 1);
+    if (maxX == null || minX == null || maxZ == null || minZ == null) return false;
+
+    getMeshInfo();
+    // cleared before the snapshot is taken, so changes made while meshing set it again
+    refresh = false;
+    if (!AreaMesher.submit(new AreaMesher.Job(this, version, area, ySection, AmbientOcclusion.isEnabled(), GreedyMesher.isEnabled(), packed, componentSize, maxVertexOffset))) {
+      refresh = true;
+      return false;
     }
-    return false;
+    meshing = true;
+    return true;
   }
 
   @Override
@@ -62,64 +72,36 @@ public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolab
     }
   }
 
-  public boolean calculateVertices() {
-    if (area == null) return false;
-
-    boolean ao = AmbientOcclusion.isEnabled();
+  // render thread
+  void completed(AreaMesher.Job job) {
+    if (job.version != version) { // reset or reused since the job was submitted
+      AreaMesher.free(job);
+      return;
+    }
+    meshing = false;
     getMeshInfo();
-
-    Area maxX = area.neighbour(area.areaX + 1, area.areaZ);
-    Area minX = area.neighbour(area.areaX - 1, area.areaZ);
-    Area maxZ = area.neighbour(area.areaX, area.areaZ + 1);
-    Area minZ = area.neighbour(area.areaX, area.areaZ - 1);
-    if (maxX == null || minX == null || maxZ == null || minZ == null) return false;
+    if (!job.ready || job.componentSize != componentSize || job.packed != packed) {
+      refresh = true;
+      AreaMesher.free(job);
+      return;
+    }
 
     free(meshs);
-
-    if (maxX.isBlank()) maxX = null;
-    if (minX.isBlank()) minX = null;
-    if (maxZ.isBlank()) maxZ = null;
-    if (minZ.isBlank()) minZ = null;
-
-    int vertexOffset = 0;
-
-    try (Locked<Area> locked = LockManager.lockMany(false, minX, minZ, area, maxZ, maxX)) {
-      if (!area.isBlank()) {
-        for (Area.BlockCursor c : area.iterateVisibleSection(ySection)) {
-          vertexOffset = render(vertexOffset, c.blockInt, c.x, c.y, c.z, c.ref, ao, maxX, minX, maxZ, minZ);
-        }
-        if (vertexOffset > 0) {
-          save(vertexOffset);
-        }
-      }
+    for (ByteBuffer buffer : job.buffers) {
+      saveMesh(buffer, false);
     }
+    for (ByteBuffer buffer : job.regionBuffers) {
+      saveMesh(buffer, true);
+    }
+    AreaMesher.free(job);
 
     refreshedThisFrame++;
     refreshedMeshesThisFrame += meshs.size();
-
-    return true;
-  }
-
-
-  private int render(int vertexOffset, int blockInt, int x, int y, int z, int i, boolean ao, Area maxX, Area minX, Area maxZ, Area minZ) {
-    Block block = IDManager.toBlock(blockInt & 0xFFFFF);
-    if (block != null) {
-      int meta = (blockInt >> 20) & 0xFF;
-      BlockTextureHandler textureHandler = block.getTextureHandler(meta);
-      BlockRenderType renderType = block.renderType(meta);
-      if (vertexOffset + (renderType.maxVertices * componentSize) > maxVertexOffset) {
-        save(vertexOffset);
-        vertexOffset = 0;
-      }
-
-      vertexOffset = renderType.render(AreaMesh.vertices, vertexOffset, offset, block, meta, textureHandler, area, x, y, z, i, ao, minX, maxZ, minZ, maxX);
-    }
-    return vertexOffset;
   }
 
-  private void save(int vertexCount) {
+  private void saveMesh(ByteBuffer buffer, boolean region) {
     AreaMesh areaMesh = Pools.obtain(AreaMesh.class);
-    areaMesh.saveVertices(vertexCount);
+    areaMesh.saveVertices(buffer, region, offset.x, ySection * Area.SIZE_BLOCKS, offset.z);
     areaMesh.renderable.name = "AreaMesh " + area.areaX + "," + area.areaZ;
     meshs.add(areaMesh);
   }
@@ -145,6 +127,8 @@ public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolab
     free(meshs);
     area = null;
     refresh = true;
+    meshing = false;
+    version++;
   }
 
   public AreaRenderer set(Area area, int ySection) {
@@ -152,6 +136,8 @@ public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolab
     this.ySection = ySection;
     this.area.areaRenderer[ySection] = this;
     this.refresh = true;
+    this.meshing = false;
+    this.version++;
     this.offset.set(area.minBlockX, 0, area.minBlockZ);
     return this;
   }
@@ -159,7 +145,8 @@ public class AreaRenderer implements RenderableProvider, Disposable, Pool.Poolab
   private void getMeshInfo() {
     AreaMesh areaMesh = Pools.obtain(AreaMesh.class);
     maxVertexOffset = areaMesh.maxVertexOffset;
-    componentSize = CubesVertexAttributes.components(areaMesh.mesh.getVertexAttributes());
+    componentSize = CubesVertexAttributes.components(areaMesh.vertexAttributes);
+    packed = CubesVertexAttributes.isPacked(areaMesh.vertexAttributes);
     Pools.free(areaMesh);
   }
 
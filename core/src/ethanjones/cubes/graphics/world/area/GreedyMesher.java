@@ -0,0 +1,349 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.core.settings.Setting;
+import ethanjones.cubes.core.settings.Settings;
+import ethanjones.cubes.core.settings.type.BooleanSetting;
+import ethanjones.cubes.core.util.BlockFace;
+import ethanjones.cubes.graphics.CubesVertexAttributes;
+import ethanjones.cubes.graphics.world.ao.AmbientOcclusion;
+import ethanjones.cubes.graphics.world.block.BlockRenderType;
+import ethanjones.cubes.graphics.world.block.BlockTextureHandler;
+import ethanjones.cubes.graphics.world.block.FaceVertices;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Vector3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static ethanjones.cubes.graphics.world.area.SectionSnapshot.X_OFFSET;
+import static ethanjones.cubes.graphics.world.area.SectionSnapshot.Y_OFFSET;
+import static ethanjones.cubes.graphics.world.area.SectionSnapshot.Z_OFFSET;
+import static ethanjones.cubes.world.storage.Area.*;
+
+// Merges the coplanar faces of opaque full blocks with the same texture and light into one quad.
+// Merged quads are built into their own buffers with a_region, see CubesVertexAttributes.getRegionVertexAttributes,
+// the texture coordinates count blocks across the quad and a_region holds the texture region, which the shader repeats
+// once per block. Faces which couldn't be merged and other blocks are built as usual, without a_region.
+// Faces with ambient occlusion are only merged if nothing occludes them, as the ao texture covers one block.
+public class GreedyMesher {
+
+  private static final ThreadLocal<GreedyMesher> instance = new ThreadLocal<GreedyMesher>() {
+    @Override
+    protected GreedyMesher initialValue() {
+      return new GreedyMesher();
+    }
+  };
+
+  private static final TextureRegion UNIT = new TextureRegion() {
+    @Override
+    public float getU() {
+      return 0f;
+    }
+
+    @Override
+    public float getV() {
+      return 0f;
+    }
+
+    @Override
+    public float getU2() {
+      return 1f;
+    }
+
+    @Override
+    public float getV2() {
+      return 1f;
+    }
+  };
+  private static final int REGION_COMPONENTS = 4;
+  private static final BlockFace[] FACES_ARRAY = BlockFace.values();
+  private static final int FACES = FACES_ARRAY.length;
+  // indexed by BlockFace.index
+  private static final int[] NEIGHBOUR_OFFSETS = {X_OFFSET, -X_OFFSET, Y_OFFSET, -Y_OFFSET, Z_OFFSET, -Z_OFFSET};
+
+  // per face, indexed by the position along the face normal, then the second and first axis of the face
+  // x faces are (z, y), y faces are (x, z) and z faces are (x, y)
+  private final int[] stamp = new int[FACES * SIZE_BLOCKS_CUBED];
+  private final TextureRegion[] textures = new TextureRegion[FACES * SIZE_BLOCKS_CUBED];
+  private final int[] lights = new int[FACES * SIZE_BLOCKS_CUBED];
+  // build if any face in the slice was stamped, indexed by face then position along the normal
+  private final int[] slices = new int[FACES * SIZE_BLOCKS];
+  private int build = 0;
+
+  private final float[] face = new float[4 * 8];
+  private final float[] regionVertices = new float[AreaMesh.MAX_VERTICES * CubesVertexAttributes.MAX_COMPONENTS];
+
+  private float[] vertices;
+  private int vertexOffset;
+  private int componentSize;
+  private int maxVertexOffset;
+  private int regionOffset;
+  private int regionComponentSize;
+  private int maxRegionOffset;
+  private boolean packed;
+  private SectionSnapshot snapshot;
+  private List<ByteBuffer> out;
+  private List<ByteBuffer> regionOut;
+
+  // the vertex attributes of AreaMesh don't depend on it, the meshes of merged quads are saved with a_region
+  public static Setting getSetting() {
+    return new BooleanSetting(false);
+  }
+
+  public static boolean isEnabled() {
+    return Settings.getBooleanSettingValue(Settings.GRAPHICS_GREEDY_MESHING);
+  }
+
+  // componentSize and maxVertexOffset are for the vertices without a_region, merged quads are added to regionOut
+  public static void build(SectionSnapshot snapshot, boolean ao, boolean packed, int componentSize, int maxVertexOffset, List<ByteBuffer> out, List<ByteBuffer> regionOut) {
+    GreedyMesher mesher = instance.get();
+    try {
+      mesher.mesh(snapshot, ao, packed, componentSize, maxVertexOffset, out, regionOut);
+    } finally {
+      mesher.vertices = null;
+      mesher.snapshot = null;
+      mesher.out = null;
+      mesher.regionOut = null;
+    }
+  }
+
+  private void mesh(SectionSnapshot snapshot, boolean ao, boolean packed, int componentSize, int maxVertexOffset, List<ByteBuffer> out, List<ByteBuffer> regionOut) {
+    if (snapshot.isEmpty()) return;
+    this.vertices = AreaMesher.vertices.get();
+    this.vertexOffset = 0;
+    this.componentSize = componentSize;
+    this.maxVertexOffset = maxVertexOffset;
+    this.regionOffset = 0;
+    this.regionComponentSize = componentSize + REGION_COMPONENTS;
+    this.maxRegionOffset = maxVertexOffset / componentSize * regionComponentSize;
+    this.packed = packed;
+    this.snapshot = snapshot;
+    this.out = out;
+    this.regionOut = regionOut;
+    if (++build == 0) {
+      Arrays.fill(stamp, 0);
+      Arrays.fill(slices, 0);
+      build = 1;
+    }
+
+    Vector3 offset = new Vector3(snapshot.minBlockX, 0, snapshot.minBlockZ);
+    TextureRegion noAO = ao ? AmbientOcclusion.noAO() : null;
+
+    int minY = snapshot.minBlockY;
+    for (int y = 0; y < SIZE_BLOCKS; y++) {
+      for (int z = 0; z < SIZE_BLOCKS; z++) {
+        int i = SectionSnapshot.index(0, y, z);
+        for (int x = 0; x < SIZE_BLOCKS; x++, i++) {
+          int blockInt = snapshot.blocks[i];
+          if ((blockInt & BLOCK_VISIBLE) != BLOCK_VISIBLE) continue;
+          Block block = IDManager.toBlock(blockInt & 0xFFFFF);
+          if (block == null) continue;
+          int meta = (blockInt >> 20) & 0xFF;
+          BlockRenderType renderType = block.renderType(meta);
+          BlockTextureHandler textureHandler = block.getTextureHandler(meta);
+
+          if (renderType != BlockRenderType.DEFAULT || !snapshot.opaque[i]) {
+            render(offset, renderType, block, meta, textureHandler, snapshot, x, minY + y, z, i, ao);
+            continue;
+          }
+
+          for (BlockFace f : FACES_ARRAY) {
+            int n = i + NEIGHBOUR_OFFSETS[f.index];
+            if (!block.renderFace(f, snapshot.blocks[n])) continue;
+            int light = snapshot.light[n];
+            TextureRegion texture = textureHandler.getSide(f);
+            TextureRegion aoRegion = ao ? ao(f, snapshot, i) : null;
+            if (aoRegion != noAO) {
+              single(offset, f, x, minY + y, z, texture, aoRegion, light);
+              continue;
+            }
+            int m = index(f, x, y, z);
+            stamp[m] = build;
+            slices[m >> (SIZE_BLOCKS_POW2 * 2)] = build;
+            textures[m] = texture;
+            lights[m] = light;
+          }
+        }
+      }
+    }
+
+    for (BlockFace f : FACES_ARRAY) {
+      for (int s = 0; s < SIZE_BLOCKS; s++) {
+        if (slices[(f.index * SIZE_BLOCKS) + s] == build) merge(offset, f, s, minY, noAO);
+      }
+    }
+
+    if (vertexOffset > 0) out.add(AreaMesher.copy(vertices, vertexOffset, componentSize, snapshot, packed));
+    if (regionOffset > 0) regionOut.add(AreaMesher.copy(regionVertices, regionOffset, regionComponentSize, snapshot, packed));
+  }
+
+  private void merge(Vector3 offset, BlockFace f, int s, int minY, TextureRegion noAO) {
+    int base = (f.index * SIZE_BLOCKS_CUBED) + (s * SIZE_BLOCKS_SQUARED);
+    for (int b = 0; b < SIZE_BLOCKS; b++) {
+      for (int a = 0; a < SIZE_BLOCKS; a++) {
+        int i = base + (b * SIZE_BLOCKS) + a;
+        if (stamp[i] != build) continue;
+        TextureRegion texture = textures[i];
+        int light = lights[i];
+
+        int w = 1;
+        while (a + w < SIZE_BLOCKS && same(i + w, texture, light)) w++;
+        int h = 1;
+        rows:
+        while (b + h < SIZE_BLOCKS) {
+          for (int k = 0; k < w; k++) {
+            if (!same(i + (h * SIZE_BLOCKS) + k, texture, light)) break rows;
+          }
+          h++;
+        }
+        for (int r = 0; r < h; r++) {
+          Arrays.fill(stamp, i + (r * SIZE_BLOCKS), i + (r * SIZE_BLOCKS) + w, 0);
+        }
+
+        if (w == 1 && h == 1) {
+          switch (f) {
+            case posX:
+            case negX:
+              single(offset, f, s, minY + b, a, texture, noAO, light);
+              break;
+            case posY:
+            case negY:
+              single(offset, f, a, minY + s, b, texture, noAO, light);
+              break;
+            default:
+              single(offset, f, a, minY + b, s, texture, noAO, light);
+          }
+          continue;
+        }
+        switch (f) {
+          case posX:
+          case negX:
+            emit(offset, f, s, minY + b, a, w, h, texture, noAO, light);
+            break;
+          case posY:
+          case negY:
+            emit(offset, f, a, minY + s, b, w, h, texture, noAO, light);
+            break;
+          default:
+            emit(offset, f, a, minY + b, s, w, h, texture, noAO, light);
+        }
+      }
+    }
+  }
+
+  private boolean same(int i, TextureRegion texture, int light) {
+    return stamp[i] == build && textures[i] == texture && lights[i] == light;
+  }
+
+  private static int index(BlockFace f, int x, int y, int z) {
+    switch (f) {
+      case posX:
+      case negX:
+        return (f.index * SIZE_BLOCKS_CUBED) + (x * SIZE_BLOCKS_SQUARED) + (y * SIZE_BLOCKS) + z;
+      case posY:
+      case negY:
+        return (f.index * SIZE_BLOCKS_CUBED) + (y * SIZE_BLOCKS_SQUARED) + (z * SIZE_BLOCKS) + x;
+      default:
+        return (f.index * SIZE_BLOCKS_CUBED) + (z * SIZE_BLOCKS_SQUARED) + (y * SIZE_BLOCKS) + x;
+    }
+  }
+
+  // a face which isn't merged, without a_region
+  private void single(Vector3 offset, BlockFace f, int x, int y, int z, TextureRegion texture, TextureRegion ao, int light) {
+    if (vertexOffset + (4 * componentSize) > maxVertexOffset) {
+      out.add(AreaMesher.copy(vertices, vertexOffset, componentSize, snapshot, packed));
+      vertexOffset = 0;
+    }
+    vertexOffset = createFace(offset, f, texture, ao, x, y, z, light, vertices, vertexOffset);
+  }
+
+  private static int createFace(Vector3 offset, BlockFace f, TextureRegion texture, TextureRegion ao, int x, int y, int z, int light, float[] vertices, int vertexOffset) {
+    switch (f) {
+      case posX:
+        return FaceVertices.createMaxX(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+      case negX:
+        return FaceVertices.createMinX(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+      case posY:
+        return FaceVertices.createMaxY(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+      case negY:
+        return FaceVertices.createMinY(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+      case posZ:
+        return FaceVertices.createMaxZ(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+      default:
+        return FaceVertices.createMinZ(offset, texture, ao, x, y, z, light, vertices, vertexOffset);
+    }
+  }
+
+  // a merged quad with a_region, w is along the first axis of the face and h along the second, see index
+  private void emit(Vector3 offset, BlockFace f, int x, int y, int z, int w, int h, TextureRegion texture, TextureRegion ao, int light) {
+    int length = createFace(offset, f, UNIT, ao, x, y, z, light, face, 0);
+    int ex = 1, ey = 1, ez = 1;
+    switch (f) {
+      case posX:
+      case negX:
+        ez = w;
+        ey = h;
+        break;
+      case posY:
+      case negY:
+        ex = w;
+        ez = h;
+        break;
+      default:
+        ex = w;
+        ey = h;
+    }
+
+    if (regionOffset + (4 * regionComponentSize) > maxRegionOffset) {
+      regionOut.add(AreaMesher.copy(regionVertices, regionOffset, regionComponentSize, snapshot, packed));
+      regionOffset = 0;
+    }
+    float midX = offset.x + x + 0.5f, midY = offset.y + y + 0.5f, midZ = offset.z + z + 0.5f;
+    float u = texture.getU(), v = texture.getV(), uSize = texture.getU2() - u, vSize = texture.getV2() - v;
+    int stride = length / 4;
+    for (int o = 0; o < length; o += stride) {
+      // the unit face spans one block, so move the far corners out to the size of the quad
+      regionVertices[regionOffset++] = face[o] > midX ? face[o] + ex - 1 : face[o];
+      regionVertices[regionOffset++] = face[o + 1] > midY ? face[o + 1] + ey - 1 : face[o + 1];
+      regionVertices[regionOffset++] = face[o + 2] > midZ ? face[o + 2] + ez - 1 : face[o + 2];
+      regionVertices[regionOffset++] = face[o + 3] * w;
+      regionVertices[regionOffset++] = face[o + 4] * h;
+      for (int k = 5; k < stride; k++) {
+        regionVertices[regionOffset++] = face[o + k];
+      }
+      regionVertices[regionOffset++] = u;
+      regionVertices[regionOffset++] = v;
+      regionVertices[regionOffset++] = uSize;
+      regionVertices[regionOffset++] = vSize;
+    }
+  }
+
+  private void render(Vector3 offset, BlockRenderType renderType, Block block, int meta, BlockTextureHandler textureHandler, SectionSnapshot snapshot, int x, int y, int z, int i, boolean ao) {
+    if (vertexOffset + (renderType.maxVertices * componentSize) > maxVertexOffset) {
+      out.add(AreaMesher.copy(vertices, vertexOffset, componentSize, snapshot, packed));
+      vertexOffset = 0;
+    }
+    vertexOffset = renderType.render(vertices, vertexOffset, offset, block, meta, textureHandler, snapshot, x, y, z, i, ao);
+  }
+
+  private static TextureRegion ao(BlockFace f, SectionSnapshot snapshot, int i) {
+    switch (f) {
+      case posX:
+        return AmbientOcclusion.posX(snapshot, i, true);
+      case negX:
+        return AmbientOcclusion.negX(snapshot, i, true);
+      case posY:
+        return AmbientOcclusion.posY(snapshot, i, true);
+      case negY:
+        return AmbientOcclusion.negY(snapshot, i, true);
+      case posZ:
+        return AmbientOcclusion.posZ(snapshot, i, true);
+      default:
+        return AmbientOcclusion.negZ(snapshot, i, true);
+    }
+  }
+}
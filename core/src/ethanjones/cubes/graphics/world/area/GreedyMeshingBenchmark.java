@@ -0,0 +1,169 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.graphics.CubesVertexAttributes;
+import ethanjones.cubes.graphics.world.block.BlockTextureHandler;
+import ethanjones.cubes.world.generator.smooth.SmoothWorld;
+import ethanjones.cubes.world.storage.Area;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+import static ethanjones.cubes.world.storage.Area.getRef;
+
+// Meshes a 3x3 of areas shaped by SmoothWorld's surface and dirt heights without a GL context, with and without
+// greedy meshing, and reports the quads and vertex bytes per non empty section and the time to snapshot and mesh a
+// section
+// Caves and trees are left out as they need a server and its save
+// Usage: GreedyMeshingBenchmark [seed] [seconds]
+public class GreedyMeshingBenchmark {
+
+  public static void main(String[] args) {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    Block[] blocks = {register("core:benchmark_bedrock"), register("core:benchmark_stone"), register("core:benchmark_dirt"), register("core:benchmark_grass")};
+    IDManager.generateDefaultMappings();
+    int bedrock = IDManager.toInt(blocks[0]);
+    int stone = IDManager.toInt(blocks[1]);
+    int dirt = IDManager.toInt(blocks[2]);
+    int grass = IDManager.toInt(blocks[3]);
+
+    SmoothWorld smoothWorld = new SmoothWorld(seed);
+    final Area[] areas = new Area[9];
+    for (int x = -1; x <= 1; x++) {
+      for (int z = -1; z <= 1; z++) {
+        Area area = new Area(x, z) {
+          @Override
+          public Area neighbour(int areaX, int areaZ) {
+            int dX = areaX + 1, dZ = areaZ + 1;
+            if (dX < 0 || dX > 2 || dZ < 0 || dZ > 2) return null;
+            return areas[dX * 3 + dZ];
+          }
+        };
+        for (int bx = 0; bx < SIZE_BLOCKS; bx++) {
+          for (int bz = 0; bz < SIZE_BLOCKS; bz++) {
+            int g = smoothWorld.getSurfaceHeight(bx + area.minBlockX, bz + area.minBlockZ);
+            int d = smoothWorld.getDirtHeight(bx + area.minBlockX, bz + area.minBlockZ);
+            area.setupArrays(g);
+            area.blocks.set(getRef(bx, 0, bz), bedrock);
+            for (int by = 1; by < g; by++) {
+              area.blocks.set(getRef(bx, by, bz), by < g - d ? stone : dirt);
+            }
+            area.blocks.set(getRef(bx, g, bz), grass);
+          }
+        }
+        area.updateAll();
+        areas[(x + 1) * 3 + (z + 1)] = area;
+      }
+    }
+    Area area = areas[4];
+
+    for (int run = 0; run < 2; run++) {
+      long defaultFaces = run("default", area, false, seconds);
+      long greedyFaces = run("greedy", area, true, seconds);
+      if (defaultFaces != greedyFaces) throw new IllegalStateException("Greedy quads cover " + greedyFaces + " faces, not " + defaultFaces);
+    }
+  }
+
+  // returns the number of block faces covered by the quads
+  private static long run(String name, Area area, boolean greedy, int seconds) {
+    int components = CubesVertexAttributes.COMPONENTS;
+    int maxVertexOffset = AreaMesh.MAX_VERTICES * components;
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+    ArrayList<ByteBuffer> regionOut = new ArrayList<ByteBuffer>();
+
+    long quads = 0, faces = 0, bytes = 0;
+    int sections = 0;
+    for (int s = 0; s < area.height; s++) {
+      build(area, s, greedy, components, maxVertexOffset, out, regionOut);
+      if (!out.isEmpty() || !regionOut.isEmpty()) sections++;
+      for (ByteBuffer buffer : out) {
+        quads += buffer.remaining() / 4 / components / 4;
+        faces += faces(buffer.asFloatBuffer(), components);
+        bytes += buffer.remaining();
+      }
+      for (ByteBuffer buffer : regionOut) {
+        quads += buffer.remaining() / 4 / CubesVertexAttributes.COMPONENTS_GREEDY / 4;
+        faces += faces(buffer.asFloatBuffer(), CubesVertexAttributes.COMPONENTS_GREEDY);
+        bytes += buffer.remaining();
+      }
+      free(out);
+      free(regionOut);
+    }
+
+    long count = 0;
+    long start = System.nanoTime();
+    long end = start + seconds * 1000000000L;
+    while (System.nanoTime() < end) {
+      for (int s = 0; s < area.height; s++) {
+        build(area, s, greedy, components, maxVertexOffset, out, regionOut);
+        free(out);
+        free(regionOut);
+      }
+      count += area.height;
+    }
+    long time = System.nanoTime() - start;
+
+    sections = Math.max(1, sections);
+    System.out.println(String.format("%-8s %6d quads/section %7d vertex bytes/section %8.1fus/section", name, quads / sections, bytes / sections, time / 1000f / count));
+    return faces;
+  }
+
+  private static void build(Area area, int ySection, boolean greedy, int components, int maxVertexOffset, ArrayList<ByteBuffer> out, ArrayList<ByteBuffer> regionOut) {
+    SectionSnapshot snapshot = SectionSnapshot.take(area, ySection);
+    if (greedy) {
+      GreedyMesher.build(snapshot, false, false, components, maxVertexOffset, out, regionOut);
+    } else {
+      AreaMesher.build(snapshot, false, false, components, maxVertexOffset, out);
+    }
+  }
+
+  private static void free(ArrayList<ByteBuffer> out) {
+    for (ByteBuffer buffer : out) {
+      AreaMesher.freeBuffer(buffer);
+    }
+    out.clear();
+  }
+
+  // the area of each quad is the product of the two sides of its bounding box which aren't zero
+  private static long faces(FloatBuffer buffer, int components) {
+    long faces = 0;
+    for (int q = buffer.position(); q < buffer.limit(); q += components * 4) {
+      float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+      float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+      for (int v = 0; v < 4; v++) {
+        for (int a = 0; a < 3; a++) {
+          float f = buffer.get(q + (v * components) + a);
+          min[a] = Math.min(min[a], f);
+          max[a] = Math.max(max[a], f);
+        }
+      }
+      long area = 1;
+      for (int a = 0; a < 3; a++) {
+        int side = Math.round(max[a] - min[a]);
+        if (side != 0) area *= side;
+      }
+      faces += area;
+    }
+    return faces;
+  }
+
+  // each block has its own texture region
+  private static Block register(String id) {
+    final BlockTextureHandler textureHandler = BlockTextureHandler.uniform(new TextureRegion());
+    Block block = new Block(id) {
+      @Override
+      public BlockTextureHandler getTextureHandler(int meta) {
+        return textureHandler;
+      }
+    };
+    IDManager.register(block);
+    return block;
+  }
+}
@@ -0,0 +1,133 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.core.id.TransparencyManager;
+import ethanjones.cubes.core.util.locks.LockManager;
+import ethanjones.cubes.core.util.locks.Locked;
+import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.PalettedSection;
+
+import java.util.Arrays;
+
+import static ethanjones.cubes.world.light.SunLight.MAX_SUNLIGHT;
+import static ethanjones.cubes.world.storage.Area.*;
+
+// A copy of the blocks and light of one section with a one block border from the eight neighbouring areas and the
+// sections below and above it, so meshing can run without holding any locks and every face, light and ambient
+// occlusion decision is an array lookup.
+// Where there is nothing to copy the border is air, lit by the sun above the bottom of the world and dark below it.
+// Indexed like Area.getRef, but 34 blocks wide and from -1 to 32 on each axis, see index.
+// Each thread reuses one snapshot, so it is only valid until the thread takes the next one.
+public final class SectionSnapshot {
+
+  public static final int SIZE = SIZE_BLOCKS + 2;
+  public static final int X_OFFSET = 1;
+  public static final int Z_OFFSET = SIZE;
+  public static final int Y_OFFSET = SIZE * SIZE;
+  public static final int VOLUME = SIZE * SIZE * SIZE;
+
+  private static final ThreadLocal<SectionSnapshot> instance = new ThreadLocal<SectionSnapshot>() {
+    @Override
+    protected SectionSnapshot initialValue() {
+      return new SectionSnapshot();
+    }
+  };
+
+  public final int[] blocks = new int[VOLUME];
+  public final int[] light = new int[VOLUME];
+  public final boolean[] opaque = new boolean[VOLUME];
+
+  public int areaX;
+  public int areaZ;
+  public int minBlockX;
+  public int minBlockZ;
+  public int ySection;
+  public int minBlockY;
+  // no visible blocks in the section, nothing else is copied
+  private boolean empty;
+
+  private SectionSnapshot() {
+  }
+
+  // x and z are relative to the area and y to the section
+  public static int index(int x, int y, int z) {
+    return (x + 1) + ((z + 1) * Z_OFFSET) + ((y + 1) * Y_OFFSET);
+  }
+
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  // returns null if the area or one of its four direct neighbours isn't ready, must be called with the side of the area map
+  public static SectionSnapshot take(Area area, int ySection) {
+    Area[] areas = new Area[9];
+    for (int dX = -1; dX <= 1; dX++) {
+      for (int dZ = -1; dZ <= 1; dZ++) {
+        areas[3 * (dX + 1) + (dZ + 1)] = area.neighbour(area.areaX + dX, area.areaZ + dZ);
+      }
+    }
+    if (areas[1] == null || areas[3] == null || areas[5] == null || areas[7] == null) return null;
+
+    SectionSnapshot snapshot = instance.get();
+    snapshot.areaX = area.areaX;
+    snapshot.areaZ = area.areaZ;
+    snapshot.minBlockX = area.minBlockX;
+    snapshot.minBlockZ = area.minBlockZ;
+    snapshot.ySection = ySection;
+    snapshot.minBlockY = ySection * SIZE_BLOCKS;
+    try (Locked<Area> locked = LockManager.lockMany(false, areas)) {
+      if (!area.isReady() || ySection >= area.height) return null;
+      // a single value section without the visible bit has nothing to mesh
+      PalettedSection section = area.blocks.section(ySection);
+      snapshot.empty = section.isSingle() && (section.singleValue() & BLOCK_VISIBLE) != BLOCK_VISIBLE;
+      if (snapshot.empty) return snapshot;
+
+      for (int dX = -1; dX <= 1; dX++) {
+        for (int dZ = -1; dZ <= 1; dZ++) {
+          Area a = areas[3 * (dX + 1) + (dZ + 1)];
+          snapshot.copy(a == null || a.isBlank() ? null : a, dX, dZ);
+        }
+      }
+    }
+    snapshot.updateOpaque();
+    return snapshot;
+  }
+
+  // copies the part of the border, or the middle, which comes from the area at dX, dZ one row at a time
+  private void copy(Area a, int dX, int dZ) {
+    int minX = dX < 0 ? -1 : dX == 0 ? 0 : SIZE_BLOCKS;
+    int length = dX == 0 ? SIZE_BLOCKS : 1;
+    int minZ = dZ < 0 ? -1 : dZ == 0 ? 0 : SIZE_BLOCKS;
+    int maxZ = dZ == 0 ? SIZE_BLOCKS - 1 : minZ;
+
+    for (int y = -1; y <= SIZE_BLOCKS; y++) {
+      int blockY = minBlockY + y;
+      boolean outside = a == null || blockY < 0 || blockY > a.maxY;
+      PalettedSection blockSection = outside ? null : a.blocks.section(blockY >> SIZE_BLOCKS_POW2);
+      PalettedSection lightSection = outside ? null : a.light.section(blockY >> SIZE_BLOCKS_POW2);
+      for (int z = minZ; z <= maxZ; z++) {
+        int i = index(minX, y, z);
+        if (outside) {
+          Arrays.fill(blocks, i, i + length, 0);
+          Arrays.fill(light, i, i + length, blockY < 0 ? 0 : MAX_SUNLIGHT);
+        } else {
+          int ref = getRef(minX & (SIZE_BLOCKS - 1), blockY & (SIZE_BLOCKS - 1), z & (SIZE_BLOCKS - 1));
+          blockSection.get(ref, blocks, i, length);
+          lightSection.get(ref, light, i, length);
+        }
+      }
+    }
+  }
+
+  private void updateOpaque() {
+    int last = 0;
+    boolean lastOpaque = false;
+    for (int i = 0; i < VOLUME; i++) {
+      int b = blocks[i];
+      if (b != last) {
+        last = b;
+        lastOpaque = !TransparencyManager.isTransparent(b);
+      }
+      opaque[i] = lastOpaque;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.world.storage.Area;
+
+import com.badlogic.gdx.utils.IntIntMap;
+
+import java.util.ArrayDeque;
+
+// Visits the sections which can be seen from the camera's section, breadth first. A section's neighbours are visited
+// through the faces visit returns, only moving away from the camera horizontally and away from the camera's section
+// vertically. A section is visited again if it is entered through a different face, as other faces may be visible
+// from it. Sections above the top of an area or in areas which aren't loaded are passed through.
+public abstract class SectionTraversal {
+
+  private final ArrayDeque<Node> queue = new ArrayDeque<Node>();
+  private final ArrayDeque<Node> pool = new ArrayDeque<Node>(256);
+  // the faces each section has been entered through
+  private final IntIntMap checked = new IntIntMap(1024);
+  private int sectionsVisited;
+
+  public void traverse(int startX, int startZ, int startY) {
+    queue.clear();
+    checked.clear();
+    sectionsVisited = 0;
+    queue.add(obtain(getArea(startX, startZ), startX, startZ, startY, 0));
+
+    while (!queue.isEmpty()) {
+      Node node = queue.pop();
+      Area area = node.area;
+      int areaX = node.areaX;
+      int areaZ = node.areaZ;
+      int ySection = node.ySection;
+      int from = node.from;
+      pool.add(node);
+
+      int packedID = (areaX & 0x3FF) | ((areaZ & 0x3FF) << 10) | ((ySection & 0x3FF) << 20);
+      int entered = from == 0 ? AreaRenderStatus.COMPLETE : from;
+      int seen = checked.get(packedID, 0);
+      if ((seen & entered) == entered) continue;
+      checked.put(packedID, seen | entered);
+      if (from != 0 && !inRange(areaX, areaZ, ySection)) continue;
+      if (seen == 0) sectionsVisited++;
+
+      boolean nullArea = area == null || ySection >= area.height;
+      int exits = AreaRenderStatus.COMPLETE;
+      if (!nullArea && ySection >= 0) exits = visit(area, ySection, from, seen == 0);
+      if (exits == 0) continue;
+
+      Area a;
+      if ((exits & AreaRenderStatus.COMPLETE_MAX_X) != 0 && further(startX, startZ, areaX, areaZ, areaX + 1, areaZ)) {
+        if ((a = getArea(areaX + 1, areaZ)) != null) queue.add(obtain(a, areaX + 1, areaZ, ySection, AreaRenderStatus.COMPLETE_MIN_X));
+      }
+      if ((exits & AreaRenderStatus.COMPLETE_MIN_X) != 0 && further(startX, startZ, areaX, areaZ, areaX - 1, areaZ)) {
+        if ((a = getArea(areaX - 1, areaZ)) != null) queue.add(obtain(a, areaX - 1, areaZ, ySection, AreaRenderStatus.COMPLETE_MAX_X));
+      }
+      if ((exits & AreaRenderStatus.COMPLETE_MAX_Z) != 0 && further(startX, startZ, areaX, areaZ, areaX, areaZ + 1)) {
+        if ((a = getArea(areaX, areaZ + 1)) != null) queue.add(obtain(a, areaX, areaZ + 1, ySection, AreaRenderStatus.COMPLETE_MIN_Z));
+      }
+      if ((exits & AreaRenderStatus.COMPLETE_MIN_Z) != 0 && further(startX, startZ, areaX, areaZ, areaX, areaZ - 1)) {
+        if ((a = getArea(areaX, areaZ - 1)) != null) queue.add(obtain(a, areaX, areaZ - 1, ySection, AreaRenderStatus.COMPLETE_MAX_Z));
+      }
+      if ((exits & AreaRenderStatus.COMPLETE_MAX_Y) != 0 && !nullArea && ySection >= startY) {
+        queue.add(obtain(area, areaX, areaZ, ySection + 1, AreaRenderStatus.COMPLETE_MIN_Y));
+      }
+      if ((exits & AreaRenderStatus.COMPLETE_MIN_Y) != 0 && ySection > 0 && ySection <= startY) {
+        queue.add(obtain(area, areaX, areaZ, ySection - 1, AreaRenderStatus.COMPLETE_MAX_Y));
+      }
+    }
+  }
+
+  // the area or null if it isn't loaded
+  protected abstract Area getArea(int areaX, int areaZ);
+
+  // whether a section other than the camera's should be visited, e.g. if it is in the frustum
+  protected boolean inRange(int areaX, int areaZ, int ySection) {
+    return true;
+  }
+
+  // called each time a section is entered, from is the COMPLETE_ bit of the face it was entered through or 0 for the
+  // camera's section, returns the faces to continue through
+  protected abstract int visit(Area area, int ySection, int from, boolean first);
+
+  public int getSectionsVisited() {
+    return sectionsVisited;
+  }
+
+  private static boolean further(int posAreaX, int posAreaZ, int oldAreaX, int oldAreaZ, int newAreaX, int newAreaZ) {
+    int oDX = Math.abs(posAreaX - oldAreaX);
+    int oDZ = Math.abs(posAreaZ - oldAreaZ);
+
+    int nDX = Math.abs(posAreaX - newAreaX);
+    int nDZ = Math.abs(posAreaZ - newAreaZ);
+    return (oDX * oDX + oDZ * oDZ) <= (nDX * nDX + nDZ * nDZ);
+  }
+
+  private Node obtain(Area area, int areaX, int areaZ, int ySection, int from) {
+    Node node = pool.pollFirst();
+    if (node == null) node = new Node();
+    node.area = area;
+    node.areaX = areaX;
+    node.areaZ = areaZ;
+    node.ySection = ySection;
+    node.from = from;
+    return node;
+  }
+
+  private static class Node {
+    Area area;
+    int areaX;
+    int areaZ;
+    int ySection;
+    // the face the node was entered through, 0 for the camera's section
+    int from;
+  }
+}
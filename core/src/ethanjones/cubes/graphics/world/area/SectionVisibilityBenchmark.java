@@ -0,0 +1,129 @@
+package ethanjones.cubes.graphics.world.area;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.world.generator.smooth.SmoothWorld;
+import ethanjones.cubes.world.storage.Area;
+
+import java.util.Random;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+import static ethanjones.cubes.world.storage.Area.getRef;
+
+// Fills a square of areas with SmoothWorld's surface and random worm caves, times AreaRenderStatus.update and counts
+// the sections SectionTraversal visits and would draw from a cave, without a frustum, using only the complete faces
+// of each section and using the connections between its faces
+// Usage: SectionVisibilityBenchmark [radius in areas] [seed]
+public class SectionVisibilityBenchmark {
+
+  public static void main(String[] args) {
+    final int radius = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+    Block stone = new Block("core:benchmark_stone") {
+    };
+    IDManager.register(stone);
+    IDManager.generateDefaultMappings();
+    int stoneID = IDManager.toInt(stone);
+
+    SmoothWorld smoothWorld = new SmoothWorld(seed);
+    final int width = (radius * 2) + 1;
+    final Area[] areas = new Area[width * width];
+    for (int x = -radius; x <= radius; x++) {
+      for (int z = -radius; z <= radius; z++) {
+        Area area = new Area(x, z) {
+          @Override
+          public Area neighbour(int areaX, int areaZ) {
+            return get(areas, radius, areaX, areaZ);
+          }
+        };
+        for (int bx = 0; bx < SIZE_BLOCKS; bx++) {
+          for (int bz = 0; bz < SIZE_BLOCKS; bz++) {
+            int g = smoothWorld.getSurfaceHeight(bx + area.minBlockX, bz + area.minBlockZ);
+            area.setupArrays(g);
+            area.blocks.fill(getRef(bx, 0, bz), getRef(bx, 0, bz) + 1, stoneID);
+            for (int by = 1; by <= g; by++) {
+              area.blocks.set(getRef(bx, by, bz), stoneID);
+            }
+          }
+        }
+        areas[(x + radius) * width + (z + radius)] = area;
+      }
+    }
+
+    // worms wander from the middle, so the camera starts in a cave
+    Random random = new Random(seed);
+    int blockRadius = radius * SIZE_BLOCKS;
+    for (int worm = 0; worm < width * width / 2; worm++) {
+      float x = worm == 0 ? 16 : random.nextInt(blockRadius * 2) - blockRadius;
+      float y = 20;
+      float z = worm == 0 ? 16 : random.nextInt(blockRadius * 2) - blockRadius;
+      float yaw = random.nextFloat() * 6.28f;
+      for (int step = 0; step < 200; step++) {
+        carve(areas, radius, (int) x, (int) y, (int) z, 2);
+        yaw += (random.nextFloat() - 0.5f) * 0.6f;
+        x += (float) Math.cos(yaw);
+        z += (float) Math.sin(yaw);
+        y = Math.max(4, Math.min(40, y + (random.nextFloat() - 0.5f)));
+      }
+    }
+
+    for (int run = 0; run < 3; run++) {
+      int sections = 0;
+      long start = System.nanoTime();
+      for (Area area : areas) {
+        area.renderStatus = AreaRenderStatus.create(area.height);
+        for (int s = 0; s < area.height; s++) {
+          AreaRenderStatus.update(area, s);
+          sections++;
+        }
+      }
+      long time = System.nanoTime() - start;
+      System.out.println(sections + " sections " + (time / 1000 / sections) + "us/section to update");
+    }
+
+    int ySection = 20 / SIZE_BLOCKS;
+    traverse("complete faces", areas, radius, ySection, false);
+    traverse("connections", areas, radius, ySection, true);
+  }
+
+  private static Area get(Area[] areas, int radius, int areaX, int areaZ) {
+    int width = (radius * 2) + 1;
+    if (Math.abs(areaX) > radius || Math.abs(areaZ) > radius) return null;
+    return areas[(areaX + radius) * width + (areaZ + radius)];
+  }
+
+  private static void carve(Area[] areas, int radius, int x, int y, int z, int r) {
+    for (int dX = -r; dX <= r; dX++) {
+      for (int dY = -r; dY <= r; dY++) {
+        for (int dZ = -r; dZ <= r; dZ++) {
+          if ((dX * dX) + (dY * dY) + (dZ * dZ) > r * r || y + dY < 1) continue;
+          Area area = get(areas, radius, Math.floorDiv(x + dX, SIZE_BLOCKS), Math.floorDiv(z + dZ, SIZE_BLOCKS));
+          if (area == null || y + dY > area.maxY) continue;
+          area.blocks.set(getRef(Math.floorMod(x + dX, SIZE_BLOCKS), y + dY, Math.floorMod(z + dZ, SIZE_BLOCKS)), 0);
+        }
+      }
+    }
+  }
+
+  // WorldRenderer's traversal, without the frustum or the check for hidden sections
+  private static void traverse(String name, final Area[] areas, final int radius, int yPos, final boolean connections) {
+    final int[] drawn = new int[1];
+    SectionTraversal traversal = new SectionTraversal() {
+      @Override
+      protected Area getArea(int areaX, int areaZ) {
+        return get(areas, radius, areaX, areaZ);
+      }
+
+      @Override
+      protected int visit(Area area, int ySection, int from, boolean first) {
+        int status = area.renderStatus[ySection];
+        if (first && status != AreaRenderStatus.EMPTY) drawn[0]++;
+        if (connections) return AreaRenderStatus.exits(status, from);
+        return status == AreaRenderStatus.EMPTY ? AreaRenderStatus.COMPLETE : ~status & AreaRenderStatus.COMPLETE;
+      }
+    };
+    traversal.traverse(0, 0, yPos);
+    System.out.println(String.format("%-15s %5d sections visited %5d drawn", name, traversal.getSectionsVisited(), drawn[0]));
+  }
+}
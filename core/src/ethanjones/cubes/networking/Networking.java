@@ -10,6 +10,10 @@ import com.badlogic.gdx.net.SocketHints;
 public abstract class Networking {
 
   public static final boolean NETWORKING_DEBUG = false;
+  // version of how packets are framed, checked when connecting as peers with different versions can't read each other
+  // 1: compressed packets carry their codec id, and packets can be sent compressed together in batches
+  // 2: runs of uncompressed packets longer than SocketOutput.MAX_UNFRAMED_BYTES are always sent as a batch
+  public static final int PROTOCOL_VERSION = 2;
 
   public static enum NetworkingState {
     Starting, Running, Stopping
@@ -10,6 +10,9 @@ import ethanjones.cubes.networking.server.ServerNetworkingParameter;
 import ethanjones.cubes.networking.singleplayer.SingleplayerNetworking;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
+import ethanjones.cubes.world.CoordinateConverter;
+
+import com.badlogic.gdx.math.Vector3;
 
 public class NetworkingManager {
 
@@ -76,6 +79,23 @@ public class NetworkingManager {
     }
   }
 
+  // to the clients whose load range includes the position, other than otherThan which may be null
+  public static void sendPacketToClientsInRange(Packet packet, Vector3 position, ClientIdentifier otherThan) {
+    sendPacketToClientsInRange(packet, CoordinateConverter.area(position.x), CoordinateConverter.area(position.z), otherThan);
+  }
+
+  public static void sendPacketToClientsInRange(Packet packet, int areaX, int areaZ, ClientIdentifier otherThan) {
+    if (serverNetworking != null && Cubes.getServer() != null) {
+      for (ClientIdentifier clientIdentifier : Cubes.getServer().getAllClients()) {
+        if (clientIdentifier != otherThan && clientIdentifier.getPlayerManager().shouldSendArea(areaX, areaZ)) {
+          serverNetworking.sendPacketToClient(packet, clientIdentifier);
+        }
+      }
+    } else {
+      Log.warning("Cannot send " + packet.toString() + " as networking not set up yet");
+    }
+  }
+
   public static Networking getNetworking(Side side) {
     switch (side) {
       case Client:
@@ -2,12 +2,14 @@ package ethanjones.cubes.networking.client;
 
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.system.Branding;
+import ethanjones.cubes.networking.Networking;
 import ethanjones.cubes.networking.transport.TransportSocket;
 
 import com.badlogic.gdx.net.NetJavaSocketImpl;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.Socket;
@@ -19,12 +21,14 @@ public class ClientConnectionInitializer {
 
   public static void connect(TransportSocket socket) throws Exception {
     DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-    dataOutputStream.writeByte(0); //0 is connect
+    dataOutputStream.writeByte(2); //2 is connect with a protocol version
+    dataOutputStream.writeInt(Networking.PROTOCOL_VERSION);
     int serverMajor;
     int serverMinor;
     int serverPoint;
     int serverBuild;
     String serverHash;
+    int serverProtocol;
     try {
       DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
       serverMajor = dataInputStream.readInt();
@@ -32,6 +36,11 @@ public class ClientConnectionInitializer {
       serverPoint = dataInputStream.readInt();
       serverBuild = dataInputStream.readInt();
       serverHash = dataInputStream.readUTF();
+      try {
+        serverProtocol = dataInputStream.readInt();
+      } catch (EOFException e) {
+        throw new IOException("Server does not support protocol " + Networking.PROTOCOL_VERSION, e);
+      }
     } catch (IOException e) {
       if (e instanceof SocketTimeoutException) {
         throw new IOException("Server did not respond in time", e);
@@ -53,6 +62,9 @@ public class ClientConnectionInitializer {
       String str = serverMajor + "." + serverMinor + "." + serverPoint;
       throw new IOException("Server is running version " + str + " not " + Branding.VERSION_MAJOR_MINOR_POINT);
     }
+    if (serverProtocol != Networking.PROTOCOL_VERSION) {
+      throw new IOException("Server is using protocol " + serverProtocol + " not " + Networking.PROTOCOL_VERSION);
+    }
   }
 
   public static Socket extractJavaSocket(com.badlogic.gdx.net.Socket gdxSocket) throws IOException {
@@ -12,12 +12,27 @@ public abstract class DataPacket extends Packet implements DataParser {
 
   @Override
   public void write(DataOutputStream dataOutputStream) throws IOException {
-    Data.output(write(), dataOutputStream);
+    DataSchema schema = schema();
+    if (schema != null) {
+      schema.write(write(), dataOutputStream);
+    } else {
+      Data.output(write(), dataOutputStream);
+    }
   }
 
   @Override
   public void read(DataInputStream dataInputStream) throws IOException {
-    read((DataGroup) Data.input(dataInputStream));
+    DataSchema schema = schema();
+    if (schema != null) {
+      read(schema.read(dataInputStream));
+    } else {
+      read((DataGroup) Data.input(dataInputStream));
+    }
+  }
+
+  // packets which return a schema are written with it instead of with Data, must return the same schema every time
+  protected DataSchema schema() {
+    return null;
   }
 
   @Override
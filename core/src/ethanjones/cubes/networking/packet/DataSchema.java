@@ -0,0 +1,247 @@
+package ethanjones.cubes.networking.packet;
+
+import ethanjones.data.Data;
+import ethanjones.data.DataGroup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+// The keys and types of the values in a DataGroup, so it can be written without the keys and boxed type tags.
+// A DataPacket returning a schema from schema() is written as a bit for each declared field saying if the group has
+// it, then the values of the fields it has in declared order. Values which aren't declared, or aren't of the declared
+// type, are written after them as a DataGroup, so a schema only needs to declare the common keys.
+// Declare fields when creating the schema, it must not be changed once used.
+public class DataSchema {
+
+  private static final int INT = 0;
+  private static final int LONG = 1;
+  private static final int FLOAT = 2;
+  private static final int BOOLEAN = 3;
+  private static final int STRING = 4;
+  private static final int UUID_TYPE = 5;
+  private static final int FLOATS = 6;
+  private static final int GROUP = 7;
+  private static final int GROUPS = 8;
+
+  private String[] keys = new String[0];
+  private int[] types = new int[0];
+  private DataSchema[] schemas = new DataSchema[0];
+  private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+  public DataSchema integer(String key) {
+    return add(key, INT, null);
+  }
+
+  public DataSchema longValue(String key) {
+    return add(key, LONG, null);
+  }
+
+  public DataSchema floatValue(String key) {
+    return add(key, FLOAT, null);
+  }
+
+  public DataSchema bool(String key) {
+    return add(key, BOOLEAN, null);
+  }
+
+  public DataSchema string(String key) {
+    return add(key, STRING, null);
+  }
+
+  public DataSchema uuid(String key) {
+    return add(key, UUID_TYPE, null);
+  }
+
+  // Float[], as written by VectorUtil.array
+  public DataSchema floats(String key) {
+    return add(key, FLOATS, null);
+  }
+
+  public DataSchema group(String key, DataSchema schema) {
+    return add(key, GROUP, schema);
+  }
+
+  // DataGroup[], each written with schema
+  public DataSchema groups(String key, DataSchema schema) {
+    return add(key, GROUPS, schema);
+  }
+
+  private DataSchema add(String key, int type, DataSchema schema) {
+    if (index.containsKey(key)) throw new IllegalArgumentException("Duplicate key " + key);
+    if (keys.length == 64) throw new IllegalStateException("A schema can have at most 64 fields");
+    int i = keys.length;
+    index.put(key, i);
+    keys = Arrays.copyOf(keys, i + 1);
+    types = Arrays.copyOf(types, i + 1);
+    schemas = Arrays.copyOf(schemas, i + 1);
+    keys[i] = key;
+    types[i] = type;
+    schemas[i] = schema;
+    return this;
+  }
+
+  public void write(DataGroup dataGroup, DataOutputStream out) throws IOException {
+    int fields = keys.length;
+    long present = 0;
+    int presentCount = 0;
+    for (int i = 0; i < fields; i++) {
+      if (matches(types[i], dataGroup.get(keys[i]))) {
+        present |= 1L << i;
+        presentCount++;
+      }
+    }
+    for (int b = 0; b < fields; b += 8) {
+      out.writeByte((int) (present >>> b));
+    }
+
+    for (int i = 0; i < fields; i++) {
+      if ((present & (1L << i)) == 0) continue;
+      Object value = dataGroup.get(keys[i]);
+      switch (types[i]) {
+        case INT:
+          out.writeInt((Integer) value);
+          break;
+        case LONG:
+          out.writeLong((Long) value);
+          break;
+        case FLOAT:
+          out.writeFloat((Float) value);
+          break;
+        case BOOLEAN:
+          out.writeBoolean((Boolean) value);
+          break;
+        case STRING:
+          out.writeUTF((String) value);
+          break;
+        case UUID_TYPE:
+          out.writeLong(((UUID) value).getMostSignificantBits());
+          out.writeLong(((UUID) value).getLeastSignificantBits());
+          break;
+        case FLOATS:
+          Float[] floats = (Float[]) value;
+          out.writeShort(floats.length);
+          for (Float f : floats) {
+            out.writeFloat(f);
+          }
+          break;
+        case GROUP:
+          schemas[i].write((DataGroup) value, out);
+          break;
+        case GROUPS:
+          DataGroup[] groups = (DataGroup[]) value;
+          out.writeShort(groups.length);
+          for (DataGroup group : groups) {
+            schemas[i].write(group, out);
+          }
+          break;
+      }
+    }
+
+    DataGroup extra = null;
+    if (dataGroup.size() != presentCount) {
+      for (String key : dataGroup.keySet()) {
+        Integer i = index.get(key);
+        if (i != null && (present & (1L << i)) != 0) continue;
+        if (extra == null) extra = new DataGroup();
+        extra.put(key, dataGroup.get(key));
+      }
+    }
+    out.writeBoolean(extra != null);
+    if (extra != null) Data.output(extra, out);
+  }
+
+  public DataGroup read(DataInputStream in) throws IOException {
+    int fields = keys.length;
+    long present = 0;
+    for (int b = 0; b < fields; b += 8) {
+      present |= (long) in.readUnsignedByte() << b;
+    }
+
+    DataGroup dataGroup = new DataGroup();
+    for (int i = 0; i < fields; i++) {
+      if ((present & (1L << i)) == 0) continue;
+      String key = keys[i];
+      switch (types[i]) {
+        case INT:
+          dataGroup.put(key, in.readInt());
+          break;
+        case LONG:
+          dataGroup.put(key, in.readLong());
+          break;
+        case FLOAT:
+          dataGroup.put(key, in.readFloat());
+          break;
+        case BOOLEAN:
+          dataGroup.put(key, in.readBoolean());
+          break;
+        case STRING:
+          dataGroup.put(key, in.readUTF());
+          break;
+        case UUID_TYPE:
+          dataGroup.put(key, new UUID(in.readLong(), in.readLong()));
+          break;
+        case FLOATS:
+          Float[] floats = new Float[in.readUnsignedShort()];
+          for (int f = 0; f < floats.length; f++) {
+            floats[f] = in.readFloat();
+          }
+          dataGroup.put(key, floats);
+          break;
+        case GROUP:
+          dataGroup.put(key, schemas[i].read(in));
+          break;
+        case GROUPS:
+          DataGroup[] groups = new DataGroup[in.readUnsignedShort()];
+          for (int g = 0; g < groups.length; g++) {
+            groups[g] = schemas[i].read(in);
+          }
+          dataGroup.put(key, groups);
+          break;
+      }
+    }
+
+    if (in.readBoolean()) {
+      DataGroup extra = (DataGroup) Data.input(in);
+      for (String key : extra.keySet()) {
+        dataGroup.put(key, extra.get(key));
+      }
+    }
+    return dataGroup;
+  }
+
+  private static boolean matches(int type, Object value) {
+    switch (type) {
+      case INT:
+        return value instanceof Integer;
+      case LONG:
+        return value instanceof Long;
+      case FLOAT:
+        return value instanceof Float;
+      case BOOLEAN:
+        return value instanceof Boolean;
+      case STRING:
+        return value instanceof String;
+      case UUID_TYPE:
+        return value instanceof UUID;
+      case FLOATS:
+        return value instanceof Float[] && noNulls((Float[]) value);
+      case GROUP:
+        return value instanceof DataGroup;
+      case GROUPS:
+        return value instanceof DataGroup[] && noNulls((DataGroup[]) value);
+      default:
+        return false;
+    }
+  }
+
+  private static boolean noNulls(Object[] array) {
+    for (Object o : array) {
+      if (o == null) return false;
+    }
+    return true;
+  }
+}
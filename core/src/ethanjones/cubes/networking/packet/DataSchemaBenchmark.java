@@ -0,0 +1,109 @@
+package ethanjones.cubes.networking.packet;
+
+import ethanjones.cubes.networking.packets.PacketEntityUpdate;
+import ethanjones.cubes.networking.packets.PacketPlayerInventory;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+import ethanjones.data.Data;
+import ethanjones.data.DataGroup;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+// Writing and reading the DataGroups of an item entity and a player inventory with Data and with their DataSchema
+// Reports the bytes and the time to write and read back each
+// Usage: DataSchemaBenchmark [seconds]
+public class DataSchemaBenchmark {
+
+  private interface Format {
+    void write(DataGroup dataGroup, DataOutputStream out) throws IOException;
+
+    DataGroup read(DataInputStream in) throws IOException;
+  }
+
+  private static final Format DATA = new Format() {
+    @Override
+    public void write(DataGroup dataGroup, DataOutputStream out) throws IOException {
+      Data.output(dataGroup, out);
+    }
+
+    @Override
+    public DataGroup read(DataInputStream in) throws IOException {
+      return (DataGroup) Data.input(in);
+    }
+  };
+
+  public static void main(String[] args) throws IOException {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+
+    DataGroup itemStack = new DataGroup();
+    itemStack.put("item", 12);
+    itemStack.put("count", 3);
+    DataGroup entity = new DataGroup();
+    entity.put("id", "core:item");
+    entity.put("uuid", UUID.randomUUID());
+    entity.put("pos", new Float[]{104.5f, 71.25f, -33.75f});
+    entity.put("motion", new Float[]{0f, -2.5f, 0.125f});
+    entity.put("ang", new Float[]{1f, 0f, 0f});
+    entity.put("itemstack", itemStack);
+    entity.put("age", 140);
+    entity.put("netID", 512);
+
+    DataGroup[] stacks = new DataGroup[36];
+    for (int i = 0; i < stacks.length; i++) {
+      stacks[i] = new DataGroup();
+      if (i % 3 == 0) {
+        stacks[i].put("item", i + 1);
+        stacks[i].put("count", 64);
+      }
+    }
+    DataGroup inventory = new DataGroup();
+    inventory.put("itemstacks", stacks);
+    inventory.put("selected", 4);
+
+    for (int run = 0; run < 2; run++) {
+      run("Entity Data", entity, DATA, seconds);
+      run("Entity Schema", entity, schema(PacketEntityUpdate.SCHEMA), seconds);
+      run("Inventory Data", inventory, DATA, seconds);
+      run("Inventory Schema", inventory, schema(PacketPlayerInventory.SCHEMA), seconds);
+    }
+  }
+
+  private static Format schema(final DataSchema schema) {
+    return new Format() {
+      @Override
+      public void write(DataGroup dataGroup, DataOutputStream out) throws IOException {
+        schema.write(dataGroup, out);
+      }
+
+      @Override
+      public DataGroup read(DataInputStream in) throws IOException {
+        return schema.read(in);
+      }
+    };
+  }
+
+  private static void run(String name, DataGroup dataGroup, Format codec, int seconds) throws IOException {
+    DirectByteArrayOutputStream bytes = new DirectByteArrayOutputStream(4096);
+    DataOutputStream out = new DataOutputStream(bytes);
+    codec.write(dataGroup, out);
+    int size = bytes.count();
+
+    long start = System.nanoTime();
+    long end = start + seconds * 1000000000L;
+    long count = 0;
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < 64; i++) {
+        bytes.reset();
+        codec.write(dataGroup, out);
+        codec.read(new DataInputStream(new ByteArrayInputStream(bytes.buffer(), 0, bytes.count())));
+      }
+      count += 64;
+    }
+    long time = System.nanoTime() - start;
+
+    System.out.println(name + ": " + size + " bytes, " + (time / count) + "ns per write and read");
+  }
+}
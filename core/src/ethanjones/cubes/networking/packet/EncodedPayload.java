@@ -0,0 +1,21 @@
+package ethanjones.cubes.networking.packet;
+
+import ethanjones.cubes.core.compression.Codec;
+
+// The output of Packet.write compressed with a codec, which SocketOutput writes as it is instead of writing and
+// compressing the packet, so a payload sent to several clients is only encoded once
+public class EncodedPayload {
+
+  public final Codec codec;
+  public final byte[] compressed;
+  public final int uncompressedLength;
+  // the Area.modCount the payload was encoded at
+  public final int modCount;
+
+  public EncodedPayload(Codec codec, byte[] compressed, int uncompressedLength, int modCount) {
+    this.codec = codec;
+    this.compressed = compressed;
+    this.uncompressedLength = uncompressedLength;
+    this.modCount = modCount;
+  }
+}
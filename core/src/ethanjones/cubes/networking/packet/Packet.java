@@ -1,5 +1,6 @@
 package ethanjones.cubes.networking.packet;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.networking.socket.SocketMonitor;
 
 import java.io.DataInputStream;
@@ -8,6 +9,8 @@ import java.io.IOException;
 
 public abstract class Packet {
 
+  public static final int STALE = Integer.MAX_VALUE;
+
   private SocketMonitor socketMonitor;
 
   public abstract void write(DataOutputStream dataOutputStream) throws IOException;
@@ -29,6 +32,34 @@ public abstract class Packet {
     return false;
   }
 
+  /**
+   * Called from the socket output thread for packets which should be compressed
+   *
+   * @return the already compressed payload to write instead of calling write, or null
+   */
+  public EncodedPayload getEncodedPayload(Codec codec) throws IOException {
+    return null;
+  }
+
+  /**
+   * Called from the send queue, possibly with it locked, so must not lock anything which queues packets
+   *
+   * @return how far the packet is from what it's being sent to, packets with a distance are sent nearest first
+   * within their priority. STALE if it no longer needs to be sent, -1 if it should be sent in order
+   */
+  public int getSendDistance() {
+    return -1;
+  }
+
+  /**
+   * Called from the send queue like getSendDistance, queued packets are only re-sorted when this changes
+   *
+   * @return a number which changes whenever the send distance of packets going to the same place may have changed
+   */
+  public int getSendDistanceVersion() {
+    return 0;
+  }
+
   /**
    * Sided.getSide() will return the new side
    */
@@ -0,0 +1,255 @@
+package ethanjones.cubes.networking.packet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+// The send queue of one connection, limiting it to a number of bytes per second.
+// Each priority has a token bucket refilled with its share of the budget, and the connection has a bucket refilled
+// with the whole budget. Nothing apart from CONNECTION_INITIALIZATION packets is sent while the connection bucket is
+// empty. Otherwise the highest priority with tokens and packets is sent, if none have tokens the highest priority with
+// packets is, so a class only gets less than its share when the other classes are using theirs. Buckets are charged
+// after a packet has been written so may go negative.
+// Within a priority packets are sent in the order they were queued, apart from packets with a send distance, which
+// are sent nearest first. A packet without a distance is never overtaken by one with a distance queued before it, so
+// each priority is a queue of segments, either one packet without a distance or a heap of consecutive packets with
+// one. A heap is ordered by the distances when they were queued and is only re-sorted when the packets' distance
+// version changes, as the player moves to another area. Stale packets are dropped when the heap is re-sorted and
+// when they are taken.
+public class ScheduledPacketQueue extends PacketQueue {
+
+  private static final PacketPriority[] PRIORITIES = PacketPriority.values();
+  // share of the budget for each priority, CONNECTION_INITIALIZATION isn't limited
+  private static final float[] SHARES = {0f, 0.375f, 0.375f, 0.25f};
+  private static final long BURST_NANOS = 250000000;
+  private static final long MAX_WAIT_NANOS = 5000000000L;
+
+  private static class Entry implements Comparable<Entry> {
+    final Packet packet;
+    final PacketPriority priority;
+    final long sequence;
+    int distance;
+
+    Entry(Packet packet, long sequence) {
+      this.packet = packet;
+      this.priority = PacketPriority.get(packet.getClass());
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if (distance != other.distance) return distance < other.distance ? -1 : 1;
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  private static class Segment {
+    // a packet without a distance, or null if this is a heap
+    final Entry entry;
+    final PriorityQueue<Entry> heap;
+    int version;
+    boolean dirty;
+
+    Segment(Entry entry) {
+      this.entry = entry;
+      this.heap = null;
+    }
+
+    Segment(int version) {
+      this.entry = null;
+      this.heap = new PriorityQueue<Entry>();
+      this.version = version;
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final ArrayDeque<Segment>[] queues = new ArrayDeque[PRIORITIES.length];
+  private long sequence;
+  private final long[] tokens = new long[PRIORITIES.length];
+  private long connectionTokens;
+  private long refilled = System.nanoTime();
+  private int bytesPerSecond;
+  private int size;
+
+  public ScheduledPacketQueue(int bytesPerSecond) {
+    for (int i = 0; i < queues.length; i++) {
+      queues[i] = new ArrayDeque<Segment>();
+    }
+    setBudget(bytesPerSecond);
+  }
+
+  // bytes per second, 0 for no limit
+  public synchronized void setBudget(int bytesPerSecond) {
+    this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+    refilled = System.nanoTime();
+    long burst = burst();
+    connectionTokens = burst;
+    for (int i = 1; i < tokens.length; i++) {
+      tokens[i] = (long) (burst * SHARES[i]);
+    }
+  }
+
+  public synchronized int getBudget() {
+    return bytesPerSecond;
+  }
+
+  @Override
+  public void add(Packet packet) {
+    if (packet == null) return;
+    // the version is read first, so a distance from a newer version only causes an extra re-sort
+    int version = packet.getSendDistanceVersion();
+    int distance = packet.getSendDistance();
+    synchronized (this) {
+      Entry entry = new Entry(packet, sequence++);
+      ArrayDeque<Segment> segments = queues[entry.priority.ordinal()];
+      if (distance < 0) {
+        segments.add(new Segment(entry));
+      } else {
+        // stale packets are kept until the heap is re-sorted, they may be queued before the player's area changes
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.heap == null) segments.add(segment = new Segment(version));
+        if (version != segment.version) segment.dirty = true;
+        entry.distance = distance;
+        segment.heap.add(entry);
+      }
+      size++;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public synchronized Packet get() {
+    refill();
+    Packet packet = take(PacketPriority.CONNECTION_INITIALIZATION.ordinal());
+    if (packet != null) return packet;
+    if (bytesPerSecond > 0 && connectionTokens <= 0) return null;
+
+    for (int i = 1; i < queues.length; i++) {
+      if (bytesPerSecond > 0 && tokens[i] <= 0) continue;
+      packet = take(i);
+      if (packet != null) return packet;
+    }
+    for (int i = 1; i < queues.length; i++) {
+      packet = take(i);
+      if (packet != null) return packet;
+    }
+    return null;
+  }
+
+  @Override
+  public Packet waitAndGet() {
+    long end = System.nanoTime() + MAX_WAIT_NANOS;
+    synchronized (this) {
+      while (true) {
+        Packet packet = get();
+        if (packet != null) return packet;
+        long remaining = end - System.nanoTime();
+        if (remaining <= 0) return null;
+        long wait = size > 0 ? Math.min(throttledNanos(), remaining) : remaining;
+        try {
+          wait(Math.max(wait / 1000000, 1));
+        } catch (InterruptedException e) {
+          return null;
+        }
+      }
+    }
+  }
+
+  // called once a packet taken from the queue has been written
+  public synchronized void sent(Packet packet, int bytes) {
+    if (bytesPerSecond <= 0) return;
+    connectionTokens -= bytes;
+    int i = PacketPriority.get(packet.getClass()).ordinal();
+    if (i != PacketPriority.CONNECTION_INITIALIZATION.ordinal()) tokens[i] -= bytes;
+  }
+
+  // nanoseconds until packets can be sent again, 0 if they can be or nothing is queued
+  public synchronized long throttledNanos() {
+    if (size == 0 || bytesPerSecond <= 0) return 0;
+    refill();
+    if (connectionTokens > 0) return 0;
+    return Math.max((-connectionTokens + 1) * 1000000000L / bytesPerSecond, 1);
+  }
+
+  private Packet take(int priority) {
+    ArrayDeque<Segment> segments = queues[priority];
+    Segment segment;
+    while ((segment = segments.peek()) != null) {
+      if (segment.entry != null) {
+        segments.poll();
+        size--;
+        return segment.entry.packet;
+      }
+      PriorityQueue<Entry> heap = segment.heap;
+      if (!heap.isEmpty() && (segment.dirty || heap.peek().packet.getSendDistanceVersion() != segment.version)) {
+        resort(segment);
+      }
+      Entry entry;
+      while ((entry = heap.poll()) != null) {
+        size--;
+        if (entry.packet.getSendDistance() != Packet.STALE) return entry.packet;
+      }
+      segments.poll();
+    }
+    return null;
+  }
+
+  // gets the distances again, dropping stale packets
+  private void resort(Segment segment) {
+    segment.version = segment.heap.peek().packet.getSendDistanceVersion();
+    segment.dirty = false;
+    ArrayList<Entry> entries = new ArrayList<Entry>(segment.heap.size());
+    for (Entry entry : segment.heap) {
+      entry.distance = entry.packet.getSendDistance();
+      if (entry.distance == Packet.STALE) {
+        size--;
+      } else {
+        entries.add(entry);
+      }
+    }
+    segment.heap.clear();
+    segment.heap.addAll(entries);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    long elapsed = now - refilled;
+    if (elapsed < 1000000) return; // so the tokens lost rounding down stay small
+    refilled = now;
+    if (bytesPerSecond <= 0) return;
+    long burst = burst();
+    connectionTokens = Math.min(connectionTokens + bytesPerSecond * elapsed / 1000000000L, burst);
+    for (int i = 1; i < tokens.length; i++) {
+      tokens[i] = Math.min(tokens[i] + (long) (bytesPerSecond * SHARES[i] * elapsed / 1000000000L), (long) (burst * SHARES[i]));
+    }
+  }
+
+  private long burst() {
+    return bytesPerSecond * BURST_NANOS / 1000000000L;
+  }
+
+  @Override
+  public Iterable<Packet> iterableView() {
+    final ArrayList<Packet> packets = new ArrayList<Packet>();
+    synchronized (this) {
+      for (ArrayDeque<Segment> segments : queues) {
+        for (Segment segment : segments) {
+          if (segment.entry != null) {
+            packets.add(segment.entry.packet);
+          } else {
+            for (Entry entry : segment.heap) {
+              packets.add(entry.packet);
+            }
+          }
+        }
+      }
+    }
+    return new Iterable<Packet>() {
+      @Override
+      public Iterator<Packet> iterator() {
+        return packets.iterator();
+      }
+    };
+  }
+}
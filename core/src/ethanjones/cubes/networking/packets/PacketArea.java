@@ -1,5 +1,7 @@
 package ethanjones.cubes.networking.packets;
 
+import ethanjones.cubes.core.compression.Codec;
+import ethanjones.cubes.networking.packet.EncodedPayload;
 import ethanjones.cubes.networking.packet.Packet;
 import ethanjones.cubes.networking.packet.PacketDirection;
 import ethanjones.cubes.networking.packet.PacketDirection.Direction;
@@ -40,11 +42,29 @@ public class PacketArea extends Packet {
     return !area.isUnloaded() && (playerManager == null || playerManager.shouldSendArea(area.areaX, area.areaZ));
   }
 
+  @Override
+  public int getSendDistance() {
+    if (area.isUnloaded()) return STALE;
+    if (playerManager == null) return 0;
+    int distance = playerManager.areaDistance(area.areaX, area.areaZ);
+    return distance > playerManager.getLoadDistance() ? STALE : distance;
+  }
+
+  @Override
+  public int getSendDistanceVersion() {
+    return playerManager == null ? 0 : playerManager.getAreaVersion();
+  }
+
   @Override
   public boolean shouldCompress() {
     return true;
   }
 
+  @Override
+  public EncodedPayload getEncodedPayload(Codec codec) throws IOException {
+    return area.getNetworkingPayload(codec);
+  }
+
   @Override
   public Packet copy() {
     PacketArea p = new PacketArea();
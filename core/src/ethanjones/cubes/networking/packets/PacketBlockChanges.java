@@ -0,0 +1,180 @@
+package ethanjones.cubes.networking.packets;
+
+import ethanjones.cubes.block.Block;
+import ethanjones.cubes.block.data.BlockData;
+import ethanjones.cubes.core.id.IDManager;
+import ethanjones.cubes.core.util.locks.Locked;
+import ethanjones.cubes.networking.packet.Packet;
+import ethanjones.cubes.networking.packet.PacketDirection;
+import ethanjones.cubes.networking.packet.PacketDirection.Direction;
+import ethanjones.cubes.side.common.Cubes;
+import ethanjones.cubes.world.storage.Area;
+import ethanjones.data.Data;
+import ethanjones.data.DataGroup;
+
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// The blocks changed in an area during a tick, built by BlockChanges.
+// Blocks are the id and meta packed as in Area, written as an index into a palette of the distinct blocks, with the x
+// and z of the block in the area and its y. Block data of the changed blocks is sent with them.
+// The client sets all the blocks with the area locked, and runs the updates to neighbouring areas afterwards.
+@Direction(PacketDirection.TO_CLIENT)
+public class PacketBlockChanges extends Packet {
+
+  public int areaX;
+  public int areaZ;
+  public int[] palette;
+  public int[] refs;
+  public int[] blocks; // indices into palette
+  public int[] blockDataRefs;
+  public DataGroup[] blockData;
+
+  // null if the area has none of the blocks
+  public static PacketBlockChanges create(Area area, IntSet changed) {
+    PacketBlockChanges packet = new PacketBlockChanges();
+    packet.areaX = area.areaX;
+    packet.areaZ = area.areaZ;
+    IntIntMap paletteIndex = new IntIntMap();
+    int[] palette = new int[16];
+    int[] refs = new int[changed.size];
+    int[] blocks = new int[changed.size];
+    int count = 0;
+    ArrayList<BlockData> blockData = new ArrayList<BlockData>(0);
+
+    try (Locked<Area> locked = area.acquireReadLock()) {
+      if (area.isUnloaded()) return null;
+      IntSet.IntSetIterator iterator = changed.iterator();
+      while (iterator.hasNext) {
+        int ref = iterator.next();
+        int y = ref / Area.SIZE_BLOCKS_SQUARED, xz = ref - (y * Area.SIZE_BLOCKS_SQUARED);
+        int x = xz % Area.SIZE_BLOCKS, z = xz / Area.SIZE_BLOCKS;
+        Block block = area.getBlock(x, y, z);
+        int b = block == null ? 0 : block.intID | (area.getMeta(x, y, z) << 20);
+
+        int index = paletteIndex.get(b, -1);
+        if (index == -1) {
+          index = paletteIndex.size;
+          paletteIndex.put(b, index);
+          if (index == palette.length) palette = Arrays.copyOf(palette, index * 2);
+          palette[index] = b;
+        }
+        refs[count] = ref;
+        blocks[count] = index;
+        count++;
+      }
+      for (BlockData data : area.blockDataList) {
+        if (changed.contains(Area.getRef(data.getX(), data.getY(), data.getZ()))) blockData.add(data);
+      }
+
+      packet.blockDataRefs = new int[blockData.size()];
+      packet.blockData = new DataGroup[blockData.size()];
+      for (int i = 0; i < blockData.size(); i++) {
+        BlockData data = blockData.get(i);
+        packet.blockDataRefs[i] = Area.getRef(data.getX(), data.getY(), data.getZ());
+        packet.blockData[i] = data.write();
+      }
+    }
+    if (count == 0 && packet.blockData.length == 0) return null;
+
+    packet.palette = Arrays.copyOf(palette, paletteIndex.size);
+    packet.refs = Arrays.copyOf(refs, count);
+    packet.blocks = Arrays.copyOf(blocks, count);
+    return packet;
+  }
+
+  @Override
+  public void write(DataOutputStream dataOutputStream) throws IOException {
+    dataOutputStream.writeInt(areaX);
+    dataOutputStream.writeInt(areaZ);
+    dataOutputStream.writeShort(palette.length);
+    for (int b : palette) {
+      dataOutputStream.writeInt(b);
+    }
+    boolean wide = palette.length > 256;
+    dataOutputStream.writeInt(refs.length);
+    for (int i = 0; i < refs.length; i++) {
+      int y = refs[i] / Area.SIZE_BLOCKS_SQUARED;
+      dataOutputStream.writeShort(refs[i] - (y * Area.SIZE_BLOCKS_SQUARED));
+      dataOutputStream.writeShort(y);
+      if (wide) {
+        dataOutputStream.writeShort(blocks[i]);
+      } else {
+        dataOutputStream.writeByte(blocks[i]);
+      }
+    }
+    dataOutputStream.writeShort(blockData.length);
+    for (int i = 0; i < blockData.length; i++) {
+      dataOutputStream.writeInt(blockDataRefs[i]);
+      Data.output(blockData[i], dataOutputStream);
+    }
+  }
+
+  @Override
+  public void read(DataInputStream dataInputStream) throws IOException {
+    areaX = dataInputStream.readInt();
+    areaZ = dataInputStream.readInt();
+    palette = new int[dataInputStream.readUnsignedShort()];
+    for (int i = 0; i < palette.length; i++) {
+      palette[i] = dataInputStream.readInt();
+    }
+    boolean wide = palette.length > 256;
+    int count = dataInputStream.readInt();
+    refs = new int[count];
+    blocks = new int[count];
+    for (int i = 0; i < count; i++) {
+      int xz = dataInputStream.readUnsignedShort();
+      refs[i] = xz + (dataInputStream.readUnsignedShort() * Area.SIZE_BLOCKS_SQUARED);
+      blocks[i] = wide ? dataInputStream.readUnsignedShort() : dataInputStream.readUnsignedByte();
+    }
+    int blockDataCount = dataInputStream.readUnsignedShort();
+    blockDataRefs = new int[blockDataCount];
+    blockData = new DataGroup[blockDataCount];
+    for (int i = 0; i < blockDataCount; i++) {
+      blockDataRefs[i] = dataInputStream.readInt();
+      blockData[i] = (DataGroup) Data.input(dataInputStream);
+    }
+  }
+
+  @Override
+  public void handlePacket() {
+    Area area = Cubes.getClient().world.getArea(areaX, areaZ);
+    if (area == null) return;
+    ArrayList<Runnable> sideEffects = new ArrayList<Runnable>();
+    Area.deferSideEffects(sideEffects);
+    try (Locked<Area> locked = area.acquireWriteLock()) {
+      for (int i = 0; i < refs.length; i++) {
+        int ref = refs[i], b = palette[blocks[i]];
+        int y = ref / Area.SIZE_BLOCKS_SQUARED, xz = ref - (y * Area.SIZE_BLOCKS_SQUARED);
+        area.setBlock(IDManager.toBlock(b & 0xFFFFF), xz % Area.SIZE_BLOCKS, y, xz / Area.SIZE_BLOCKS, (b >> 20) & 0xFF);
+      }
+      for (int i = 0; i < blockDataRefs.length; i++) {
+        int ref = blockDataRefs[i];
+        int y = ref / Area.SIZE_BLOCKS_SQUARED, xz = ref - (y * Area.SIZE_BLOCKS_SQUARED);
+        BlockData data = area.getBlockData(xz % Area.SIZE_BLOCKS, y, xz / Area.SIZE_BLOCKS);
+        if (data != null) data.read(blockData[i]);
+      }
+    } finally {
+      Area.deferSideEffects(null);
+    }
+    for (Runnable runnable : sideEffects) {
+      runnable.run();
+    }
+  }
+
+  @Override
+  public boolean shouldCompress() {
+    return refs.length > 64;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " " + areaX + "," + areaZ + " " + refs.length + " blocks";
+  }
+}
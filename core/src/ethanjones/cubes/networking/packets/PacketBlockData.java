@@ -30,7 +30,7 @@ public class PacketBlockData extends DataPacket {
         n.blockY = this.blockY;
         n.blockZ = this.blockZ;
         n.dataGroup = this.dataGroup;
-        NetworkingManager.sendPacketToOtherClients(n, client);
+        NetworkingManager.sendPacketToClientsInRange(n, areaX, areaZ, client);
       }
     }
   }
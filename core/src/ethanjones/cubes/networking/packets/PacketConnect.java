@@ -1,5 +1,6 @@
 package ethanjones.cubes.networking.packets;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.settings.Settings;
 import ethanjones.cubes.networking.packet.DataPacket;
 import ethanjones.cubes.networking.packet.PacketDirection;
@@ -20,6 +21,7 @@ public class PacketConnect extends DataPacket {
   public UUID uuid = CubesClient.uuid;
   public String username = Settings.getStringSettingValue(Settings.USERNAME);
   public int renderDistance = Settings.getIntegerSettingValue(Settings.GRAPHICS_VIEW_DISTANCE);
+  public String codecs = Codec.supported();
 
   @Override
   public void handlePacket() {
@@ -32,6 +34,7 @@ public class PacketConnect extends DataPacket {
     dataGroup.put("uuid", uuid);
     dataGroup.put("username", username);
     dataGroup.put("renderDistance", renderDistance);
+    dataGroup.put("codecs", codecs);
     return dataGroup;
   }
 
@@ -40,6 +43,7 @@ public class PacketConnect extends DataPacket {
     uuid = (UUID) dataGroup.get("uuid");
     username = dataGroup.getString("username");
     renderDistance = dataGroup.getInteger("renderDistance");
+    codecs = dataGroup.containsKey("codecs") ? dataGroup.getString("codecs") : null;
   }
 
   @Override
@@ -1,5 +1,6 @@
 package ethanjones.cubes.networking.packets;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.id.IDManager;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.entity.living.player.Player;
@@ -24,6 +25,7 @@ public class PacketConnected extends DataPacket {
   public UUID player;
   public int worldTime;
   public Gamemode gamemode;
+  public Codec codec = Codec.DEFLATE;
 
   @Override
   public void handlePacket() {
@@ -41,7 +43,10 @@ public class PacketConnected extends DataPacket {
     NetworkingManager.sendPacketToServer(new PacketConnectedReply());
 
     SocketMonitor socketMonitor = getSocketMonitor();
-    if (socketMonitor != null) socketMonitor.getSocketOutput().setConnectionInitialized();
+    if (socketMonitor != null) {
+      socketMonitor.getSocketOutput().setCodec(codec);
+      socketMonitor.getSocketOutput().setConnectionInitialized();
+    }
   }
 
   @Override
@@ -51,6 +56,7 @@ public class PacketConnected extends DataPacket {
     dataGroup.put("player", player);
     dataGroup.put("worldTime", worldTime);
     dataGroup.put("worldGamemode", gamemode.name());
+    dataGroup.put("codec", codec.name);
     return dataGroup;
   }
 
@@ -60,6 +66,8 @@ public class PacketConnected extends DataPacket {
     player = (UUID) dataGroup.get("player");
     worldTime = dataGroup.getInteger("worldTime");
     gamemode = Gamemode.valueOf(dataGroup.getString("worldGamemode"));
+    codec = dataGroup.containsKey("codec") ? Codec.get(dataGroup.getString("codec")) : null;
+    if (codec == null) codec = Codec.DEFLATE;
   }
 
   @Override
@@ -2,6 +2,7 @@ package ethanjones.cubes.networking.packets;
 
 import ethanjones.cubes.entity.Entity;
 import ethanjones.cubes.networking.packet.DataPacket;
+import ethanjones.cubes.networking.packet.DataSchema;
 import ethanjones.cubes.networking.packet.PacketDirection;
 import ethanjones.cubes.networking.packet.PacketDirection.Direction;
 import ethanjones.cubes.side.common.Cubes;
@@ -16,14 +17,22 @@ public class PacketEntityAdd extends DataPacket {
     Cubes.getClient().world.addEntity(entity);
   }
 
+  @Override
+  protected DataSchema schema() {
+    return PacketEntityUpdate.SCHEMA;
+  }
+
   @Override
   public DataGroup write() {
-    return entity.write();
+    DataGroup data = entity.write();
+    data.put("netID", entity.networkID);
+    return data;
   }
 
   @Override
   public void read(DataGroup data) {
     entity = Entity.readType(data);
+    if (entity != null && data.containsKey("netID")) entity.networkID = data.getInteger("netID");
   }
 
   @Override
@@ -0,0 +1,171 @@
+package ethanjones.cubes.networking.packets;
+
+import ethanjones.cubes.core.util.locks.Locked;
+import ethanjones.cubes.entity.Entity;
+import ethanjones.cubes.networking.packet.Packet;
+import ethanjones.cubes.networking.packet.PacketDirection;
+import ethanjones.cubes.networking.packet.PacketDirection.Direction;
+import ethanjones.cubes.side.common.Cubes;
+import ethanjones.cubes.world.client.WorldClient;
+import ethanjones.cubes.world.thread.WorldLockable;
+
+import com.badlogic.gdx.math.Vector3;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+// The entities in range of a client which moved this tick, written by EntityReplicator.
+// Each entry is the network id of the entity, a byte of flags and three zigzag varints for each flagged field, which
+// are the differences from the values last sent for the entity, or the values themselves in a keyframe.
+// Position, motion and angle are quantized, see SCALE. Deltas for an entity are ignored until the client has had a
+// keyframe for it, as until then it doesn't know the values they are relative to.
+@Direction(PacketDirection.TO_CLIENT)
+public class PacketEntityDeltas extends Packet {
+
+  public static final int POSITION = 1 << 0;
+  public static final int MOTION = 1 << 1;
+  public static final int ANGLE = 1 << 2;
+  public static final int KEYFRAME = 1 << 3;
+
+  public static final int FIELDS = 3;
+  public static final int VALUES = FIELDS * 3;
+  // units per block, per block per second and per unit of the angle vector
+  private static final float[] SCALE = {64f, 256f, 4096f};
+
+  // the state of an entity on the client
+  public static class Replicated {
+    public final UUID uuid;
+    final int[] values = new int[VALUES];
+    boolean keyframed;
+
+    public Replicated(UUID uuid) {
+      this.uuid = uuid;
+    }
+  }
+
+  public byte[] data;
+  public int entries;
+
+  @Override
+  public void write(DataOutputStream dataOutputStream) throws IOException {
+    dataOutputStream.writeInt(entries);
+    dataOutputStream.writeInt(data.length);
+    dataOutputStream.write(data);
+  }
+
+  @Override
+  public void read(DataInputStream dataInputStream) throws IOException {
+    entries = dataInputStream.readInt();
+    data = new byte[dataInputStream.readInt()];
+    dataInputStream.readFully(data);
+  }
+
+  @Override
+  public void handlePacket() {
+    WorldClient world = (WorldClient) Cubes.getClient().world;
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    int[] values = new int[VALUES];
+    try (Locked<WorldLockable> locked = world.entities.acquireWriteLock()) {
+      for (int e = 0; e < entries; e++) {
+        int networkID = readVarInt(in);
+        int flags = in.readUnsignedByte();
+        boolean keyframe = (flags & KEYFRAME) != 0;
+        for (int i = 0; i < VALUES; i++) {
+          values[i] = (flags & (1 << (i / 3))) != 0 ? readZigZag(in) : 0;
+        }
+
+        Replicated replicated = world.getReplicated(networkID);
+        if (replicated == null || !(keyframe || replicated.keyframed)) continue;
+        Entity entity = world.entities.map.get(replicated.uuid);
+        if (entity == null) {
+          world.removeReplicated(networkID);
+          continue;
+        }
+        for (int i = 0; i < VALUES; i++) {
+          if ((flags & (1 << (i / 3))) == 0) continue;
+          replicated.values[i] = keyframe ? values[i] : replicated.values[i] + values[i];
+        }
+        replicated.keyframed = true;
+        if ((flags & POSITION) != 0) dequantize(replicated.values, 0, entity.position);
+        if ((flags & MOTION) != 0) dequantize(replicated.values, 1, entity.motion);
+        if ((flags & ANGLE) != 0) dequantize(replicated.values, 2, entity.angle);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Invalid entity deltas", e);
+    }
+  }
+
+  public static void quantize(Entity entity, int[] values) {
+    quantize(entity.position, 0, values);
+    quantize(entity.motion, 1, values);
+    quantize(entity.angle, 2, values);
+  }
+
+  private static void quantize(Vector3 vector, int field, int[] values) {
+    float scale = SCALE[field];
+    values[field * 3] = Math.round(vector.x * scale);
+    values[(field * 3) + 1] = Math.round(vector.y * scale);
+    values[(field * 3) + 2] = Math.round(vector.z * scale);
+  }
+
+  private static void dequantize(int[] values, int field, Vector3 vector) {
+    float scale = SCALE[field];
+    vector.set(values[field * 3] / scale, values[(field * 3) + 1] / scale, values[(field * 3) + 2] / scale);
+  }
+
+  // writes the fields of values which differ from sent, or all of them in a keyframe, then updates sent
+  // returns false if nothing was written
+  public static boolean writeEntry(DataOutput out, int networkID, int[] values, int[] sent, boolean keyframe) throws IOException {
+    int flags = keyframe ? KEYFRAME | POSITION | MOTION | ANGLE : 0;
+    for (int i = 0; i < VALUES && !keyframe; i++) {
+      if (values[i] != sent[i]) flags |= 1 << (i / 3);
+    }
+    if (flags == 0) return false;
+
+    writeVarInt(out, networkID);
+    out.writeByte(flags);
+    for (int i = 0; i < VALUES; i++) {
+      if ((flags & (1 << (i / 3))) == 0) continue;
+      writeZigZag(out, keyframe ? values[i] : values[i] - sent[i]);
+      sent[i] = values[i];
+    }
+    return true;
+  }
+
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IOException("Varint too long");
+  }
+
+  private static void writeZigZag(DataOutput out, int value) throws IOException {
+    writeVarInt(out, (value << 1) ^ (value >> 31));
+  }
+
+  private static int readZigZag(DataInput in) throws IOException {
+    int value = readVarInt(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " " + entries + " entities " + data.length + " bytes";
+  }
+}
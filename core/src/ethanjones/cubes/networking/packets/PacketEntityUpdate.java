@@ -1,6 +1,7 @@
 package ethanjones.cubes.networking.packets;
 
 import ethanjones.cubes.networking.packet.DataPacket;
+import ethanjones.cubes.networking.packet.DataSchema;
 import ethanjones.cubes.networking.packet.PacketDirection;
 import ethanjones.cubes.networking.packet.PacketDirection.Direction;
 import ethanjones.cubes.side.common.Cubes;
@@ -8,6 +9,13 @@ import ethanjones.data.DataGroup;
 
 @Direction(PacketDirection.TO_CLIENT)
 public class PacketEntityUpdate extends DataPacket {
+  // the keys written by the entities in core, other keys are written with Data
+  public static final DataSchema SCHEMA = new DataSchema().string("id").uuid("uuid").integer("netID")
+      .floats("pos").floats("motion").floats("ang")
+      .integer("health").integer("maxHealth")
+      .string("username").group("inventory", PacketPlayerInventory.SCHEMA).bool("noClip")
+      .group("itemstack", PacketPlayerInventory.ITEM_STACK_SCHEMA).integer("age");
+
   public DataGroup data;
 
   @Override
@@ -15,6 +23,11 @@ public class PacketEntityUpdate extends DataPacket {
     Cubes.getClient().world.updateEntity(data);
   }
 
+  @Override
+  protected DataSchema schema() {
+    return SCHEMA;
+  }
+
   @Override
   public DataGroup write() {
     return data;
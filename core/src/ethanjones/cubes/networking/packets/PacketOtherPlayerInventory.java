@@ -2,6 +2,7 @@ package ethanjones.cubes.networking.packets;
 
 import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.networking.packet.DataPacket;
+import ethanjones.cubes.networking.packet.DataSchema;
 import ethanjones.cubes.networking.packet.PacketDirection;
 import ethanjones.cubes.networking.packet.PacketDirection.Direction;
 import ethanjones.cubes.side.common.Cubes;
@@ -16,6 +17,8 @@ import java.util.UUID;
 @Direction(PacketDirection.TO_CLIENT)
 public class PacketOtherPlayerInventory extends DataPacket {
   
+  private static final DataSchema SCHEMA = new DataSchema().longValue("uuid_most").longValue("uuid_least").group("inv", PacketPlayerInventory.SCHEMA);
+  
   public UUID playerUUID;
   public DataGroup inv;
   
@@ -28,6 +31,11 @@ public class PacketOtherPlayerInventory extends DataPacket {
     }
   }
   
+  @Override
+  protected DataSchema schema() {
+    return SCHEMA;
+  }
+  
   @Override
   public DataGroup write() {
     DataGroup data = new DataGroup();
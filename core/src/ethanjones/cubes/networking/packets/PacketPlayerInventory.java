@@ -3,6 +3,7 @@ package ethanjones.cubes.networking.packets;
 import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.networking.NetworkingManager;
 import ethanjones.cubes.networking.packet.DataPacket;
+import ethanjones.cubes.networking.packet.DataSchema;
 import ethanjones.cubes.networking.packet.PacketDirection;
 import ethanjones.cubes.networking.packet.PacketDirection.Direction;
 import ethanjones.cubes.networking.server.ClientIdentifier;
@@ -12,6 +13,9 @@ import ethanjones.data.DataGroup;
 
 @Direction(PacketDirection.OMNIDIRECTIONAL)
 public class PacketPlayerInventory extends DataPacket {
+  public static final DataSchema ITEM_STACK_SCHEMA = new DataSchema().integer("item").integer("count").integer("meta");
+  public static final DataSchema SCHEMA = new DataSchema().groups("itemstacks", ITEM_STACK_SCHEMA).integer("selected");
+
   public DataGroup inv;
 
   @Override
@@ -27,7 +31,7 @@ public class PacketPlayerInventory extends DataPacket {
       PacketOtherPlayerInventory otherPacket = new PacketOtherPlayerInventory();
       otherPacket.playerUUID = player.uuid;
       otherPacket.inv = inv;
-      NetworkingManager.sendPacketToOtherClients(otherPacket, client);
+      NetworkingManager.sendPacketToClientsInRange(otherPacket, player.position, client);
     } else {
       // Client receives own inventory update from server
       player = Cubes.getClient().player;
@@ -35,6 +39,11 @@ public class PacketPlayerInventory extends DataPacket {
     }
   }
 
+  @Override
+  protected DataSchema schema() {
+    return SCHEMA;
+  }
+
   @Override
   public DataGroup write() {
     return inv;
@@ -3,6 +3,7 @@ package ethanjones.cubes.networking.server;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.system.Branding;
 import ethanjones.cubes.core.system.Executor;
+import ethanjones.cubes.networking.Networking;
 import ethanjones.cubes.networking.transport.TransportSocket;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
@@ -71,11 +72,19 @@ public class ServerConnectionInitializer {
 
     switch (code) {
       case 0:
-        connect(socket, out, in);
-        return;
+        throw new IOException("Client is using a protocol without versions, not " + Networking.PROTOCOL_VERSION);
       case 1:
         ping(socket, out, in);
         return;
+      case 2:
+        int protocol = in.readInt();
+        out.writeInt(Networking.PROTOCOL_VERSION);
+        out.flush();
+        if (protocol != Networking.PROTOCOL_VERSION) {
+          throw new IOException("Client is using protocol " + protocol + " not " + Networking.PROTOCOL_VERSION);
+        }
+        connect(socket, out, in);
+        return;
       default:
         throw new IOException("Unrecognised connection code " + code);
     }
@@ -27,12 +27,12 @@ public class ServerNetworking extends Networking {
 
   public synchronized void preInit() throws Exception {
     setNetworkingState(NetworkingState.Starting);
-    serverSocketMonitor = new ServerSocketMonitor(serverNetworkingParameter.port, this);
+    serverSocketMonitor = new ServerSocketMonitor(serverNetworkingParameter, this);
   }
 
   @Override
   public void init() {
-    Log.info("Starting Server Networking");
+    Log.info("Starting Server Networking [" + serverNetworkingParameter.transport + "]");
     serverSocketMonitor.start();
     setNetworkingState(NetworkingState.Running);
   }
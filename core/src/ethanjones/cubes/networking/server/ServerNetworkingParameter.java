@@ -1,10 +1,14 @@
 package ethanjones.cubes.networking.server;
 
 import ethanjones.cubes.core.settings.Settings;
+import ethanjones.cubes.networking.transport.TransportType;
+import ethanjones.cubes.networking.transport.adapters.NioEventLoop;
 
 public class ServerNetworkingParameter {
 
   public int port;
+  public TransportType transport = TransportType.blocking;
+  public int ioThreads = NioEventLoop.DEFAULT_THREADS;
 
   public ServerNetworkingParameter() {
     this(Settings.getIntegerSettingValue(Settings.NETWORKING_PORT));
@@ -23,10 +23,10 @@ public class ServerSocketMonitor implements Runnable, Disposable {
   private Thread thread;
   private int port;
 
-  public ServerSocketMonitor(int port, ServerNetworking serverNetworking) {
-    this.port = port;
+  public ServerSocketMonitor(ServerNetworkingParameter parameter, ServerNetworking serverNetworking) {
+    this.port = parameter.port;
     this.serverNetworking = serverNetworking;
-    serverSocket = TransportServers.bind(port);
+    serverSocket = TransportServers.bind(port, parameter.transport, parameter.ioThreads);
     running = new AtomicBoolean(true);
   }
 
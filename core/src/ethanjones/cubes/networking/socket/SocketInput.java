@@ -1,46 +1,58 @@
 package ethanjones.cubes.networking.socket;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.networking.packet.DefaultPacketFactory;
 import ethanjones.cubes.networking.packet.Packet;
 import ethanjones.cubes.networking.packet.PacketFactory;
 import ethanjones.cubes.networking.packet.PacketQueue;
 import ethanjones.cubes.networking.stream.PairedStreams;
+import ethanjones.cubes.networking.transport.adapters.NioTransportSocketAdapter;
 import ethanjones.cubes.side.common.Side;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.Inflater;
+import java.util.ArrayList;
+import java.util.List;
 
 import static ethanjones.cubes.networking.Networking.NETWORKING_DEBUG;
 
 public class SocketInput extends SocketIO {
 
+  // the most a peer can make us buffer for one packet or frame, larger lengths disconnect it
+  public static final int MAX_PACKET_BYTES = 32 * 1024 * 1024;
+
   private final InputStream socketInputStream;
   private final DataInputStream dataInputStream;
 
   private final PacketQueue packetQueue;
-  private final Inflater inflater;
   private final PairedStreams pairedStreams;
+  private final PairedStreams batchStreams;
+  private final ArrayList<Packet> frame = new ArrayList<Packet>();
   private final PacketFactory packetFactory;
-  private final byte[] compressedBuffer = new byte[16384];
-  private final byte[] inflateBuffer = new byte[16384];
+  private byte[] compressedBuffer = new byte[16384];
 
   public SocketInput(SocketMonitor socketMonitor) {
     super(socketMonitor);
     this.packetFactory = new DefaultPacketFactory(socketMonitor);
     this.packetQueue = new PacketQueue();
-    this.socketInputStream = socketMonitor.getSocket().getInputStream();
-    this.dataInputStream = new DataInputStream(socketInputStream) {
-      @Override
-      public void close() throws IOException {
-        //prevents being closed by packets
-      }
-    };
+    if (socketMonitor.getSocket() instanceof NioTransportSocketAdapter) {
+      // read by the transport's event loop
+      this.socketInputStream = null;
+      this.dataInputStream = null;
+    } else {
+      this.socketInputStream = socketMonitor.getSocket().getInputStream();
+      this.dataInputStream = new DataInputStream(socketInputStream) {
+        @Override
+        public void close() throws IOException {
+          //prevents being closed by packets
+        }
+      };
+    }
 
-    this.inflater = new Inflater(SocketOutput.COMPRESSION_NOWRAP);
     this.pairedStreams = new PairedStreams();
+    this.batchStreams = new PairedStreams();
   }
 
   @Override
@@ -53,77 +65,98 @@ public class SocketInput extends SocketIO {
     Side.setSide(socketMonitor.getSide());
     while (socketMonitor.running.get()) {
       try {
-        Packet packet;
-        int b = dataInputStream.readByte();
-        if (b == 0 || b == 2) {
-          int id = dataInputStream.readInt();
-          packet = packetFactory.createFromId(id);
-        } else {
-          String className = dataInputStream.readUTF();
-          packet = packetFactory.createFromClassName(className);
-        }
-        
-        if (b == 2 || b == 3) {
-          //Reset
-          pairedStreams.reset();
-          inflater.reset();
-          //Read compressed and uncompressed lengths
-          int compressedLength = dataInputStream.readInt();
-          int uncompressedLength = dataInputStream.readInt();
-          //Read in compressed version
-          inflater.reset();
-          int inflater_length;
-          int offset = 0;
-          int input_length = dataInputStream.read(compressedBuffer, 0, Math.min(compressedLength, compressedBuffer.length));
-          offset += input_length;
-          inflater.setInput(compressedBuffer, 0, input_length);
-          while (true) {
-            inflater_length = inflater.inflate(inflateBuffer, 0, inflateBuffer.length);
-            if (inflater_length > 0) {
-              pairedStreams.output.write(inflateBuffer, 0, inflater_length);
-            } else {
-              if (offset < compressedLength) {
-                input_length = dataInputStream.read(compressedBuffer, 0, Math.min(compressedLength - offset, compressedBuffer.length));
-                offset += input_length;
-                inflater.setInput(compressedBuffer, 0, input_length);
-              } else {
-                break;
-              }
-            }
-          }
-          // uncompressed);
-          if (pairedStreams.output.count() != uncompressedLength) {
-            String msg = "Uncompressed length should be " + uncompressedLength + " but is " + pairedStreams.output.count() + " [" + inflater.needsInput() + "," + inflater.needsDictionary() + "]";
-            Log.error(msg);
-            socketMonitor.getNetworking().disconnected(socketMonitor, new IOException(msg));
-            return;
-          }
-          //Packet read in
-          pairedStreams.updateInput();
-          packet.read(pairedStreams.dataInput);
-        } else {
-          packet.read(dataInputStream);
+        readFrame(dataInputStream, frame);
+        for (Packet packet : frame) {
+          packetQueue.add(packet);
         }
-        if (NETWORKING_DEBUG) Log.debug(socketMonitor.getSide() + " receive " + packet.toString());
-        packetQueue.add(packet);
+        frame.clear();
       } catch (IOException e) {
         socketMonitor.getNetworking().disconnected(socketMonitor, e);
         return;
       } catch (Exception e) {
+        frame.clear();
         Log.info("Failed to read packet", e);
       }
     }
 
   }
 
+  // reads one frame, which is either a packet or a batch of packets, and adds the packets to the list
+  // also used by transports that don't use a thread per socket
+  public void readFrame(DataInputStream dataInputStream, List<Packet> packets) throws Exception {
+    int b = dataInputStream.readByte();
+    if (b != SocketOutput.FRAME_BATCH) {
+      packets.add(readPacket(b, dataInputStream));
+      return;
+    }
+    Codec codec = Codec.get(dataInputStream.readByte());
+    int compressedLength = checkLength(dataInputStream.readInt());
+    int uncompressedLength = checkLength(dataInputStream.readInt());
+    if (compressedBuffer.length < compressedLength) compressedBuffer = new byte[compressedLength];
+    dataInputStream.readFully(compressedBuffer, 0, compressedLength);
+    batchStreams.reset();
+    codec.decompress(compressedBuffer, 0, compressedLength, batchStreams.output, uncompressedLength);
+    if (batchStreams.output.count() != uncompressedLength) {
+      String msg = "Uncompressed batch length should be " + uncompressedLength + " but is " + batchStreams.output.count() + " [" + codec + "]";
+      Log.error(msg);
+      throw new IOException(msg);
+    }
+    batchStreams.updateInput();
+    while (batchStreams.dataInput.available() > 0) {
+      packets.add(readPacket(batchStreams.dataInput.readByte(), batchStreams.dataInput));
+    }
+  }
+
+  private Packet readPacket(int b, DataInputStream dataInputStream) throws Exception {
+    Packet packet;
+    if (b == 0 || b == 2) {
+      int id = dataInputStream.readInt();
+      packet = packetFactory.createFromId(id);
+    } else {
+      String className = dataInputStream.readUTF();
+      packet = packetFactory.createFromClassName(className);
+    }
+
+    if (b == 2 || b == 3) {
+      //Reset
+      pairedStreams.reset();
+      //Read codec, compressed and uncompressed lengths
+      Codec codec = Codec.get(dataInputStream.readByte());
+      int compressedLength = checkLength(dataInputStream.readInt());
+      int uncompressedLength = checkLength(dataInputStream.readInt());
+      //Read in compressed version
+      if (compressedBuffer.length < compressedLength) compressedBuffer = new byte[compressedLength];
+      dataInputStream.readFully(compressedBuffer, 0, compressedLength);
+      codec.decompress(compressedBuffer, 0, compressedLength, pairedStreams.output, uncompressedLength);
+      if (pairedStreams.output.count() != uncompressedLength) {
+        String msg = "Uncompressed length should be " + uncompressedLength + " but is " + pairedStreams.output.count() + " [" + codec + "]";
+        Log.error(msg);
+        throw new IOException(msg);
+      }
+      //Packet read in
+      pairedStreams.updateInput();
+      packet.read(pairedStreams.dataInput);
+    } else {
+      packet.read(dataInputStream);
+    }
+    if (NETWORKING_DEBUG) Log.debug(socketMonitor.getSide() + " receive " + packet.toString());
+    return packet;
+  }
+
+  public static int checkLength(int length) throws IOException {
+    if (length < 0 || length > MAX_PACKET_BYTES) throw new IOException("Invalid packet length " + length);
+    return length;
+  }
+
   @Override
   public void dispose() {
-    try {
-      socketInputStream.close();
-      inflater.end();
-    } catch (IOException e) {
+    if (socketInputStream != null) {
+      try {
+        socketInputStream.close();
+      } catch (IOException e) {
 
+      }
     }
-    getThread().interrupt();
+    if (getThread() != null) getThread().interrupt();
   }
 }
@@ -4,6 +4,7 @@ import ethanjones.cubes.networking.Networking;
 import ethanjones.cubes.networking.packet.PacketIDDatabase;
 import ethanjones.cubes.networking.transport.TransportSocket;
 import ethanjones.cubes.networking.transport.TransportSockets;
+import ethanjones.cubes.networking.transport.adapters.NioTransportSocketAdapter;
 import ethanjones.cubes.side.common.Side;
 
 import com.badlogic.gdx.net.Socket;
@@ -31,8 +32,12 @@ public class SocketMonitor implements Disposable {
     running = new AtomicBoolean(true);
     socketInput = new SocketInput(this);
     socketOutput = new SocketOutput(this);
-    socketInput.start("Socket Input: " + remoteAddress);
-    socketOutput.start("Socket Output: " + remoteAddress);
+    if (socket instanceof NioTransportSocketAdapter) {
+      ((NioTransportSocketAdapter) socket).register(this);
+    } else {
+      socketInput.start("Socket Input: " + remoteAddress);
+      socketOutput.start("Socket Output: " + remoteAddress);
+    }
   }
 
   @Override
@@ -43,6 +48,10 @@ public class SocketMonitor implements Disposable {
     socket.close();
   }
 
+  public boolean isRunning() {
+    return running.get();
+  }
+
   public Networking getNetworking() {
     return networking;
   }
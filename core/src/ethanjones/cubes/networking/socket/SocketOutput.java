@@ -1,50 +1,88 @@
 package ethanjones.cubes.networking.socket;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.core.settings.Settings;
+import ethanjones.cubes.networking.packet.EncodedPayload;
 import ethanjones.cubes.networking.packet.Packet;
 import ethanjones.cubes.networking.packet.PacketPriority;
 import ethanjones.cubes.networking.packet.PacketQueue;
-import ethanjones.cubes.networking.packet.PriorityPacketQueue;
+import ethanjones.cubes.networking.packet.ScheduledPacketQueue;
 import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
 import ethanjones.cubes.networking.stream.NoCloseDataOutputStream;
+import ethanjones.cubes.networking.transport.adapters.NioTransportSocketAdapter;
 import ethanjones.cubes.side.common.Side;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.Deflater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ethanjones.cubes.networking.Networking.NETWORKING_DEBUG;
 
 public class SocketOutput extends SocketIO {
 
-  public static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
-  public static final boolean COMPRESSION_NOWRAP = false;
+  // a batch of uncompressed packets compressed together: byte codec, int compressed length, int uncompressed length
+  public static final byte FRAME_BATCH = 4;
+  private static final int MAX_BATCH_BYTES = 262144;
+  private static final long MAX_BATCH_NANOS = 2000000;
+  private static final int MIN_RUN_COMPRESS_BYTES = 512;
+  // longer runs of uncompressed packets are always sent as a batch, so readers know how long they are
+  public static final int MAX_UNFRAMED_BYTES = 65536;
 
-  private final PacketQueue packetQueue;
+  private final ScheduledPacketQueue packetQueue;
   private final OutputStream socketOutputStream;
   private final DataOutputStream dataOutputStream;
 
-  private final Deflater deflater;
+  private volatile Codec codec = Codec.DEFLATE;
   private final DirectByteArrayOutputStream uncompressedOutput;
   private final DataOutputStream uncompressedDataOutput;
   private final DirectByteArrayOutputStream compressionOutput;
 
-  private final byte[] deflateBuffer = new byte[16384];
+  // packets are written to batchOutput, apart from runs of uncompressed packets which are collected in runOutput first
+  private final DirectByteArrayOutputStream batchOutput;
+  private final DataOutputStream batchDataOutput;
+  private final DirectByteArrayOutputStream runOutput;
+  private final DataOutputStream runDataOutput;
+  private int batchPackets;
+  private int runPackets;
+
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong packetsFlushed = new AtomicLong();
+  private final AtomicLong bytesFlushed = new AtomicLong();
+  private final AtomicLong compressedRuns = new AtomicLong();
+  private final AtomicLong encodedPayloads = new AtomicLong();
 
   private final AtomicBoolean connectionInitialized = new AtomicBoolean(false);
+  private volatile Runnable wakeup;
 
   public SocketOutput(SocketMonitor socketMonitor) {
     super(socketMonitor);
-    this.packetQueue = new PriorityPacketQueue();
-    this.socketOutputStream = socketMonitor.getSocket().getOutputStream();
-    this.dataOutputStream = new NoCloseDataOutputStream(socketOutputStream);
+    this.packetQueue = new ScheduledPacketQueue(Settings.getIntegerSettingValue(Settings.NETWORKING_BANDWIDTH) * 1024) {
+      @Override
+      public void add(Packet packet) {
+        super.add(packet);
+        Runnable w = wakeup;
+        if (w != null) w.run();
+      }
+    };
+    if (socketMonitor.getSocket() instanceof NioTransportSocketAdapter) {
+      // written by the transport's event loop
+      this.socketOutputStream = null;
+      this.dataOutputStream = null;
+    } else {
+      this.socketOutputStream = socketMonitor.getSocket().getOutputStream();
+      this.dataOutputStream = new NoCloseDataOutputStream(socketOutputStream);
+    }
 
-    this.deflater = new Deflater(COMPRESSION_LEVEL, COMPRESSION_NOWRAP);
     this.uncompressedOutput = new DirectByteArrayOutputStream();
     this.uncompressedDataOutput = new NoCloseDataOutputStream(uncompressedOutput);
     this.compressionOutput = new DirectByteArrayOutputStream();
+    this.batchOutput = new DirectByteArrayOutputStream(16384);
+    this.batchDataOutput = new NoCloseDataOutputStream(batchOutput);
+    this.runOutput = new DirectByteArrayOutputStream(16384);
+    this.runDataOutput = new NoCloseDataOutputStream(runOutput);
   }
 
   @Override
@@ -60,82 +98,211 @@ public class SocketOutput extends SocketIO {
         Packet packet = packetQueue.waitAndGet();
         if (packet == null) continue;
 
-        if (!connectionInitialized.get()) {
-          // connection not yet initialized
-          if (PacketPriority.get(packet.getClass()) != PacketPriority.CONNECTION_INITIALIZATION) {
-            // if not connection initialization packet,  add back to queue and sleep
+        // drain everything available into one batch, stopping at the byte or time budget
+        long batchStart = System.nanoTime();
+        boolean waitForInitialization = false;
+        while (packet != null) {
+          if (!connectionInitialized.get() && PacketPriority.get(packet.getClass()) != PacketPriority.CONNECTION_INITIALIZATION) {
+            // connection not yet initialized, add back to queue and sleep after sending the batch
             packetQueue.add(packet);
-
-            try {
-              Thread.sleep(25);
-            } catch (Exception e) {
-
-            }
-            continue;
+            waitForInitialization = true;
+            break;
           }
+          addToBatch(packet);
+          if (getBatchSize() >= MAX_BATCH_BYTES || System.nanoTime() - batchStart >= MAX_BATCH_NANOS) break;
+          packet = packetQueue.get();
         }
+        writeBatch(dataOutputStream);
+        socketOutputStream.flush();
 
-        Class<? extends Packet> packetClass = packet.getClass();
-        boolean compress = packet.shouldCompress();
-        if (socketMonitor.getPacketIDDatabase().contains(packetClass)) {
-          if (compress) {
-            dataOutputStream.writeByte(2);
-          } else {
-            dataOutputStream.writeByte(0);
-          }
-          dataOutputStream.writeInt(socketMonitor.getPacketIDDatabase().get(packetClass));
-        } else {
-          if (compress) {
-            dataOutputStream.writeByte(3);
-          } else {
-            dataOutputStream.writeByte(1);
-          }
-          dataOutputStream.writeUTF(packetClass.getName());
-          if (socketMonitor.getSide() == Side.Server) {
-            socketMonitor.getPacketIDDatabase().sendID(packetClass, socketMonitor);
-          }
-        }
+        if (waitForInitialization) {
+          try {
+            Thread.sleep(25);
+          } catch (Exception e) {
 
-        if (compress) {
-          //Reset
-          uncompressedOutput.reset();
-          compressionOutput.reset();
-          deflater.reset();
-          //Write packet
-          packet.write(uncompressedDataOutput);
-          //Deflate
-          deflater.setInput(uncompressedOutput.buffer(), 0, uncompressedOutput.count());
-          deflater.finish();
-          int length;
-          while ((length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length)) > 0) {
-            compressionOutput.write(deflateBuffer, 0, length);
           }
-          //Write to outputstream
-          dataOutputStream.writeInt(compressionOutput.count());
-          dataOutputStream.writeInt(uncompressedOutput.count());
-          dataOutputStream.write(compressionOutput.buffer(), 0, compressionOutput.count());
-        } else {
-          packet.write(dataOutputStream);
         }
-        if (NETWORKING_DEBUG) Log.debug(socketMonitor.getSide() + " send " + packet.toString());
       } catch (IOException e) {
         socketMonitor.getNetworking().disconnected(socketMonitor, e);
         return;
       } catch (Exception e) {
-        Log.info("Failed to write packet", e);
+        Log.info("Failed to write packets", e);
       }
     }
   }
 
+  // adds a packet to the current batch, packets which fail to write are logged and left out
+  public void addToBatch(Packet packet) throws IOException {
+    boolean compress = packet.shouldCompress();
+    // already compressed on its own, end the run first so a failed write only removes this packet
+    if (compress) finishRun();
+    int batchCount = batchOutput.count();
+    int runCount = runOutput.count();
+    try {
+      if (compress) {
+        writePacket(packet, batchDataOutput);
+      } else {
+        writePacket(packet, runDataOutput);
+        runPackets++;
+      }
+      batchPackets++;
+      // before runs are compressed
+      packetQueue.sent(packet, batchOutput.count() + runOutput.count() - batchCount - runCount);
+    } catch (Exception e) {
+      batchOutput.truncate(batchCount);
+      runOutput.truncate(runCount);
+      Log.info("Failed to write packet", e);
+    }
+  }
+
+  // bytes in the current batch, before compressing runs
+  public int getBatchSize() {
+    return batchOutput.count() + runOutput.count();
+  }
+
+  // writes the current batch and starts a new one
+  public void writeBatch(DataOutputStream dataOutputStream) throws IOException {
+    finishRun();
+    if (batchOutput.count() == 0) return;
+    dataOutputStream.write(batchOutput.buffer(), 0, batchOutput.count());
+    flushes.incrementAndGet();
+    packetsFlushed.addAndGet(batchPackets);
+    bytesFlushed.addAndGet(batchOutput.count());
+    batchOutput.reset();
+    batchPackets = 0;
+  }
+
+  // consecutive uncompressed packets are compressed together if there are enough of them and it saves space
+  private void finishRun() throws IOException {
+    if (runOutput.count() == 0) return;
+    Codec codec = this.codec;
+    boolean written = false;
+    if (runPackets > 1 && runOutput.count() >= MIN_RUN_COMPRESS_BYTES && codec != Codec.NONE) {
+      compressionOutput.reset();
+      codec.compress(runOutput.buffer(), 0, runOutput.count(), compressionOutput);
+      if (compressionOutput.count() + 10 < runOutput.count() - (runOutput.count() >> 3)) {
+        batchDataOutput.writeByte(FRAME_BATCH);
+        batchDataOutput.writeByte(codec.id);
+        batchDataOutput.writeInt(compressionOutput.count());
+        batchDataOutput.writeInt(runOutput.count());
+        batchDataOutput.write(compressionOutput.buffer(), 0, compressionOutput.count());
+        compressedRuns.incrementAndGet();
+        written = true;
+      }
+    }
+    if (!written && runOutput.count() > MAX_UNFRAMED_BYTES) {
+      batchDataOutput.writeByte(FRAME_BATCH);
+      batchDataOutput.writeByte(Codec.NONE.id);
+      batchDataOutput.writeInt(runOutput.count());
+      batchDataOutput.writeInt(runOutput.count());
+      batchDataOutput.write(runOutput.buffer(), 0, runOutput.count());
+      written = true;
+    }
+    if (!written) batchDataOutput.write(runOutput.buffer(), 0, runOutput.count());
+    runOutput.reset();
+    runPackets = 0;
+  }
+
+  // writes one packet, also used by transports that don't use a thread per socket
+  public void writePacket(Packet packet, DataOutputStream dataOutputStream) throws IOException {
+    Class<? extends Packet> packetClass = packet.getClass();
+    boolean compress = packet.shouldCompress();
+    if (socketMonitor.getPacketIDDatabase().contains(packetClass)) {
+      if (compress) {
+        dataOutputStream.writeByte(2);
+      } else {
+        dataOutputStream.writeByte(0);
+      }
+      dataOutputStream.writeInt(socketMonitor.getPacketIDDatabase().get(packetClass));
+    } else {
+      if (compress) {
+        dataOutputStream.writeByte(3);
+      } else {
+        dataOutputStream.writeByte(1);
+      }
+      dataOutputStream.writeUTF(packetClass.getName());
+      if (socketMonitor.getSide() == Side.Server) {
+        socketMonitor.getPacketIDDatabase().sendID(packetClass, socketMonitor);
+      }
+    }
+
+    EncodedPayload encoded = compress ? packet.getEncodedPayload(codec) : null;
+    if (encoded != null) {
+      dataOutputStream.writeByte(encoded.codec.id);
+      dataOutputStream.writeInt(encoded.compressed.length);
+      dataOutputStream.writeInt(encoded.uncompressedLength);
+      dataOutputStream.write(encoded.compressed);
+      encodedPayloads.incrementAndGet();
+    } else if (compress) {
+      //Reset
+      uncompressedOutput.reset();
+      compressionOutput.reset();
+      //Write packet
+      packet.write(uncompressedDataOutput);
+      //Compress
+      Codec codec = this.codec;
+      codec.compress(uncompressedOutput.buffer(), 0, uncompressedOutput.count(), compressionOutput);
+      //Write to outputstream
+      dataOutputStream.writeByte(codec.id);
+      dataOutputStream.writeInt(compressionOutput.count());
+      dataOutputStream.writeInt(uncompressedOutput.count());
+      dataOutputStream.write(compressionOutput.buffer(), 0, compressionOutput.count());
+    } else {
+      packet.write(dataOutputStream);
+    }
+    if (NETWORKING_DEBUG) Log.debug(socketMonitor.getSide() + " send " + packet.toString());
+  }
+
   @Override
   public void dispose() {
-    try {
-      socketOutputStream.close();
-      deflater.end();
-    } catch (IOException e) {
+    if (socketOutputStream != null) {
+      try {
+        socketOutputStream.close();
+      } catch (IOException e) {
 
+      }
     }
-    getThread().interrupt();
+    if (getThread() != null) getThread().interrupt();
+  }
+
+  // nanoseconds until the bandwidth budget lets queued packets be sent, 0 if it does now
+  public long getThrottledNanos() {
+    return packetQueue.throttledNanos();
+  }
+
+  // used for compressed packets written from now on, the codec is sent with each packet
+  public void setCodec(Codec codec) {
+    this.codec = codec;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  public long getFlushes() {
+    return flushes.get();
+  }
+
+  public long getPacketsFlushed() {
+    return packetsFlushed.get();
+  }
+
+  public long getBytesFlushed() {
+    return bytesFlushed.get();
+  }
+
+  public long getCompressedRuns() {
+    return compressedRuns.get();
+  }
+
+  public long getEncodedPayloads() {
+    return encodedPayloads.get();
+  }
+
+  public String getStatistics() {
+    long f = flushes.get();
+    if (f == 0) return "Flushes 0";
+    return "Flushes " + f + " Packets/Flush " + (packetsFlushed.get() / (float) f) + " Bytes/Flush " + (bytesFlushed.get() / f) + " Compressed Runs " + compressedRuns.get() + " Encoded Payloads " + encodedPayloads.get();
   }
 
   public void setConnectionInitialized() {
@@ -144,5 +311,16 @@ public class SocketOutput extends SocketIO {
     if (!connectionInitialized.compareAndSet(false,true)) {
       throw new IllegalStateException("Connection is already initialized!");
     }
+    Runnable w = wakeup;
+    if (w != null) w.run();
+  }
+
+  public boolean isConnectionInitialized() {
+    return connectionInitialized.get();
+  }
+
+  // run when a packet is queued or the connection is initialized, used by transports without an output thread
+  public void setWakeup(Runnable wakeup) {
+    this.wakeup = wakeup;
   }
 }
@@ -0,0 +1,55 @@
+package ethanjones.cubes.networking.stream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Reads from the position to the limit of a buffer, remembering if a read went past the limit
+public class ByteBufferInputStream extends InputStream {
+
+  private ByteBuffer buffer;
+  private boolean underflow;
+
+  public void setBuffer(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.underflow = false;
+  }
+
+  // true if a read has wanted more bytes than were available
+  public boolean underflow() {
+    return underflow;
+  }
+
+  @Override
+  public int read() {
+    if (!buffer.hasRemaining()) {
+      underflow = true;
+      return -1;
+    }
+    return buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    int remaining = buffer.remaining();
+    if (remaining == 0) {
+      underflow = true;
+      return -1;
+    }
+    int n = Math.min(len, remaining);
+    buffer.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) {
+    int skip = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + skip);
+    return skip;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+}
@@ -1,6 +1,7 @@
 package ethanjones.cubes.networking.stream;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 public class DirectByteArrayOutputStream extends ByteArrayOutputStream {
 
@@ -19,4 +20,24 @@ public class DirectByteArrayOutputStream extends ByteArrayOutputStream {
   public int count() {
     return count;
   }
+
+  // makes room for extra bytes after count, returns the buffer to write them into
+  public byte[] reserve(int extra) {
+    int required = count + extra;
+    if (required > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+    }
+    return buf;
+  }
+
+  // marks bytes written directly into the buffer after a call to reserve
+  public void advance(int written) {
+    count += written;
+  }
+
+  // discards everything written after count
+  public void truncate(int count) {
+    if (count < 0 || count > this.count) throw new IllegalArgumentException(Integer.toString(count));
+    this.count = count;
+  }
 }
@@ -0,0 +1,253 @@
+package ethanjones.cubes.networking.transport.adapters;
+
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.networking.packet.Packet;
+import ethanjones.cubes.networking.packet.PacketPriority;
+import ethanjones.cubes.networking.packet.PacketQueue;
+import ethanjones.cubes.networking.socket.SocketInput;
+import ethanjones.cubes.networking.socket.SocketMonitor;
+import ethanjones.cubes.networking.socket.SocketOutput;
+import ethanjones.cubes.networking.stream.ByteBufferInputStream;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+import ethanjones.cubes.networking.stream.NoCloseDataInputStream;
+import ethanjones.cubes.networking.stream.NoCloseDataOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The state of one socket on a NioEventLoop, everything apart from requestFlush and close runs on the worker thread
+//
+// Compressed packets and batches carry their length, uncompressed packets don't, so packets are
+// decoded from the buffered bytes and decoding is retried from the same position once more bytes have arrived if the
+// buffer ran out part way through a packet. Frames with a length aren't retried until all of it has arrived, and
+// SocketOutput only sends uncompressed packets without a length if they are at most MAX_UNFRAMED_BYTES, so retrying
+// never decodes more than that again. Peers sending frames longer than MAX_PACKET_BYTES are disconnected.
+class NioConnection {
+
+  private static final int MAX_READS = 16;
+  private static final int FLUSH_SIZE = 262144;
+  // the longest frame and its header
+  private static final int MAX_BUFFER_BYTES = SocketInput.MAX_PACKET_BYTES + 131072;
+
+  private final NioEventLoop.Worker worker;
+  private final SocketChannel channel;
+  private final SocketMonitor socketMonitor;
+  private SelectionKey key;
+
+  private ByteBuffer readBuffer;
+  private final ByteBufferInputStream input = new ByteBufferInputStream();
+  private final DataInputStream dataInput = new NoCloseDataInputStream(input);
+  private final ArrayList<Packet> frame = new ArrayList<Packet>();
+
+  private final DirectByteArrayOutputStream output = new DirectByteArrayOutputStream(NioEventLoop.BUFFER_SIZE);
+  private final DataOutputStream dataOutput = new NoCloseDataOutputStream(output);
+  private int written;
+  // packets queued before the connection was initialized
+  private final ArrayDeque<Packet> held = new ArrayDeque<Packet>();
+
+  private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+  // when the worker should flush again, set while the bandwidth budget is holding packets back
+  long flushAt;
+  private volatile boolean closed;
+
+  NioConnection(NioEventLoop.Worker worker, SocketChannel channel, SocketMonitor socketMonitor) {
+    this.worker = worker;
+    this.channel = channel;
+    this.socketMonitor = socketMonitor;
+  }
+
+  void start() {
+    socketMonitor.getSocketOutput().setWakeup(new Runnable() {
+      @Override
+      public void run() {
+        requestFlush();
+      }
+    });
+    worker.register(this);
+  }
+
+  void registered(Selector selector) {
+    if (closed) return;
+    try {
+      channel.configureBlocking(false);
+      key = channel.register(selector, SelectionKey.OP_READ, this);
+    } catch (IOException e) {
+      disconnected(e);
+      return;
+    }
+    flush();
+  }
+
+  void requestFlush() {
+    if (!closed && flushQueued.compareAndSet(false, true)) worker.flush(this);
+  }
+
+  void flushRequested() {
+    flushQueued.set(false);
+    flush();
+  }
+
+  void read() {
+    try {
+      for (int i = 0; i < MAX_READS && !closed; i++) {
+        if (readBuffer == null) {
+          readBuffer = worker.acquire();
+        } else if (!readBuffer.hasRemaining()) {
+          readBuffer = grow(readBuffer);
+        }
+        int read = channel.read(readBuffer);
+        if (read == -1) throw new EOFException("Connection closed by " + socketMonitor.remoteAddress);
+        if (read == 0) break;
+
+        readBuffer.flip();
+        decode();
+        readBuffer.compact();
+        if (readBuffer.position() == 0) releaseReadBuffer();
+      }
+      if (readBuffer != null && readBuffer.position() == 0) releaseReadBuffer();
+    } catch (IOException e) {
+      disconnected(e);
+    }
+  }
+
+  private void decode() throws IOException {
+    SocketInput socketInput = socketMonitor.getSocketInput();
+    PacketQueue packetQueue = socketInput.getPacketQueue();
+    while (readBuffer.hasRemaining() && socketMonitor.isRunning()) {
+      int start = readBuffer.position();
+      int length = frameLength(readBuffer, start);
+      if (length > 0 && readBuffer.remaining() < length) return;
+      input.setBuffer(readBuffer);
+      try {
+        socketInput.readFrame(dataInput, frame);
+        if (input.underflow()) {
+          underflow(start);
+          return;
+        }
+        for (Packet packet : frame) {
+          packetQueue.add(packet);
+        }
+      } catch (IOException e) {
+        if (input.underflow()) {
+          underflow(start);
+          return;
+        }
+        throw e;
+      } catch (Exception e) {
+        if (input.underflow()) {
+          underflow(start);
+          return;
+        }
+        Log.info("Failed to read packet", e);
+      } finally {
+        frame.clear();
+      }
+    }
+  }
+
+  // bytes in the frame starting at start, -1 if it has no length or not enough of it has arrived to know
+  private static int frameLength(ByteBuffer buffer, int start) throws IOException {
+    int available = buffer.limit() - start;
+    int b = buffer.get(start);
+    int header;
+    if (b == SocketOutput.FRAME_BATCH) {
+      header = 2; // frame type, codec
+    } else if (b == 2) {
+      header = 6; // frame type, packet id, codec
+    } else if (b == 3) {
+      if (available < 3) return -1;
+      header = 4 + (buffer.getShort(start + 1) & 0xFFFF); // frame type, class name, codec
+    } else {
+      return -1;
+    }
+    if (available < header + 8) return -1;
+    int compressedLength = SocketInput.checkLength(buffer.getInt(start + header));
+    SocketInput.checkLength(buffer.getInt(start + header + 4));
+    return header + 8 + compressedLength;
+  }
+
+  private void underflow(int start) throws IOException {
+    readBuffer.position(start);
+    int b = readBuffer.get(start);
+    if ((b == 0 || b == 1) && readBuffer.remaining() > SocketOutput.MAX_UNFRAMED_BYTES) {
+      throw new IOException("Uncompressed packet is longer than " + SocketOutput.MAX_UNFRAMED_BYTES + " bytes");
+    }
+  }
+
+  private ByteBuffer grow(ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() >= MAX_BUFFER_BYTES) throw new IOException("Frame is longer than " + MAX_BUFFER_BYTES + " bytes");
+    ByteBuffer grown = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, MAX_BUFFER_BYTES));
+    buffer.flip();
+    grown.put(buffer);
+    worker.release(buffer);
+    return grown;
+  }
+
+  private void releaseReadBuffer() {
+    worker.release(readBuffer);
+    readBuffer = null;
+  }
+
+  void flush() {
+    if (closed || key == null) return;
+    try {
+      SocketOutput socketOutput = socketMonitor.getSocketOutput();
+      while (true) {
+        if (written == output.count()) {
+          output.reset();
+          written = 0;
+          Packet packet;
+          while (output.count() < FLUSH_SIZE && (packet = next(socketOutput)) != null) {
+            socketOutput.addToBatch(packet);
+            // keep batches bounded so the first bytes go out while later packets are encoded
+            if (socketOutput.getBatchSize() >= FLUSH_SIZE) socketOutput.writeBatch(dataOutput);
+          }
+          socketOutput.writeBatch(dataOutput);
+          if (output.count() == 0) break;
+        }
+        written += channel.write(ByteBuffer.wrap(output.buffer(), written, output.count() - written));
+        if (written < output.count()) break; // wait until writable
+      }
+      key.interestOps(written < output.count() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      long throttled = socketOutput.getThrottledNanos();
+      if (throttled > 0) worker.flushAfter(this, throttled);
+    } catch (IOException e) {
+      disconnected(e);
+    }
+  }
+
+  private Packet next(SocketOutput socketOutput) {
+    boolean initialized = socketOutput.isConnectionInitialized();
+    if (initialized && !held.isEmpty()) return held.poll();
+    Packet packet;
+    while ((packet = socketOutput.getPacketQueue().get()) != null) {
+      if (initialized || PacketPriority.get(packet.getClass()) == PacketPriority.CONNECTION_INITIALIZATION) return packet;
+      held.add(packet);
+    }
+    return null;
+  }
+
+  private void disconnected(IOException e) {
+    if (closed) return;
+    close();
+    socketMonitor.getNetworking().disconnected(socketMonitor, e);
+  }
+
+  void close() {
+    closed = true;
+    if (key != null) key.cancel();
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
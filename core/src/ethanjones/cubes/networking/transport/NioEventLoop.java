@@ -0,0 +1,154 @@
+package ethanjones.cubes.networking.transport.adapters;
+
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.side.common.Side;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A fixed number of threads each running a Selector, sockets are given to the threads round robin
+public class NioEventLoop {
+
+  public static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  static final int BUFFER_SIZE = 65536;
+  private static final int MAX_POOLED_BUFFERS = 32;
+
+  private final Worker[] workers;
+  private final AtomicInteger next = new AtomicInteger();
+
+  public NioEventLoop(int threads, Side side) throws IOException {
+    workers = new Worker[Math.max(1, threads)];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker(side);
+      Thread thread = new Thread(workers[i]);
+      thread.setDaemon(true);
+      thread.setName("NIO Transport-" + (i + 1));
+      thread.start();
+    }
+  }
+
+  Worker next() {
+    return workers[(next.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+  }
+
+  public void close() {
+    for (Worker worker : workers) {
+      worker.running = false;
+      worker.selector.wakeup();
+    }
+  }
+
+  static class Worker implements Runnable {
+    private final Side side;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<NioConnection> toRegister = new ConcurrentLinkedQueue<NioConnection>();
+    private final ConcurrentLinkedQueue<NioConnection> toFlush = new ConcurrentLinkedQueue<NioConnection>();
+    // only used by this worker's thread
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<ByteBuffer>();
+    private final ArrayList<NioConnection> delayed = new ArrayList<NioConnection>();
+    private volatile boolean running = true;
+
+    private Worker(Side side) throws IOException {
+      this.side = side;
+      this.selector = Selector.open();
+    }
+
+    void register(NioConnection connection) {
+      toRegister.add(connection);
+      selector.wakeup();
+    }
+
+    void flush(NioConnection connection) {
+      toFlush.add(connection);
+      selector.wakeup();
+    }
+
+    // worker thread, flushes the connection again once its bandwidth budget allows
+    void flushAfter(NioConnection connection, long nanos) {
+      long at = System.nanoTime() + nanos;
+      if (delayed.contains(connection)) {
+        connection.flushAt = Math.min(connection.flushAt, at);
+      } else {
+        connection.flushAt = at;
+        delayed.add(connection);
+      }
+    }
+
+    ByteBuffer acquire() {
+      ByteBuffer buffer = bufferPool.poll();
+      if (buffer == null) return ByteBuffer.allocate(BUFFER_SIZE);
+      buffer.clear();
+      return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+      if (buffer.capacity() == BUFFER_SIZE && bufferPool.size() < MAX_POOLED_BUFFERS) bufferPool.add(buffer);
+    }
+
+    // milliseconds until the first delayed flush, 0 if there are none
+    private long delayedTimeout() {
+      if (delayed.isEmpty()) return 0;
+      long now = System.nanoTime();
+      long first = Long.MAX_VALUE;
+      for (NioConnection connection : delayed) {
+        first = Math.min(first, connection.flushAt - now);
+      }
+      return Math.max(first / 1000000, 1);
+    }
+
+    @Override
+    public void run() {
+      Side.setSide(side);
+      while (running) {
+        try {
+          long timeout = delayedTimeout();
+          if (timeout > 0) {
+            selector.select(timeout);
+          } else {
+            selector.select();
+          }
+        } catch (IOException e) {
+          Log.error("NIO selector failed", e);
+          break;
+        }
+
+        NioConnection connection;
+        while ((connection = toRegister.poll()) != null) {
+          connection.registered(selector);
+        }
+
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+          SelectionKey key = iterator.next();
+          iterator.remove();
+          connection = (NioConnection) key.attachment();
+          if (key.isValid() && key.isReadable()) connection.read();
+          if (key.isValid() && key.isWritable()) connection.flush();
+        }
+
+        while ((connection = toFlush.poll()) != null) {
+          connection.flushRequested();
+        }
+
+        long now = System.nanoTime();
+        for (int i = 0; i < delayed.size(); i++) {
+          connection = delayed.get(i);
+          if (connection.flushAt - now > 0) continue;
+          delayed.remove(i--);
+          connection.flush();
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package ethanjones.cubes.networking.transport.adapters;
+
+import ethanjones.cubes.networking.transport.TransportServer;
+import ethanjones.cubes.networking.transport.TransportSocket;
+import ethanjones.cubes.side.common.Side;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class NioTransportServerAdapter implements TransportServer {
+  private final ServerSocketChannel server;
+  private final NioEventLoop loop;
+
+  public NioTransportServerAdapter(int port, int backlog, int ioThreads) {
+    try {
+      this.server = ServerSocketChannel.open();
+      this.server.bind(new InetSocketAddress(port), backlog);
+      this.loop = new NioEventLoop(ioThreads, Side.Server);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public TransportSocket accept() {
+    try {
+      SocketChannel raw = server.accept();
+      raw.socket().setTcpNoDelay(true);
+      return new NioTransportSocketAdapter(raw, loop);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public int getPort() { return server.socket().getLocalPort(); }
+
+  @Override public void close() {
+    try { server.close(); } catch (IOException ignored) {}
+    loop.close();
+  }
+}
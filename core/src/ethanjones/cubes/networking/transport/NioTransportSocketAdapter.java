@@ -0,0 +1,50 @@
+package ethanjones.cubes.networking.transport.adapters;
+
+import ethanjones.cubes.networking.socket.SocketMonitor;
+import ethanjones.cubes.networking.transport.TransportSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+
+// Blocking streams can be used until register, after which the socket is serviced by a NioEventLoop
+public class NioTransportSocketAdapter implements TransportSocket {
+  private final SocketChannel channel;
+  private final NioEventLoop loop;
+  private volatile NioConnection connection;
+
+  public NioTransportSocketAdapter(SocketChannel channel, NioEventLoop loop) {
+    this.channel = channel;
+    this.loop = loop;
+  }
+
+  @Override public InputStream getInputStream() {
+    try { return channel.socket().getInputStream(); } catch (IOException e) { throw new RuntimeException(e); }
+  }
+  @Override public OutputStream getOutputStream() {
+    try { return channel.socket().getOutputStream(); } catch (IOException e) { throw new RuntimeException(e); }
+  }
+  @Override public String getRemoteAddress() { return String.valueOf(channel.socket().getRemoteSocketAddress()); }
+  @Override public boolean isConnected() { return channel.isConnected() && channel.isOpen(); }
+  @Override public void close() {
+    NioConnection c = connection;
+    if (c != null) {
+      c.close();
+    } else {
+      try { channel.close(); } catch (IOException ignored) {}
+    }
+  }
+  @Override public void setSoTimeout(int millis) {
+    try { channel.socket().setSoTimeout(millis); } catch (IOException e) { throw new RuntimeException(e); }
+  }
+
+  // hands the socket to the event loop, the blocking streams must not be used afterwards
+  public void register(SocketMonitor socketMonitor) {
+    if (connection != null) throw new IllegalStateException("Already registered");
+    connection = new NioConnection(loop.next(), channel, socketMonitor);
+    connection.start();
+  }
+
+  public SocketChannel unwrap() { return channel; }
+}
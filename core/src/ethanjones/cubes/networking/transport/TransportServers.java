@@ -4,10 +4,16 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.net.ServerSocketHints;
 import ethanjones.cubes.networking.transport.adapters.GdxTransportServerAdapter;
 import ethanjones.cubes.networking.transport.adapters.JavaTransportServerAdapter;
+import ethanjones.cubes.networking.transport.adapters.NioTransportServerAdapter;
 
 public final class TransportServers {
   private TransportServers() {}
 
+  public static TransportServer bind(int port, TransportType type, int ioThreads) {
+    if (type == TransportType.nio) return new NioTransportServerAdapter(port, 50, ioThreads);
+    return bind(port);
+  }
+
   public static TransportServer bind(int port) {
     boolean hasGdx = (Gdx.app != null) && !"HeadlessApplication".equals(Gdx.app.getType().name());
     if (hasGdx) {
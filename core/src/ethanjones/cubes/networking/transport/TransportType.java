@@ -0,0 +1,8 @@
+package ethanjones.cubes.networking.transport;
+
+public enum TransportType {
+  // a thread each for reading and writing every socket
+  blocking,
+  // sockets shared between a few selector threads, server only
+  nio
+}
@@ -7,11 +7,14 @@ import ethanjones.cubes.core.util.PerSecond;
 import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.graphics.rendering.WorldRenderer;
 import ethanjones.cubes.graphics.world.ao.AmbientOcclusion;
+import ethanjones.cubes.graphics.world.area.AreaMesher;
 import ethanjones.cubes.graphics.world.area.AreaRenderer;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.world.CoordinateConverter;
 import ethanjones.cubes.world.collision.BlockIntersection;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.thread.GenerationStatistics;
+import ethanjones.cubes.world.thread.WorldTasks;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.Vector3;
@@ -65,10 +68,16 @@ public class ClientDebug {
     builder.append("TPS C:").append(Cubes.getClient().ticksPerSecond.last()).append(" A:").append(oneDP.format(Cubes.getClient().ticksPerSecond.average()));
     if (Cubes.getServer() != null) builder.append(" S:").append(Cubes.getServer().ticksPerSecond.last()).append(" A:").append(oneDP.format(Cubes.getServer().ticksPerSecond.average())).append(" MS:").append(twoDP.format(Cubes.getServer().meanUpdateMS.getMean()));
     builder.append(lineSeparator);
+    // world generation only runs with an integrated server, the line is hidden while it has nothing to do
+    GenerationStatistics generation = Cubes.getServer() == null ? null : WorldTasks.getGenerationStatistics();
+    if (generation != null && !generation.isIdle()) {
+      builder.append("GEN Q:").append(generation.queued).append(" T:").append(generation.tasks).append(" D:").append(generation.dropped).append(" AGE:").append(generation.oldestAgeMS).append("ms");
+      builder.append(" G/s:").append(oneDP.format(generation.generatePerSecond)).append(" F/s:").append(oneDP.format(generation.featuresPerSecond)).append(" L/s:").append(oneDP.format(generation.lightingPerSecond)).append(lineSeparator);
+    }
     builder.append("POS X:").append(twoDP.format(p.x)).append("(").append(CoordinateConverter.area(p.x)).append(")").append(" Y:").append(twoDP.format(p.y)).append("(").append(CoordinateConverter.area(p.y)).append(")").append(" Z:").append(twoDP.format(p.z)).append("(").append(CoordinateConverter.area(p.z)).append(")").append(lineSeparator);
     builder.append("DIR X:").append(twoDP.format(Cubes.getClient().player.angle.x)).append(" Y:").append(twoDP.format(Cubes.getClient().player.angle.y)).append(" Z:").append(twoDP.format(Cubes.getClient().player.angle.z)).append(lineSeparator);
 
-    builder.append("REN A:").append(AreaRenderer.renderedThisFrame).append(" Q:").append(AreaRenderer.refreshQueueLength).append(" M:").append(AreaRenderer.renderedMeshesThisFrame).append(" E:").append(worldRenderer.getEntitiesDrawn()).append("/").append(worldRenderer.getTotalEntities()).append(lineSeparator);
+    builder.append("REN A:").append(AreaRenderer.renderedThisFrame).append(" Q:").append(AreaRenderer.refreshQueueLength).append(" J:").append(AreaMesher.pending()).append(" M:").append(AreaRenderer.renderedMeshesThisFrame).append(" S:").append(worldRenderer.getSectionsDrawn()).append("/").append(worldRenderer.getSectionsVisited()).append(" E:").append(worldRenderer.getEntitiesDrawn()).append("/").append(worldRenderer.getTotalEntities()).append(lineSeparator);
 
     builder.append("GFX D:").append(i);
     if (i > 16) builder.append("(").append(worldRenderer.getEffectiveViewDistance()).append(")");
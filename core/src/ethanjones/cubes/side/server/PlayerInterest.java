@@ -0,0 +1,101 @@
+package ethanjones.cubes.side.server;
+
+import ethanjones.cubes.entity.living.player.Player;
+import ethanjones.cubes.networking.NetworkingManager;
+import ethanjones.cubes.networking.packets.PacketEntityRemove;
+import ethanjones.cubes.networking.packets.PacketOtherPlayerConnected;
+import ethanjones.cubes.networking.packets.PacketOtherPlayerInventory;
+import ethanjones.cubes.networking.packets.PacketOtherPlayerMovement;
+import ethanjones.cubes.networking.server.ClientIdentifier;
+
+import com.badlogic.gdx.math.Vector3;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+// The other players a client has been sent. Players are spawned on the client when they come into its load range and
+// despawned when they leave it or disconnect, and while in range their movement is sent every
+// PlayerManager.sendInterval ticks if it has changed.
+class PlayerInterest {
+
+  private static class Watched {
+    final Vector3 position = new Vector3();
+    final Vector3 angle = new Vector3();
+    int sentTick;
+    int seenTick;
+  }
+
+  private final PlayerManager playerManager;
+  private final HashMap<UUID, Watched> watched = new HashMap<UUID, Watched>();
+  private int tick = 0;
+
+  PlayerInterest(PlayerManager playerManager) {
+    this.playerManager = playerManager;
+  }
+
+  // server thread, with the player manager locked
+  void update(List<ClientIdentifier> clients) {
+    tick++;
+    ClientIdentifier client = playerManager.client;
+    for (ClientIdentifier other : clients) {
+      if (other == client || other == null) continue;
+      Player player = other.getPlayer();
+      Watched w = watched.get(player.uuid);
+      if (!playerManager.positionInLoadRange(player.position)) {
+        if (w != null) {
+          watched.remove(player.uuid);
+          despawn(player.uuid);
+        }
+        continue;
+      }
+      if (w == null) {
+        watched.put(player.uuid, w = new Watched());
+        spawn(player, w);
+      } else if (tick - w.sentTick >= playerManager.sendInterval(player.position) && (!w.position.equals(player.position) || !w.angle.equals(player.angle))) {
+        w.position.set(player.position);
+        w.angle.set(player.angle);
+        w.sentTick = tick;
+        NetworkingManager.sendPacketToClient(new PacketOtherPlayerMovement(player), client);
+      }
+      w.seenTick = tick;
+    }
+
+    // players which disconnected
+    Iterator<UUID> iterator = watched.keySet().iterator();
+    while (iterator.hasNext()) {
+      UUID uuid = iterator.next();
+      if (watched.get(uuid).seenTick == tick) continue;
+      iterator.remove();
+      despawn(uuid);
+    }
+  }
+
+  private void spawn(Player player, Watched w) {
+    ClientIdentifier client = playerManager.client;
+    w.position.set(player.position);
+    w.angle.set(player.angle);
+    w.sentTick = tick;
+
+    PacketOtherPlayerConnected packet = new PacketOtherPlayerConnected();
+    packet.username = player.username;
+    packet.uuid = player.uuid;
+    packet.position = player.position.cpy();
+    packet.angle = player.angle.cpy();
+    packet.skinColor = player.getSkinColor();
+    NetworkingManager.sendPacketToClient(packet, client);
+
+    // so the client can render their tools
+    PacketOtherPlayerInventory inventory = new PacketOtherPlayerInventory();
+    inventory.playerUUID = player.uuid;
+    inventory.inv = player.getInventory().write();
+    NetworkingManager.sendPacketToClient(inventory, client);
+  }
+
+  private void despawn(UUID uuid) {
+    PacketEntityRemove packet = new PacketEntityRemove();
+    packet.uuid = uuid;
+    NetworkingManager.sendPacketToClient(packet, playerManager.client);
+  }
+}
@@ -1,5 +1,6 @@
 package ethanjones.cubes.side.server;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.event.EventHandler;
 import ethanjones.cubes.core.event.entity.living.player.PlayerMovementEvent;
 import ethanjones.cubes.core.event.world.block.BlockChangedEvent;
@@ -46,16 +47,23 @@ import java.util.List;
  */
 public class PlayerManager {
   
+  // areas within which movement is sent every tick
+  private static final int NEAR_DISTANCE = 1;
+  private static final int MAX_SEND_INTERVAL = 8;
+  
   public final ClientIdentifier client;
   public double connectionPing = -1;
   public double lastPingNano = -1;
   private final CubesServer server;
   private final AreaReference playerArea;
+  // changed every time the player's area is, so the send queue knows when to re-sort areas
+  private volatile int areaVersion;
   private GenerationTask initialGenerationTask;
   private int renderDistance;
   private int loadDistance;
   public ClickType clickType;
   private RainStatus lastSentRainStatus = RainStatus.NOT_RAINING;
+  private final PlayerInterest interest = new PlayerInterest(this);
   
   private final List<PlayerStateObserver> observers = new ArrayList<>();
   
@@ -105,6 +113,8 @@ public class PlayerManager {
     packetConnected.player = client.getPlayer().uuid;
     packetConnected.worldTime = server.world.getTime();
     packetConnected.gamemode = server.world.save.getSaveOptions().worldGamemode;
+    packetConnected.codec = Codec.negotiate(Codec.getNetworkingCodec(), packetConnect.codecs);
+    if (client.getSocketMonitor() != null) client.getSocketMonitor().getSocketOutput().setCodec(packetConnected.codec);
     NetworkingManager.sendPacketToClient(packetConnected, client);
     
     PacketPlayerInventory packetPlayerInventory = new PacketPlayerInventory();
@@ -118,37 +128,7 @@ public class PlayerManager {
     packetChat.msg = packetConnect.username + " joined the game";
     NetworkingManager.sendPacketToAllClients(packetChat);
     
-    PacketOtherPlayerConnected packetOtherPlayerConnected = new PacketOtherPlayerConnected();
-    packetOtherPlayerConnected.username = packetConnect.username;
-    packetOtherPlayerConnected.uuid = client.getPlayer().uuid;
-    packetOtherPlayerConnected.position = client.getPlayer().position;
-    packetOtherPlayerConnected.angle = client.getPlayer().angle;
-    packetOtherPlayerConnected.skinColor = client.getPlayer().getSkinColor();
-    NetworkingManager.sendPacketToOtherClients(packetOtherPlayerConnected, client);
-    
-    // Send new player's inventory to other clients so they can render tools
-    PacketOtherPlayerInventory newPlayerInv = new PacketOtherPlayerInventory();
-    newPlayerInv.playerUUID = client.getPlayer().uuid;
-    newPlayerInv.inv = clientIdentifier.getPlayer().getInventory().write();
-    NetworkingManager.sendPacketToOtherClients(newPlayerInv, client);
-    
-    for (ClientIdentifier c : Cubes.getServer().getAllClients()) {
-      if (c == client || c == null) continue;
-      PacketOtherPlayerConnected popc = new PacketOtherPlayerConnected();
-      popc.username = c.getPlayer().username;
-      popc.uuid = c.getPlayer().uuid;
-      popc.position = c.getPlayer().position;
-      popc.angle = c.getPlayer().angle;
-      popc.skinColor = c.getPlayer().getSkinColor();
-      NetworkingManager.sendPacketToClient(popc, client);
-      
-      // Send existing player's inventory to new client so they can render tools
-      PacketOtherPlayerInventory existingPlayerInv = new PacketOtherPlayerInventory();
-      existingPlayerInv.playerUUID = c.getPlayer().uuid;
-      existingPlayerInv.inv = c.getPlayer().getInventory().write();
-      NetworkingManager.sendPacketToClient(existingPlayerInv, client);
-    }
-    
+    // other players are sent to and from this client by PlayerInterest once it is ticked
     clientIdentifier.getPlayer().addToWorld();
     
     initialLoadAreas();
@@ -175,13 +155,11 @@ public class PlayerManager {
       initialGenerationTask = server.world.requestRegion(new WorldRegion(playerArea, loadDistance), parameter);
 
       World world = Cubes.getServer().world;
+      ArrayList<Entity> inRange = new ArrayList<Entity>();
       try (Locked<WorldLockable> locked = world.entities.acquireReadLock()) {
-        for (Entity entity : world.entities.map.values()) {
-          if (positionInLoadRange(entity.position) && !(entity instanceof Player)) {
-            PacketEntityAdd packet = new PacketEntityAdd();
-            packet.entity = entity;
-            NetworkingManager.sendPacketToClient(packet, client);
-          }
+        world.entities.inRegion(new WorldRegion(playerArea, loadDistance), inRange);
+        for (Entity entity : inRange) {
+          if (!(entity instanceof Player)) ((WorldServer) world).entityReplicator.spawn(entity, client);
         }
       }
     }
@@ -238,53 +216,46 @@ public class PlayerManager {
 
         World world = Cubes.getServer().world;
         try (Locked<WorldLockable> locked = world.entities.acquireReadLock()) {
-          for (Entity entity : world.entities.map.values()) {
-            if (!(entity instanceof Player) && newRegion.contains(entity.position) && !oldRegion.contains(entity.position)) {
-              PacketEntityAdd packet = new PacketEntityAdd();
-              packet.entity = entity;
-              NetworkingManager.sendPacketToClient(packet, client);
+          for (AreaReference areaReference : difference) {
+            for (Entity entity : world.entities.inArea(areaReference.areaX, areaReference.areaZ)) {
+              if (!(entity instanceof Player)) ((WorldServer) world).entityReplicator.spawn(entity, client);
             }
           }
         }
         
         playerArea.setFromAreaReference(newRef);
+        areaVersion++;
         notifyAreaChanged(oldRef, newRef);
       }
       
       client.getPlayer().position.set(newPosition);
       client.getPlayer().angle.set(newAngle);
+      try (Locked<WorldLockable> locked = server.world.entities.acquireWriteLock()) {
+        server.world.entities.moved(client.getPlayer());
+      }
       
       notifyPositionChanged(oldPosition, newPosition);
       
       if (client.getPlayer().position.y < -10f) teleportToSpawn();
       
       if (!clientKnows) NetworkingManager.sendPacketToClient(new PacketPlayerMovement(client.getPlayer()), client);
-      NetworkingManager.sendPacketToOtherClients(new PacketOtherPlayerMovement(client.getPlayer()), client);
     }
   }
   
+  // changes to areas which aren't shared are sent by WorldServer.blockChanges
   @EventHandler
   public void blockChanged(BlockChangedEvent event) {
+    if (!Area.isShared()) return;
     BlockReference blockReference = event.getBlockReference();
     synchronized (this) {
       if (Math.abs(CoordinateConverter.area(blockReference.blockX) - playerArea.areaX) > loadDistance) return;
       if (Math.abs(CoordinateConverter.area(blockReference.blockZ) - playerArea.areaZ) > loadDistance) return;
     }
-    if (Area.isShared()) {
-      PacketAreaUpdateRender packet = new PacketAreaUpdateRender();
-      packet.areaX = CoordinateConverter.area(blockReference.blockX);
-      packet.areaZ = CoordinateConverter.area(blockReference.blockZ);
-      packet.ySection = CoordinateConverter.area(blockReference.blockY);
-      NetworkingManager.sendPacketToClient(packet, client);
-    } else {
-      PacketBlockChanged packet = new PacketBlockChanged();
-      packet.x = blockReference.blockX;
-      packet.y = blockReference.blockY;
-      packet.z = blockReference.blockZ;
-      packet.meta = event.getNewMeta();
-      packet.block = IDManager.toInt(event.getNewBlock());
-      NetworkingManager.sendPacketToClient(packet, client);
-    }
+    PacketAreaUpdateRender packet = new PacketAreaUpdateRender();
+    packet.areaX = CoordinateConverter.area(blockReference.blockX);
+    packet.areaZ = CoordinateConverter.area(blockReference.blockZ);
+    packet.ySection = CoordinateConverter.area(blockReference.blockY);
+    NetworkingManager.sendPacketToClient(packet, client);
   }
   
   @EventHandler
@@ -353,6 +324,8 @@ public class PlayerManager {
         NetworkingManager.sendPacketToClient(packetRainStatus, client);
       }
 
+      interest.update(server.getAllClients());
+
       if (lastPingNano != -1 && System.nanoTime() - lastPingNano >= ClientNetworking.PING_NANOSECONDS * 2) {
         NetworkingManager.getNetworking(Side.Server).disconnected(client.getSocketMonitor(), new CubesException("No ping received"));
       }
@@ -377,6 +350,25 @@ public class PlayerManager {
     return areaX >= (playerArea.areaX - loadDistance) && areaX <= (playerArea.areaX + loadDistance) && areaZ >= (playerArea.areaZ - loadDistance) && areaZ <= (playerArea.areaZ + loadDistance);
   }
 
+  // ticks between sending the movement of something at position, further away movement is sent less often
+  public int sendInterval(Vector3 position) {
+    int distance = areaDistance(CoordinateConverter.area(position.x), CoordinateConverter.area(position.z));
+    return Math.min(1 << Math.max(distance - NEAR_DISTANCE, 0), MAX_SEND_INTERVAL);
+  }
+
+  // areas between the player's area and this one, not synchronized so the send queue can use it
+  public int areaDistance(int areaX, int areaZ) {
+    return Math.max(Math.abs(areaX - playerArea.areaX), Math.abs(areaZ - playerArea.areaZ));
+  }
+
+  public int getAreaVersion() {
+    return areaVersion;
+  }
+
+  public int getLoadDistance() {
+    return loadDistance;
+  }
+
   public boolean areaInLoadRange(AreaReference a) {
     return a.areaX >= (playerArea.areaX - loadDistance) && a.areaX <= (playerArea.areaX + loadDistance) && a.areaZ >= (playerArea.areaZ - loadDistance) && a.areaZ <= (playerArea.areaZ + loadDistance);
   }
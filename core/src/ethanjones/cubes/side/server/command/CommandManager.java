@@ -122,6 +122,8 @@ public class CommandManager {
 
     StopCommand.init();
     ThreadDumpCommand.init();
+    GenerationCommand.init();
+    NetworkCommand.init();
 
     IteratorDemoCommand.init();
 
@@ -0,0 +1,19 @@
+package ethanjones.cubes.side.server.commands;
+
+import ethanjones.cubes.side.server.command.*;
+import ethanjones.cubes.world.thread.WorldTasks;
+
+import java.util.List;
+
+public class GenerationCommand {
+
+  public static void init() {
+    new CommandBuilder("generation").register().setCommandPermission(CommandPermission.All).setCommandListener(new CommandListener() {
+      @Override
+      @SuppressWarnings("rawtypes") // CommandListener takes raw arguments
+      public void onCommand(CommandBuilder builder, List<CommandArgument> arguments, CommandSender sender) {
+        sender.print(WorldTasks.getGenerationStatistics().toString());
+      }
+    });
+  }
+}
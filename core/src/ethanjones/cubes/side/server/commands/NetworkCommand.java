@@ -0,0 +1,23 @@
+package ethanjones.cubes.side.server.commands;
+
+import ethanjones.cubes.networking.server.ClientIdentifier;
+import ethanjones.cubes.side.common.Cubes;
+import ethanjones.cubes.side.server.command.*;
+
+import java.util.List;
+
+public class NetworkCommand {
+
+  public static void init() {
+    new CommandBuilder("network").register().setCommandPermission(CommandPermission.All).setCommandListener(new CommandListener() {
+      @Override
+      @SuppressWarnings("rawtypes") // CommandListener takes raw arguments
+      public void onCommand(CommandBuilder builder, List<CommandArgument> arguments, CommandSender sender) {
+        for (ClientIdentifier client : Cubes.getServer().getAllClients()) {
+          if (client.getSocketMonitor() == null) continue;
+          sender.print(client.getPlayer().username + " - " + client.getSocketMonitor().getSocketOutput().getStatistics());
+        }
+      }
+    });
+  }
+}
@@ -63,13 +63,13 @@ public class AreaLoadObserver implements PlayerStateObserver {
             // Send newly visible entities to client
             World world = Cubes.getServer().world;
             try (Locked<WorldLockable> locked = world.entities.acquireReadLock()) {
-                for (Entity entity : world.entities.map.values()) {
-                    if (!(entity instanceof Player) && 
-                        newRegion.contains(entity.position) && 
-                        !oldRegion.contains(entity.position)) {
-                        PacketEntityAdd packet = new PacketEntityAdd();
-                        packet.entity = entity;
-                        NetworkingManager.sendPacketToClient(packet, client);
+                for (AreaReference areaReference : difference) {
+                    for (Entity entity : world.entities.inArea(areaReference.areaX, areaReference.areaZ)) {
+                        if (!(entity instanceof Player)) {
+                            PacketEntityAdd packet = new PacketEntityAdd();
+                            packet.entity = entity;
+                            NetworkingManager.sendPacketToClient(packet, client);
+                        }
                     }
                 }
             }
@@ -12,6 +12,7 @@ import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.generator.GeneratorManager;
 import ethanjones.cubes.world.generator.TerrainGenerator;
+import ethanjones.cubes.world.light.LightUpdateQueue;
 import ethanjones.cubes.world.reference.AreaReference;
 import ethanjones.cubes.world.reference.multi.MultiAreaReference;
 import ethanjones.cubes.world.reference.multi.WorldRegion;
@@ -143,12 +144,14 @@ public abstract class World extends WorldLockable implements Disposable {
     int minX = Math.min(x1, x2), minY = Math.min(y1, y2), minZ = Math.min(z1, z2);
     int maxX = Math.max(x1, x2), maxY = Math.max(y1, y2), maxZ = Math.max(z1, z2);
 
-    for (int x = minX; x <= maxX; x++) {
-      for (int z = minZ; z <= maxZ; z++) {
-        Area area = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-        if (area != null) {
-          for (int y = minY; y <= maxY; y++) {
-            area.setBlock(block, x - area.minBlockX, y, z - area.minBlockZ, meta);
+    try (LightUpdateQueue lightUpdates = LightUpdateQueue.begin()) {
+      for (int x = minX; x <= maxX; x++) {
+        for (int z = minZ; z <= maxZ; z++) {
+          Area area = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+          if (area != null) {
+            for (int y = minY; y <= maxY; y++) {
+              area.setBlock(block, x - area.minBlockX, y, z - area.minBlockZ, meta);
+            }
           }
         }
       }
@@ -164,7 +167,10 @@ public abstract class World extends WorldLockable implements Disposable {
           entry.getValue().dispose();
           UUID uuid = entry.getKey();
           iterator.remove();
+          entities.removed(entry.getValue());
           removeEntity(uuid);
+        } else {
+          entities.moved(entry.getValue());
         }
       }
       time++;
@@ -217,7 +223,7 @@ public abstract class World extends WorldLockable implements Disposable {
       for (Entity entity : entities.map.values()) {
         entity.dispose();
       }
-      entities.map.clear();
+      entities.clear();
     }
   }
   
@@ -233,13 +239,13 @@ public abstract class World extends WorldLockable implements Disposable {
 
   public void addEntity(Entity entity) {
     try (Locked<WorldLockable> locked = entities.acquireWriteLock()) {
-      entities.map.put(entity.uuid, entity);
+      entities.add(entity);
     }
   }
 
   public void removeEntity(UUID uuid) {
     try (Locked<WorldLockable> locked = entities.acquireWriteLock()) {
-      Entity remove = entities.map.remove(uuid);
+      Entity remove = entities.remove(uuid);
       if (remove != null) remove.dispose();
     }
   }
@@ -250,6 +256,7 @@ public abstract class World extends WorldLockable implements Disposable {
       Entity entity = entities.map.get(uuid);
       if (entity != null) {
         entity.read(data);
+        entities.moved(entity);
       } else {
         Log.warning("No entity with uuid " + uuid.toString());
         addEntity(Entity.readType(data));
@@ -6,6 +6,7 @@ import ethanjones.cubes.core.util.locks.LockManager;
 import ethanjones.cubes.core.util.locks.Locked;
 import ethanjones.cubes.entity.Entity;
 import ethanjones.cubes.graphics.world.area.AreaRenderer;
+import ethanjones.cubes.networking.packets.PacketEntityDeltas;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.CoordinateConverter;
@@ -19,6 +20,7 @@ import ethanjones.cubes.world.thread.WorldLockable;
 import ethanjones.cubes.world.thread.WorldRequestParameter;
 
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.utils.IntMap;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -32,6 +34,8 @@ public class WorldClient extends World {
   private final int renderDistance = Settings.getIntegerSettingValue(Settings.GRAPHICS_VIEW_DISTANCE); //keep 3 extra
   public RainStatus rainStatus = RainStatus.NOT_RAINING;
   private int tickCounter = 0;
+  // by network id, entities dropped when their area is unloaded are removed when their next update arrives
+  private final IntMap<PacketEntityDeltas.Replicated> replicated = new IntMap<PacketEntityDeltas.Replicated>();
 
   public WorldClient() {
     super(null, Side.Client);
@@ -70,6 +74,7 @@ public class WorldClient extends World {
         if (dist > renderDistance + 1) {
           entity.dispose();
           entityIterator.remove();
+          entities.removed(entity);
         }
       }
     }
@@ -87,6 +92,32 @@ public class WorldClient extends World {
     return Color.BLACK.cpy().lerp(Color.SKY, (light - 0.3f) * 2.5f);
   }
 
+  @Override
+  public void addEntity(Entity entity) {
+    try (Locked<WorldLockable> locked = entities.acquireWriteLock()) {
+      super.addEntity(entity);
+      if (entity.networkID != 0) replicated.put(entity.networkID, new PacketEntityDeltas.Replicated(entity.uuid));
+    }
+  }
+
+  @Override
+  public void removeEntity(UUID uuid) {
+    try (Locked<WorldLockable> locked = entities.acquireWriteLock()) {
+      Entity entity = entities.map.get(uuid);
+      if (entity != null && entity.networkID != 0) replicated.remove(entity.networkID);
+      super.removeEntity(uuid);
+    }
+  }
+
+  // must hold the entities lock
+  public PacketEntityDeltas.Replicated getReplicated(int networkID) {
+    return replicated.get(networkID);
+  }
+
+  public void removeReplicated(int networkID) {
+    replicated.remove(networkID);
+  }
+
   @Override
   public void dispose() {
     super.dispose();
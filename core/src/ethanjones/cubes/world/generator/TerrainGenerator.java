@@ -84,7 +84,7 @@ public abstract class TerrainGenerator {
 
     try (Locked<Area> locked = area.acquireWriteLock()) {
       area.setupArrays(y);
-      area.blocks[ref] = (block == null ? 0 : block.intID + ((meta & 0xFF) << 20));
+      area.blocks.set(ref, (block == null ? 0 : block.intID + ((meta & 0xFF) << 20)));
     }
   }
   
@@ -98,7 +98,7 @@ public abstract class TerrainGenerator {
 
     try (Locked<Area> locked = area.acquireWriteLock()) {
       area.setupArrays(y);
-      area.blocks[ref] = (block == null ? 0 : (block.intID + ((meta & 0xFF) << 20)) | Area.BLOCK_VISIBLE);
+      area.blocks.set(ref, (block == null ? 0 : (block.intID + ((meta & 0xFF) << 20)) | Area.BLOCK_VISIBLE));
     }
   }
 
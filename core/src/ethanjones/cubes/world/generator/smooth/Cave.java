@@ -28,7 +28,7 @@ public class Cave {
     int[] array = blocks.get(new AreaReference().setFromArea(area));
     if (array == null) return;
     for (int ref : array) {
-      if (ref < area.blocks.length) area.blocks[ref] = 0;
+      if (ref < area.blocks.length()) area.blocks.set(ref, 0);
     }
   }
 
@@ -1,13 +1,11 @@
 package ethanjones.cubes.world.light;
 
 import ethanjones.cubes.core.id.TransparencyManager;
-import ethanjones.cubes.world.CoordinateConverter;
+import ethanjones.cubes.core.util.LongQueue;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.PalettedStorage;
 
-import java.util.ArrayDeque;
-
-import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
-import static ethanjones.cubes.world.storage.Area.getRef;
+import static ethanjones.cubes.world.light.LightWorldSection.*;
 
 public class BlockLight {
 
@@ -15,49 +13,55 @@ public class BlockLight {
 
   public static void spreadLight(int x, int y, int z, Area area, LightWorldSection w) {
     if (y >= 0 && y <= area.maxY) {
-      ArrayDeque<LightNode> lightQueue = new ArrayDeque<LightNode>(1000);
-
-      if (y <= w.maxY(x + 1, z) && (w.transparent(x + 1, y, z) || w.isLightSource(x + 1, y, z)))
-        lightQueue.add(new LightNode(x + 1, y, z, w.getLight(x + 1, y, z)));
-      if (y <= w.maxY(x - 1, z) && (w.transparent(x - 1, y, z) || w.isLightSource(x - 1, y, z)))
-        lightQueue.add(new LightNode(x - 1, y, z, w.getLight(x - 1, y, z)));
-
-      if (y < w.maxY(x, z) && (w.transparent(x, y + 1, z) || w.isLightSource(x, y + 1, z)))
-        lightQueue.add(new LightNode(x, y + 1, z, w.getLight(x, y + 1, z)));
-      if (y > 0 && (w.transparent(x, y - 1, z) || w.isLightSource(x, y - 1, z)))
-        lightQueue.add(new LightNode(x, y - 1, z, w.getLight(x, y - 1, z)));
-
-      if (y <= w.maxY(x, z + 1) && (w.transparent(x, y, z + 1) || w.isLightSource(x, y, z + 1)))
-        lightQueue.add(new LightNode(x, y, z + 1, w.getLight(x, y, z + 1)));
-      if (y <= w.maxY(x, z - 1) && (w.transparent(x, y, z - 1) || w.isLightSource(x, y, z - 1)))
-        lightQueue.add(new LightNode(x, y, z - 1, w.getLight(x, y, z - 1)));
-
-      propagateAdd(lightQueue, w);
+      queueSpread(x, y, z, w);
+      propagateAdd(w.addQueue, w);
     }
   }
 
-  public static void addLight(int x, int y, int z, int l, Area area, LightWorldSection lws) {
-    if (y > 0 && y <= area.maxY) {
-      ArrayDeque<LightNode> lightQueue = new ArrayDeque<LightNode>(1000);
+  // queues the light of the neighbours of a block, so that it spreads into the block
+  static void queueSpread(int x, int y, int z, LightWorldSection w) {
+    LongQueue lightQueue = w.addQueue;
+    x -= w.minBlockX;
+    z -= w.minBlockZ;
+
+    if (y <= w.maxY(x + 1, z) && (w.transparent(x + 1, y, z) || w.isLightSource(x + 1, y, z)))
+      lightQueue.enqueue(pack(x + 1, y, z, w.getLight(x + 1, y, z)));
+    if (y <= w.maxY(x - 1, z) && (w.transparent(x - 1, y, z) || w.isLightSource(x - 1, y, z)))
+      lightQueue.enqueue(pack(x - 1, y, z, w.getLight(x - 1, y, z)));
+
+    if (y < w.maxY(x, z) && (w.transparent(x, y + 1, z) || w.isLightSource(x, y + 1, z)))
+      lightQueue.enqueue(pack(x, y + 1, z, w.getLight(x, y + 1, z)));
+    if (y > 0 && (w.transparent(x, y - 1, z) || w.isLightSource(x, y - 1, z)))
+      lightQueue.enqueue(pack(x, y - 1, z, w.getLight(x, y - 1, z)));
+
+    if (y <= w.maxY(x, z + 1) && (w.transparent(x, y, z + 1) || w.isLightSource(x, y, z + 1)))
+      lightQueue.enqueue(pack(x, y, z + 1, w.getLight(x, y, z + 1)));
+    if (y <= w.maxY(x, z - 1) && (w.transparent(x, y, z - 1) || w.isLightSource(x, y, z - 1)))
+      lightQueue.enqueue(pack(x, y, z - 1, w.getLight(x, y, z - 1)));
+  }
 
-      area.setLight(x - area.minBlockX, y, z - area.minBlockZ, l);
-      lightQueue.add(new LightNode(x, y, z, l));
-      propagateAdd(lightQueue, lws);
+  public static void addLight(int x, int y, int z, int l, Area area, LightWorldSection w) {
+    if (y > 0 && y <= area.maxY) {
+      queueAdd(x, y, z, l, area, w);
+      propagateAdd(w.addQueue, w);
     }
   }
 
-  private static void propagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w) {
-    if (lightQueue.isEmpty()) return;
+  static void queueAdd(int x, int y, int z, int l, Area area, LightWorldSection w) {
+    area.setLight(x - area.minBlockX, y, z - area.minBlockZ, l);
+    w.addQueue.enqueue(pack(x - w.minBlockX, y, z - w.minBlockZ, l));
+  }
 
+  static void propagateAdd(LongQueue lightQueue, LightWorldSection w) {
     while (!lightQueue.isEmpty()) {
-      LightNode n = lightQueue.pop();
-      int x = n.x;
-      int y = n.y;
-      int z = n.z;
-      int l = n.l;
-
+      long n = lightQueue.poll();
+      int l = level(n);
       if (l <= 1) continue;
 
+      int x = x(n);
+      int y = y(n);
+      int z = z(n);
+
       tryPropagateAdd(lightQueue, w, x - 1, y, z, l);
       tryPropagateAdd(lightQueue, w, x + 1, y, z, l);
       tryPropagateAdd(lightQueue, w, x, y, z - 1, l);
@@ -67,43 +71,46 @@ public class BlockLight {
     }
   }
 
-  private static void tryPropagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w, int x, int y, int z, int l) {
-    Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
-    if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks[ref])) return;
-    if ((a.light[ref] & 0xF) + 2 <= l) {
-      a.light[ref] = (byte) ((a.light[ref] & 0xF0) | (l - 1));
-      a.updateRender(y / SIZE_BLOCKS);
-      a.modify();
-      lightQueue.add(new LightNode(x, y, z, l - 1));
+  private static void tryPropagateAdd(LongQueue lightQueue, LightWorldSection w, int x, int y, int z, int l) {
+    if (!inside(x, z)) return;
+    int index = index(x, z);
+    if (!w.ready[index] || y > w.areaMaxY[index]) return;
+    int ref = ref(x, y, z);
+    if (!TransparencyManager.isTransparent(w.blocks[index].get(ref))) return;
+    PalettedStorage lightStorage = w.light[index];
+    int light = lightStorage.get(ref);
+    if ((light & 0xF) + 2 <= l) {
+      lightStorage.set(ref, (light & 0xF0) | (l - 1));
+      w.markDirty(index, y);
+      lightQueue.enqueue(pack(x, y, z, l - 1));
     }
   }
 
-  public static void removeLight(int x, int y, int z, Area area, LightWorldSection lws) {
+  public static void removeLight(int x, int y, int z, Area area, LightWorldSection w) {
     if (y > 0 && y <= area.maxY) {
-      ArrayDeque<LightNode> removeQueue = new ArrayDeque<LightNode>(1000);
-      ArrayDeque<LightNode> addQueue = new ArrayDeque<LightNode>(1000);
-
-      int prev = area.getLight(x - area.minBlockX, y, z - area.minBlockZ);
-      area.setLight(x - area.minBlockX, y, z - area.minBlockZ, 0);
-      removeQueue.add(new LightNode(x, y, z, prev));
-      propagateRemove(removeQueue, addQueue, lws);
-      propagateAdd(addQueue, lws);
+      queueRemove(x, y, z, area, w);
+      propagateRemove(w.removeQueue, w.addQueue, w);
+      propagateAdd(w.addQueue, w);
     }
   }
 
-  private static void propagateRemove(ArrayDeque<LightNode> removeQueue, ArrayDeque<LightNode> addQueue, LightWorldSection w) {
-    if (removeQueue.isEmpty()) return;
+  static void queueRemove(int x, int y, int z, Area area, LightWorldSection w) {
+    int prev = area.getLight(x - area.minBlockX, y, z - area.minBlockZ);
+    area.setLight(x - area.minBlockX, y, z - area.minBlockZ, 0);
+    w.removeQueue.enqueue(pack(x - w.minBlockX, y, z - w.minBlockZ, prev));
+  }
 
+  // blocks which still have light from another source are queued on addQueue
+  static void propagateRemove(LongQueue removeQueue, LongQueue addQueue, LightWorldSection w) {
     while (!removeQueue.isEmpty()) {
-      LightNode n = removeQueue.pop();
-      int x = n.x;
-      int y = n.y;
-      int z = n.z;
-      int l = n.l;
-
+      long n = removeQueue.poll();
+      int l = level(n);
       if (l <= 1) continue;
 
+      int x = x(n);
+      int y = y(n);
+      int z = z(n);
+
       tryPropagateRemove(removeQueue, addQueue, w, x - 1, y, z, l);
       tryPropagateRemove(removeQueue, addQueue, w, x + 1, y, z, l);
       tryPropagateRemove(removeQueue, addQueue, w, x, y, z - 1, l);
@@ -113,18 +120,21 @@ public class BlockLight {
     }
   }
 
-  private static void tryPropagateRemove(ArrayDeque<LightNode> removeQueue, ArrayDeque<LightNode> addQueue, LightWorldSection w, int x, int y, int z, int l) {
-    Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
-    if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks[ref])) return;
-    int p = a.light[ref] & 0xF;
+  private static void tryPropagateRemove(LongQueue removeQueue, LongQueue addQueue, LightWorldSection w, int x, int y, int z, int l) {
+    if (!inside(x, z)) return;
+    int index = index(x, z);
+    if (!w.ready[index] || y > w.areaMaxY[index]) return;
+    int ref = ref(x, y, z);
+    if (!TransparencyManager.isTransparent(w.blocks[index].get(ref))) return;
+    PalettedStorage lightStorage = w.light[index];
+    int light = lightStorage.get(ref);
+    int p = light & 0xF;
     if (p != 0 && p < l) {
-      a.light[ref] = (byte) (a.light[ref] & 0xF0); // same as ((a.light[ref] & 0xF0) | 0)
-      a.updateRender(y / SIZE_BLOCKS);
-      a.modify();
-      removeQueue.add(new LightNode(x, y, z, p));
+      lightStorage.set(ref, light & 0xF0); // same as ((light & 0xF0) | 0)
+      w.markDirty(index, y);
+      removeQueue.enqueue(pack(x, y, z, p));
     } else if (p >= l) {
-      addQueue.add(new LightNode(x, y, z, p));
+      addQueue.enqueue(pack(x, y, z, p));
     }
   }
 
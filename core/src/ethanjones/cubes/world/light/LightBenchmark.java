@@ -0,0 +1,172 @@
+package ethanjones.cubes.world.light;
+
+import ethanjones.cubes.core.id.TransparencyManager;
+import ethanjones.cubes.world.CoordinateConverter;
+import ethanjones.cubes.world.storage.Area;
+
+import java.util.ArrayDeque;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+import static ethanjones.cubes.world.storage.Area.getRef;
+
+// Adding and removing a block light in an empty 3x3 section, and removing and adding sunlight under it
+// Compares BlockLight to the previous implementation queueing a LightNode object per step
+// Usage: LightBenchmark [height in blocks] [seconds]
+public class LightBenchmark {
+
+  public static void main(String[] args) {
+    int height = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    final Area[] areas = new Area[9];
+    for (int x = -1; x <= 1; x++) {
+      for (int z = -1; z <= 1; z++) {
+        Area area = new Area(x, z);
+        area.setupArrays(height - 1);
+        areas[(x + 1) * 3 + (z + 1)] = area;
+      }
+    }
+    final Area initial = areas[4];
+    final int y = height / 2;
+
+    for (int run = 0; run < 2; run++) {
+      run("LightNode", areas, seconds, new Runnable() {
+        @Override
+        public void run() {
+          try (LightWorldSection w = new LightWorldSection(areas)) {
+            LightNodeBlockLight.addLight(16, y, 16, 15, initial, w);
+            LightNodeBlockLight.removeLight(16, y, 16, initial, w);
+          }
+        }
+      });
+      run("BlockLight", areas, seconds, new Runnable() {
+        @Override
+        public void run() {
+          try (LightWorldSection w = new LightWorldSection(areas)) {
+            BlockLight.addLight(16, y, 16, 15, initial, w);
+            BlockLight.removeLight(16, y, 16, initial, w);
+          }
+        }
+      });
+      run("SunLight", areas, seconds, new Runnable() {
+        @Override
+        public void run() {
+          try (LightWorldSection w = new LightWorldSection(areas)) {
+            SunLight.removeSunlight(16, y, 16, initial, w);
+            SunLight.addSunlight(16, y, 16, initial, w);
+          }
+        }
+      });
+    }
+  }
+
+  private static void run(String name, Area[] areas, int seconds, Runnable runnable) {
+    for (Area area : areas) {
+      area.light.fill(0, area.light.length(), SunLight.MAX_SUNLIGHT);
+    }
+
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    long end = start + seconds * 1000000000L;
+    long count = 0;
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < 16; i++) {
+        runnable.run();
+      }
+      count += 16;
+    }
+    long time = System.nanoTime() - start;
+    allocated = allocatedBytes() - allocated;
+
+    System.out.println(name + ": " + (time / count / 1000) + "us per add and remove, " + (allocated < 0 ? "?" : String.valueOf(allocated / count)) + " bytes allocated");
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return Long.MIN_VALUE;
+  }
+
+  // BlockLight before propagation used packed nodes, kept to compare against
+  private static class LightNodeBlockLight {
+
+    private static class LightNode {
+      final int x, y, z, l;
+
+      LightNode(int x, int y, int z, int l) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.l = l;
+      }
+    }
+
+    static void addLight(int x, int y, int z, int l, Area area, LightWorldSection lws) {
+      ArrayDeque<LightNode> lightQueue = new ArrayDeque<LightNode>(1000);
+      area.setLight(x - area.minBlockX, y, z - area.minBlockZ, l);
+      lightQueue.add(new LightNode(x, y, z, l));
+      propagateAdd(lightQueue, lws);
+    }
+
+    static void propagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w) {
+      while (!lightQueue.isEmpty()) {
+        LightNode n = lightQueue.pop();
+        if (n.l <= 1) continue;
+        tryPropagateAdd(lightQueue, w, n.x - 1, n.y, n.z, n.l);
+        tryPropagateAdd(lightQueue, w, n.x + 1, n.y, n.z, n.l);
+        tryPropagateAdd(lightQueue, w, n.x, n.y, n.z - 1, n.l);
+        tryPropagateAdd(lightQueue, w, n.x, n.y, n.z + 1, n.l);
+        if (n.y > 0) tryPropagateAdd(lightQueue, w, n.x, n.y - 1, n.z, n.l);
+        tryPropagateAdd(lightQueue, w, n.x, n.y + 1, n.z, n.l);
+      }
+    }
+
+    static void tryPropagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w, int x, int y, int z, int l) {
+      Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+      int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
+      if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks.get(ref))) return;
+      if ((a.light.get(ref) & 0xF) + 2 <= l) {
+        a.light.set(ref, (a.light.get(ref) & 0xF0) | (l - 1));
+        a.updateRender(y / SIZE_BLOCKS);
+        a.modify();
+        lightQueue.add(new LightNode(x, y, z, l - 1));
+      }
+    }
+
+    static void removeLight(int x, int y, int z, Area area, LightWorldSection lws) {
+      ArrayDeque<LightNode> removeQueue = new ArrayDeque<LightNode>(1000);
+      ArrayDeque<LightNode> addQueue = new ArrayDeque<LightNode>(1000);
+      int prev = area.getLight(x - area.minBlockX, y, z - area.minBlockZ);
+      area.setLight(x - area.minBlockX, y, z - area.minBlockZ, 0);
+      removeQueue.add(new LightNode(x, y, z, prev));
+      while (!removeQueue.isEmpty()) {
+        LightNode n = removeQueue.pop();
+        if (n.l <= 1) continue;
+        tryPropagateRemove(removeQueue, addQueue, lws, n.x - 1, n.y, n.z, n.l);
+        tryPropagateRemove(removeQueue, addQueue, lws, n.x + 1, n.y, n.z, n.l);
+        tryPropagateRemove(removeQueue, addQueue, lws, n.x, n.y, n.z - 1, n.l);
+        tryPropagateRemove(removeQueue, addQueue, lws, n.x, n.y, n.z + 1, n.l);
+        if (n.y > 0) tryPropagateRemove(removeQueue, addQueue, lws, n.x, n.y - 1, n.z, n.l);
+        tryPropagateRemove(removeQueue, addQueue, lws, n.x, n.y + 1, n.z, n.l);
+      }
+      propagateAdd(addQueue, lws);
+    }
+
+    static void tryPropagateRemove(ArrayDeque<LightNode> removeQueue, ArrayDeque<LightNode> addQueue, LightWorldSection w, int x, int y, int z, int l) {
+      Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+      int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
+      if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks.get(ref))) return;
+      int p = a.light.get(ref) & 0xF;
+      if (p != 0 && p < l) {
+        a.light.set(ref, a.light.get(ref) & 0xF0);
+        a.updateRender(y / SIZE_BLOCKS);
+        a.modify();
+        removeQueue.add(new LightNode(x, y, z, p));
+      } else if (p >= l) {
+        addQueue.add(new LightNode(x, y, z, p));
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package ethanjones.cubes.world.light;
+
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.core.performance.Performance;
+import ethanjones.cubes.core.performance.PerformanceTags;
+import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.thread.AreaNotLoadedException;
+
+import com.badlogic.gdx.utils.LongArray;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Defers the light updates caused by block changes on this thread until the outermost batch is closed
+//
+// try (LightUpdateQueue batch = LightUpdateQueue.begin()) {
+//   ...set blocks...
+// }
+//
+// Changed blocks are collected per area. When the batch is closed every area runs one removal pass seeded with all of
+// its changed blocks and one addition pass, for block light and then for sunlight, instead of a pass per block.
+// Outside a batch WorldLightHandler updates the light straight away.
+public class LightUpdateQueue implements AutoCloseable {
+  private static final ThreadLocal<LightUpdateQueue> queue = new ThreadLocal<LightUpdateQueue>() {
+    @Override
+    protected LightUpdateQueue initialValue() {
+      return new LightUpdateQueue();
+    }
+  };
+
+  private final ArrayList<Area> areas = new ArrayList<Area>();
+  private final IdentityHashMap<Area, LongArray> changes = new IdentityHashMap<Area, LongArray>();
+  private int depth;
+
+  private LightUpdateQueue() {
+  }
+
+  public static LightUpdateQueue begin() {
+    LightUpdateQueue q = queue.get();
+    q.depth++;
+    return q;
+  }
+
+  // returns false if there is no batch open on this thread, x and z are relative to the area
+  static boolean add(Area area, int x, int y, int z) {
+    LightUpdateQueue q = queue.get();
+    if (q.depth == 0) return false;
+    LongArray array = q.changes.get(area);
+    if (array == null) {
+      q.changes.put(area, array = new LongArray());
+      q.areas.add(area);
+    }
+    array.add(x | (z << 5) | ((long) y << 10));
+    return true;
+  }
+
+  @Override
+  public void close() {
+    if (--depth > 0 || areas.isEmpty()) return;
+
+    Performance.start(PerformanceTags.LIGHT_UPDATE);
+    try {
+      for (Area area : areas) {
+        update(area, changes.get(area));
+      }
+    } finally {
+      areas.clear();
+      changes.clear();
+      Performance.stop(PerformanceTags.LIGHT_UPDATE);
+    }
+  }
+
+  private static void update(Area area, LongArray changed) {
+    try (LightWorldSection w = new LightWorldSection(area)) {
+      update(w, changed);
+    } catch (AreaNotLoadedException e) {
+      Log.error("Failed to update light", e);
+    }
+  }
+
+  static void update(LightWorldSection w, LongArray changed) {
+    Area area = w.initial;
+    int size = changed.size;
+    long[] items = changed.items;
+
+    // block light
+    for (int i = 0; i < size; i++) {
+      int y = (int) (items[i] >>> 10);
+      if (y > 0 && y <= area.maxY) BlockLight.queueRemove(blockX(area, items[i]), y, blockZ(area, items[i]), area, w);
+    }
+    BlockLight.propagateRemove(w.removeQueue, w.addQueue, w);
+    for (int i = 0; i < size; i++) {
+      int x = blockX(area, items[i]), y = (int) (items[i] >>> 10), z = blockZ(area, items[i]);
+      if (y < 0 || y > area.maxY) continue;
+      int level = w.lightLevel(x - w.minBlockX, y, z - w.minBlockZ);
+      if (level > 0 && y > 0) BlockLight.queueAdd(x, y, z, level, area, w);
+      BlockLight.queueSpread(x, y, z, w);
+    }
+    BlockLight.propagateAdd(w.addQueue, w);
+
+    // sunlight
+    for (int i = 0; i < size; i++) {
+      int x = blockX(area, items[i]), y = (int) (items[i] >>> 10), z = blockZ(area, items[i]);
+      if (y > 0 && y <= area.maxY && !w.transparent(x - w.minBlockX, y, z - w.minBlockZ)) SunLight.queueRemove(x, y, z, area, w);
+    }
+    SunLight.propagateRemove(w.removeQueue, w.addQueue, w);
+    for (int i = 0; i < size; i++) {
+      int x = blockX(area, items[i]), y = (int) (items[i] >>> 10), z = blockZ(area, items[i]);
+      if (y > 0 && y <= area.maxY && w.transparent(x - w.minBlockX, y, z - w.minBlockZ)) SunLight.queueSpread(x, y, z, w);
+    }
+    SunLight.propagateAdd(w.addQueue, w);
+  }
+
+  private static int blockX(Area area, long change) {
+    return area.minBlockX + (int) (change & 0x1F);
+  }
+
+  private static int blockZ(Area area, long change) {
+    return area.minBlockZ + (int) ((change >> 5) & 0x1F);
+  }
+}
@@ -2,90 +2,201 @@ package ethanjones.cubes.world.light;
 
 import ethanjones.cubes.core.id.IDManager;
 import ethanjones.cubes.core.id.TransparencyManager;
+import ethanjones.cubes.core.util.LongQueue;
 import ethanjones.cubes.core.util.locks.LockManager;
 import ethanjones.cubes.core.util.locks.Locked;
-import ethanjones.cubes.world.CoordinateConverter;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.PalettedStorage;
 import ethanjones.cubes.world.thread.AreaNotLoadedException;
 
+import java.util.BitSet;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS;
+
+// The 3x3 areas around an area, locked for writing until closed
+//
+// Propagation works in local block coordinates, x and z in [0, SPAN) with the initial area at [SIZE_BLOCKS, 2 * SIZE_BLOCKS).
+// Queued nodes are packed into a long (see pack) and the queues are reused by each thread.
+// Changed sections are collected and each area is modified and each section re-rendered once when the section is closed.
 class LightWorldSection implements AutoCloseable {
+  public static final int SPAN = SIZE_BLOCKS * 3;
+  private static final int MAX_RETAINED_QUEUE = 1 << 16;
+  private static final ThreadLocal<LongQueue[]> queues = new ThreadLocal<LongQueue[]>() {
+    @Override
+    protected LongQueue[] initialValue() {
+      return new LongQueue[]{new LongQueue(1024), new LongQueue(1024)};
+    }
+  };
+
   public final int initialAreaX;
   public final int initialAreaZ;
   public final int initialMinBlockX;
   public final int initialMinBlockZ;
   public final int initialMaxBlockX;
   public final int initialMaxBlockZ;
-  public final Area[] areas = new Area[9];
+  public final int minBlockX;
+  public final int minBlockZ;
+  public final Area[] areas;
   public final Area initial;
+  // read once the areas are locked, the arrays of an area don't change while it is write locked
+  final boolean[] ready = new boolean[9];
+  final int[] areaMaxY = new int[9];
+  final PalettedStorage[] blocks = new PalettedStorage[9];
+  final PalettedStorage[] light = new PalettedStorage[9];
+  final LongQueue addQueue;
+  final LongQueue removeQueue;
+  private final BitSet[] dirty = new BitSet[9];
   private Locked<Area> lock;
 
   public LightWorldSection(Area initial) {
+    this(neighbours(initial));
+  }
+
+  // areas are ordered x major, the same as getArea, with the initial area at index 4
+  LightWorldSection(Area[] areas) {
+    for (Area area : areas) {
+      if (area == null) throw new AreaNotLoadedException();
+    }
+    this.areas = areas;
+    this.initial = areas[4];
     initialAreaX = initial.areaX;
     initialAreaZ = initial.areaZ;
     initialMinBlockX = initial.minBlockX;
     initialMinBlockZ = initial.minBlockZ;
-    initialMaxBlockX = initial.minBlockX + Area.SIZE_BLOCKS;
-    initialMaxBlockZ = initial.minBlockZ + Area.SIZE_BLOCKS;
-    this.initial = initial;
-    
-    areas[0] = initial.neighbour(initialAreaX - 1, initialAreaZ - 1);
-    areas[1] = initial.neighbour(initialAreaX - 1, initialAreaZ);
-    areas[2] = initial.neighbour(initialAreaX - 1, initialAreaZ + 1);
-    areas[3] = initial.neighbour(initialAreaX, initialAreaZ - 1);
-    areas[4] = initial;
-    areas[5] = initial.neighbour(initialAreaX, initialAreaZ + 1);
-    areas[6] = initial.neighbour(initialAreaX + 1, initialAreaZ - 1);
-    areas[7] = initial.neighbour(initialAreaX + 1, initialAreaZ);
-    areas[8] = initial.neighbour(initialAreaX + 1, initialAreaZ + 1);
-    
-    for (Area area : areas) {
-      if (area == null) throw new AreaNotLoadedException();
-    }
+    initialMaxBlockX = initial.minBlockX + SIZE_BLOCKS;
+    initialMaxBlockZ = initial.minBlockZ + SIZE_BLOCKS;
+    minBlockX = initialMinBlockX - SIZE_BLOCKS;
+    minBlockZ = initialMinBlockZ - SIZE_BLOCKS;
+
+    LongQueue[] q = queues.get();
+    addQueue = q[0];
+    removeQueue = q[1];
+    addQueue.clear();
+    removeQueue.clear();
 
     lock = LockManager.lockMany(true, areas);
+    for (int i = 0; i < areas.length; i++) {
+      ready[i] = areas[i].isReady();
+      areaMaxY[i] = areas[i].maxY;
+      blocks[i] = areas[i].blocks;
+      light[i] = areas[i].light;
+    }
+  }
+
+  private static Area[] neighbours(Area initial) {
+    int areaX = initial.areaX;
+    int areaZ = initial.areaZ;
+    Area[] areas = new Area[9];
+    areas[0] = initial.neighbour(areaX - 1, areaZ - 1);
+    areas[1] = initial.neighbour(areaX - 1, areaZ);
+    areas[2] = initial.neighbour(areaX - 1, areaZ + 1);
+    areas[3] = initial.neighbour(areaX, areaZ - 1);
+    areas[4] = initial;
+    areas[5] = initial.neighbour(areaX, areaZ + 1);
+    areas[6] = initial.neighbour(areaX + 1, areaZ - 1);
+    areas[7] = initial.neighbour(areaX + 1, areaZ);
+    areas[8] = initial.neighbour(areaX + 1, areaZ + 1);
+    return areas;
   }
-  
+
   public Area getArea(int areaX, int areaZ) {
     int dX = areaX - initialAreaX + 1;
     int dZ = areaZ - initialAreaZ + 1;
     return areas[dX * 3 + dZ];
   }
 
+  // local coordinates, see the class comment
+  static int index(int x, int z) {
+    return (x / SIZE_BLOCKS) * 3 + (z / SIZE_BLOCKS);
+  }
+
+  static int ref(int x, int y, int z) {
+    return Area.getRef(x % SIZE_BLOCKS, y, z % SIZE_BLOCKS);
+  }
+
+  static boolean inside(int x, int z) {
+    return x >= 0 && z >= 0 && x < SPAN && z < SPAN;
+  }
+
+  // x and z 7 bits each, level 4 bits, y the rest
+  static long pack(int x, int y, int z, int l) {
+    return x | (z << 7) | (l << 14) | ((long) y << 18);
+  }
+
+  static int x(long node) {
+    return (int) node & 0x7F;
+  }
+
+  static int z(long node) {
+    return (int) (node >> 7) & 0x7F;
+  }
+
+  static int level(long node) {
+    return (int) (node >> 14) & 0xF;
+  }
+
+  static int y(long node) {
+    return (int) (node >>> 18);
+  }
+
+  void markDirty(int index, int y) {
+    BitSet b = dirty[index];
+    if (b == null) dirty[index] = b = new BitSet();
+    b.set(y / SIZE_BLOCKS);
+  }
+
   protected boolean transparent(int x, int y, int z) {
-    Area a = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+    Area a = areas[index(x, z)];
     if (!a.isReady()) return true;
-    int ref = Area.getRef(x - a.minBlockX, y, z - a.minBlockZ);
-    return TransparencyManager.isTransparent(a.blocks[ref]);
+    return TransparencyManager.isTransparent(a.blocks.get(ref(x, y, z)));
   }
 
   protected int getSunlight(int x, int y, int z) {
-    Area a = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+    Area a = areas[index(x, z)];
     if (!a.isReady()) return 15;
-    return (a.light[Area.getRef(x - a.minBlockX, y, z - a.minBlockZ)] >> 4) & 0xF;
+    return (a.light.get(ref(x, y, z)) >> 4) & 0xF;
   }
 
   protected int getLight(int x, int y, int z) {
-    Area a = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
+    Area a = areas[index(x, z)];
     if (!a.isReady()) return 0;
-    return a.light[Area.getRef(x - a.minBlockX, y, z - a.minBlockZ)] & 0xF;
+    return a.light.get(ref(x, y, z)) & 0xF;
   }
 
   protected boolean isLightSource(int x, int y, int z) {
-    Area a = getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    if (!a.isReady()) return false;
-    int b = a.blocks[Area.getRef(x - a.minBlockX, y, z - a.minBlockZ)];
-    if (b == 0) return false;
+    return lightLevel(x, y, z) > 0;
+  }
+
+  protected int lightLevel(int x, int y, int z) {
+    Area a = areas[index(x, z)];
+    if (!a.isReady()) return 0;
+    int b = a.blocks.get(ref(x, y, z));
+    if (b == 0) return 0;
     int blockID = b & 0xFFFFF;
     int blockMeta = (b >> 20) & 0xFF;
-    return IDManager.toBlock(blockID).getLightLevel(blockMeta) > 0;
+    return IDManager.toBlock(blockID).getLightLevel(blockMeta);
   }
 
   protected int maxY(int x, int z) {
-    return getArea(CoordinateConverter.area(x), CoordinateConverter.area(z)).maxY;
+    return areas[index(x, z)].maxY;
   }
 
   @Override
   public void close() {
-    lock.close();
+    try {
+      for (int i = 0; i < dirty.length; i++) {
+        BitSet b = dirty[i];
+        if (b == null) continue;
+        Area a = areas[i];
+        a.modify();
+        for (int s = b.nextSetBit(0); s >= 0; s = b.nextSetBit(s + 1)) {
+          a.updateRender(s);
+        }
+        dirty[i] = null;
+      }
+    } finally {
+      lock.close();
+      if (addQueue.capacity() > MAX_RETAINED_QUEUE || removeQueue.capacity() > MAX_RETAINED_QUEUE) queues.remove();
+    }
   }
 }
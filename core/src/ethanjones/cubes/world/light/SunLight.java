@@ -1,12 +1,12 @@
 package ethanjones.cubes.world.light;
 
 import ethanjones.cubes.core.id.TransparencyManager;
-import ethanjones.cubes.world.CoordinateConverter;
+import ethanjones.cubes.core.util.LongQueue;
 import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.storage.PalettedSection;
+import ethanjones.cubes.world.storage.PalettedStorage;
 
-import java.util.ArrayDeque;
-import java.util.concurrent.locks.ReentrantLock;
-
+import static ethanjones.cubes.world.light.LightWorldSection.*;
 import static ethanjones.cubes.world.storage.Area.*;
 
 public class SunLight {
@@ -14,58 +14,123 @@ public class SunLight {
 
   public static void initialSunlight(Area area) {
     try (LightWorldSection worldSection = new LightWorldSection(area)) {
-      ArrayDeque<LightNode> lightQueue = new ArrayDeque<>();
-      int max = 15;
-      for (int x = 0; x < SIZE_BLOCKS; x++) {
-        for (int z = 0; z < SIZE_BLOCKS; z++) {
-          int hmRef = getHeightMapRef(x, z);
-          int h = area.heightmap[hmRef] + 1;
-
-          int ref = getRef(x, h, z);
-          for (int y = 0; y <= (area.maxY - h); y++) {
-            int r = ref + (y * MAX_Y_OFFSET);
-            area.light[r] = (byte) ((area.light[r] & 0xF) | (max << 4));
-          }
-
-          lightQueue.add(new LightNode(x + area.minBlockX, h, z + area.minBlockZ, max));
+      initialSunlight(worldSection);
+    }
+  }
+
+  // Everything above the highest block of a column is in full sunlight and is filled directly. Propagation only starts
+  // from the sky voxels next to a darker transparent voxel in a neighbouring column, such as under an overhang.
+  static void initialSunlight(LightWorldSection w) {
+    Area area = w.initial;
+    PalettedStorage light = area.light;
+    int[] heightmap = area.heightmap;
+    int maxY = area.maxY;
+
+    int highest = 0;
+    for (int h : heightmap) {
+      highest = Math.max(highest, h + 1);
+    }
+    // sections above every column are filled at once
+    int firstSection = (highest + SIZE_BLOCKS - 1) / SIZE_BLOCKS;
+    int fillFrom = Math.min(maxY + 1, firstSection * SIZE_BLOCKS);
+    for (int s = firstSection; s < light.height(); s++) {
+      PalettedSection section = light.section(s);
+      if (section.isSingle()) {
+        section.fill(0, PalettedSection.SIZE, (section.singleValue() & 0xF) | MAX_SUNLIGHT);
+      } else {
+        for (int i = 0; i < PalettedSection.SIZE; i++) {
+          section.set(i, (section.get(i) & 0xF) | MAX_SUNLIGHT);
+        }
+      }
+    }
+    for (int x = 0; x < SIZE_BLOCKS; x++) {
+      for (int z = 0; z < SIZE_BLOCKS; z++) {
+        int h = heightmap[getHeightMapRef(x, z)] + 1;
+        for (int y = h; y < fillFrom; y++) {
+          int r = getRef(x, y, z);
+          light.set(r, (light.get(r) & 0xF) | MAX_SUNLIGHT);
+        }
+      }
+    }
+
+    LongQueue lightQueue = w.addQueue;
+    for (int x = SIZE_BLOCKS; x < SIZE_BLOCKS * 2; x++) {
+      for (int z = SIZE_BLOCKS; z < SIZE_BLOCKS * 2; z++) {
+        int h = heightmap[getHeightMapRef(x - SIZE_BLOCKS, z - SIZE_BLOCKS)] + 1;
+        seedBoundary(lightQueue, w, x, z, h, x - 1, z);
+        seedBoundary(lightQueue, w, x, z, h, x + 1, z);
+        seedBoundary(lightQueue, w, x, z, h, x, z - 1);
+        seedBoundary(lightQueue, w, x, z, h, x, z + 1);
+      }
+    }
+    propagateAdd(lightQueue, w);
+  }
+
+  // column (x, z) is sky from h upwards, (nx, nz) is next to it
+  private static void seedBoundary(LongQueue lightQueue, LightWorldSection w, int x, int z, int h, int nx, int nz) {
+    int index = index(nx, nz);
+    if (!w.ready[index]) return;
+    int top = Math.min(w.areaMaxY[index], w.areaMaxY[4]);
+    int nh = w.areas[index].heightmap[getHeightMapRef(nx % SIZE_BLOCKS, nz % SIZE_BLOCKS)] + 1;
+    // the sky of a neighbouring column in this area has already been filled, only its blocks below it can be darker
+    if (index == 4) top = Math.min(top, nh - 1);
+    PalettedStorage neighbourLight = w.light[index];
+    PalettedStorage neighbourBlocks = w.blocks[index];
+    for (int y = h; y <= top; y++) {
+      int ref = ref(nx, y, nz);
+      if (((neighbourLight.get(ref) >> 4) & 0xF) < 14 && TransparencyManager.isTransparent(neighbourBlocks.get(ref))) {
+        lightQueue.enqueue(pack(x, y, z, 15));
+      }
+    }
+    if (index != 4 && nh < h) {
+      // the column in the neighbouring area is lower, its sky can light under this column
+      top = Math.min(h - 1, top);
+      for (int y = nh; y <= top; y++) {
+        int ref = ref(x, y, z);
+        if (((w.light[4].get(ref) >> 4) & 0xF) < 14 && TransparencyManager.isTransparent(w.blocks[4].get(ref))
+                && ((neighbourLight.get(ref(nx, y, nz)) >> 4) & 0xF) == 15) {
+          lightQueue.enqueue(pack(nx, y, nz, 15));
         }
       }
-      propagateAdd(lightQueue, worldSection);
     }
   }
 
   public static void addSunlight(int x, int y, int z, Area area, LightWorldSection w) {
     if (y > 0 && y <= area.maxY) {
-      ArrayDeque<LightNode> lightQueue = new ArrayDeque<LightNode>(1000);
-
-      if (y <= w.maxY(x + 1, z) && w.transparent(x + 1, y, z))
-        lightQueue.add(new LightNode(x + 1, y, z, w.getSunlight(x + 1, y, z)));
-      if (y <= w.maxY(x - 1, z) && w.transparent(x - 1, y, z))
-        lightQueue.add(new LightNode(x - 1, y, z, w.getSunlight(x - 1, y, z)));
-      if (y < w.maxY(x, z) && w.transparent(x, y + 1, z))
-        lightQueue.add(new LightNode(x, y + 1, z, w.getSunlight(x, y + 1, z)));
-      if (y > 0 && w.transparent(x, y - 1, z)) lightQueue.add(new LightNode(x, y - 1, z, w.getSunlight(x, y - 1, z)));
-      if (y <= w.maxY(x, z + 1) && w.transparent(x, y, z + 1))
-        lightQueue.add(new LightNode(x, y, z + 1, w.getSunlight(x, y, z + 1)));
-      if (y <= w.maxY(x, z - 1) && w.transparent(x, y, z - 1))
-        lightQueue.add(new LightNode(x, y, z - 1, w.getSunlight(x, y, z - 1)));
-
-      propagateAdd(lightQueue, w);
+      queueSpread(x, y, z, w);
+      propagateAdd(w.addQueue, w);
     }
   }
 
-  private static void propagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w) {
-    if (lightQueue.isEmpty()) return;
+  // queues the sunlight of the neighbours of a block, so that it spreads into the block
+  static void queueSpread(int x, int y, int z, LightWorldSection w) {
+    LongQueue lightQueue = w.addQueue;
+    x -= w.minBlockX;
+    z -= w.minBlockZ;
+
+    if (y <= w.maxY(x + 1, z) && w.transparent(x + 1, y, z))
+      lightQueue.enqueue(pack(x + 1, y, z, w.getSunlight(x + 1, y, z)));
+    if (y <= w.maxY(x - 1, z) && w.transparent(x - 1, y, z))
+      lightQueue.enqueue(pack(x - 1, y, z, w.getSunlight(x - 1, y, z)));
+    if (y < w.maxY(x, z) && w.transparent(x, y + 1, z))
+      lightQueue.enqueue(pack(x, y + 1, z, w.getSunlight(x, y + 1, z)));
+    if (y > 0 && w.transparent(x, y - 1, z)) lightQueue.enqueue(pack(x, y - 1, z, w.getSunlight(x, y - 1, z)));
+    if (y <= w.maxY(x, z + 1) && w.transparent(x, y, z + 1))
+      lightQueue.enqueue(pack(x, y, z + 1, w.getSunlight(x, y, z + 1)));
+    if (y <= w.maxY(x, z - 1) && w.transparent(x, y, z - 1))
+      lightQueue.enqueue(pack(x, y, z - 1, w.getSunlight(x, y, z - 1)));
+  }
 
+  static void propagateAdd(LongQueue lightQueue, LightWorldSection w) {
     while (!lightQueue.isEmpty()) {
-      LightNode n = lightQueue.pop();
-      int x = n.x;
-      int y = n.y;
-      int z = n.z;
-      int l = n.l;
-
+      long n = lightQueue.poll();
+      int l = level(n);
       if (l <= 1) continue;
 
+      int x = x(n);
+      int y = y(n);
+      int z = z(n);
+
       tryPropagateAdd(lightQueue, w, x - 1, y, z, l - 1);
       tryPropagateAdd(lightQueue, w, x + 1, y, z, l - 1);
       tryPropagateAdd(lightQueue, w, x, y, z - 1, l - 1);
@@ -76,44 +141,47 @@ public class SunLight {
   }
 
   // ln has already been subtracted by one
-  private static void tryPropagateAdd(ArrayDeque<LightNode> lightQueue, LightWorldSection w, int x, int y, int z, int ln) {
-    Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
-    if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks[ref])) return;
-    int i = ((a.light[ref] >> 4) & 0xF);
+  private static void tryPropagateAdd(LongQueue lightQueue, LightWorldSection w, int x, int y, int z, int ln) {
+    if (!inside(x, z)) return;
+    int index = index(x, z);
+    if (!w.ready[index] || y > w.areaMaxY[index]) return;
+    int ref = ref(x, y, z);
+    if (!TransparencyManager.isTransparent(w.blocks[index].get(ref))) return;
+    PalettedStorage lightStorage = w.light[index];
+    int light = lightStorage.get(ref);
+    int i = ((light >> 4) & 0xF);
     if (i + 1 <= ln) { // DIFFERENT + 1 instead of + 2
-      a.light[ref] = (byte) ((a.light[ref] & 0xF) | (ln << 4));
-      a.updateRender(y / SIZE_BLOCKS);
-      a.modify();
-      lightQueue.add(new LightNode(x, y, z, ln));
+      lightStorage.set(ref, (light & 0xF) | (ln << 4));
+      w.markDirty(index, y);
+      lightQueue.enqueue(pack(x, y, z, ln));
     }
   }
 
-  public static void removeSunlight(int x, int y, int z, Area area, LightWorldSection lws) {
+  public static void removeSunlight(int x, int y, int z, Area area, LightWorldSection w) {
     if (y > 0 && y <= area.maxY) {
-      ArrayDeque<LightNode> removeQueue = new ArrayDeque<LightNode>(1000);
-      ArrayDeque<LightNode> addQueue = new ArrayDeque<LightNode>(1000);
-
-      int prev = area.getSunlight(x - area.minBlockX, y, z - area.minBlockZ);
-      area.setSunlight(x - area.minBlockX, y, z - area.minBlockZ, 0);
-      removeQueue.add(new LightNode(x, y, z, prev));
-      propagateRemove(removeQueue, addQueue, lws);
-      propagateAdd(addQueue, lws);
+      queueRemove(x, y, z, area, w);
+      propagateRemove(w.removeQueue, w.addQueue, w);
+      propagateAdd(w.addQueue, w);
     }
   }
 
-  private static void propagateRemove(ArrayDeque<LightNode> removeQueue, ArrayDeque<LightNode> addQueue, LightWorldSection w) {
-    if (removeQueue.isEmpty()) return;
+  static void queueRemove(int x, int y, int z, Area area, LightWorldSection w) {
+    int prev = area.getSunlight(x - area.minBlockX, y, z - area.minBlockZ);
+    area.setSunlight(x - area.minBlockX, y, z - area.minBlockZ, 0);
+    w.removeQueue.enqueue(pack(x - w.minBlockX, y, z - w.minBlockZ, prev));
+  }
 
+  // blocks which still have sunlight from above are queued on addQueue
+  static void propagateRemove(LongQueue removeQueue, LongQueue addQueue, LightWorldSection w) {
     while (!removeQueue.isEmpty()) {
-      LightNode n = removeQueue.pop();
-      int x = n.x;
-      int y = n.y;
-      int z = n.z;
-      int l = n.l;
-
+      long n = removeQueue.poll();
+      int l = level(n);
       if (l <= 1) continue;
 
+      int x = x(n);
+      int y = y(n);
+      int z = z(n);
+
       tryPropagateRemove(removeQueue, addQueue, w, x - 1, y, z, l);
       tryPropagateRemove(removeQueue, addQueue, w, x + 1, y, z, l);
       tryPropagateRemove(removeQueue, addQueue, w, x, y, z - 1, l);
@@ -124,18 +192,21 @@ public class SunLight {
     }
   }
 
-  private static void tryPropagateRemove(ArrayDeque<LightNode> removeQueue, ArrayDeque<LightNode> addQueue, LightWorldSection w, int x, int y, int z, int l) {
-    Area a = w.getArea(CoordinateConverter.area(x), CoordinateConverter.area(z));
-    int ref = getRef(x - a.minBlockX, y, z - a.minBlockZ);
-    if (!a.isReady() || y > a.maxY || !TransparencyManager.isTransparent(a.blocks[ref])) return;
-    int p = ((a.light[ref] >> 4) & 0xF);
+  private static void tryPropagateRemove(LongQueue removeQueue, LongQueue addQueue, LightWorldSection w, int x, int y, int z, int l) {
+    if (!inside(x, z)) return;
+    int index = index(x, z);
+    if (!w.ready[index] || y > w.areaMaxY[index]) return;
+    int ref = ref(x, y, z);
+    if (!TransparencyManager.isTransparent(w.blocks[index].get(ref))) return;
+    PalettedStorage lightStorage = w.light[index];
+    int light = lightStorage.get(ref);
+    int p = ((light >> 4) & 0xF);
     if (p != 0 && p < l) {
-      a.light[ref] = (byte) (a.light[ref] & 0xF); // same as ((a.light[ref] & 0xF0) | (0 << 4))
-      a.updateRender(y / SIZE_BLOCKS);
-      a.modify();
-      removeQueue.add(new LightNode(x, y, z, p));
+      lightStorage.set(ref, light & 0xF); // same as ((light & 0xF0) | (0 << 4))
+      w.markDirty(index, y);
+      removeQueue.enqueue(pack(x, y, z, p));
     } else if (p >= l) {
-      addQueue.add(new LightNode(x, y, z, p));
+      addQueue.enqueue(pack(x, y, z, p));
     }
   }
 }
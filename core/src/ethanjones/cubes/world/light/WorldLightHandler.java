@@ -24,8 +24,12 @@ public class WorldLightHandler {
       return;
     }
 
-    Performance.start(PerformanceTags.LIGHT_UPDATE);
     Area area = event.getArea();
+    if (LightUpdateQueue.add(area, blockReference.blockX - area.minBlockX, blockReference.blockY, blockReference.blockZ - area.minBlockZ)) {
+      return;
+    }
+
+    Performance.start(PerformanceTags.LIGHT_UPDATE);
     try (LightWorldSection lws = new LightWorldSection(area)) {
       // Block light
       BlockLight.removeLight(blockReference.blockX, blockReference.blockY, blockReference.blockZ, area, lws);
@@ -0,0 +1,8 @@
+package ethanjones.cubes.world.save;
+
+public enum AreaFormat {
+  // one deflated file per area in area/
+  legacy,
+  // RegionFile per 32x32 areas in region/
+  region
+}
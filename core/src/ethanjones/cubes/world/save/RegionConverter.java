@@ -0,0 +1,123 @@
+package ethanjones.cubes.world.save;
+
+import ethanjones.cubes.core.compression.Codec;
+import ethanjones.data.Data;
+import ethanjones.data.DataGroup;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Converts a save from the legacy one file per area layout to region files
+// The save must not be open. Legacy files are only deleted once every area has been copied and the options updated.
+public class RegionConverter {
+
+  public static void main(String[] args) {
+    if (args.length != 1) throw new IllegalArgumentException("Expected save folder as argument");
+    try {
+      long start = System.currentTimeMillis();
+      int converted = convert(new File(args[0]));
+      System.out.println("Converted " + converted + " areas in " + (System.currentTimeMillis() - start) + "ms");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  public static int convert(File saveFolder) throws IOException {
+    File optionsFile = new File(saveFolder, "options");
+    DataGroup options = (DataGroup) Data.input(optionsFile);
+    if (options.containsKey("areaFormat") && AreaFormat.valueOf(options.getString("areaFormat")) == AreaFormat.region) {
+      return 0;
+    }
+
+    File areaFolder = new File(saveFolder, "area");
+    File regionFolder = new File(saveFolder, "region");
+    if (!regionFolder.isDirectory() && !regionFolder.mkdirs()) throw new IOException("Failed to create " + regionFolder);
+
+    Map<Long, List<LegacyArea>> regions = new TreeMap<Long, List<LegacyArea>>();
+    for (File xMost : areaFiles(areaFolder)) {
+      for (File xLeast : areaFiles(xMost)) {
+        for (File zMost : areaFiles(xLeast)) {
+          for (File zLeast : areaFiles(zMost)) {
+            if (!zLeast.isFile()) continue;
+            LegacyArea legacyArea = new LegacyArea();
+            legacyArea.x = Integer.parseInt(xMost.getName()) | Integer.parseInt(xLeast.getName());
+            legacyArea.z = Integer.parseInt(zMost.getName()) | Integer.parseInt(zLeast.getName());
+            legacyArea.file = zLeast;
+
+            Long key = (((long) RegionFile.region(legacyArea.x)) << 32) | (RegionFile.region(legacyArea.z) & 0xFFFFFFFFL);
+            List<LegacyArea> list = regions.get(key);
+            if (list == null) regions.put(key, list = new ArrayList<LegacyArea>());
+            list.add(legacyArea);
+          }
+        }
+      }
+    }
+
+    int converted = 0;
+    for (Map.Entry<Long, List<LegacyArea>> entry : regions.entrySet()) {
+      int regionX = (int) (entry.getKey() >> 32);
+      int regionZ = (int) (long) entry.getKey();
+      RegionFile regionFile = new RegionFile(new File(regionFolder, RegionFile.fileName(regionX, regionZ)));
+      try {
+        for (LegacyArea legacyArea : entry.getValue()) {
+          // legacy files are already a deflate stream of the area
+          byte[] bytes = readFully(legacyArea.file);
+          regionFile.write(legacyArea.x, legacyArea.z, bytes, bytes.length, Codec.DEFLATE.id);
+          converted++;
+        }
+      } finally {
+        regionFile.close();
+      }
+    }
+
+    options.put("areaFormat", AreaFormat.region.name());
+    Data.output(options, optionsFile);
+
+    for (File file : areaFiles(areaFolder)) {
+      delete(file);
+    }
+    return converted;
+  }
+
+  // skips .nomedia
+  private static File[] areaFiles(File folder) {
+    File[] files = folder.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return !file.getName().startsWith(".");
+      }
+    });
+    return files == null ? new File[0] : files;
+  }
+
+  private static File[] listFiles(File folder) {
+    File[] files = folder.listFiles();
+    return files == null ? new File[0] : files;
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+    try {
+      inputStream.readFully(bytes);
+    } finally {
+      inputStream.close();
+    }
+    return bytes;
+  }
+
+  private static void delete(File file) {
+    for (File child : listFiles(file)) {
+      delete(child);
+    }
+    file.delete();
+  }
+
+  private static class LegacyArea {
+    int x, z;
+    File file;
+  }
+}
@@ -0,0 +1,181 @@
+package ethanjones.cubes.world.save;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+// Stores REGION_SIZE x REGION_SIZE areas in one file
+//
+// Sector 0 is the allocation table, one int per area: (sector offset << 8) | sector count, 0 if the area is not saved
+// Each saved area starts at the beginning of a sector with a header of
+//   int  length of the payload
+//   byte id of the Codec the payload is compressed with
+// followed by the payload. Freed sectors are reused before the file is grown.
+public class RegionFile implements Closeable {
+
+  public static final int REGION_SIZE_POW2 = 5;
+  public static final int REGION_SIZE = 1 << REGION_SIZE_POW2;
+  public static final int REGION_MASK = REGION_SIZE - 1;
+  public static final int AREAS = REGION_SIZE * REGION_SIZE;
+
+  public static final int SECTOR_SIZE = 4096;
+  public static final int MAX_SECTORS_PER_AREA = 0xFF;
+  public static final int HEADER_SECTORS = 1;
+  public static final int AREA_HEADER_BYTES = 5;
+
+  public final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final int[] table = new int[AREAS];
+  private final BitSet usedSectors = new BitSet();
+  private int sectorCount;
+  private boolean closed;
+
+  public RegionFile(File file) throws IOException {
+    this.file = file;
+    this.randomAccessFile = new RandomAccessFile(file, "rw");
+
+    if (randomAccessFile.length() < SECTOR_SIZE * HEADER_SECTORS) {
+      randomAccessFile.setLength(SECTOR_SIZE * HEADER_SECTORS);
+    }
+    sectorCount = (int) ((randomAccessFile.length() + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    usedSectors.set(0, HEADER_SECTORS);
+
+    byte[] header = new byte[AREAS * 4];
+    randomAccessFile.seek(0);
+    randomAccessFile.readFully(header);
+    DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(header));
+    for (int i = 0; i < AREAS; i++) {
+      int entry = headerStream.readInt();
+      int offset = entry >>> 8;
+      int count = entry & 0xFF;
+      if (entry != 0 && (offset < HEADER_SECTORS || offset + count > sectorCount)) {
+        entry = 0; // points outside of the file, treat as missing
+      }
+      table[i] = entry;
+      if (entry != 0) usedSectors.set(offset, offset + count);
+    }
+  }
+
+  public synchronized boolean contains(int areaX, int areaZ) {
+    return table[index(areaX, areaZ)] != 0;
+  }
+
+  // returns null if the area is not saved, the first byte of the returned array is the codec id
+  public synchronized byte[] read(int areaX, int areaZ) throws IOException {
+    int entry = table[index(areaX, areaZ)];
+    if (entry == 0) return null;
+    int offset = entry >>> 8;
+    int count = entry & 0xFF;
+
+    randomAccessFile.seek((long) offset * SECTOR_SIZE);
+    int length = randomAccessFile.readInt();
+    if (length < 0 || length + AREA_HEADER_BYTES > count * SECTOR_SIZE) {
+      throw new IOException("Invalid length " + length + " for area " + areaX + "," + areaZ + " in " + file.getName());
+    }
+    byte[] bytes = new byte[length + 1];
+    randomAccessFile.readFully(bytes);
+    return bytes;
+  }
+
+  // reads all the sectors of the area with one positional read, the returned buffer is positioned at the codec id
+  // byte and limited to the end of the payload. buffer is used if large enough, returns null if the area is not saved
+  public synchronized ByteBuffer read(int areaX, int areaZ, ByteBuffer buffer) throws IOException {
+    int entry = table[index(areaX, areaZ)];
+    if (entry == 0) return null;
+    int offset = entry >>> 8;
+    int count = entry & 0xFF;
+
+    int size = count * SECTOR_SIZE;
+    if (buffer == null || buffer.capacity() < size) buffer = ByteBuffer.allocate(size);
+    buffer.clear();
+    buffer.limit(size);
+    long position = (long) offset * SECTOR_SIZE;
+    while (buffer.hasRemaining()) {
+      int read = randomAccessFile.getChannel().read(buffer, position + buffer.position());
+      if (read == -1) break;
+    }
+    buffer.flip();
+
+    int length = buffer.getInt();
+    if (length < 0 || length + AREA_HEADER_BYTES > buffer.limit()) {
+      throw new IOException("Invalid length " + length + " for area " + areaX + "," + areaZ + " in " + file.getName());
+    }
+    buffer.limit(AREA_HEADER_BYTES + length);
+    return buffer;
+  }
+
+  public synchronized void write(int areaX, int areaZ, byte[] payload, int length, byte codec) throws IOException {
+    int index = index(areaX, areaZ);
+    int needed = (length + AREA_HEADER_BYTES + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    if (needed > MAX_SECTORS_PER_AREA) {
+      throw new IOException("Area " + areaX + "," + areaZ + " is too large (" + length + " bytes)");
+    }
+
+    int entry = table[index];
+    int offset = entry >>> 8;
+    int count = entry & 0xFF;
+
+    if (entry != 0 && needed <= count) {
+      // reuse the current sectors, freeing any that are no longer needed
+      usedSectors.clear(offset + needed, offset + count);
+    } else {
+      if (entry != 0) usedSectors.clear(offset, offset + count);
+      offset = findFree(needed);
+    }
+    usedSectors.set(offset, offset + needed);
+
+    randomAccessFile.seek((long) offset * SECTOR_SIZE);
+    randomAccessFile.writeInt(length);
+    randomAccessFile.writeByte(codec);
+    randomAccessFile.write(payload, 0, length);
+    if (offset + needed > sectorCount) {
+      sectorCount = offset + needed;
+      randomAccessFile.setLength((long) sectorCount * SECTOR_SIZE);
+    }
+
+    table[index] = (offset << 8) | needed;
+    randomAccessFile.seek(index * 4);
+    randomAccessFile.writeInt(table[index]);
+  }
+
+  private int findFree(int needed) {
+    int start = usedSectors.nextClearBit(HEADER_SECTORS);
+    while (start < sectorCount) {
+      int end = usedSectors.nextSetBit(start);
+      if (end == -1 || end >= sectorCount) end = sectorCount;
+      if (end - start >= needed) return start;
+      start = usedSectors.nextClearBit(end);
+    }
+    return sectorCount; // append
+  }
+
+  public synchronized int savedAreas() {
+    int i = 0;
+    for (int entry : table) {
+      if (entry != 0) i++;
+    }
+    return i;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    randomAccessFile.close();
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private static int index(int areaX, int areaZ) {
+    return (areaX & REGION_MASK) + ((areaZ & REGION_MASK) << REGION_SIZE_POW2);
+  }
+
+  public static int region(int areaCoordinate) {
+    return areaCoordinate >> REGION_SIZE_POW2;
+  }
+
+  public static String fileName(int regionX, int regionZ) {
+    return regionX + "_" + regionZ;
+  }
+}
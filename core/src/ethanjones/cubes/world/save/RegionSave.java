@@ -0,0 +1,39 @@
+package ethanjones.cubes.world.save;
+
+import ethanjones.cubes.world.storage.Area;
+
+/**
+ * SaveInterface implementation that always stores areas in region files,
+ * regardless of the area format recorded in the save options.
+ * 
+ * All other operations are delegated to the underlying Save instance.
+ * Legacy saves should be converted with RegionConverter first.
+ */
+public class RegionSave extends BasicSave {
+    
+    private final Save save;
+    
+    public RegionSave(Save save) {
+        super(save);
+        this.save = save;
+    }
+    
+    @Override
+    public boolean writeArea(Area area) {
+        if (save.readOnly) return false;
+        return save.regionIO().write(area);
+    }
+    
+    @Override
+    public Area readArea(int x, int z) {
+        if (save.fileHandle == null) return null;
+        return save.regionIO().read(x, z);
+    }
+    
+    /**
+     * Close any open region files
+     */
+    public void close() {
+        save.close();
+    }
+}
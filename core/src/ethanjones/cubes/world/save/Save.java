@@ -25,6 +25,7 @@ public class Save {
   public final FileHandle fileHandle;
   public final boolean readOnly;
   private SaveOptions saveOptions;
+  private final SaveRegionIO regionIO = new SaveRegionIO(this);
 
   public Save(String name, FileHandle fileHandle) {
     this(name, fileHandle, false);
@@ -52,6 +53,7 @@ public class Save {
 
   public boolean writeArea(Area area) {
     if (readOnly) return false;
+    if (getSaveOptions().areaFormat == AreaFormat.region) return regionIO.write(area);
     return SaveAreaIO.write(this, area);
   }
 
@@ -62,9 +64,21 @@ public class Save {
 
   public Area readArea(int x, int z) {
     if (fileHandle == null) return null;
+    SaveOptions options = getSaveOptions();
+    if (options.areaFormat == AreaFormat.region) return regionIO.read(x, z, options.bufferedAreaRead);
+    if (options.bufferedAreaRead) return SaveBufferIO.read(this, x, z);
     return SaveAreaIO.read(this, x, z);
   }
 
+  public SaveRegionIO regionIO() {
+    return regionIO;
+  }
+
+  // closes open region files, they are reopened if needed
+  public void close() {
+    regionIO.close();
+  }
+
   public void writePlayer(Player player) {
     if (readOnly) return;
     FileHandle folder = folderPlayer();
@@ -183,6 +197,10 @@ public class Save {
     return fileHandle.child("area");
   }
 
+  public FileHandle folderRegion() {
+    return fileHandle.child("region");
+  }
+
   public FileHandle folderCave() {
     return fileHandle.child("cave");
   }
@@ -61,21 +61,17 @@ public class SaveAreaIO {
 
   public static boolean write(Save save, Area area) {
     if (save.readOnly) return false;
-    if (!area.isReady()) return false;
-  
-    AreaMap map = area.areaMap();
-    DataGroup[] dataGroups;
-    if (map == null || map.world == null || map.world.entities == null) {
-      dataGroups = new DataGroup[0];
-    } else {
-      dataGroups = map.world.entities.getEntitiesForSave(area.areaX, area.areaZ);
-    }
-    if (!area.modifiedSinceSave(dataGroups)) return false;
-    area.saveModCount();
+    DataGroup[] dataGroups = entitiesToWrite(area);
+    if (dataGroups == null) return false;
 
     Deflater deflater = deflaterThreadLocal.get();
 
     FileHandle file = file(save, area.areaX, area.areaZ);
+    FileHandle parent = file.parent();
+    if (!parent.exists()) {
+      parent.mkdirs();
+      Compatibility.get().nomedia(parent);
+    }
     try {
       deflater.reset();
       OutputStream stream = file.write(false, 8192);
@@ -94,14 +90,28 @@ public class SaveAreaIO {
     return true;
   }
 
+  // returns null if the area does not need to be written
+  static DataGroup[] entitiesToWrite(Area area) {
+    if (!area.isReady()) return null;
+
+    AreaMap map = area.areaMap();
+    DataGroup[] dataGroups;
+    if (map == null || map.world == null || map.world.entities == null) {
+      dataGroups = new DataGroup[0];
+    } else {
+      dataGroups = map.world.entities.getEntitiesForSave(area.areaX, area.areaZ);
+    }
+    if (!area.modifiedSinceSave(dataGroups)) return null;
+    area.saveModCount();
+    return dataGroups;
+  }
+
   public static FileHandle file(Save save, int x, int z) {
-    FileHandle folderArea = save.folderArea();
-    FileHandle xMostSignificant = folderArea.child(Integer.toString(x & 0xFFFF0000));
-    FileHandle xLeastSignificant = xMostSignificant.child(Integer.toString(x & 0xFFFF));
-    FileHandle zMostSignificant = xLeastSignificant.child(Integer.toString(z & 0xFFFF0000));
-    zMostSignificant.mkdirs();
-    Compatibility.get().nomedia(zMostSignificant);
-    
-    return zMostSignificant.child(Integer.toString(z & 0xFFFF));
+    return save.folderArea().child(path(x, z));
+  }
+
+  // relative to the area folder
+  public static String path(int x, int z) {
+    return (x & 0xFFFF0000) + "/" + (x & 0xFFFF) + "/" + (z & 0xFFFF0000) + "/" + (z & 0xFFFF);
   }
 }
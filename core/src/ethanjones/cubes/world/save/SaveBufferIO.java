@@ -0,0 +1,86 @@
+package ethanjones.cubes.world.save;
+
+import ethanjones.cubes.core.compression.Codec;
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+import ethanjones.cubes.world.storage.Area;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads areas by bulk reading the compressed area into a pooled buffer and decompressing it into another, which is
+// then decoded with Area.read(ByteBuffer) instead of a chain of streams
+// The buffers are heap buffers as Inflater only accepts arrays
+public class SaveBufferIO {
+  private static final int INITIAL_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ByteBuffer[]> compressedThreadLocal = new ThreadLocal<ByteBuffer[]>() {
+    @Override
+    protected ByteBuffer[] initialValue() {
+      return new ByteBuffer[]{ByteBuffer.allocate(INITIAL_SIZE)};
+    }
+  };
+  private static final ThreadLocal<DirectByteArrayOutputStream> uncompressedThreadLocal = new ThreadLocal<DirectByteArrayOutputStream>() {
+    @Override
+    protected DirectByteArrayOutputStream initialValue() {
+      return new DirectByteArrayOutputStream(INITIAL_SIZE * 4);
+    }
+  };
+
+  public static Area read(Save save, int x, int z) {
+    File file = SaveAreaIO.file(save, x, z).file();
+    if (!file.exists()) return null;
+
+    try {
+      ByteBuffer[] buffers = compressedThreadLocal.get();
+      FileInputStream inputStream = new FileInputStream(file);
+      try {
+        FileChannel channel = inputStream.getChannel();
+        int size = (int) channel.size();
+        if (buffers[0].capacity() < size) buffers[0] = ByteBuffer.allocate(size);
+        ByteBuffer compressed = buffers[0];
+        compressed.clear();
+        compressed.limit(size);
+        while (compressed.hasRemaining() && channel.read(compressed) != -1) ;
+        compressed.flip();
+      } finally {
+        inputStream.close();
+      }
+      // legacy files are always deflate
+      return decode(x, z, buffers[0], Codec.DEFLATE);
+    } catch (Exception e) {
+      Log.error("Failed to read area " + x + "," + z, e);
+      return null;
+    }
+  }
+
+  // reads the area's sectors into this thread's pooled buffer, the only part which needs the region file locked
+  // returns null if the region file doesn't have the area
+  public static ByteBuffer readSector(RegionFile regionFile, int x, int z) throws IOException {
+    ByteBuffer[] buffers = compressedThreadLocal.get();
+    ByteBuffer buffer = regionFile.read(x, z, buffers[0]);
+    if (buffer == null) return null;
+    buffers[0] = buffer;
+    return buffer;
+  }
+
+  // buffer is from readSector, decoding doesn't need the region file
+  public static Area decodeSector(int x, int z, ByteBuffer buffer) throws IOException {
+    Codec codec = Codec.get(buffer.get());
+    return decode(x, z, buffer, codec);
+  }
+
+  // payload is from position to limit
+  private static Area decode(int x, int z, ByteBuffer payload, Codec codec) throws IOException {
+    DirectByteArrayOutputStream uncompressed = uncompressedThreadLocal.get();
+    uncompressed.reset();
+    codec.decompress(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), uncompressed);
+
+    Area area = new Area(x, z);
+    area.read(ByteBuffer.wrap(uncompressed.buffer(), 0, uncompressed.count()));
+    return area;
+  }
+}
@@ -1,5 +1,6 @@
 package ethanjones.cubes.world.save;
 
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.system.Branding;
 import ethanjones.cubes.core.system.CubesException;
 import ethanjones.cubes.world.World;
@@ -17,6 +18,9 @@ public class SaveOptions implements DataParser {
   public long worldPlayingTime = 0;
   public String worldType = "core:smooth";
   public Gamemode worldGamemode = Gamemode.survival;
+  public AreaFormat areaFormat = AreaFormat.region;
+  public boolean bufferedAreaRead = true;
+  public Codec areaCodec = Codec.DEFLATE_FAST;
   public DataGroup idManager = new DataGroup();
   
   public long lastOpenedTime = 0;
@@ -36,6 +40,9 @@ public class SaveOptions implements DataParser {
     dataGroup.put("worldPlayingTime", worldPlayingTime);
     dataGroup.put("worldType", worldType);
     dataGroup.put("worldGamemode", worldGamemode.name());
+    dataGroup.put("areaFormat", areaFormat.name());
+    dataGroup.put("bufferedAreaRead", bufferedAreaRead);
+    dataGroup.put("areaCodec", areaCodec.name);
     dataGroup.put("idManager", idManager);
 
     if (worldRainOverride != null) {
@@ -67,6 +74,12 @@ public class SaveOptions implements DataParser {
     worldPlayingTime = dataGroup.getLong("worldPlayingTime");
     worldType = dataGroup.getString("worldType");
     worldGamemode = Gamemode.valueOf(dataGroup.getString("worldGamemode"));
+    // saves from before region files were added
+    areaFormat = dataGroup.containsKey("areaFormat") ? AreaFormat.valueOf(dataGroup.getString("areaFormat")) : AreaFormat.legacy;
+    bufferedAreaRead = dataGroup.containsKey("bufferedAreaRead") && dataGroup.getBoolean("bufferedAreaRead");
+    // only used for new writes, every area records the codec it was written with
+    areaCodec = dataGroup.containsKey("areaCodec") ? Codec.get(dataGroup.getString("areaCodec")) : null;
+    if (areaCodec == null) areaCodec = Codec.DEFLATE;
     idManager = dataGroup.getGroup("idManager");
 
     if (dataGroup.containsKey("worldRainOverride")) {
@@ -0,0 +1,147 @@
+package ethanjones.cubes.world.save;
+
+import ethanjones.cubes.core.compression.Codec;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Compares reading areas from the legacy one file per area layout and from region files
+// Usage: SaveReadBenchmark [folder] [size in areas] [iterations]
+// Areas are synthetic, deflated streams of a similar size to generated areas, so only the storage layout is compared
+public class SaveReadBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    File folder = args.length > 0 ? new File(args[0]) : new File(System.getProperty("java.io.tmpdir"), "cubes-save-benchmark");
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    File legacyFolder = new File(folder, "area");
+    File regionFolder = new File(folder, "region");
+    delete(folder);
+    regionFolder.mkdirs();
+
+    Random random = new Random(0);
+    List<int[]> areas = new ArrayList<int[]>();
+    for (int x = -size / 2; x < size / 2; x++) {
+      for (int z = -size / 2; z < size / 2; z++) {
+        areas.add(new int[]{x, z});
+      }
+    }
+
+    long start = System.nanoTime();
+    long bytes = 0;
+    for (int[] area : areas) {
+      byte[] payload = payload(random);
+      bytes += payload.length;
+      File file = new File(legacyFolder, SaveAreaIO.path(area[0], area[1]));
+      file.getParentFile().mkdirs();
+      FileOutputStream outputStream = new FileOutputStream(file);
+      outputStream.write(payload);
+      outputStream.close();
+    }
+    System.out.println("Legacy write " + ms(start) + "ms");
+
+    start = System.nanoTime();
+    for (int[] area : areas) {
+      File file = new File(legacyFolder, SaveAreaIO.path(area[0], area[1]));
+      byte[] payload = readFully(file);
+      RegionFile regionFile = regionFile(regionFolder, area[0], area[1]);
+      regionFile.write(area[0], area[1], payload, payload.length, Codec.DEFLATE.id);
+      regionFile.close();
+    }
+    System.out.println("Region write " + ms(start) + "ms (reopening files)");
+    System.out.println(areas.size() + " areas, average " + (bytes / areas.size()) + " bytes");
+
+    byte[] buffer = new byte[8192];
+    for (int i = 0; i < iterations; i++) {
+      Collections.shuffle(areas, random);
+
+      start = System.nanoTime();
+      for (int[] area : areas) {
+        InputStream inputStream = new FileInputStream(new File(legacyFolder, SaveAreaIO.path(area[0], area[1])));
+        drain(new InflaterInputStream(inputStream, new Inflater(), 8192), buffer);
+      }
+      long legacy = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<RegionFile> open = new ArrayList<RegionFile>();
+      for (int[] area : areas) {
+        RegionFile regionFile = null;
+        for (RegionFile r : open) {
+          if (r.file.getName().equals(RegionFile.fileName(RegionFile.region(area[0]), RegionFile.region(area[1])))) regionFile = r;
+        }
+        if (regionFile == null) open.add(regionFile = regionFile(regionFolder, area[0], area[1]));
+        drain(SaveRegionIO.decompress(regionFile.read(area[0], area[1])), buffer);
+      }
+      for (RegionFile regionFile : open) {
+        regionFile.close();
+      }
+      long region = System.nanoTime() - start;
+
+      System.out.println("Iteration " + i + ": legacy " + (legacy / 1000000) + "ms " + rate(areas.size(), legacy) + " areas/s, region " + (region / 1000000) + "ms " + rate(areas.size(), region) + " areas/s");
+    }
+
+    delete(folder);
+  }
+
+  // block runs followed by light, roughly the shape of Area.writeSave
+  private static byte[] payload(Random random) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream dataOutputStream = new DataOutputStream(new DeflaterOutputStream(byteArrayOutputStream, new Deflater()));
+    int height = 2 + random.nextInt(3);
+    int remaining = height * 32768;
+    while (remaining > 0) {
+      int run = Math.min(remaining, 1 + random.nextInt(random.nextInt(10) == 0 ? 4096 : 24));
+      dataOutputStream.writeInt(random.nextInt(12));
+      dataOutputStream.writeInt(run);
+      remaining -= run;
+    }
+    for (int i = 0; i < height * 32768; i++) {
+      dataOutputStream.writeByte(i < 32768 ? random.nextInt(16) : 0xF0);
+    }
+    dataOutputStream.close();
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  private static RegionFile regionFile(File regionFolder, int x, int z) throws IOException {
+    return new RegionFile(new File(regionFolder, RegionFile.fileName(RegionFile.region(x), RegionFile.region(z))));
+  }
+
+  private static void drain(InputStream inputStream, byte[] buffer) throws IOException {
+    while (inputStream.read(buffer) != -1) ;
+    inputStream.close();
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+    inputStream.readFully(bytes);
+    inputStream.close();
+    return bytes;
+  }
+
+  private static long ms(long start) {
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  private static long rate(int areas, long nanos) {
+    return areas * 1000000000L / Math.max(nanos, 1);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,157 @@
+package ethanjones.cubes.world.save;
+
+import ethanjones.cubes.core.compression.Codec;
+import ethanjones.cubes.core.logging.Log;
+import ethanjones.cubes.core.platform.Compatibility;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
+import ethanjones.cubes.world.storage.Area;
+import ethanjones.data.DataGroup;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Reads and writes areas to RegionFiles in the region folder of a save
+public class SaveRegionIO {
+  public static final int MAX_OPEN_FILES = 64;
+
+  // uncompressed, compressed
+  private static final ThreadLocal<DirectByteArrayOutputStream[]> buffersThreadLocal = new ThreadLocal<DirectByteArrayOutputStream[]>() {
+    @Override
+    protected DirectByteArrayOutputStream[] initialValue() {
+      return new DirectByteArrayOutputStream[]{new DirectByteArrayOutputStream(65536), new DirectByteArrayOutputStream(16384)};
+    }
+  };
+
+  private final Save save;
+  private final LinkedHashMap<Long, RegionFile> open = new LinkedHashMap<Long, RegionFile>(16, 0.75f, true);
+  private boolean folderCreated;
+
+  public SaveRegionIO(Save save) {
+    this.save = save;
+  }
+
+  public Area read(int x, int z) {
+    return read(x, z, false);
+  }
+
+  // buffered uses SaveBufferIO to decode the area
+  public Area read(int x, int z, boolean buffered) {
+    try {
+      byte[] bytes = null;
+      ByteBuffer buffer = null;
+      while (true) {
+        RegionFile regionFile = regionFile(RegionFile.region(x), RegionFile.region(z), false);
+        if (regionFile == null) return null;
+        synchronized (regionFile) {
+          if (regionFile.isClosed()) continue; // closed by another thread, open it again
+          if (buffered) {
+            buffer = SaveBufferIO.readSector(regionFile, x, z);
+          } else {
+            bytes = regionFile.read(x, z);
+          }
+          break;
+        }
+      }
+      // decompressed and decoded without the region file locked, so other areas in the region can be read meanwhile
+      if (buffered) return buffer == null ? null : SaveBufferIO.decodeSector(x, z, buffer);
+      if (bytes == null) return null;
+
+      DataInputStream dataInputStream = new DataInputStream(decompress(bytes));
+      Area area = new Area(x, z);
+      area.read(dataInputStream);
+      dataInputStream.close();
+      return area;
+    } catch (Exception e) {
+      Log.error("Failed to read area " + x + "," + z, e);
+      return null;
+    }
+  }
+
+  public boolean write(Area area) {
+    if (save.readOnly) return false;
+    DataGroup[] dataGroups = SaveAreaIO.entitiesToWrite(area);
+    if (dataGroups == null) return false;
+
+    DirectByteArrayOutputStream[] buffers = buffersThreadLocal.get();
+    DirectByteArrayOutputStream uncompressed = buffers[0], compressed = buffers[1];
+    Codec codec = save.getSaveOptions().areaCodec;
+
+    try {
+      uncompressed.reset();
+      compressed.reset();
+      DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(uncompressed, 8192));
+      area.writeSave(dataOutputStream, dataGroups);
+      dataOutputStream.flush();
+      codec.compress(uncompressed.buffer(), 0, uncompressed.count(), compressed);
+
+      write(area.areaX, area.areaZ, compressed.buffer(), compressed.count(), codec.id);
+    } catch (Exception e) {
+      Log.error("Failed to write area " + area.areaX + "," + area.areaZ, e);
+      return false;
+    }
+    return true;
+  }
+
+  // payload must already be compressed with the codec
+  public void write(int x, int z, byte[] payload, int length, byte codec) throws IOException {
+    while (true) {
+      RegionFile regionFile = regionFile(RegionFile.region(x), RegionFile.region(z), true);
+      synchronized (regionFile) {
+        if (regionFile.isClosed()) continue;
+        regionFile.write(x, z, payload, length, codec);
+        return;
+      }
+    }
+  }
+
+  public synchronized void close() {
+    for (RegionFile regionFile : open.values()) {
+      close(regionFile);
+    }
+    open.clear();
+  }
+
+  private synchronized RegionFile regionFile(int regionX, int regionZ, boolean create) throws IOException {
+    Long key = (((long) regionX) << 32) | (regionZ & 0xFFFFFFFFL);
+    RegionFile regionFile = open.get(key);
+    if (regionFile != null) return regionFile;
+
+    FileHandle folder = save.folderRegion();
+    File file = folder.child(RegionFile.fileName(regionX, regionZ)).file();
+    if (!create && !file.exists()) return null;
+    if (create && !folderCreated) {
+      folder.mkdirs();
+      Compatibility.get().nomedia(folder);
+      folderCreated = true;
+    }
+
+    regionFile = new RegionFile(file);
+    open.put(key, regionFile);
+    if (open.size() > MAX_OPEN_FILES) {
+      Iterator<RegionFile> iterator = open.values().iterator();
+      close(iterator.next());
+      iterator.remove();
+    }
+    return regionFile;
+  }
+
+  private static void close(RegionFile regionFile) {
+    try {
+      regionFile.close();
+    } catch (IOException e) {
+      Log.warning("Failed to close region file " + regionFile.file.getName(), e);
+    }
+  }
+
+  // bytes as returned by RegionFile.read
+  static InputStream decompress(byte[] bytes) throws IOException {
+    DirectByteArrayOutputStream uncompressed = buffersThreadLocal.get()[0];
+    uncompressed.reset();
+    Codec.get(bytes[0]).decompress(bytes, 1, bytes.length - 1, uncompressed);
+    return new ByteArrayInputStream(uncompressed.buffer(), 0, uncompressed.count());
+  }
+}
@@ -0,0 +1,70 @@
+package ethanjones.cubes.world.server;
+
+import ethanjones.cubes.core.event.EventHandler;
+import ethanjones.cubes.core.event.world.block.BlockChangedEvent;
+import ethanjones.cubes.networking.NetworkingManager;
+import ethanjones.cubes.networking.packets.PacketBlockChanges;
+import ethanjones.cubes.networking.server.ClientIdentifier;
+import ethanjones.cubes.world.storage.Area;
+
+import com.badlogic.gdx.utils.IntSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Collects the blocks changed in each area during a tick, at the end of the tick the changes to each area are sent to
+// the clients in range as one PacketBlockChanges. The blocks are read when the packet is built, so a block changed
+// several times in a tick is sent once. If more than RESEND_CHANGES blocks in an area changed the area is sent again
+// instead.
+// Shared areas are not sent, PlayerManager tells clients to update their render instead.
+public class BlockChanges {
+
+  public static final int RESEND_CHANGES = Area.SIZE_BLOCKS_CUBED / 8;
+
+  private static class Changes {
+    final Area area;
+    final IntSet refs = new IntSet();
+
+    Changes(Area area) {
+      this.area = area;
+    }
+  }
+
+  private final HashMap<Area, Changes> changes = new HashMap<Area, Changes>();
+
+  @EventHandler
+  public void blockChanged(BlockChangedEvent event) {
+    Area area = event.getArea();
+    if (area.shared) return;
+    int ref = Area.getRef(event.getBlockReference().blockX - area.minBlockX, event.getBlockReference().blockY, event.getBlockReference().blockZ - area.minBlockZ);
+    synchronized (changes) {
+      Changes c = changes.get(area);
+      if (c == null) changes.put(area, c = new Changes(area));
+      c.refs.add(ref);
+    }
+  }
+
+  // server thread, after the world has been ticked
+  public void send(List<ClientIdentifier> clients) {
+    ArrayList<Changes> send;
+    synchronized (changes) {
+      if (changes.isEmpty()) return;
+      send = new ArrayList<Changes>(changes.values());
+      changes.clear();
+    }
+
+    for (Changes c : send) {
+      Area area = c.area;
+      if (area.isUnloaded()) continue;
+      if (c.refs.size > RESEND_CHANGES) {
+        for (ClientIdentifier client : clients) {
+          if (client.getPlayerManager().shouldSendArea(area.areaX, area.areaZ)) client.getPlayerManager().sendArea(area);
+        }
+        continue;
+      }
+      PacketBlockChanges packet = PacketBlockChanges.create(area, c.refs);
+      if (packet != null) NetworkingManager.sendPacketToClientsInRange(packet, area.areaX, area.areaZ, null);
+    }
+  }
+}
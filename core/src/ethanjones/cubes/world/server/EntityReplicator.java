@@ -0,0 +1,188 @@
+package ethanjones.cubes.world.server;
+
+import ethanjones.cubes.core.util.locks.Locked;
+import ethanjones.cubes.entity.Entity;
+import ethanjones.cubes.networking.NetworkingManager;
+import ethanjones.cubes.networking.packets.PacketEntityAdd;
+import ethanjones.cubes.networking.packets.PacketEntityDeltas;
+import ethanjones.cubes.networking.packets.PacketEntityRemove;
+import ethanjones.cubes.networking.server.ClientIdentifier;
+import ethanjones.cubes.side.common.Cubes;
+import ethanjones.cubes.side.server.PlayerManager;
+import ethanjones.cubes.world.thread.WorldLockable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends the movement of entities to clients in one PacketEntityDeltas per client per tick.
+// WorldServer.syncEntity marks entities which moved, at the end of the tick each client is sent the marked entities in
+// its load range. For each client the values last sent for each entity are kept, so only fields which changed are
+// sent, as differences from them. An entity is sent as a keyframe the first time and then at most every
+// KEYFRAME_TICKS while it moves.
+// The entities with sent values are the ones the client has, an entity is spawned on a client when it moves into its
+// load range and despawned when it moves out. Entities further from the player are sent every
+// PlayerManager.sendInterval ticks, until then they stay marked.
+public class EntityReplicator {
+
+  public static final int KEYFRAME_TICKS = 1000 / Cubes.tickMS;
+
+  private final WorldServer world;
+  private final HashSet<UUID> moved = new HashSet<UUID>();
+  private final HashMap<ClientIdentifier, HashMap<UUID, int[]>> sent = new HashMap<ClientIdentifier, HashMap<UUID, int[]>>();
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(bytes);
+  private final int[] values = new int[PacketEntityDeltas.VALUES];
+  private final AtomicInteger nextNetworkID = new AtomicInteger(1);
+  private int tick = 0;
+
+  public EntityReplicator(WorldServer world) {
+    this.world = world;
+  }
+
+  public int nextNetworkID() {
+    return nextNetworkID.getAndIncrement();
+  }
+
+  public void moved(UUID uuid) {
+    synchronized (moved) {
+      moved.add(uuid);
+    }
+  }
+
+  // server thread, after the world has been ticked
+  public void send(List<ClientIdentifier> clients) {
+    synchronized (sent) {
+      tick++;
+      sent.keySet().retainAll(clients);
+    }
+    if (tick % KEYFRAME_TICKS == 0) removeStale();
+
+    ArrayList<UUID> uuids;
+    synchronized (moved) {
+      if (moved.isEmpty()) return;
+      uuids = new ArrayList<UUID>(moved);
+      moved.clear();
+    }
+    ArrayList<Entity> entities = new ArrayList<Entity>(uuids.size());
+    try (Locked<WorldLockable> locked = world.entities.acquireReadLock()) {
+      for (UUID uuid : uuids) {
+        Entity entity = world.entities.map.get(uuid);
+        if (entity != null) entities.add(entity);
+      }
+    }
+
+    HashSet<UUID> deferred = new HashSet<UUID>();
+    synchronized (sent) {
+      for (ClientIdentifier client : clients) {
+        HashMap<UUID, int[]> clientSent = clientSent(client);
+        PlayerManager playerManager = client.getPlayerManager();
+        bytes.reset();
+        int entries = 0;
+        try {
+          for (Entity entity : entities) {
+            int[] last = clientSent.get(entity.uuid);
+            if (!playerManager.positionInLoadRange(entity.position)) {
+              if (last != null) despawn(entity.uuid, client, clientSent);
+              continue;
+            }
+            if (last == null) {
+              last = spawn(entity, client, clientSent);
+            } else if (tick % playerManager.sendInterval(entity.position) != 0) {
+              deferred.add(entity.uuid);
+              continue;
+            }
+            boolean keyframe = tick - last[PacketEntityDeltas.VALUES] >= KEYFRAME_TICKS;
+            PacketEntityDeltas.quantize(entity, values);
+            if (PacketEntityDeltas.writeEntry(out, entity.networkID, values, last, keyframe)) entries++;
+            if (keyframe) last[PacketEntityDeltas.VALUES] = tick;
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+        if (entries == 0) continue;
+
+        PacketEntityDeltas packet = new PacketEntityDeltas();
+        packet.entries = entries;
+        packet.data = bytes.toByteArray();
+        NetworkingManager.sendPacketToClient(packet, client);
+      }
+    }
+    synchronized (moved) {
+      moved.addAll(deferred);
+    }
+  }
+
+  // sends the entity to the client, even if it has already been sent, as the client may have dropped it
+  public void spawn(Entity entity, ClientIdentifier client) {
+    synchronized (sent) {
+      spawn(entity, client, clientSent(client));
+    }
+  }
+
+  // sends the entity to the clients whose load range it is in
+  public void spawn(Entity entity, List<ClientIdentifier> clients) {
+    synchronized (sent) {
+      for (ClientIdentifier client : clients) {
+        if (client.getPlayerManager().positionInLoadRange(entity.position)) spawn(entity, client, clientSent(client));
+      }
+    }
+  }
+
+  // removes the entity from the clients which have it
+  public void despawn(UUID uuid) {
+    synchronized (sent) {
+      for (Map.Entry<ClientIdentifier, HashMap<UUID, int[]>> entry : sent.entrySet()) {
+        if (entry.getValue().containsKey(uuid)) despawn(uuid, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private int[] spawn(Entity entity, ClientIdentifier client, HashMap<UUID, int[]> clientSent) {
+    PacketEntityAdd packet = new PacketEntityAdd();
+    packet.entity = entity;
+    NetworkingManager.sendPacketToClient(packet, client);
+    // the client starts from the values in the add packet, so deltas can't be sent until it has a keyframe
+    int[] last = new int[PacketEntityDeltas.VALUES + 1];
+    last[PacketEntityDeltas.VALUES] = tick - KEYFRAME_TICKS;
+    clientSent.put(entity.uuid, last);
+    return last;
+  }
+
+  private void despawn(UUID uuid, ClientIdentifier client, HashMap<UUID, int[]> clientSent) {
+    clientSent.remove(uuid);
+    PacketEntityRemove packet = new PacketEntityRemove();
+    packet.uuid = uuid;
+    NetworkingManager.sendPacketToClient(packet, client);
+  }
+
+  private HashMap<UUID, int[]> clientSent(ClientIdentifier client) {
+    HashMap<UUID, int[]> clientSent = sent.get(client);
+    if (clientSent == null) sent.put(client, clientSent = new HashMap<UUID, int[]>());
+    return clientSent;
+  }
+
+  // the values sent for entities which have been removed, or which clients dropped as they moved away from them
+  private void removeStale() {
+    try (Locked<WorldLockable> locked = world.entities.acquireReadLock()) {
+      synchronized (sent) {
+        for (Map.Entry<ClientIdentifier, HashMap<UUID, int[]>> entry : sent.entrySet()) {
+          PlayerManager playerManager = entry.getKey().getPlayerManager();
+          Iterator<UUID> iterator = entry.getValue().keySet().iterator();
+          while (iterator.hasNext()) {
+            Entity entity = world.entities.map.get(iterator.next());
+            if (entity == null || !playerManager.positionInLoadRange(entity.position)) iterator.remove();
+          }
+        }
+      }
+    }
+  }
+}
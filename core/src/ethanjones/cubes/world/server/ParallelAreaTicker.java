@@ -0,0 +1,135 @@
+package ethanjones.cubes.world.server;
+
+import ethanjones.cubes.core.util.locks.LockManager;
+import ethanjones.cubes.core.util.locks.Locked;
+import ethanjones.cubes.side.common.Side;
+import ethanjones.cubes.world.storage.Area;
+import ethanjones.cubes.world.thread.WorldLockable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+// Ticks areas on a ForkJoinPool
+//
+// Areas are split into 9 sets by (x mod 3, z mod 3). The 3x3 neighbourhoods of the areas in one set never overlap, so
+// every area in a set can hold the write lock on all its neighbours at the same time. The sets are ticked one after
+// another. Updates to other areas and events caused by block changes are collected per area and run afterwards on the
+// calling thread in area order, so listeners see the same order as a sequential tick.
+public class ParallelAreaTicker {
+
+  private static final int SETS = 9;
+  private static final int THRESHOLD = 4;
+
+  private final ForkJoinPool pool;
+
+  public ParallelAreaTicker(int threads) {
+    pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+      @Override
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("AreaTick-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, null, false);
+  }
+
+  // must not hold any world, map or entities lock, ticking areas can lock them
+  public void tick(WorldServer world) {
+    Area[] areas;
+    // AreaMap can only be iterated with it write locked
+    try (Locked<WorldLockable> locked = world.map.acquireWriteLock()) {
+      ArrayList<Area> list = new ArrayList<Area>(world.map.getSize());
+      for (Area area : world.map) {
+        list.add(area);
+      }
+      areas = list.toArray(new Area[list.size()]);
+    }
+    if (areas.length == 0) return;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List<Runnable>[] deferred = new List[areas.length];
+    int[][] sets = new int[SETS][];
+    int[] setSizes = new int[SETS];
+    for (Area area : areas) {
+      setSizes[set(area)]++;
+    }
+    for (int i = 0; i < SETS; i++) {
+      sets[i] = new int[setSizes[i]];
+      setSizes[i] = 0;
+    }
+    for (int i = 0; i < areas.length; i++) {
+      int set = set(areas[i]);
+      sets[set][setSizes[set]++] = i;
+    }
+
+    for (int[] set : sets) {
+      if (set.length > 0) pool.invoke(new TickAction(areas, deferred, set, 0, set.length));
+    }
+
+    try (Locked<WorldLockable> locked = LockManager.lockMany(true, world, world.map, world.entities)) {
+      for (List<Runnable> runnables : deferred) {
+        if (runnables == null) continue;
+        for (Runnable runnable : runnables) {
+          runnable.run();
+        }
+      }
+    }
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private static int set(Area area) {
+    return Math.floorMod(area.areaX, 3) + (Math.floorMod(area.areaZ, 3) * 3);
+  }
+
+  private static class TickAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Area[] areas;
+    private final List<Runnable>[] deferred;
+    private final int[] set;
+    private final int from;
+    private final int to;
+
+    private TickAction(Area[] areas, List<Runnable>[] deferred, int[] set, int from, int to) {
+      this.areas = areas;
+      this.deferred = deferred;
+      this.set = set;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > THRESHOLD) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new TickAction(areas, deferred, set, from, middle), new TickAction(areas, deferred, set, middle, to));
+        return;
+      }
+      Side side = Side.getSide();
+      Side.setSide(Side.Server);
+      try {
+        for (int i = from; i < to; i++) {
+          int index = set[i];
+          Area area = areas[index];
+          ArrayList<Runnable> list = new ArrayList<Runnable>(0);
+          Area.deferSideEffects(list);
+          try (Locked<Area> locked = area.lockAllNeighbours(true, false)) {
+            area.tick();
+          } finally {
+            Area.deferSideEffects(null);
+          }
+          if (!list.isEmpty()) deferred[index] = list;
+        }
+      } finally {
+        Side.setSide(side);
+      }
+    }
+  }
+}
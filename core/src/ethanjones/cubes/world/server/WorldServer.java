@@ -4,12 +4,12 @@ import ethanjones.cubes.core.util.locks.RollingAreaLocked;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.performance.Performance;
 import ethanjones.cubes.core.performance.PerformanceTags;
+import ethanjones.cubes.core.settings.Settings;
 import ethanjones.cubes.core.util.locks.LockManager;
 import ethanjones.cubes.core.util.locks.Locked;
 import ethanjones.cubes.entity.Entity;
+import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.networking.NetworkingManager;
-import ethanjones.cubes.networking.packets.PacketEntityAdd;
-import ethanjones.cubes.networking.packets.PacketEntityRemove;
 import ethanjones.cubes.networking.packets.PacketEntityUpdate;
 import ethanjones.cubes.networking.packets.PacketWorldTime;
 import ethanjones.cubes.networking.server.ClientIdentifier;
@@ -17,6 +17,7 @@ import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.World;
 import ethanjones.cubes.world.generator.RainStatus;
+import ethanjones.cubes.world.light.LightUpdateQueue;
 import ethanjones.cubes.world.reference.AreaReference;
 import ethanjones.cubes.world.reference.BlockReference;
 import ethanjones.cubes.world.reference.multi.MultiAreaReference;
@@ -39,6 +40,9 @@ public class WorldServer extends World {
 
   private RainStatus rainStatusOverride;
   private long rainStatusOverrideEnd;
+  private ParallelAreaTicker parallelAreaTicker;
+  public final EntityReplicator entityReplicator = new EntityReplicator(this);
+  public final BlockChanges blockChanges = new BlockChanges();
 
   public WorldServer(Save save) {
     super(save, Side.Server);
@@ -51,6 +55,7 @@ public class WorldServer extends World {
     }
 
     loadedAreaFilters.add(WorldTasks.getGenerationAreaFilter());
+    Side.getSidedEventBus().register(blockChanges);
 
     this.rainStatusOverride = save.getSaveOptions().worldRainOverride;
     this.rainStatusOverrideEnd = save.getSaveOptions().worldRainOverrideTime;
@@ -67,14 +72,24 @@ public class WorldServer extends World {
     super.tick();
 
     Performance.start(PerformanceTags.SERVER_WORLD_AREA_TICK);
-    try (Locked<WorldLockable> locked = LockManager.lockMany(true, this, map, entities)) {
-      try (RollingAreaLocked areas = new RollingAreaLocked(map.iterator())) {
-        for (Area area : areas) {
-          area.tick();
+    // light is updated once all areas have been ticked
+    try (LightUpdateQueue lightUpdates = LightUpdateQueue.begin()) {
+      if (Settings.getBooleanSettingValue(Settings.SERVER_PARALLEL_TICK)) {
+        if (parallelAreaTicker == null) parallelAreaTicker = new ParallelAreaTicker(Runtime.getRuntime().availableProcessors());
+        parallelAreaTicker.tick(this);
+      } else {
+        try (Locked<WorldLockable> locked = LockManager.lockMany(true, this, map, entities)) {
+          try (RollingAreaLocked areas = new RollingAreaLocked(map.iterator())) {
+            for (Area area : areas) {
+              area.tick();
+            }
+          }
         }
       }
     }
     Performance.stop(PerformanceTags.SERVER_WORLD_AREA_TICK);
+    blockChanges.send(Cubes.getServer().getAllClients());
+    entityReplicator.send(Cubes.getServer().getAllClients());
     Performance.stop(PerformanceTags.SERVER_WORLD_UPDATE);
   }
 
@@ -98,8 +113,12 @@ public class WorldServer extends World {
   }
 
   public boolean shouldAreaBeLoaded(AreaReference areaReference) {
+    return shouldAreaBeLoaded(areaReference, null);
+  }
+
+  public boolean shouldAreaBeLoaded(AreaReference areaReference, LoadedAreaFilter ignore) {
     for (LoadedAreaFilter loadedAreaFilter : loadedAreaFilters) {
-      if (loadedAreaFilter.load(areaReference)) return true;
+      if (loadedAreaFilter != ignore && loadedAreaFilter.load(areaReference)) return true;
     }
     return false;
   }
@@ -120,39 +139,46 @@ public class WorldServer extends World {
   @Override
   public void dispose() {
     super.dispose();
+    if (parallelAreaTicker != null) parallelAreaTicker.shutdown();
+    save.close();
   }
 
+  // other players are spawned and despawned on clients by PlayerInterest
   @Override
   public void addEntity(Entity entity) {
+    if (entity.networkID == 0) entity.networkID = entityReplicator.nextNetworkID();
     super.addEntity(entity);
 
-    PacketEntityAdd packet = new PacketEntityAdd();
-    packet.entity = entity;
-    NetworkingManager.sendPacketToAllClients(packet);
+    if (!(entity instanceof Player) && Cubes.getServer() != null) entityReplicator.spawn(entity, Cubes.getServer().getAllClients());
   }
 
   @Override
   public void removeEntity(UUID uuid) {
     super.removeEntity(uuid);
 
-    PacketEntityRemove packet = new PacketEntityRemove();
-    packet.uuid = uuid;
-    NetworkingManager.sendPacketToAllClients(packet);
+    entityReplicator.despawn(uuid);
   }
 
   @Override
   public void updateEntity(DataGroup data) {
     super.updateEntity(data);
 
+    Entity entity = getEntity((UUID) data.get("uuid"));
+    if (entity == null) return;
     PacketEntityUpdate packet = new PacketEntityUpdate();
     packet.data = data;
-    NetworkingManager.sendPacketToAllClients(packet);
+    NetworkingManager.sendPacketToClientsInRange(packet, entity.position, null);
   }
 
+  // players are sent in full, as clients aren't sent the network id of their own player
   @Override
   public void syncEntity(UUID uuid) {
     Entity entity = getEntity(uuid);
     if (entity == null) return;
+    if (!(entity instanceof Player)) {
+      entityReplicator.moved(uuid);
+      return;
+    }
     for (ClientIdentifier clientIdentifier : Cubes.getServer().getAllClients()) {
       if (clientIdentifier.getPlayerManager().positionInLoadRange(entity.position)) {
         PacketEntityUpdate packet = new PacketEntityUpdate();
@@ -2,6 +2,7 @@ package ethanjones.cubes.world.storage;
 
 import ethanjones.cubes.block.Block;
 import ethanjones.cubes.block.data.BlockData;
+import ethanjones.cubes.core.compression.Codec;
 import ethanjones.cubes.core.event.world.block.BlockChangedEvent;
 import ethanjones.cubes.core.id.IDManager;
 import ethanjones.cubes.core.id.TransparencyManager;
@@ -16,6 +17,8 @@ import ethanjones.cubes.core.util.locks.Locked;
 import ethanjones.cubes.graphics.world.area.AreaRenderStatus;
 import ethanjones.cubes.graphics.world.area.AreaRenderer;
 import ethanjones.cubes.networking.NetworkingManager;
+import ethanjones.cubes.networking.packet.EncodedPayload;
+import ethanjones.cubes.networking.stream.DirectByteArrayOutputStream;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.CoordinateConverter;
@@ -26,13 +29,17 @@ import ethanjones.cubes.world.thread.WorldLockable;
 import ethanjones.data.Data;
 import ethanjones.data.DataGroup;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class Area extends Lockable<Area> {
@@ -57,6 +64,7 @@ public class Area extends Lockable<Area> {
   public static final int MIN_Z_OFFSET = -MAX_Z_OFFSET;
 
   private static final LockManager<Area> LOCK_MANAGER = new LockManager<>();
+  private static final ThreadLocal<List<Runnable>> deferredSideEffects = new ThreadLocal<List<Runnable>>();
 
   public final AtomicReference<Object> features;
 
@@ -73,17 +81,21 @@ public class Area extends Lockable<Area> {
   //
   // blank == 0, as id=0 meta=0 visible=0
   //
-  //int blockID = blocks[i] & 0xFFFFF;
-  //int blockMeta = (blocks[i] >> 20) & 0xFF;
-  //boolean blockVisible = (blocks[i] & BLOCK_VISIBLE) == BLOCK_VISIBLE;
-  public volatile int[] blocks;
-  public volatile byte[] light; // most significant 4 bits are sunlight. the least significant are lights
+  //int blockID = blocks.get(i) & 0xFFFFF;
+  //int blockMeta = (blocks.get(i) >> 20) & 0xFF;
+  //boolean blockVisible = (blocks.get(i) & BLOCK_VISIBLE) == BLOCK_VISIBLE;
+  //
+  // both are stored per section with a palette, see PalettedSection
+  public volatile PalettedStorage blocks;
+  public volatile PalettedStorage light; // 0-255, most significant 4 bits are sunlight. the least significant are lights
   public volatile int[] heightmap = new int[SIZE_BLOCKS_SQUARED];
   public volatile AreaRenderer[] areaRenderer; //Always null on server, unless shared
   public volatile int maxY;
   public volatile int height;
   public volatile ArrayList<BlockData> blockDataList = new ArrayList<BlockData>(0);
   private volatile int modCount = 0, saveModCount = -1, saveEntities = 0;
+  // writeNetworking compressed by each codec, by codec id, see getNetworkingPayload
+  private final EncodedPayload[] networkingPayloads = new EncodedPayload[8];
 
   public int[] renderStatus = new int[0];
 
@@ -123,8 +135,8 @@ public class Area extends Lockable<Area> {
     try (Locked<Area> l = LockManager.lockMany(true, this, toCopy)) {
       if (toCopy.isReady()) {
         this.setupArrays(toCopy.maxY);
-        System.arraycopy(toCopy.blocks, 0, this.blocks, 0, this.blocks.length);
-        System.arraycopy(toCopy.light, 0, this.light, 0, this.light.length);
+        this.blocks = toCopy.blocks.copy();
+        this.light = toCopy.light.copy();
         System.arraycopy(toCopy.heightmap, 0, this.heightmap, 0, this.heightmap.length);
         if (toCopy.features.get() != null) this.features.set(Boolean.TRUE);
       }
@@ -134,7 +146,7 @@ public class Area extends Lockable<Area> {
   public Block getBlock(int x, int y, int z) {
     try (Locked<Area> l = acquireReadLock()) {
       if (unready(y)) return null;
-      int b = blocks[getRef(x, y, z)] & 0xFFFFF;
+      int b = blocks.get(getRef(x, y, z)) & 0xFFFFF;
       return IDManager.toBlock(b);
     }
   }
@@ -142,7 +154,7 @@ public class Area extends Lockable<Area> {
   public int getMeta(int x, int y, int z) {
     try (Locked<Area> l = acquireReadLock()) {
       if (unready(y)) return 0;
-      return (blocks[getRef(x, y, z)] >> 20) & 0xFF;
+      return (blocks.get(getRef(x, y, z)) >> 20) & 0xFF;
     }
   }
 
@@ -158,7 +170,7 @@ public class Area extends Lockable<Area> {
   public int getSunlight(int x, int y, int z) {
     try (Locked<Area> l = acquireReadLock()) {
       if (unready(y)) return 15;
-      return (light[getRef(x, y, z)] >> 4) & 0xF;
+      return (light.get(getRef(x, y, z)) >> 4) & 0xF;
     }
   }
 
@@ -166,15 +178,16 @@ public class Area extends Lockable<Area> {
   public int getLight(int x, int y, int z) {
     try (Locked<Area> l = acquireReadLock()) {
       if (unready(y)) return 0;
-      return (light[getRef(x, y, z)]) & 0xF;
+      return light.get(getRef(x, y, z)) & 0xF;
     }
   }
 
   public int getMaxLight(int x, int y, int z) {
     try (Locked<Area> l = acquireReadLock()) {
       if (unready(y)) return 15;
-      int sunlight = (light[getRef(x, y, z)] >> 4) & 0xF;
-      int blocklight = (light[getRef(x, y, z)]) & 0xF;
+      int raw = light.get(getRef(x, y, z));
+      int sunlight = (raw >> 4) & 0xF;
+      int blocklight = raw & 0xF;
       return sunlight > blocklight ? sunlight : blocklight;
     }
   }
@@ -184,7 +197,7 @@ public class Area extends Lockable<Area> {
     try (Locked<Area> locked = acquireWriteLock()) {
       if (unready(y)) return;
       int ref = getRef(x, y, z);
-      light[ref] = (byte) ((light[ref] & 0xF) | (l << 4));
+      light.set(ref, (light.get(ref) & 0xF) | (l << 4));
       modify();
       updateRender(y / SIZE_BLOCKS);
     }
@@ -195,7 +208,7 @@ public class Area extends Lockable<Area> {
     try (Locked<Area> locked = acquireWriteLock()) {
       if (unready(y)) return;
       int ref = getRef(x, y, z);
-      light[ref] = (byte) ((light[ref] & 0xF0) | l);
+      light.set(ref, (light.get(ref) & 0xF0) | l);
       modify();
       updateRender(y / SIZE_BLOCKS);
     }
@@ -205,7 +218,7 @@ public class Area extends Lockable<Area> {
     try (Locked<Area> locked = acquireReadLock()) {
       if (y > maxY) return SunLight.MAX_SUNLIGHT;
       if (unready(y)) return 0;
-      return light[getRef(x, y, z)] & 0xFF; // byte is signed (-128 to 127) so & 0xFF to convert to 0-255
+      return light.get(getRef(x, y, z));
     }
   }
 
@@ -242,6 +255,7 @@ public class Area extends Lockable<Area> {
       blocks = null;
       light = null;
       blockDataList.clear();
+      Arrays.fill(networkingPayloads, null);
       AreaRenderer.free(areaRenderer);
       areaRenderer = null;
       if (renderStatus.length > 0) renderStatus = new int[0];
@@ -260,64 +274,27 @@ public class Area extends Lockable<Area> {
     if (y > maxY || y < 0) {
       return;
     }
-    if (blocks[i] == 0) return; // air cannot be visible
+    int b = blocks.get(i);
+    if (b == 0) return; // air cannot be visible
 
-    blocks[i] &= 0xFFFFFFF; // keep block id and meta
+    b &= 0xFFFFFFF; // keep block id and meta
+    if (exposed(x, y, z, i)) b |= BLOCK_VISIBLE;
+    blocks.set(i, b);
+  }
 
-    if (x < SIZE_BLOCKS - 1) {
-      if (TransparencyManager.isTransparent(blocks[i + MAX_X_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
-    if (x > 0) {
-      if (TransparencyManager.isTransparent(blocks[i + MIN_X_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
-    if (y < maxY) {
-      if (TransparencyManager.isTransparent(blocks[i + MAX_Y_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
-    if (y > 0) {
-      if (TransparencyManager.isTransparent(blocks[i + MIN_Y_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
-    if (z < SIZE_BLOCKS - 1) {
-      if (TransparencyManager.isTransparent(blocks[i + MAX_Z_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
-    if (z > 0) {
-      if (TransparencyManager.isTransparent(blocks[i + MIN_Z_OFFSET])) {
-        blocks[i] |= BLOCK_VISIBLE;
-        return;
-      }
-    } else {
-      blocks[i] |= BLOCK_VISIBLE;
-      return;
-    }
+  private boolean exposed(int x, int y, int z, int i) {
+    if (x == SIZE_BLOCKS - 1 || TransparencyManager.isTransparent(blocks.get(i + MAX_X_OFFSET))) return true;
+    if (x == 0 || TransparencyManager.isTransparent(blocks.get(i + MIN_X_OFFSET))) return true;
+    if (y >= maxY || TransparencyManager.isTransparent(blocks.get(i + MAX_Y_OFFSET))) return true;
+    if (y == 0 || TransparencyManager.isTransparent(blocks.get(i + MIN_Y_OFFSET))) return true;
+    if (z == SIZE_BLOCKS - 1 || TransparencyManager.isTransparent(blocks.get(i + MAX_Z_OFFSET))) return true;
+    return z == 0 || TransparencyManager.isTransparent(blocks.get(i + MIN_Z_OFFSET));
+  }
+
+  //Should already be write locked
+  private void markVisible(int ref) {
+    int b = blocks.get(ref);
+    if (b != 0 && (b & BLOCK_VISIBLE) == 0) blocks.set(ref, b | BLOCK_VISIBLE);
   }
 
   public void setBlock(Block block, int x, int y, int z, int meta) {
@@ -333,8 +310,7 @@ public class Area extends Lockable<Area> {
       if (isUnloaded()) return;
       setupArrays(y);
 
-      b = blocks[ref];
-      blocks[ref] = n;
+      b = blocks.set(ref, n);
 
       old = IDManager.toBlock(b & 0xFFFFF);
 
@@ -355,9 +331,32 @@ public class Area extends Lockable<Area> {
     }
 
     //Must be after lock released to prevent dead locks
-    if (TransparencyManager.isTransparent(b) != TransparencyManager.isTransparent(n))
-      doUpdatesOtherAreas(x, y, z, ref);
-    new BlockChangedEvent(new BlockReference().setFromBlockCoordinates(x + minBlockX, y, z + minBlockZ), old, (b >> 20) & 0xFF, block, meta, this).post();
+    final boolean updateOtherAreas = TransparencyManager.isTransparent(b) != TransparencyManager.isTransparent(n);
+    final BlockChangedEvent event = new BlockChangedEvent(new BlockReference().setFromBlockCoordinates(x + minBlockX, y, z + minBlockZ), old, (b >> 20) & 0xFF, block, meta, this);
+    final int fX = x, fY = y, fZ = z, fRef = ref;
+    List<Runnable> deferred = deferredSideEffects.get();
+    if (deferred == null) {
+      if (updateOtherAreas) doUpdatesOtherAreas(x, y, z, ref);
+      event.post();
+    } else {
+      deferred.add(new Runnable() {
+        @Override
+        public void run() {
+          if (updateOtherAreas) doUpdatesOtherAreas(fX, fY, fZ, fRef);
+          event.post();
+        }
+      });
+    }
+  }
+
+  // while set, the updates to other areas and events caused by setBlock on this thread are added to the list instead
+  // of being run, used by ParallelAreaTicker
+  public static void deferSideEffects(List<Runnable> list) {
+    if (list == null) {
+      deferredSideEffects.remove();
+    } else {
+      deferredSideEffects.set(list);
+    }
   }
 
   public BlockData removeBlockData(int x, int y, int z) {
@@ -464,7 +463,7 @@ public class Area extends Lockable<Area> {
   }
 
   private void randomTick(int x, int y, int z, AreaMap areaMap) {
-    int b = blocks[getRef(x, y, z)];
+    int b = blocks.get(getRef(x, y, z));
     Block block = IDManager.toBlock(b & 0xFFFFF);
     if (block == null) return;
     block.randomTick(areaMap.world, this, x, y, z, (b >> 20) & 0xFF);
@@ -569,10 +568,10 @@ public class Area extends Lockable<Area> {
         int height = -1;
         for (int y = 0; y <= maxY; y++) {
           int ref = (z * SIZE_BLOCKS) + (y * SIZE_BLOCKS_SQUARED);
-          if (TransparencyManager.isTransparent(blocks[ref])) {
-            if (blocks[ref + MAX_X_OFFSET] != 0) blocks[ref + MAX_X_OFFSET] |= BLOCK_VISIBLE;
+          if (TransparencyManager.isTransparent(blocks.get(ref))) {
+            markVisible(ref + MAX_X_OFFSET);
           } else {
-            blocks[ref] |= BLOCK_VISIBLE;
+            markVisible(ref);
             height = y;
           }
         }
@@ -583,10 +582,10 @@ public class Area extends Lockable<Area> {
         int height = -1;
         for (int y = 0; y <= maxY; y++) {
           int ref = (SIZE_BLOCKS - 1) + (z * SIZE_BLOCKS) + (y * SIZE_BLOCKS_SQUARED);
-          if (TransparencyManager.isTransparent(blocks[ref])) {
-            if (blocks[ref + MIN_X_OFFSET] != 0) blocks[ref + MIN_X_OFFSET] |= BLOCK_VISIBLE;
+          if (TransparencyManager.isTransparent(blocks.get(ref))) {
+            markVisible(ref + MIN_X_OFFSET);
           } else {
-            blocks[ref] |= BLOCK_VISIBLE;
+            markVisible(ref);
             height = y;
           }
         }
@@ -597,10 +596,10 @@ public class Area extends Lockable<Area> {
         int height = -1;
         for (int y = 0; y <= maxY; y++) {
           int ref = x + (y * SIZE_BLOCKS_SQUARED);
-          if (TransparencyManager.isTransparent(blocks[ref])) {
-            if (blocks[ref + MAX_Z_OFFSET] != 0) blocks[ref + MAX_Z_OFFSET] |= BLOCK_VISIBLE;
+          if (TransparencyManager.isTransparent(blocks.get(ref))) {
+            markVisible(ref + MAX_Z_OFFSET);
           } else {
-            blocks[ref] |= BLOCK_VISIBLE;
+            markVisible(ref);
             height = y;
           }
         }
@@ -611,10 +610,10 @@ public class Area extends Lockable<Area> {
         int height = -1;
         for (int y = 0; y <= maxY; y++) {
           int ref = x + (SIZE_BLOCKS_SQUARED - SIZE_BLOCKS) + (y * SIZE_BLOCKS_SQUARED);
-          if (TransparencyManager.isTransparent(blocks[ref])) {
-            if (blocks[ref + MIN_Z_OFFSET] != 0) blocks[ref + MIN_Z_OFFSET] |= BLOCK_VISIBLE;
+          if (TransparencyManager.isTransparent(blocks.get(ref))) {
+            markVisible(ref + MIN_Z_OFFSET);
           } else {
-            blocks[ref] |= BLOCK_VISIBLE;
+            markVisible(ref);
             height = y;
           }
         }
@@ -626,13 +625,13 @@ public class Area extends Lockable<Area> {
           int height = -1;
           for (int y = 0; y <= maxY; y++) {
             int ref = x + z * SIZE_BLOCKS + y * SIZE_BLOCKS_SQUARED;
-            if (TransparencyManager.isTransparent(blocks[ref])) {
-              if (blocks[ref + MAX_X_OFFSET] != 0) blocks[ref + MAX_X_OFFSET] |= BLOCK_VISIBLE;
-              if (blocks[ref + MIN_X_OFFSET] != 0) blocks[ref + MIN_X_OFFSET] |= BLOCK_VISIBLE;
-              if (blocks[ref + MAX_Z_OFFSET] != 0) blocks[ref + MAX_Z_OFFSET] |= BLOCK_VISIBLE;
-              if (blocks[ref + MIN_Z_OFFSET] != 0) blocks[ref + MIN_Z_OFFSET] |= BLOCK_VISIBLE;
-              if (y < maxY && blocks[ref + MAX_Y_OFFSET] != 0) blocks[ref + MAX_Y_OFFSET] |= BLOCK_VISIBLE;
-              if (y > 0 && blocks[ref + MIN_Y_OFFSET] != 0) blocks[ref + MIN_Y_OFFSET] |= BLOCK_VISIBLE;
+            if (TransparencyManager.isTransparent(blocks.get(ref))) {
+              markVisible(ref + MAX_X_OFFSET);
+              markVisible(ref + MIN_X_OFFSET);
+              markVisible(ref + MAX_Z_OFFSET);
+              markVisible(ref + MIN_Z_OFFSET);
+              if (y < maxY) markVisible(ref + MAX_Y_OFFSET);
+              if (y > 0) markVisible(ref + MIN_Y_OFFSET);
             } else {
               height = y;
             }
@@ -644,9 +643,9 @@ public class Area extends Lockable<Area> {
       for (int x = 0; x < SIZE_BLOCKS; x++) {
         for (int z = 0; z < SIZE_BLOCKS; z++) {
           int i = getRef(x, 0, z);
-          if (blocks[i] != 0) blocks[i] |= BLOCK_VISIBLE;
+          markVisible(i);
           i = getRef(x, maxY, z);
-          if (blocks[i] != 0) blocks[i] |= BLOCK_VISIBLE;
+          markVisible(i);
         }
       }
 
@@ -661,8 +660,8 @@ public class Area extends Lockable<Area> {
       }
       if (isBlank()) {
         int h = (int) Math.ceil((y + 1) / (float) SIZE_BLOCKS);
-        blocks = new int[SIZE_BLOCKS_CUBED * h];
-        light = new byte[SIZE_BLOCKS_CUBED * h];
+        blocks = new PalettedStorage(h, 0);
+        light = new PalettedStorage(h, 0);
         AreaRenderer.free(areaRenderer);
         if (Side.isClient() || shared) {
           areaRenderer = new AreaRenderer[h];
@@ -689,7 +688,7 @@ public class Area extends Lockable<Area> {
           int column = x + z * SIZE_BLOCKS;
           int y = maxY;
           while (y >= 0) {
-            if (blocks[column + y * SIZE_BLOCKS_SQUARED] != 0) {
+            if (blocks.get(column + y * SIZE_BLOCKS_SQUARED) != 0) {
               heightmap[column] = y;
               continue zLoop;
             }
@@ -706,7 +705,7 @@ public class Area extends Lockable<Area> {
       int column = x + z * SIZE_BLOCKS;
       int y = maxY;
       while (y >= 0) {
-        if (blocks[column + y * SIZE_BLOCKS_SQUARED] != 0) {
+        if (blocks.get(column + y * SIZE_BLOCKS_SQUARED) != 0) {
           heightmap[column] = y;
           return;
         }
@@ -723,19 +722,13 @@ public class Area extends Lockable<Area> {
       if (isBlank() || h <= maxY || h > MAX_Y) return;
 
       int oldMaxY = maxY;
-      int[] oldBlocks = blocks;
-      byte[] oldLight = light;
       AreaRenderer[] oldAreaRenderer = areaRenderer;
 
       int newHeight = (int) Math.ceil((h + 1) / (float) SIZE_BLOCKS); //Round up to multiple of SIZE_BLOCKS
 
-      int[] newBlocks = new int[SIZE_BLOCKS_CUBED * newHeight];
-      System.arraycopy(oldBlocks, 0, newBlocks, 0, oldBlocks.length);
-
-      byte[] newLight = new byte[SIZE_BLOCKS_CUBED * newHeight];
-      System.arraycopy(oldLight, 0, newLight, 0, oldLight.length);
-      if (featuresGenerated()) Arrays.fill(newLight, oldLight.length, newLight.length, (byte) SunLight.MAX_SUNLIGHT);
-
+      // existing sections are kept, new sections start as single value sections
+      PalettedStorage newBlocks = blocks.resize(newHeight, 0);
+      PalettedStorage newLight = light.resize(newHeight, featuresGenerated() ? SunLight.MAX_SUNLIGHT : 0);
 
       if (Side.isClient() || shared) {
         this.areaRenderer = new AreaRenderer[newHeight];
@@ -776,13 +769,10 @@ public class Area extends Lockable<Area> {
         return;
       }
 
-      int[] oldBlocks = blocks;
-      blocks = new int[SIZE_BLOCKS_CUBED * usedHeight];
-      System.arraycopy(oldBlocks, 0, blocks, 0, blocks.length);
-
-      byte[] oldLight = light;
-      light = new byte[SIZE_BLOCKS_CUBED * usedHeight];
-      System.arraycopy(oldLight, 0, light, 0, light.length);
+      blocks = blocks.resize(usedHeight, 0);
+      light = light.resize(usedHeight, 0);
+      blocks.compact();
+      light.compact();
 
       AreaRenderer.free(areaRenderer);
       if (Side.isClient() || shared) {
@@ -792,6 +782,7 @@ public class Area extends Lockable<Area> {
         areaRenderer = null;
       }
 
+      height = usedHeight;
       maxY = (usedHeight * SIZE_BLOCKS) - 1;
       int i = maxY * SIZE_BLOCKS_SQUARED;
       for (int z = 0; z < SIZE_BLOCKS; z++) {
@@ -804,20 +795,10 @@ public class Area extends Lockable<Area> {
 
   //Should be read or write locked
   private int usedHeight() {
-    int y = maxY;
-    int i = blocks.length - 1;
-    int maxUsedY = -1;
-    while (y >= 0 && maxUsedY == -1) {
-      for (int b = 0; b < SIZE_BLOCKS_SQUARED; b++) {
-        if (blocks[i] != 0) {
-          maxUsedY = y;
-          break;
-        }
-        i--;
-      }
-      y--;
+    for (int section = blocks.height() - 1; section >= 0; section--) {
+      if (!blocks.section(section).containsOnly(0)) return section + 1;
     }
-    return (int) Math.ceil((maxUsedY + 1) / (float) SIZE_BLOCKS);
+    return 0;
   }
 
   @Override
@@ -829,6 +810,25 @@ public class Area extends Lockable<Area> {
     write(dataOutputStream, false, true, false, null);
   }
 
+  // the compressed output of writeNetworking, encoded the first time it is needed after the area is modified so an
+  // area sent to several clients is only encoded once. Block data can change without modifying the area, so areas with
+  // block data are not cached and null is returned.
+  public EncodedPayload getNetworkingPayload(Codec codec) throws IOException {
+    try (Locked<Area> locked = acquireReadLock()) {
+      if (unloaded || !blockDataList.isEmpty()) return null;
+      EncodedPayload payload = networkingPayloads[codec.id];
+      if (payload != null && payload.modCount == modCount) return payload;
+
+      DirectByteArrayOutputStream uncompressed = new DirectByteArrayOutputStream(16384);
+      writeNetworking(new DataOutputStream(uncompressed));
+      DirectByteArrayOutputStream compressed = new DirectByteArrayOutputStream(4096);
+      codec.compress(uncompressed.buffer(), 0, uncompressed.count(), compressed);
+      payload = new EncodedPayload(codec, Arrays.copyOf(compressed.buffer(), compressed.count()), uncompressed.count(), modCount);
+      networkingPayloads[codec.id] = payload;
+      return payload;
+    }
+  }
+
   public void writeSave(DataOutputStream dataOutputStream, DataGroup[] entities) throws IOException {
     write(dataOutputStream, false, false, true, entities); //TODO resize when writing
   }
@@ -852,32 +852,35 @@ public class Area extends Lockable<Area> {
       }
 
       int currentBlock = -1, num = 0;
-      for (int i = 0; i < (SIZE_BLOCKS_CUBED * usedHeight); i++) {
-        int block = blocks[i]; // always positive
-        if (block == currentBlock) {
-          num++;
-        } else {
-          if (currentBlock != -1) {
-            if (num == 1) {
-              dataOutputStream.writeInt(currentBlock);
-            } else {
-              dataOutputStream.writeInt(-num);
-              dataOutputStream.writeInt(currentBlock);
-            }
+      for (int s = 0; s < usedHeight; s++) {
+        PalettedSection section = blocks.section(s);
+        if (section.isSingle()) {
+          int block = section.singleValue();
+          if (block != currentBlock) {
+            writeRun(dataOutputStream, currentBlock, num);
+            currentBlock = block;
+            num = 0;
+          }
+          num += SIZE_BLOCKS_CUBED;
+          continue;
+        }
+        for (int i = 0; i < SIZE_BLOCKS_CUBED; i++) {
+          int block = section.get(i); // always positive
+          if (block == currentBlock) {
+            num++;
+          } else {
+            writeRun(dataOutputStream, currentBlock, num);
+            currentBlock = block;
+            num = 1;
           }
-          currentBlock = block;
-          num = 1;
         }
       }
-      if (num == 1) {
-        dataOutputStream.writeInt(currentBlock);
-      } else {
-        dataOutputStream.writeInt(-num);
-        dataOutputStream.writeInt(currentBlock);
-      }
+      writeRun(dataOutputStream, currentBlock, num);
 
-      for (int i = 0; i < (SIZE_BLOCKS_CUBED * usedHeight); i++) {
-        dataOutputStream.writeByte(light[i]);
+      byte[] lightBytes = new byte[SIZE_BLOCKS_CUBED];
+      for (int s = 0; s < usedHeight; s++) {
+        light.section(s).getAll(lightBytes);
+        dataOutputStream.write(lightBytes);
       }
 
       if (writeEntities && entities != null) {
@@ -910,6 +913,16 @@ public class Area extends Lockable<Area> {
     }
   }
 
+  private static void writeRun(DataOutputStream dataOutputStream, int block, int num) throws IOException {
+    if (block == -1) return;
+    if (num == 1) {
+      dataOutputStream.writeInt(block);
+    } else {
+      dataOutputStream.writeInt(-num);
+      dataOutputStream.writeInt(block);
+    }
+  }
+
   public void read(DataInputStream dataInputStream) throws IOException {
     int height = dataInputStream.readInt();
     if (height == 0) return;
@@ -934,23 +947,86 @@ public class Area extends Lockable<Area> {
           invalidBlocks = true;
           a = 0;
         }
-        blocks[counter++] = a;
+        blocks.set(counter++, a);
       } else {
         int block = dataInputStream.readInt();
         if (!IDManager.validBlock(block)) {
           invalidBlocks = true;
           block = 0;
         }
-        for (int i = 0; i < -a; i++) {
-          blocks[counter++] = block;
+        blocks.fill(counter, counter - a, block);
+        counter -= a;
+      }
+    }
+
+    byte[] lightBytes = new byte[SIZE_BLOCKS_CUBED];
+    for (int s = 0; s < light.height(); s++) {
+      dataInputStream.readFully(lightBytes);
+      light.section(s).setAll(lightBytes);
+    }
+
+    readTail(dataInputStream, invalidBlocks);
+  }
+
+  // same format as read(DataInputStream), the block runs and light are read with bulk buffer operations
+  public void read(ByteBuffer buffer) throws IOException {
+    int height = buffer.getInt();
+    if (height == 0) return;
+
+    if (height > 0) { //if features
+      features.set(Boolean.TRUE);
+    } else {
+      height = -height;
+    }
+    setupArrays((height * SIZE_BLOCKS) - 1);
+
+    IntBuffer ints = buffer.asIntBuffer();
+    ints.get(heightmap);
+
+    int counter = 0;
+    int total = SIZE_BLOCKS_CUBED * height;
+    boolean invalidBlocks = false;
+    while (counter < total) {
+      int a = ints.get();
+      if (a >= 0) {
+        if (!IDManager.validBlock(a)) {
+          invalidBlocks = true;
+          a = 0;
+        }
+        blocks.set(counter++, a);
+      } else {
+        int block = ints.get();
+        if (!IDManager.validBlock(block)) {
+          invalidBlocks = true;
+          block = 0;
         }
+        blocks.fill(counter, counter - a, block);
+        counter -= a;
       }
     }
+    buffer.position(buffer.position() + (ints.position() * 4));
+
+    byte[] lightBytes = new byte[SIZE_BLOCKS_CUBED];
+    for (int s = 0; s < light.height(); s++) {
+      buffer.get(lightBytes);
+      light.section(s).setAll(lightBytes);
+    }
 
-    for (int i = 0; i < light.length; i++) {
-      light[i] = dataInputStream.readByte();
+    // entities and block data are rare, read them through a stream
+    byte[] tail;
+    int offset;
+    if (buffer.hasArray()) {
+      tail = buffer.array();
+      offset = buffer.arrayOffset() + buffer.position();
+    } else {
+      tail = new byte[buffer.remaining()];
+      buffer.duplicate().get(tail);
+      offset = 0;
     }
+    readTail(new DataInputStream(new ByteArrayInputStream(tail, offset, buffer.remaining())), invalidBlocks);
+  }
 
+  private void readTail(DataInputStream dataInputStream, boolean invalidBlocks) throws IOException {
     int entitiesSize = dataInputStream.readShort();
     int dataSize = dataInputStream.readShort();
     for (int i = 0; i < entitiesSize; i++) {
@@ -1046,7 +1122,7 @@ public class Area extends Lockable<Area> {
       c.y = y;
       c.z = z;
       c.ref = ref;
-      c.blockInt = area.blocks[ref];
+      c.blockInt = area.blocks.get(ref);
 
       // advance
       ref++;
@@ -1064,27 +1140,29 @@ public class Area extends Lockable<Area> {
   }
 
   private static final class SectionBlocksIterator implements Iterable<BlockCursor>, Iterator<BlockCursor> {
-    private final Area area;
     private final boolean visibleOnly;
     private final BlockCursor c = new BlockCursor();
-
-    private final int refEndExclusive;
+    private final PalettedSection section;
+    private final int refStart;
 
     private int x = 0, z = 0;
     private int y;          // absolute y
-    private int ref;        // absolute ref
+    private int i = 0;      // index within the section
 
     private boolean hasBuffered = false;
     private boolean bufferedHasNext = false;
 
     private SectionBlocksIterator(Area area, int ySection, boolean visibleOnly) {
-      this.area = area;
       this.visibleOnly = visibleOnly;
+      this.section = area.isBlank() ? null : area.blocks.section(ySection);
+
+      this.y = ySection * SIZE_BLOCKS;
+      this.refStart = ySection * SIZE_BLOCKS_CUBED;
 
-      int yStart = ySection * SIZE_BLOCKS;
-      this.y = yStart;
-      this.ref = ySection * SIZE_BLOCKS_CUBED;
-      this.refEndExclusive = this.ref + SIZE_BLOCKS_CUBED;
+      // a single value section without the visible bit has nothing to mesh
+      if (section != null && visibleOnly && section.isSingle() && (section.singleValue() & BLOCK_VISIBLE) != BLOCK_VISIBLE) {
+        i = SIZE_BLOCKS_CUBED;
+      }
     }
 
     @Override
@@ -1108,8 +1186,8 @@ public class Area extends Lockable<Area> {
       c.x = x;
       c.y = y;
       c.z = z;
-      c.ref = ref;
-      c.blockInt = area.blocks[ref];
+      c.ref = refStart + i;
+      c.blockInt = section.get(i);
 
       // advance one step AFTER yielding
       stepForward();
@@ -1117,10 +1195,10 @@ public class Area extends Lockable<Area> {
     }
 
     private boolean advanceToNextMatch() {
-      if (area.isBlank()) return false;
+      if (section == null) return false;
 
-      while (ref < refEndExclusive) {
-        int b = area.blocks[ref];
+      while (i < SIZE_BLOCKS_CUBED) {
+        int b = section.get(i);
         if (!visibleOnly || (b & BLOCK_VISIBLE) == BLOCK_VISIBLE) {
           return true;
         }
@@ -1130,7 +1208,7 @@ public class Area extends Lockable<Area> {
     }
 
     private void stepForward() {
-      ref++;
+      i++;
       x++;
       if (x == SIZE_BLOCKS) {
         x = 0;
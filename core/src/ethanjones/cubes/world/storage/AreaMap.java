@@ -5,58 +5,46 @@ import ethanjones.cubes.core.util.locks.Locked;
 import ethanjones.cubes.world.World;
 import ethanjones.cubes.world.thread.WorldLockable;
 
-import com.badlogic.gdx.utils.LongMap;
-
 import java.util.*;
 
 public class AreaMap extends WorldLockable implements Iterable<Area> {
 
-  private final LongMap<Area> map = new LongMap<>(1024);
+  // reads do not lock, writes are done with the write lock held
+  private final AreaTable map = new AreaTable();
+  // kept in Area.LOCK_ITERATION_ORDER as areas are added and removed
   private final ArrayList<Area> sorted = new ArrayList<>();
-  private volatile boolean modifiedSinceSort = false;
   public final World world;
 
-  // long packed = ((long)x) << 32 | y & 0xFFFFFFFFL;
-  // long x = (int) (packed >> 32);
-  // long y = (int) (packed & 0xFFFFFFFFL);
-
   public AreaMap(World world) {
     super(Type.AREAMAP, world.side);
     this.world = world;
   }
   
   public Area getArea(int areaX, int areaZ) {
-    try (Locked<WorldLockable> locked = acquireReadLock()) {
-      long packed = ((long)areaZ) << 32 | areaX & 0xFFFFFFFFL;
-      return map.get(packed);
-    }
+    return map.get(areaX, areaZ);
   }
   
+  // for callers which already hold the lock, getArea no longer locks so they are the same
   public Area lockedGetArea(int areaX, int areaZ) {
-    long packed = ((long)areaZ) << 32 | areaX & 0xFFFFFFFFL;
-    return map.get(packed);
+    return map.get(areaX, areaZ);
   }
   
   public boolean setArea(int areaX, int areaZ, Area area) {
     Area old;
 
     try (Locked<WorldLockable> locked = acquireWriteLock()) {
-      long packed = ((long) areaZ) << 32 | areaX & 0xFFFFFFFFL;
       if (area == null) {
-        old = map.remove(packed);
-        if (old != null) {
-          sorted.remove(old);
-          modifiedSinceSort = true;
-        }
+        old = map.remove(areaX, areaZ);
+        if (old != null) sorted.remove(sortedIndex(old));
       } else {
-        old = map.put(packed, area);
+        if (area.areaX != areaX || area.areaZ != areaZ) throw new CubesException("Area " + area + " set at " + areaX + "," + areaZ);
+        old = map.put(area);
         if (old != area) {
+          int idx = sortedIndex(area);
           if (old != null) {
-            int idx = sorted.indexOf(old);
             sorted.set(idx, area);
           } else {
-            sorted.add(area);
-            modifiedSinceSort = true;
+            sorted.add(-(idx + 1), area);
           }
         }
       }
@@ -79,10 +67,6 @@ public class AreaMap extends WorldLockable implements Iterable<Area> {
   @Override
   public AreaIterator iterator() {
     if (!lockOwnedByCurrentThread()) throw new CubesException("AreaMap must be write locked to iterate");
-    if (modifiedSinceSort) {
-      Collections.sort(sorted, Area.LOCK_ITERATION_ORDER);
-      modifiedSinceSort = false;
-    }
     return new AreaIterator();
   }
   
@@ -97,13 +81,16 @@ public class AreaMap extends WorldLockable implements Iterable<Area> {
   }
   
   public int getSize() {
-    try (Locked<WorldLockable> locked = acquireReadLock()) {
-      return map.size;
-    }
+    return map.size();
   }
   
   public void empty() {
     map.clear();
+    sorted.clear();
+  }
+
+  private int sortedIndex(Area area) {
+    return Collections.binarySearch(sorted, area, Area.LOCK_ITERATION_ORDER);
   }
 
   private class AreaIterator implements Iterator<Area> {
@@ -125,9 +112,8 @@ public class AreaMap extends WorldLockable implements Iterable<Area> {
       if (!lockOwnedByCurrentThread()) throw new CubesException("AreaMap should be write locked");
 
       if (current == null) throw new IllegalStateException();
-      long packed = ((long) current.areaZ) << 32 | current.areaX & 0xFFFFFFFFL;
       iterator.remove();
-      map.remove(packed);
+      map.remove(current.areaX, current.areaZ);
 
       synchronized (this) {
         this.notifyAll();
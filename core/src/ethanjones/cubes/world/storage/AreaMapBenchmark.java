@@ -0,0 +1,140 @@
+package ethanjones.cubes.world.storage;
+
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Concurrent getArea throughput while another thread keeps calling setArea
+// Compares the lock free AreaTable used by AreaMap to the previous LongMap behind a read write lock
+// Usage: AreaMapBenchmark [reader threads] [radius in areas] [seconds]
+public class AreaMapBenchmark {
+
+  private interface Map {
+    Area get(int areaX, int areaZ);
+
+    void set(int areaX, int areaZ, Area area);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    int radius = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    final Area[] areas = new Area[(radius * 2 + 1) * (radius * 2 + 1)];
+    int i = 0;
+    for (int x = -radius; x <= radius; x++) {
+      for (int z = -radius; z <= radius; z++) {
+        areas[i++] = new Area(x, z);
+      }
+    }
+
+    for (int run = 0; run < 2; run++) {
+      run("LongMap + ReadWriteLock", new Map() {
+        final LongMap<Area> map = new LongMap<Area>(1024);
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        @Override
+        public Area get(int areaX, int areaZ) {
+          lock.readLock().lock();
+          try {
+            return map.get(((long) areaZ) << 32 | areaX & 0xFFFFFFFFL);
+          } finally {
+            lock.readLock().unlock();
+          }
+        }
+
+        @Override
+        public void set(int areaX, int areaZ, Area area) {
+          lock.writeLock().lock();
+          try {
+            long packed = ((long) areaZ) << 32 | areaX & 0xFFFFFFFFL;
+            if (area == null) {
+              map.remove(packed);
+            } else {
+              map.put(packed, area);
+            }
+          } finally {
+            lock.writeLock().unlock();
+          }
+        }
+      }, areas, radius, threads, seconds);
+
+      run("AreaTable", new Map() {
+        final AreaTable table = new AreaTable();
+
+        @Override
+        public Area get(int areaX, int areaZ) {
+          return table.get(areaX, areaZ);
+        }
+
+        @Override
+        public synchronized void set(int areaX, int areaZ, Area area) {
+          if (area == null) {
+            table.remove(areaX, areaZ);
+          } else {
+            table.put(area);
+          }
+        }
+      }, areas, radius, threads, seconds);
+    }
+  }
+
+  private static void run(String name, final Map map, final Area[] areas, final int radius, int threads, int seconds) throws InterruptedException {
+    for (Area area : areas) {
+      map.set(area.areaX, area.areaZ, area);
+    }
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong reads = new AtomicLong();
+    final AtomicLong writes = new AtomicLong();
+    final CountDownLatch finished = new CountDownLatch(threads + 1);
+
+    for (int t = 0; t < threads; t++) {
+      final int seed = t;
+      new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          long count = 0, found = 0;
+          while (running.get()) {
+            for (int j = 0; j < 1024; j++) {
+              int x = random.nextInt(radius * 2 + 1) - radius;
+              int z = random.nextInt(radius * 2 + 1) - radius;
+              if (map.get(x, z) != null) found++;
+            }
+            count += 1024;
+          }
+          reads.addAndGet(count);
+          if (found < 0) System.out.println(found);
+          finished.countDown();
+        }
+      }.start();
+    }
+
+    new Thread() {
+      @Override
+      public void run() {
+        Random random = new Random(-1);
+        long count = 0;
+        while (running.get()) {
+          Area area = areas[random.nextInt(areas.length)];
+          map.set(area.areaX, area.areaZ, null);
+          map.set(area.areaX, area.areaZ, area);
+          count += 2;
+        }
+        writes.addAndGet(count);
+        finished.countDown();
+      }
+    }.start();
+
+    Thread.sleep(seconds * 1000L);
+    running.set(false);
+    finished.await();
+
+    System.out.println(name + ": " + (reads.get() / seconds / 1000) + "k getArea/s, " + (writes.get() / seconds / 1000) + "k setArea/s with " + threads + " readers");
+  }
+}
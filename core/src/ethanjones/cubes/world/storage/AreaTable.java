@@ -0,0 +1,118 @@
+package ethanjones.cubes.world.storage;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Open addressing hash table of areas keyed by their coordinates
+// get never locks, put and remove must only be called by one thread at a time (AreaMap holds its write lock)
+// Slots are published with volatile writes, removed slots become TOMBSTONE until the table is rebuilt.
+// Rebuilding creates a new array which is published in one volatile write, readers on the old array still see a
+// consistent set of areas.
+final class AreaTable {
+  private static final Object TOMBSTONE = new Object();
+  private static final int MIN_CAPACITY = 64;
+
+  private volatile AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(1024);
+  private volatile int size;
+  private int used; // areas and tombstones
+
+  public Area get(int areaX, int areaZ) {
+    AtomicReferenceArray<Object> slots = this.slots;
+    int mask = slots.length() - 1;
+    int i = hash(areaX, areaZ) & mask;
+    while (true) {
+      Object o = slots.get(i);
+      if (o == null) return null;
+      if (o != TOMBSTONE) {
+        Area area = (Area) o;
+        if (area.areaX == areaX && area.areaZ == areaZ) return area;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  // returns the area that was replaced
+  public Area put(Area area) {
+    AtomicReferenceArray<Object> slots = this.slots;
+    int mask = slots.length() - 1;
+    int i = hash(area.areaX, area.areaZ) & mask;
+    int firstTombstone = -1;
+    while (true) {
+      Object o = slots.get(i);
+      if (o == null) break;
+      if (o == TOMBSTONE) {
+        if (firstTombstone == -1) firstTombstone = i;
+      } else {
+        Area a = (Area) o;
+        if (a.areaX == area.areaX && a.areaZ == area.areaZ) {
+          slots.set(i, area);
+          return a;
+        }
+      }
+      i = (i + 1) & mask;
+    }
+
+    if (firstTombstone != -1) {
+      slots.set(firstTombstone, area);
+    } else {
+      slots.set(i, area);
+      used++;
+    }
+    size++;
+    if (used * 2 > slots.length()) rebuild(size * 4);
+    return null;
+  }
+
+  public Area remove(int areaX, int areaZ) {
+    AtomicReferenceArray<Object> slots = this.slots;
+    int mask = slots.length() - 1;
+    int i = hash(areaX, areaZ) & mask;
+    while (true) {
+      Object o = slots.get(i);
+      if (o == null) return null;
+      if (o != TOMBSTONE) {
+        Area area = (Area) o;
+        if (area.areaX == areaX && area.areaZ == areaZ) {
+          slots.set(i, TOMBSTONE);
+          size--;
+          if (size * 8 < slots.length() && slots.length() > MIN_CAPACITY) rebuild(size * 4);
+          return area;
+        }
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    slots = new AtomicReferenceArray<Object>(slots.length());
+    size = 0;
+    used = 0;
+  }
+
+  private void rebuild(int minCapacity) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < minCapacity) capacity <<= 1;
+
+    AtomicReferenceArray<Object> old = this.slots;
+    AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < old.length(); j++) {
+      Object o = old.get(j);
+      if (o == null || o == TOMBSTONE) continue;
+      Area area = (Area) o;
+      int i = hash(area.areaX, area.areaZ) & mask;
+      while (slots.get(i) != null) i = (i + 1) & mask;
+      slots.lazySet(i, area);
+    }
+    used = size;
+    this.slots = slots; // volatile write publishes the lazily set slots
+  }
+
+  private static int hash(int areaX, int areaZ) {
+    int h = areaX * 0x9E3779B1 + areaZ * 0x7FEB352D;
+    return h ^ (h >>> 16);
+  }
+}
@@ -5,32 +5,140 @@ import ethanjones.cubes.entity.Entity;
 import ethanjones.cubes.entity.living.player.Player;
 import ethanjones.cubes.world.CoordinateConverter;
 import ethanjones.cubes.world.World;
+import ethanjones.cubes.world.reference.multi.WorldRegion;
 import ethanjones.cubes.world.thread.WorldLockable;
 import ethanjones.data.DataGroup;
 
+import com.badlogic.gdx.math.Vector3;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+// Entities by uuid, and bucketed by the area they are in so area, region and nearby player queries don't scan every
+// entity. map can be read directly, but entities must be added and removed through add and remove, and moved must be
+// called when an entity may have changed area. World.tick calls moved for every entity, so the buckets are never more
+// than a tick behind.
+// All methods must be called with the lock held, the query results are only valid while it is held.
 public class Entities extends WorldLockable {
+
+  public static final long NOT_INDEXED = Long.MAX_VALUE;
+
   public final World world;
   public final HashMap<UUID, Entity> map;
-  
+  private final HashMap<Long, ArrayList<Entity>> areas = new HashMap<Long, ArrayList<Entity>>();
+
   public Entities(World world) {
     super(Type.ENTITIES, world.side);
     this.world = world;
     this.map = new HashMap<>();
   }
-  
+
+  public void add(Entity entity) {
+    Entity old = map.put(entity.uuid, entity);
+    if (old != null && old != entity) unindex(old);
+    moved(entity);
+  }
+
+  public Entity remove(UUID uuid) {
+    Entity entity = map.remove(uuid);
+    if (entity != null) unindex(entity);
+    return entity;
+  }
+
+  // for entities removed from map by an iterator
+  public void removed(Entity entity) {
+    unindex(entity);
+  }
+
+  public void clear() {
+    map.clear();
+    for (ArrayList<Entity> list : areas.values()) {
+      for (Entity entity : list) {
+        entity.areaKey = NOT_INDEXED;
+      }
+    }
+    areas.clear();
+  }
+
+  public void moved(Entity entity) {
+    long key = key(CoordinateConverter.area(entity.position.x), CoordinateConverter.area(entity.position.z));
+    if (entity.areaKey == key) return;
+    unindex(entity);
+    ArrayList<Entity> list = areas.get(key);
+    if (list == null) areas.put(key, list = new ArrayList<Entity>(4));
+    list.add(entity);
+    entity.areaKey = key;
+  }
+
+  public List<Entity> inArea(int areaX, int areaZ) {
+    ArrayList<Entity> list = areas.get(key(areaX, areaZ));
+    return list == null ? Collections.<Entity>emptyList() : list;
+  }
+
+  public void inRegion(WorldRegion region, List<Entity> out) {
+    int width = region.maxAreaX - region.minAreaX + 1, depth = region.maxAreaZ - region.minAreaZ + 1;
+    if (areas.size() < width * depth) {
+      // fewer occupied areas than areas in the region
+      for (Map.Entry<Long, ArrayList<Entity>> entry : areas.entrySet()) {
+        long key = entry.getKey();
+        int areaX = (int) (key >> 32), areaZ = (int) key;
+        if (areaX >= region.minAreaX && areaX <= region.maxAreaX && areaZ >= region.minAreaZ && areaZ <= region.maxAreaZ) {
+          out.addAll(entry.getValue());
+        }
+      }
+    } else {
+      for (int areaX = region.minAreaX; areaX <= region.maxAreaX; areaX++) {
+        for (int areaZ = region.minAreaZ; areaZ <= region.maxAreaZ; areaZ++) {
+          ArrayList<Entity> list = areas.get(key(areaX, areaZ));
+          if (list != null) out.addAll(list);
+        }
+      }
+    }
+  }
+
+  // players whose position is within radius of point
+  public void playersNear(Vector3 point, float radius, List<Player> out) {
+    int minAreaX = CoordinateConverter.area(point.x - radius), maxAreaX = CoordinateConverter.area(point.x + radius);
+    int minAreaZ = CoordinateConverter.area(point.z - radius), maxAreaZ = CoordinateConverter.area(point.z + radius);
+    float radius2 = radius * radius;
+    for (int areaX = minAreaX; areaX <= maxAreaX; areaX++) {
+      for (int areaZ = minAreaZ; areaZ <= maxAreaZ; areaZ++) {
+        ArrayList<Entity> list = areas.get(key(areaX, areaZ));
+        if (list == null) continue;
+        for (Entity entity : list) {
+          if (entity instanceof Player && entity.position.dst2(point) <= radius2) out.add((Player) entity);
+        }
+      }
+    }
+  }
+
   public DataGroup[] getEntitiesForSave(int areaX, int areaZ) {
     try (Locked<WorldLockable> locked = acquireReadLock()) {
       ArrayList<DataGroup> dataGroups = new ArrayList<DataGroup>();
-      for (Entity entity : map.values()) {
-        if (areaX == CoordinateConverter.area(entity.position.x) && areaZ == CoordinateConverter.area(entity.position.z) && !(entity instanceof Player)) {
+      for (Entity entity : inArea(areaX, areaZ)) {
+        if (!(entity instanceof Player)) {
           dataGroups.add(entity.write());
         }
       }
       return dataGroups.size() == 0 ? new DataGroup[0] : dataGroups.toArray(new DataGroup[dataGroups.size()]);
     }
   }
+
+  private void unindex(Entity entity) {
+    if (entity.areaKey == NOT_INDEXED) return;
+    ArrayList<Entity> list = areas.get(entity.areaKey);
+    if (list != null) {
+      list.remove(entity);
+      if (list.isEmpty()) areas.remove(entity.areaKey);
+    }
+    entity.areaKey = NOT_INDEXED;
+  }
+
+  private static long key(int areaX, int areaZ) {
+    return ((long) areaX << 32) | (areaZ & 0xFFFFFFFFL);
+  }
 }
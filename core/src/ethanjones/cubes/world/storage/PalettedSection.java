@@ -0,0 +1,258 @@
+package ethanjones.cubes.world.storage;
+
+import java.util.Arrays;
+
+// Stores the values of one 32x32x32 section of an area.
+//
+// bits == 0       every value in the section is palette[0], no data array
+// bits == 1,2,4,8 data holds indexes into palette, packed into longs (never spanning two longs)
+// bits == DIRECT  values are stored directly in an int[], used once the palette outgrows 8 bits
+//
+// Not thread safe, the owning area must be locked.
+public final class PalettedSection {
+
+  public static final int SIZE = Area.SIZE_BLOCKS_CUBED;
+  public static final int DIRECT = 32;
+  private static final int MAX_PALETTE_BITS = 8;
+
+  private int bits;
+  private int[] palette;
+  private int paletteSize;
+  private long[] data;
+  private int[] direct;
+
+  // derived from bits
+  private int indexShift;
+  private int valueMask;
+  private int perLongMask;
+
+  public PalettedSection(int value) {
+    setSingle(value);
+  }
+
+  private PalettedSection(PalettedSection toCopy) {
+    this.bits = toCopy.bits;
+    this.palette = toCopy.palette == null ? null : Arrays.copyOf(toCopy.palette, toCopy.palette.length);
+    this.paletteSize = toCopy.paletteSize;
+    this.data = toCopy.data == null ? null : Arrays.copyOf(toCopy.data, toCopy.data.length);
+    this.direct = toCopy.direct == null ? null : Arrays.copyOf(toCopy.direct, toCopy.direct.length);
+    this.indexShift = toCopy.indexShift;
+    this.valueMask = toCopy.valueMask;
+    this.perLongMask = toCopy.perLongMask;
+  }
+
+  public int get(int i) {
+    if (bits == 0) return palette[0];
+    if (bits == DIRECT) return direct[i];
+    long l = data[i >>> indexShift];
+    return palette[(int) (l >>> ((i & perLongMask) * bits)) & valueMask];
+  }
+
+  public int set(int i, int value) {
+    if (bits == DIRECT) {
+      int old = direct[i];
+      direct[i] = value;
+      return old;
+    }
+    int old = get(i);
+    if (old == value) return old;
+
+    int index = paletteIndex(value);
+    if (index == -1) {
+      if (paletteSize < (1 << bits)) {
+        index = addToPalette(value);
+      } else {
+        grow();
+        if (bits == DIRECT) {
+          direct[i] = value;
+          return old;
+        }
+        index = addToPalette(value);
+      }
+    }
+    setIndex(i, index);
+    return old;
+  }
+
+  // from inclusive, to exclusive
+  public void fill(int from, int to, int value) {
+    if (from <= 0 && to >= SIZE) {
+      setSingle(value);
+      return;
+    }
+    if (bits == 0 && palette[0] == value) return;
+    if (bits == DIRECT) {
+      Arrays.fill(direct, from, to, value);
+      return;
+    }
+    for (int i = from; i < to; i++) {
+      set(i, value);
+    }
+  }
+
+  // copies length values starting at from into values starting at offset
+  public void get(int from, int[] values, int offset, int length) {
+    if (bits == 0) {
+      Arrays.fill(values, offset, offset + length, palette[0]);
+    } else if (bits == DIRECT) {
+      System.arraycopy(direct, from, values, offset, length);
+    } else {
+      // unpack each long once
+      for (int i = from, end = from + length; i < end; ) {
+        long l = data[i >>> indexShift] >>> ((i & perLongMask) * bits);
+        int longEnd = Math.min(end, (i | perLongMask) + 1);
+        for (; i < longEnd; i++) {
+          values[offset++] = palette[(int) l & valueMask];
+          l >>>= bits;
+        }
+      }
+    }
+  }
+
+  // writes the low 8 bits of every value
+  public void getAll(byte[] values) {
+    if (bits == 0) {
+      Arrays.fill(values, 0, SIZE, (byte) palette[0]);
+      return;
+    }
+    for (int i = 0; i < SIZE; i++) {
+      values[i] = (byte) get(i);
+    }
+  }
+
+  // replaces every value, bytes are read as unsigned
+  public void setAll(byte[] values) {
+    int first = values[0] & 0xFF;
+    setSingle(first);
+    for (int i = 1; i < SIZE; i++) {
+      if ((values[i] & 0xFF) != first) set(i, values[i] & 0xFF);
+    }
+  }
+
+  public boolean isSingle() {
+    return bits == 0;
+  }
+
+  // only valid if isSingle()
+  public int singleValue() {
+    return palette[0];
+  }
+
+  public int bits() {
+    return bits;
+  }
+
+  public boolean contains(int value) {
+    if (bits == DIRECT) {
+      for (int v : direct) {
+        if (v == value) return true;
+      }
+      return false;
+    }
+    if (paletteIndex(value) == -1) return false;
+    if (bits == 0) return true;
+    for (int i = 0; i < SIZE; i++) {
+      if (get(i) == value) return true;
+    }
+    return false;
+  }
+
+  public boolean containsOnly(int value) {
+    if (bits == 0) return palette[0] == value;
+    for (int i = 0; i < SIZE; i++) {
+      if (get(i) != value) return false;
+    }
+    return true;
+  }
+
+  public PalettedSection copy() {
+    return new PalettedSection(this);
+  }
+
+  // rebuilds the palette from the values in use, dropping stale entries and using the smallest bit width
+  public void compact() {
+    if (bits == 0) return;
+
+    int[] values = new int[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      values[i] = get(i);
+    }
+
+    setSingle(values[0]);
+    for (int i = 1; i < SIZE; i++) {
+      set(i, values[i]);
+    }
+  }
+
+  public int sizeInBytes() {
+    int size = 32;
+    if (palette != null) size += palette.length * 4;
+    if (data != null) size += data.length * 8;
+    if (direct != null) size += direct.length * 4;
+    return size;
+  }
+
+  private void setSingle(int value) {
+    bits = 0;
+    palette = new int[]{value};
+    paletteSize = 1;
+    data = null;
+    direct = null;
+  }
+
+  private int paletteIndex(int value) {
+    for (int i = 0; i < paletteSize; i++) {
+      if (palette[i] == value) return i;
+    }
+    return -1;
+  }
+
+  private int addToPalette(int value) {
+    if (paletteSize == palette.length) palette = Arrays.copyOf(palette, Math.min(palette.length * 2, 1 << bits));
+    palette[paletteSize] = value;
+    return paletteSize++;
+  }
+
+  private void setIndex(int i, int index) {
+    int l = i >>> indexShift;
+    int shift = (i & perLongMask) * bits;
+    data[l] = (data[l] & ~(((long) valueMask) << shift)) | (((long) index) << shift);
+  }
+
+  private void grow() {
+    int newBits = bits == 0 ? 1 : bits * 2;
+    if (newBits > MAX_PALETTE_BITS) {
+      int[] values = new int[SIZE];
+      for (int i = 0; i < SIZE; i++) {
+        values[i] = get(i);
+      }
+      bits = DIRECT;
+      direct = values;
+      data = null;
+      palette = null;
+      paletteSize = 0;
+      return;
+    }
+
+    int oldBits = bits;
+    long[] oldData = data;
+    int oldIndexShift = indexShift, oldValueMask = valueMask, oldPerLongMask = perLongMask;
+
+    setBits(newBits);
+    data = new long[SIZE >>> indexShift];
+    if (oldBits != 0) {
+      for (int i = 0; i < SIZE; i++) {
+        int index = (int) (oldData[i >>> oldIndexShift] >>> ((i & oldPerLongMask) * oldBits)) & oldValueMask;
+        if (index != 0) setIndex(i, index);
+      }
+    }
+  }
+
+  private void setBits(int bits) {
+    this.bits = bits;
+    int perLong = 64 / bits;
+    this.indexShift = Integer.numberOfTrailingZeros(perLong);
+    this.perLongMask = perLong - 1;
+    this.valueMask = (1 << bits) - 1;
+  }
+}
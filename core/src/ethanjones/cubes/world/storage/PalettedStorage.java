@@ -0,0 +1,86 @@
+package ethanjones.cubes.world.storage;
+
+import static ethanjones.cubes.world.storage.Area.SIZE_BLOCKS_CUBED;
+
+// A column of PalettedSections addressed with the same refs as Area.getRef
+// Not thread safe, the owning area must be locked.
+public final class PalettedStorage {
+
+  public static final int SECTION_SHIFT = Integer.numberOfTrailingZeros(SIZE_BLOCKS_CUBED);
+  public static final int SECTION_MASK = SIZE_BLOCKS_CUBED - 1;
+
+  private final PalettedSection[] sections;
+
+  public PalettedStorage(int height, int value) {
+    sections = new PalettedSection[height];
+    for (int i = 0; i < height; i++) {
+      sections[i] = new PalettedSection(value);
+    }
+  }
+
+  private PalettedStorage(PalettedSection[] sections) {
+    this.sections = sections;
+  }
+
+  public int get(int ref) {
+    return sections[ref >> SECTION_SHIFT].get(ref & SECTION_MASK);
+  }
+
+  public int set(int ref, int value) {
+    return sections[ref >> SECTION_SHIFT].set(ref & SECTION_MASK, value);
+  }
+
+  // from inclusive, to exclusive
+  public void fill(int from, int to, int value) {
+    while (from < to) {
+      int section = from >> SECTION_SHIFT;
+      int sectionEnd = Math.min(to, (section + 1) << SECTION_SHIFT);
+      sections[section].fill(from & SECTION_MASK, sectionEnd - (section << SECTION_SHIFT), value);
+      from = sectionEnd;
+    }
+  }
+
+  public PalettedSection section(int ySection) {
+    return sections[ySection];
+  }
+
+  public int height() {
+    return sections.length;
+  }
+
+  public int length() {
+    return sections.length * SIZE_BLOCKS_CUBED;
+  }
+
+  // existing sections are shared with the returned storage, new sections are filled with value
+  public PalettedStorage resize(int height, int value) {
+    PalettedSection[] s = new PalettedSection[height];
+    System.arraycopy(sections, 0, s, 0, Math.min(height, sections.length));
+    for (int i = sections.length; i < height; i++) {
+      s[i] = new PalettedSection(value);
+    }
+    return new PalettedStorage(s);
+  }
+
+  public PalettedStorage copy() {
+    PalettedSection[] s = new PalettedSection[sections.length];
+    for (int i = 0; i < s.length; i++) {
+      s[i] = sections[i].copy();
+    }
+    return new PalettedStorage(s);
+  }
+
+  public void compact() {
+    for (PalettedSection section : sections) {
+      section.compact();
+    }
+  }
+
+  public long sizeInBytes() {
+    long size = 16 + (sections.length * 8);
+    for (PalettedSection section : sections) {
+      size += section.sizeInBytes();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,65 @@
+package ethanjones.cubes.world.thread;
+
+import ethanjones.cubes.world.reference.AreaReference;
+import ethanjones.cubes.world.server.WorldServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One stage of one area, ordered by distance to the closest interested player
+// Shared by every WorldGenerationTask that requests the same area while it is queued or running
+class GenerationJob implements Comparable<GenerationJob> {
+  private static final AtomicLong sequenceCounter = new AtomicLong();
+
+  final WorldServer world;
+  final AreaReference area;
+  final boolean features;
+  final long sequence;
+  final long timeQueued;
+  int priority;
+
+  private final ArrayList<WorldGenerationTask> tasks = new ArrayList<WorldGenerationTask>(1);
+  private boolean finished;
+
+  GenerationJob(WorldServer world, AreaReference area, boolean features) {
+    this.world = world;
+    this.area = area;
+    this.features = features;
+    this.sequence = sequenceCounter.incrementAndGet();
+    this.timeQueued = System.currentTimeMillis();
+  }
+
+  // returns false if the job has already finished
+  synchronized boolean addTask(WorldGenerationTask task) {
+    if (finished) return false;
+    tasks.add(task);
+    return true;
+  }
+
+  // returns the tasks waiting for this job, no more can be added
+  synchronized List<WorldGenerationTask> finish() {
+    finished = true;
+    return tasks;
+  }
+
+  // squared distance in areas, lower is sooner
+  synchronized void updatePriority(AreaReference[] interest) {
+    int p = Integer.MAX_VALUE;
+    for (WorldGenerationTask task : tasks) {
+      if (task.parameter.prioritise != null) p = Math.min(p, task.parameter.prioritise.distance2(area));
+    }
+    for (AreaReference reference : interest) {
+      p = Math.min(p, reference.distance2(area));
+    }
+    priority = p;
+  }
+
+  @Override
+  public int compareTo(GenerationJob o) {
+    if (priority != o.priority) return priority < o.priority ? -1 : 1;
+    // finish areas already generated before starting new ones
+    if (features != o.features) return features ? -1 : 1;
+    return Long.compare(sequence, o.sequence);
+  }
+}
@@ -0,0 +1,47 @@
+package ethanjones.cubes.world.thread;
+
+public class GenerationStatistics {
+  public final int queued;
+  public final int tasks;
+  public final long coalesced;
+  public final long dropped;
+  public final long oldestAgeMS;
+  public final long meanWaitMS;
+  // areas per second, and milliseconds of one thread per area
+  public final float generatePerSecond;
+  public final float generateMeanMS;
+  public final float featuresPerSecond;
+  public final float featuresMeanMS;
+  public final float lightingPerSecond;
+  public final float lightingMeanMS;
+
+  GenerationStatistics(int queued, int tasks, long coalesced, long dropped, long oldestAgeMS, long meanWaitMS, PhaseStatistics generate, PhaseStatistics features, PhaseStatistics lighting) {
+    this.queued = queued;
+    this.tasks = tasks;
+    this.coalesced = coalesced;
+    this.dropped = dropped;
+    this.oldestAgeMS = oldestAgeMS;
+    this.meanWaitMS = meanWaitMS;
+    this.generatePerSecond = generate.perSecond();
+    this.generateMeanMS = generate.meanMS();
+    this.featuresPerSecond = features.perSecond();
+    this.featuresMeanMS = features.meanMS();
+    this.lightingPerSecond = lighting.perSecond();
+    this.lightingMeanMS = lighting.meanMS();
+  }
+
+  // nothing queued and no tasks in progress, the rates are left over from the last generation
+  public boolean isIdle() {
+    return queued == 0 && tasks == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Queued " + queued + " Tasks " + tasks + " Coalesced " + coalesced + " Dropped " + dropped + " Oldest " + oldestAgeMS + "ms Mean Wait " + meanWaitMS + "ms"
+            + " Generate " + rate(generatePerSecond, generateMeanMS) + " Features " + rate(featuresPerSecond, featuresMeanMS) + " Lighting " + rate(lightingPerSecond, lightingMeanMS);
+  }
+
+  private static String rate(float perSecond, float meanMS) {
+    return String.format("%.1f/s (%.2fms)", perSecond, meanMS);
+  }
+}
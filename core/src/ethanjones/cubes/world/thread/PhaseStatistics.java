@@ -0,0 +1,28 @@
+package ethanjones.cubes.world.thread;
+
+import ethanjones.cubes.core.util.PerSecond;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Areas completed by one stage of generation and the time spent on them, summed over every generation thread
+class PhaseStatistics {
+  private final PerSecond rate = new PerSecond(10);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong nanos = new AtomicLong();
+
+  void done(long startNanos) {
+    nanos.addAndGet(System.nanoTime() - startNanos);
+    count.incrementAndGet();
+    rate.tick();
+  }
+
+  // mean over the last 10 seconds
+  float perSecond() {
+    return rate.average();
+  }
+
+  float meanMS() {
+    long c = count.get();
+    return c == 0 ? 0 : nanos.get() / 1000000f / c;
+  }
+}
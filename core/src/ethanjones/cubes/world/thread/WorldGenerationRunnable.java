@@ -3,76 +3,221 @@ package ethanjones.cubes.world.thread;
 import ethanjones.cubes.core.system.CubesException;
 import ethanjones.cubes.side.common.Side;
 import ethanjones.cubes.world.reference.AreaReference;
+import ethanjones.cubes.world.server.WorldServer;
 
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Shared by all generation threads, jobs from every task are run closest to a player first.
+// The features of an area are queued as soon as its 3x3 neighbourhood has been generated.
+// Tasks requesting an area which is already queued or running wait for the existing job, and jobs for areas no player
+// needs anymore are dropped without running.
+// Features and lighting lock the 3x3 neighbourhood of an area, so a features job is only started if no running
+// features job is within two areas of it, otherwise it waits and the thread picks another job.
 public class WorldGenerationRunnable implements Runnable {
-  public LinkedBlockingQueue<WorldGenerationTask> queue = new LinkedBlockingQueue<WorldGenerationTask>();
-  public AtomicReference<WorldGenerationTask> current = new AtomicReference<WorldGenerationTask>();
+  public final CopyOnWriteArrayList<WorldGenerationTask> tasks = new CopyOnWriteArrayList<WorldGenerationTask>();
+  final PriorityBlockingQueue<GenerationJob> queue = new PriorityBlockingQueue<GenerationJob>();
+  private final ConcurrentHashMap<AreaReference, GenerationJob> generateJobs = new ConcurrentHashMap<AreaReference, GenerationJob>();
+  private final ConcurrentHashMap<AreaReference, GenerationJob> featuresJobs = new ConcurrentHashMap<AreaReference, GenerationJob>();
+  private volatile AreaReference[] interest = new AreaReference[0];
+  // features jobs being run and the ones waiting for them to finish, guarded by this
+  private final ArrayList<GenerationJob> running = new ArrayList<GenerationJob>();
+  private final ArrayList<GenerationJob> blocked = new ArrayList<GenerationJob>();
+
+  final AtomicLong coalesced = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+  final AtomicLong started = new AtomicLong();
+  final AtomicLong totalWait = new AtomicLong();
+  final PhaseStatistics generated = new PhaseStatistics();
+  final PhaseStatistics featured = new PhaseStatistics();
+  final PhaseStatistics lit = new PhaseStatistics();
+
+  public void add(WorldGenerationTask task, AreaReference[] interest) {
+    if (task.isEmpty()) {
+      complete(task);
+      return;
+    }
+    tasks.add(task);
+    synchronized (this) {
+      this.interest = interest;
+      for (AreaReference reference : task.generateReferences) {
+        schedule(task, reference.copy(), false);
+      }
+      reprioritise();
+    }
+  }
+
+  private synchronized void schedule(WorldGenerationTask task, AreaReference area, boolean features) {
+    ConcurrentHashMap<AreaReference, GenerationJob> jobs = features ? featuresJobs : generateJobs;
+    GenerationJob job = jobs.get(area);
+    if (job != null && job.world == task.world && job.addTask(task)) {
+      coalesced.incrementAndGet();
+      return;
+    }
+    job = new GenerationJob(task.world, area, features);
+    job.addTask(task);
+    job.updatePriority(interest);
+    jobs.put(area, job);
+    queue.add(job);
+  }
+
+  // priorities can't be changed in place, so queued jobs are removed and added again
+  private synchronized void reprioritise() {
+    ArrayList<GenerationJob> queued = new ArrayList<GenerationJob>(queue.size());
+    queue.drainTo(queued);
+    for (GenerationJob job : queued) {
+      job.updatePriority(interest);
+    }
+    queue.addAll(queued);
+  }
 
   @Override
   public void run() {
     while (!Thread.interrupted()) {
       try {
-        WorldGenerationTask task = queue.peek();
-        while (task == null) {
-          try {
-            Thread.sleep(25);
-          } catch (InterruptedException e) {
-            return;
-          }
-          task = queue.peek();
+        GenerationJob job;
+        try {
+          job = queue.poll(25, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          return;
         }
+        if (job == null) continue;
+        if (job.features && !claim(job)) continue;
+        started.incrementAndGet();
+        totalWait.addAndGet(System.currentTimeMillis() - job.timeQueued);
 
-        if (task.world.isDisposed()) {
-          queue.remove(task);
+        if (job.world.isDisposed()) {
+          (job.features ? featuresJobs : generateJobs).remove(job.area, job);
+          if (job.features) release(job);
+          tasks.removeAll(job.finish());
           continue;
         }
 
-        current.set(task);
-        task.timeStarted.compareAndSet(0, System.currentTimeMillis());
-        AreaReference generate = task.generateQueue.poll();
-        while (generate != null) {
-          int status = WorldTasks.generate(generate, task.world);
-          if (status == 1) { // read from file
-            task.readCounter.incrementAndGet();
-          } else if (status == 2) { // generated
-            task.generateCounter.incrementAndGet();
-          }
-
-          generate = task.generateQueue.poll();
-        }
-
-        task.generationComplete.countDown();
+        int status = -1;
         try {
-          task.generationComplete.await();
-        } catch (InterruptedException e) {
-          return;
+          if (!stillNeeded(job)) {
+            dropped.incrementAndGet();
+          } else if (job.features) {
+            status = WorldTasks.features(job.area, job.world);
+          } else {
+            status = WorldTasks.generate(job.area, job.world);
+          }
+        } finally {
+          if (job.features) release(job);
         }
 
-        AreaReference features = task.featuresQueue.poll();
-        while (features != null) {
-          int status = WorldTasks.features(features, task.world);
-          if (status == 1) { // done features
+        (job.features ? featuresJobs : generateJobs).remove(job.area, job);
+        for (WorldGenerationTask task : job.finish()) {
+          task.timeStarted.compareAndSet(0, System.currentTimeMillis());
+          if (status == -1) {
+            task.droppedCounter.incrementAndGet();
+          } else if (job.features && status == 1) { // done features
             task.featureCounter.incrementAndGet();
+          } else if (!job.features && status == 1) { // read from file
+            task.readCounter.incrementAndGet();
+          } else if (!job.features && status == 2) { // generated
+            task.generateCounter.incrementAndGet();
           }
 
-          features = task.featuresQueue.poll();
-        }
-
-        if (queue.remove(task) && task.parameter.afterCompletion != null) {
-          task.printStatistics();
-          task.parameter.afterCompletion.run();
-          current.compareAndSet(task, null);
+          if (job.features) {
+            task.featuresDone();
+          } else {
+            List<AreaReference> ready = task.generated(job.area);
+            if (ready != null) {
+              for (AreaReference reference : ready) {
+                schedule(task, reference, true);
+              }
+            }
+          }
+          if (task.jobDone()) complete(task);
         }
       } catch (CubesException e) {
         if (e.className.equals(Side.class.getName())) {
+          synchronized (this) {
+            running.clear();
+            blocked.clear();
+          }
           queue.clear();
+          generateJobs.clear();
+          featuresJobs.clear();
+          tasks.clear();
         } else {
           throw e;
         }
       }
     }
   }
+
+  // returns false and holds the job back if the neighbourhood of a running features job overlaps its neighbourhood
+  private synchronized boolean claim(GenerationJob job) {
+    for (GenerationJob other : running) {
+      if (other.world == job.world && Math.abs(other.area.areaX - job.area.areaX) <= 2 && Math.abs(other.area.areaZ - job.area.areaZ) <= 2) {
+        blocked.add(job);
+        return false;
+      }
+    }
+    running.add(job);
+    return true;
+  }
+
+  private synchronized void release(GenerationJob job) {
+    running.remove(job);
+    if (!blocked.isEmpty()) {
+      queue.addAll(blocked);
+      blocked.clear();
+    }
+  }
+
+  // generating an area is needed while any area in its 3x3 neighbourhood should be loaded
+  // features are needed if the area should be loaded and all of its neighbours are still loaded
+  private boolean stillNeeded(GenerationJob job) {
+    WorldServer world = job.world;
+    AreaReference check = new AreaReference();
+    if (job.features) {
+      if (!world.shouldAreaBeLoaded(job.area, WorldTasks.getGenerationAreaFilter())) return false;
+      for (int x = -1; x <= 1; x++) {
+        for (int z = -1; z <= 1; z++) {
+          if (world.map.getArea(job.area.areaX + x, job.area.areaZ + z) == null) return false;
+        }
+      }
+      return true;
+    }
+    for (int x = -1; x <= 1; x++) {
+      for (int z = -1; z <= 1; z++) {
+        check.setFromAreaCoordinates(job.area.areaX + x, job.area.areaZ + z);
+        if (world.shouldAreaBeLoaded(check, WorldTasks.getGenerationAreaFilter())) return true;
+      }
+    }
+    return false;
+  }
+
+  private void complete(WorldGenerationTask task) {
+    tasks.remove(task);
+    if (task.parameter.afterCompletion != null) {
+      task.printStatistics();
+      task.parameter.afterCompletion.run();
+    }
+  }
+
+  public GenerationStatistics getStatistics() {
+    long now = System.currentTimeMillis();
+    long oldest = now;
+    for (GenerationJob job : queue) {
+      oldest = Math.min(oldest, job.timeQueued);
+    }
+    int waiting;
+    synchronized (this) {
+      for (GenerationJob job : blocked) {
+        oldest = Math.min(oldest, job.timeQueued);
+      }
+      waiting = blocked.size();
+    }
+    long s = started.get();
+    return new GenerationStatistics(queue.size() + waiting, tasks.size(), coalesced.get(), dropped.get(), now - oldest, s == 0 ? 0 : totalWait.get() / s, generated, featured, lit);
+  }
 }
@@ -7,14 +7,12 @@ import ethanjones.cubes.world.reference.multi.MultiAreaReference;
 import ethanjones.cubes.world.reference.multi.WorldRegion;
 import ethanjones.cubes.world.server.WorldServer;
 
-import com.badlogic.gdx.math.MathUtils;
-
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -25,14 +23,17 @@ public class WorldGenerationTask implements GenerationTask {
   public final AreaReferenceSet generateReferences;
   public final WorldRequestParameter parameter;
 
-  final ConcurrentLinkedQueue<AreaReference> generateQueue = new ConcurrentLinkedQueue<AreaReference>();
-  final CountDownLatch generationComplete = new CountDownLatch(WorldTasks.GENERATION_THREADS);
-  final ConcurrentLinkedQueue<AreaReference> featuresQueue = new ConcurrentLinkedQueue<AreaReference>();
+  // features area -> number of areas in its 3x3 neighbourhood still to be generated
+  private final Map<AreaReference, AtomicInteger> waitingNeighbours = new HashMap<AreaReference, AtomicInteger>();
+  private final AtomicInteger remaining;
 
   final AtomicLong timeStarted = new AtomicLong(0);
   final AtomicInteger generateCounter = new AtomicInteger(0);
   final AtomicInteger featureCounter = new AtomicInteger(0);
   final AtomicInteger readCounter = new AtomicInteger(0);
+  final AtomicInteger droppedCounter = new AtomicInteger(0);
+  final AtomicInteger doneGenerate = new AtomicInteger(0);
+  final AtomicInteger doneFeatures = new AtomicInteger(0);
 
   private final int generateSize;
   private final int featureSize;
@@ -43,11 +44,12 @@ public class WorldGenerationTask implements GenerationTask {
     this.generateReferences = new AreaReferenceSet();
     this.parameter = parameter != null ? parameter : WorldRequestParameter.DEFAULT;
 
-    generateSize = fillGenerateQueue();
-    featureSize = fillFeaturesQueue();
+    generateSize = fillGenerateReferences();
+    featureSize = fillWaitingNeighbours();
+    remaining = new AtomicInteger(generateSize + featureSize);
   }
 
-  private int fillGenerateQueue() {
+  private int fillGenerateReferences() {
     Set<AreaReference> generate;
     if (this.featuresReferences instanceof WorldRegion) {
       WorldRegion f = (WorldRegion) this.featuresReferences;
@@ -56,40 +58,53 @@ public class WorldGenerationTask implements GenerationTask {
     } else {
       generate = new HashSet<AreaReference>();
       for (AreaReference reference : featuresReferences.getAreaReferences()) {
-        generate.add(reference.copy().offset(0, 1));
-        generate.add(reference.copy().offset(0, -1));
-        generate.add(reference.copy().offset(1, 0));
-        generate.add(reference.copy().offset(1, 1));
-        generate.add(reference.copy().offset(1, -1));
-        generate.add(reference.copy().offset(-1, 0));
-        generate.add(reference.copy().offset(-1, 1));
-        generate.add(reference.copy().offset(-1, -1));
+        for (int x = -1; x <= 1; x++) {
+          for (int z = -1; z <= 1; z++) {
+            generate.add(reference.copy().offset(x, z));
+          }
+        }
       }
     }
     generateReferences.addAll(generate);
+    return generate.size();
+  }
 
-    if (generate.size() >= 50) {
-      //randomize so all threads not waiting for one cave
-      ArrayList<AreaReference> copy = new ArrayList<AreaReference>(generate);
-      while (copy.size() > 0) {
-        generateQueue.add(copy.remove(MathUtils.random.nextInt(copy.size())));
-      }
-    } else {
-      generateQueue.addAll(generate);
+  private int fillWaitingNeighbours() {
+    Set<AreaReference> features = featuresReferences.getAreaReferences();
+    for (AreaReference reference : features) {
+      waitingNeighbours.put(reference.copy(), new AtomicInteger(9));
     }
-    return generate.size();
+    return features.size();
   }
 
-  private int fillFeaturesQueue() {
-    Set<AreaReference> set;
-    if (parameter.prioritise != null) {
-      set = new TreeSet<AreaReference>(parameter.getComparator());
-      set.addAll(featuresReferences.getAreaReferences());
-    } else {
-      set = featuresReferences.getAreaReferences();
+  // returns the areas whose neighbourhood is now completely generated, which can have their features generated
+  List<AreaReference> generated(AreaReference areaReference) {
+    doneGenerate.incrementAndGet();
+    List<AreaReference> ready = null;
+    for (int x = -1; x <= 1; x++) {
+      for (int z = -1; z <= 1; z++) {
+        AreaReference neighbour = areaReference.copy().offset(x, z);
+        AtomicInteger waiting = waitingNeighbours.get(neighbour);
+        if (waiting != null && waiting.decrementAndGet() == 0) {
+          if (ready == null) ready = new ArrayList<AreaReference>(1);
+          ready.add(neighbour);
+        }
+      }
     }
-    featuresQueue.addAll(set);
-    return set.size();
+    return ready;
+  }
+
+  void featuresDone() {
+    doneFeatures.incrementAndGet();
+  }
+
+  // returns true if this was the last job of the task
+  boolean jobDone() {
+    return remaining.decrementAndGet() == 0;
+  }
+
+  boolean isEmpty() {
+    return remaining.get() == 0;
   }
 
   @Override
@@ -104,17 +119,17 @@ public class WorldGenerationTask implements GenerationTask {
 
   @Override
   public int doneGenerate() {
-    return generateSize - generateQueue.size();
+    return doneGenerate.get();
   }
 
   @Override
   public int doneFeatures() {
-    return featureSize - featuresQueue.size();
+    return doneFeatures.get();
   }
 
   public void printStatistics() {
     long now = System.currentTimeMillis();
     long delta = now - timeStarted.get();
-    Log.debug("Generated " + generateCounter.get() + " Read " + readCounter.get() + " Features " + featureCounter.get() + " Total " + generateSize + "," + featureSize + " Time " + delta + "ms");
+    Log.debug("Generated " + generateCounter.get() + " Read " + readCounter.get() + " Features " + featureCounter.get() + " Dropped " + droppedCounter.get() + " Total " + generateSize + "," + featureSize + " Time " + delta + "ms");
   }
 }
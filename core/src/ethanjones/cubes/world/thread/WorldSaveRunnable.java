@@ -4,7 +4,6 @@ import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.system.CubesException;
 import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
-import ethanjones.cubes.world.save.SaveAreaIO;
 import ethanjones.cubes.world.server.WorldServer;
 import ethanjones.cubes.world.storage.Area;
 
@@ -31,7 +30,7 @@ public class WorldSaveRunnable implements Runnable {
         if (!task.save.readOnly) {
           Area area = task.saveQueue.poll();
           while (area != null) {
-            if (SaveAreaIO.write(task.save, area)) {
+            if (task.save.writeArea(area)) {
               int written = task.written.incrementAndGet();
               if (written % 100 == 0) Log.debug("Written " + written + " areas");
             }
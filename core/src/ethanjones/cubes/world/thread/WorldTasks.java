@@ -5,7 +5,10 @@ import ethanjones.cubes.core.event.world.generation.FeaturesEvent;
 import ethanjones.cubes.core.event.world.generation.GenerationEvent;
 import ethanjones.cubes.core.logging.Log;
 import ethanjones.cubes.core.system.ThreadPool;
+import ethanjones.cubes.networking.server.ClientIdentifier;
+import ethanjones.cubes.side.common.Cubes;
 import ethanjones.cubes.side.common.Side;
+import ethanjones.cubes.side.server.CubesServer;
 import ethanjones.cubes.world.light.SunLight;
 import ethanjones.cubes.world.reference.AreaReference;
 import ethanjones.cubes.world.reference.multi.MultiAreaReference;
@@ -16,6 +19,7 @@ import ethanjones.cubes.world.storage.Area;
 import ethanjones.cubes.world.storage.AreaMap;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class WorldTasks {
@@ -27,6 +31,15 @@ public class WorldTasks {
   private static final WorldSaveRunnable save = new WorldSaveRunnable();
   private static final ThreadPool genThreadPool;
   private static final ThreadPool saveThreadPool;
+  private static final LoadedAreaFilter generationAreaFilter = new LoadedAreaFilter() {
+    @Override
+    public boolean load(AreaReference areaReference) {
+      for (WorldGenerationTask task : gen.tasks) {
+        if (task.generateReferences.contains(areaReference)) return true;
+      }
+      return false;
+    }
+  };
 
   static {
     genThreadPool = new ThreadPool("WorldGeneration", gen, GENERATION_THREADS);
@@ -43,10 +56,21 @@ public class WorldTasks {
 
   public static GenerationTask request(WorldServer worldServer, MultiAreaReference references, WorldRequestParameter parameter) {
     WorldGenerationTask generationTask = new WorldGenerationTask(worldServer, references, parameter);
-    gen.queue.add(generationTask);
+    gen.add(generationTask, playerAreas());
     return generationTask;
   }
 
+  private static AreaReference[] playerAreas() {
+    CubesServer server = Cubes.getServer();
+    if (server == null) return new AreaReference[0];
+    List<ClientIdentifier> clients = server.getAllClients();
+    AreaReference[] areas = new AreaReference[clients.size()];
+    for (int i = 0; i < areas.length; i++) {
+      areas[i] = new AreaReference().setFromPositionVector3(clients.get(i).getPlayer().position);
+    }
+    return areas;
+  }
+
   public static void save(Save s, Collection<Area> areas) {
     WorldSaveTask saveTask = new WorldSaveTask(s, areas);
     save.queue.add(saveTask);
@@ -83,10 +107,12 @@ public class WorldTasks {
       return 1;
     }
 
+    long start = System.nanoTime();
     area = new Area(areaReference.areaX, areaReference.areaZ);
     world.getTerrainGenerator().generate(area);
     new GenerationEvent(area, areaReference).post();
     area.modify();
+    gen.generated.done(start);
 
     world.setArea(area);
     return 2;
@@ -99,10 +125,14 @@ public class WorldTasks {
     AtomicReference<Object> features = area.features;
 
     if (features.compareAndSet(null, Thread.currentThread())) {
+      long start = System.nanoTime();
       world.getTerrainGenerator().features(area, world);
       new FeaturesEvent(area, areaReference).post();
       area.initialUpdate();
+      gen.featured.done(start);
+      start = System.nanoTime();
       SunLight.initialSunlight(area);
+      gen.lit.done(start);
       new AreaLoadedEvent(area, areaReference).post();
       return 1;
     }
@@ -110,14 +140,11 @@ public class WorldTasks {
   }
 
   public static LoadedAreaFilter getGenerationAreaFilter() {
-    return new LoadedAreaFilter() {
+    return generationAreaFilter;
+  }
 
-      @Override
-      public boolean load(AreaReference areaReference) {
-        WorldGenerationTask task = gen.current.get();
-        return task != null && task.generateReferences.contains(areaReference);
-      }
-    };
+  public static GenerationStatistics getGenerationStatistics() {
+    return gen.getStatistics();
   }
   
   public static void dispose() {